@@ -11,6 +11,10 @@ import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer as Hyp
 import fiji.plugin.trackmate.features.FeatureFilter as FeatureFilter
 import sys
 import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer as TrackDurationAnalyzer
+from fiji.plugin.trackmate.io import CSVStatsWriter
+from java.io import File
+import os
+import tempfile
    
 # Get currently selected image
 #imp = WindowManager.getCurrentImage()
@@ -105,4 +109,19 @@ displayer.render()
 displayer.refresh()
    
 # Echo results with the logger we set at start:
-model.getLogger().log(str(model))
\ No newline at end of file
+model.getLogger().log(str(model))
+
+#-------------------------
+# Export statistics to CSV
+#-------------------------
+
+# Works headless as well. Use a '.gz' extension to compress the files,
+# and a '.tsv' extension to get tab-separated files.
+folder = tempfile.gettempdir()
+writer = CSVStatsWriter(model,
+    File(os.path.join(folder, 'FakeTracks-spots.csv')),
+    File(os.path.join(folder, 'FakeTracks-edges.csv')),
+    File(os.path.join(folder, 'FakeTracks-tracks.csv')),
+    model.getLogger())
+if not writer.checkInput() or not writer.process():
+    sys.exit(str(writer.getErrorMessage()))
@@ -0,0 +1,406 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Dense storage for the numerical features of a collection of objects, such
+ * as edges or tracks.
+ * <p>
+ * Each object is given a dense <code>int</code> index the first time a
+ * feature value is stored for it, and the values of each feature are stored
+ * in a <code>double[]</code> column indexed by it. Missing values are stored
+ * as {@link Double#NaN} in the column and flagged in a separate
+ * <code>boolean[]</code> column, so that they can be told apart from actual
+ * NaN values.
+ * <p>
+ * Values can be stored concurrently by several threads. A lock is only taken
+ * exclusively when new objects or features are registered, or when the
+ * columns grow.
+ *
+ * @param <K>
+ *            the type of the objects whose features are stored.
+ */
+class FeatureColumns< K >
+{
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Map< K, Integer > indices = new HashMap<>();
+
+	private final List< K > keys = new ArrayList<>();
+
+	private final Map< String, Column > columns = new LinkedHashMap<>();
+
+	private int capacity = INITIAL_CAPACITY;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the index of the specified object, or -1 if no feature value
+	 * was ever stored for it.
+	 */
+	int index( final K key )
+	{
+		lock.readLock().lock();
+		try
+		{
+			final Integer index = indices.get( key );
+			return null == index ? -1 : index.intValue();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of objects indexed in this storage.
+	 */
+	int size()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return keys.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the object with the specified index.
+	 */
+	K key( final int index )
+	{
+		lock.readLock().lock();
+		try
+		{
+			return keys.get( index );
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the column of the specified feature, or
+	 * <code>null</code> if no value was ever stored for this feature. This
+	 * does not copy the values.
+	 */
+	Column column( final String feature )
+	{
+		lock.readLock().lock();
+		try
+		{
+			return columns.get( feature );
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	Double get( final K key, final String feature )
+	{
+		lock.readLock().lock();
+		try
+		{
+			final Integer index = indices.get( key );
+			final Column column = columns.get( feature );
+			if ( null == index || null == column || !column.isSet( index.intValue() ) )
+				return null;
+			return Double.valueOf( column.get( index.intValue() ) );
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns all the feature values stored for the specified object, in a
+	 * new map.
+	 */
+	Map< String, Double > getAll( final K key )
+	{
+		final Map< String, Double > map = new LinkedHashMap<>();
+		lock.readLock().lock();
+		try
+		{
+			final Integer index = indices.get( key );
+			if ( null == index )
+				return map;
+			for ( final String feature : columns.keySet() )
+			{
+				final Column column = columns.get( feature );
+				if ( column.isSet( index.intValue() ) )
+					map.put( feature, Double.valueOf( column.get( index.intValue() ) ) );
+			}
+			return map;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores a feature value. A <code>null</code> value marks the value as
+	 * missing.
+	 */
+	void put( final K key, final String feature, final Double value )
+	{
+		lock.readLock().lock();
+		try
+		{
+			final Integer index = indices.get( key );
+			final Column column = columns.get( feature );
+			if ( null != index && null != column )
+			{
+				column.set( index.intValue(), value );
+				return;
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			final int index = indexFor( key );
+			columnFor( feature ).set( index, value );
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores several feature values for several objects.
+	 *
+	 * @param objects
+	 *            the objects.
+	 * @param n
+	 *            the number of objects to read from the array.
+	 * @param features
+	 *            the features.
+	 * @param values
+	 *            the feature values, indexed by feature then by object.
+	 */
+	void put( final K[] objects, final int n, final List< String > features, final double[][] values )
+	{
+		final int[] index = new int[ n ];
+		final Column[] cols = new Column[ features.size() ];
+
+		lock.readLock().lock();
+		try
+		{
+			if ( lookup( objects, n, features, index, cols ) )
+			{
+				write( index, cols, values );
+				return;
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			for ( int e = 0; e < n; e++ )
+				index[ e ] = indexFor( objects[ e ] );
+			for ( int f = 0; f < cols.length; f++ )
+				cols[ f ] = columnFor( features.get( f ) );
+			write( index, cols, values );
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the values of a feature for several objects. Missing values are
+	 * returned as {@link Double#NaN}.
+	 */
+	void get( final K[] objects, final int n, final String feature, final double[] out )
+	{
+		lock.readLock().lock();
+		try
+		{
+			final Column column = columns.get( feature );
+			for ( int e = 0; e < n; e++ )
+			{
+				final Integer index = indices.get( objects[ e ] );
+				out[ e ] = ( null == index || null == column ) ? Double.NaN : column.get( index.intValue() );
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Fills the specified arrays with the indices and columns of the specified
+	 * objects and features. Returns <code>false</code> if any of them is not
+	 * registered yet. Must be called with the read lock.
+	 */
+	private boolean lookup( final K[] objects, final int n, final List< String > features, final int[] index, final Column[] cols )
+	{
+		for ( int e = 0; e < n; e++ )
+		{
+			final Integer i = indices.get( objects[ e ] );
+			if ( null == i )
+				return false;
+			index[ e ] = i.intValue();
+		}
+		for ( int f = 0; f < cols.length; f++ )
+		{
+			cols[ f ] = columns.get( features.get( f ) );
+			if ( null == cols[ f ] )
+				return false;
+		}
+		return true;
+	}
+
+	private static void write( final int[] index, final Column[] cols, final double[][] values )
+	{
+		for ( int f = 0; f < cols.length; f++ )
+		{
+			final Column column = cols[ f ];
+			final double[] v = values[ f ];
+			for ( int e = 0; e < index.length; e++ )
+				column.set( index[ e ], v[ e ] );
+		}
+	}
+
+	/**
+	 * Must be called with the write lock.
+	 */
+	private int indexFor( final K key )
+	{
+		final Integer index = indices.get( key );
+		if ( null != index )
+			return index.intValue();
+
+		final int newIndex = keys.size();
+		if ( newIndex >= capacity )
+		{
+			capacity = Math.max( 2 * capacity, newIndex + 1 );
+			for ( final Map.Entry< String, Column > entry : columns.entrySet() )
+				entry.setValue( entry.getValue().grow( capacity ) );
+		}
+		keys.add( key );
+		indices.put( key, Integer.valueOf( newIndex ) );
+		return newIndex;
+	}
+
+	/**
+	 * Must be called with the write lock.
+	 */
+	private Column columnFor( final String feature )
+	{
+		Column column = columns.get( feature );
+		if ( null == column )
+		{
+			column = new Column( new double[ 0 ], new boolean[ 0 ] ).grow( capacity );
+			columns.put( feature, column );
+		}
+		return column;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The values of a feature, indexed by object index. A column never
+	 * changes size: when the storage grows, the column is replaced by a
+	 * larger copy.
+	 */
+	static final class Column
+	{
+
+		private final double[] values;
+
+		private final boolean[] set;
+
+		private Column( final double[] values, final boolean[] set )
+		{
+			this.values = values;
+			this.set = set;
+		}
+
+		/**
+		 * Returns the value at the specified index, or {@link Double#NaN} if
+		 * it is missing.
+		 */
+		double get( final int index )
+		{
+			return index < values.length ? values[ index ] : Double.NaN;
+		}
+
+		boolean isSet( final int index )
+		{
+			return index < set.length && set[ index ];
+		}
+
+		/**
+		 * Returns the backing value array. Missing values are
+		 * {@link Double#NaN}.
+		 */
+		double[] values()
+		{
+			return values;
+		}
+
+		private void set( final int index, final Double value )
+		{
+			if ( null == value )
+			{
+				values[ index ] = Double.NaN;
+				set[ index ] = false;
+			}
+			else
+			{
+				set( index, value.doubleValue() );
+			}
+		}
+
+		private void set( final int index, final double value )
+		{
+			values[ index ] = value;
+			set[ index ] = true;
+		}
+
+		private Column grow( final int newCapacity )
+		{
+			final double[] newValues = Arrays.copyOf( values, newCapacity );
+			Arrays.fill( newValues, values.length, newCapacity, Double.NaN );
+			return new Column( newValues, Arrays.copyOf( set, newCapacity ) );
+		}
+	}
+}
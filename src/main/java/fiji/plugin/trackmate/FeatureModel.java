@@ -3,9 +3,9 @@ package fiji.plugin.trackmate;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -34,16 +34,15 @@ public class FeatureModel
 	private final Map< String, Boolean > trackFeatureIsInt = new HashMap< >();
 
 	/**
-	 * Feature storage. We use a Map of Map as a 2D Map. The list maps each
-	 * track to its feature map. The feature map maps each feature to the double
-	 * value for the specified feature.
+	 * Feature storage for tracks. Each track ID is given a dense index, and
+	 * the values of each feature are stored in a <code>double[]</code> column.
 	 */
-	Map< Integer, Map< String, Double >> trackFeatureValues = new ConcurrentHashMap<>();
+	private final FeatureColumns< Integer > trackFeatureValues = new FeatureColumns<>();
 
 	/**
-	 * Feature storage for edges.
+	 * Feature storage for edges, organized as for tracks.
 	 */
-	private final ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double >> edgeFeatureValues = new ConcurrentHashMap<>();
+	private final FeatureColumns< DefaultWeightedEdge > edgeFeatureValues = new FeatureColumns<>();
 
 	private final Collection< String > edgeFeatures = new LinkedHashSet< >();
 
@@ -109,13 +108,16 @@ public class FeatureModel
 		if ( !trackFeatures.contains( trackFeature ) ) { throw new IllegalArgumentException( "Unknown track feature: " + trackFeature ); }
 		final Set< Integer > keys = model.getTrackModel().trackIDs( visibleOnly );
 		final double[] val = new double[ keys.size() ];
+		final FeatureColumns.Column column = trackFeatureValues.column( trackFeature );
+		if ( null == column )
+			return val;
 		int index = 0;
 		for ( final Integer trackID : keys )
 		{
-			final Double tf = getTrackFeature( trackID, trackFeature );
-			if ( null == tf )
+			final int i = trackFeatureValues.index( trackID );
+			if ( i < 0 || !column.isSet( i ) )
 				continue;
-			val[ index++ ] = tf.doubleValue();
+			val[ index++ ] = column.get( i );
 		}
 		return val;
 	}
@@ -143,15 +145,18 @@ public class FeatureModel
 		}
 
 		final double[] val = new double[ nvals ];
+		final FeatureColumns.Column column = edgeFeatureValues.column( edgeFeature );
+		if ( null == column )
+			return val;
 		int index = 0;
 		for ( final Integer trackID : keys )
 		{
 			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
 			{
-				final Double ef = getEdgeFeature( edge, edgeFeature );
-				if ( null == ef )
+				final int i = edgeFeatureValues.index( edge );
+				if ( i < 0 || !column.isSet( i ) )
 					continue;
-				val[ index++ ] = ef.doubleValue();
+				val[ index++ ] = column.get( i );
 			}
 		}
 		return val;
@@ -175,22 +180,86 @@ public class FeatureModel
 	 * @param value
 	 *            the feature value
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
-		{
-			map = new ConcurrentHashMap< >();
-			edgeFeatureValues.put( edge, map );
-		}
-		map.put( feature, value );
+		edgeFeatureValues.put( edge, feature, value );
+	}
+
+	/**
+	 * Stores several numerical features for a batch of edges of this model.
+	 * <p>
+	 * Several threads can store the features of distinct edges concurrently.
+	 *
+	 * @param edges
+	 *            the edges whose features to update.
+	 * @param n
+	 *            the number of edges to read from the array.
+	 * @param features
+	 *            the features.
+	 * @param values
+	 *            the feature values, indexed by feature (in the order of the
+	 *            specified list) then by edge.
+	 */
+	public void putEdgeFeatures( final DefaultWeightedEdge[] edges, final int n, final List< String > features, final double[][] values )
+	{
+		edgeFeatureValues.put( edges, n, features, values );
 	}
 
 	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map ) { return null; }
-		return map.get( featureName );
+		return edgeFeatureValues.get( edge, featureName );
+	}
+
+	/**
+	 * Reads the values of an edge feature for a batch of edges.
+	 *
+	 * @param edges
+	 *            the edges to read.
+	 * @param n
+	 *            the number of edges to read from the array.
+	 * @param feature
+	 *            the feature.
+	 * @param out
+	 *            the array to write the values in. Missing values are written
+	 *            as {@link Double#NaN}.
+	 */
+	public void getEdgeFeatures( final DefaultWeightedEdge[] edges, final int n, final String feature, final double[] out )
+	{
+		edgeFeatureValues.get( edges, n, feature, out );
+	}
+
+	/**
+	 * Returns the index of the specified edge in the columns returned by
+	 * {@link #getEdgeFeatureColumn(String)}, or -1 if no feature value is
+	 * stored for this edge.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @return the edge index.
+	 */
+	public int getEdgeIndex( final DefaultWeightedEdge edge )
+	{
+		return edgeFeatureValues.index( edge );
+	}
+
+	/**
+	 * Returns the values of the specified edge feature for all the edges
+	 * indexed in this model, indexed by {@link #getEdgeIndex(DefaultWeightedEdge)}.
+	 * Missing values are {@link Double#NaN}.
+	 * <p>
+	 * The values are not copied: the returned array must not be modified. It
+	 * may be longer than the number of indexed edges, and does not reflect
+	 * the values stored for edges added after this call.
+	 *
+	 * @param feature
+	 *            the edge feature.
+	 * @return the feature values, or an empty array if no value is stored
+	 *         for this feature.
+	 */
+	public double[] getEdgeFeatureColumn( final String feature )
+	{
+		final FeatureColumns.Column column = edgeFeatureValues.column( feature );
+		return null == column ? new double[ 0 ] : column.values();
 	}
 
 	/**
@@ -402,15 +471,9 @@ public class FeatureModel
 	 * @param value
 	 *            the feature value.
 	 */
-	public synchronized void putTrackFeature( final Integer trackID, final String feature, final Double value )
+	public void putTrackFeature( final Integer trackID, final String feature, final Double value )
 	{
-		Map< String, Double > trackFeatureMap = trackFeatureValues.get( trackID );
-		if ( null == trackFeatureMap )
-		{
-			trackFeatureMap = new HashMap< >( trackFeatures.size() );
-			trackFeatureValues.put( trackID, trackFeatureMap );
-		}
-		trackFeatureMap.put( feature, value );
+		trackFeatureValues.put( trackID, feature, value );
 	}
 
 	/**
@@ -425,8 +488,41 @@ public class FeatureModel
 	 */
 	public Double getTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > valueMap = trackFeatureValues.get( trackID );
-		return valueMap.get( feature );
+		return trackFeatureValues.get( trackID, feature );
+	}
+
+	/**
+	 * Returns the index of the specified track in the columns returned by
+	 * {@link #getTrackFeatureColumn(String)}, or -1 if no feature value is
+	 * stored for this track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the track index.
+	 */
+	public int getTrackIndex( final Integer trackID )
+	{
+		return trackFeatureValues.index( trackID );
+	}
+
+	/**
+	 * Returns the values of the specified track feature for all the tracks
+	 * indexed in this model, indexed by {@link #getTrackIndex(Integer)}.
+	 * Missing values are {@link Double#NaN}.
+	 * <p>
+	 * The values are not copied: the returned array must not be modified. It
+	 * may be longer than the number of indexed tracks, and does not reflect
+	 * the values stored for tracks added after this call.
+	 *
+	 * @param feature
+	 *            the track feature.
+	 * @return the feature values, or an empty array if no value is stored
+	 *         for this feature.
+	 */
+	public double[] getTrackFeatureColumn( final String feature )
+	{
+		final FeatureColumns.Column column = trackFeatureValues.column( feature );
+		return null == column ? new double[ 0 ] : column.values();
 	}
 
 	/**
@@ -438,22 +534,26 @@ public class FeatureModel
 	public Map< String, double[] > getTrackFeatureValues()
 	{
 		final Map< String, double[] > featureValues = new HashMap< >();
-		Double val;
-		final int nTracks = model.getTrackModel().nTracks( false );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		final int[] indices = new int[ trackIDs.size() ];
+		int t = 0;
+		for ( final Integer trackID : trackIDs )
+			indices[ t++ ] = trackFeatureValues.index( trackID );
+
 		for ( final String feature : trackFeatures )
 		{
 			// Make a double array to comply to JFreeChart histograms
 			boolean noDataFlag = true;
-			final double[] values = new double[ nTracks ];
+			final double[] values = new double[ indices.length ];
+			final FeatureColumns.Column column = trackFeatureValues.column( feature );
 			int index = 0;
-			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			for ( final int i : indices )
 			{
-				val = getTrackFeature( trackID, feature );
-				if ( null == val )
+				if ( null == column || i < 0 || !column.isSet( i ) )
 				{
 					continue;
 				}
-				values[ index++ ] = val;
+				values[ index++ ] = column.get( i );
 				noDataFlag = false;
 			}
 
@@ -634,13 +734,15 @@ public class FeatureModel
 	 * STATIC UTILS
 	 */
 
-	private static final < K > void appendFeatureValues( final StringBuilder str, final Map< K, ? extends Map< String, Double >> values )
+	private static final < K > void appendFeatureValues( final StringBuilder str, final FeatureColumns< K > values )
 	{
-		for ( final K key : values.keySet() )
+		final int n = values.size();
+		for ( int i = 0; i < n; i++ )
 		{
+			final K key = values.key( i );
 			final String header = "   - " + key.toString() + ":\n";
 			str.append( header );
-			final Map< String, Double > map = values.get( key );
+			final Map< String, Double > map = values.getAll( key );
 			for ( final String feature : map.keySet() )
 			{
 				str.append( "     - " + feature + " = " + map.get( feature ) + '\n' );
@@ -43,6 +43,9 @@ public class Model
 
 	private final TrackModel trackModel;
 
+	/** Whether tracks are stored in a compact graph. */
+	private final boolean compactGraph;
+
 	// SPOTS
 
 	/** The spots managed by this model. */
@@ -105,6 +108,21 @@ public class Model
 
 	public Model()
 	{
+		this( false );
+	}
+
+	/**
+	 * Creates a new empty model.
+	 *
+	 * @param compactGraph
+	 *            if <code>true</code>, the tracks of this model are stored in
+	 *            a {@link fiji.plugin.trackmate.graph.CompactSpotGraph}, which
+	 *            keeps the links between spots in primitive arrays instead of
+	 *            per-spot edge containers.
+	 */
+	public Model( final boolean compactGraph )
+	{
+		this.compactGraph = compactGraph;
 		featureModel = createFeatureModel();
 		trackModel = createTrackModel();
 	}
@@ -123,7 +141,7 @@ public class Model
 	 */
 	protected TrackModel createTrackModel()
 	{
-		return new TrackModel();
+		return new TrackModel( compactGraph );
 	}
 
 	/**
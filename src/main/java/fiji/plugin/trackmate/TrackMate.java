@@ -8,6 +8,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.scijava.Named;
 import org.scijava.util.VersionUtils;
 
+import fiji.plugin.trackmate.detection.DetectionCache;
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.FramePrefetcher;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
 import fiji.plugin.trackmate.detection.ManualDetectorFactory;
 import fiji.plugin.trackmate.detection.SpotDetector;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
@@ -23,6 +27,7 @@ import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.real.FloatType;
 
 /**
  * <p>
@@ -61,6 +66,12 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 
 	private String name;
 
+	/**
+	 * The cache for detection results. If <code>null</code>, detection
+	 * results are not cached.
+	 */
+	protected DetectionCache detectionCache;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -99,6 +110,34 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 		return settings;
 	}
 
+	/**
+	 * Sets the cache used to store detection results. When a cache is set,
+	 * {@link #execDetection()} reuses the results of frames already processed
+	 * with the same image, interval, detector and detector settings, and only
+	 * runs the detector on the other frames. The same cache instance can be
+	 * shared between several {@link TrackMate} instances, for instance to
+	 * sweep tracker parameters on a single detection.
+	 *
+	 * @param detectionCache
+	 *            the cache to use. If <code>null</code>, detection results are
+	 *            not cached.
+	 */
+	public void setDetectionCache( final DetectionCache detectionCache )
+	{
+		this.detectionCache = detectionCache;
+	}
+
+	/**
+	 * Returns the cache used to store detection results.
+	 *
+	 * @return the detection cache, or <code>null</code> if detection results
+	 *         are not cached.
+	 */
+	public DetectionCache getDetectionCache()
+	{
+		return detectionCache;
+	}
+
 	/*
 	 * PROCESSES
 	 */
@@ -224,6 +263,9 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 	 * the source image and the detectr settings and execute the detection
 	 * process for all the frames set in the {@link Settings} object of the
 	 * target model.
+	 * <p>
+	 * If a {@link DetectionCache} is set, frames found in the cache are not
+	 * processed again, and newly processed frames are added to the cache.
 	 *
 	 * @return true if the whole detection step has executed correctly.
 	 */
@@ -261,6 +303,12 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 
 		factory.setTarget( img, settings.detectorSettings );
 
+		// Detection cache, if any.
+		final DetectionCache cache = detectionCache;
+		final String cacheKey = ( null == cache )
+				? null
+				: DetectionCache.key( settings.imp, interval, factory, settings.detectorSettings );
+
 		final int numFrames = settings.tend - settings.tstart + 1;
 		// Final results holder, for all frames
 		final SpotCollection spots = new SpotCollection();
@@ -288,6 +336,20 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 				+ ( ( threadsPerFrame > 1 ) ? ( threadsPerFrame + " threads" ) : "1 thread" )
 				+ " per frame.\n" );
 
+		/*
+		 * Virtual stacks: read frames ahead of the detection threads, and
+		 * detect on the frames read. Each frame needs its own factory
+		 * instance, targeted at this frame only. Frames are read as float, so
+		 * we only do this for factories known to accept float images.
+		 */
+		final Object targetChannel = settings.detectorSettings.get( DetectorKeys.KEY_TARGET_CHANNEL );
+		final int channel = ( targetChannel instanceof Integer ) ? ( ( Integer ) targetChannel ).intValue() : 0;
+		final FramePrefetcher prefetcher = ( FramePrefetcher.isSupported( settings.imp, img ) && acceptsFloatFrames( factory ) )
+				? new FramePrefetcher( settings.imp, img, settings.tstart, settings.tend, nSimultaneousFrames + 1, channel )
+				: null;
+		if ( null != prefetcher )
+			logger.log( "Reading frames of the virtual stack ahead of detection.\n" );
+
 		final Thread[] threads = SimpleMultiThreading.newThreads( nSimultaneousFrames );
 		final AtomicBoolean ok = new AtomicBoolean( true );
 
@@ -320,22 +382,46 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 					for ( int frame = ai.getAndIncrement(); frame <= settings.tend; frame = ai.getAndIncrement() )
 						try
 						{
-							// Yield detector for target frame
-							final SpotDetector< ? > detector = factory.getDetector( interval, frame );
-							if ( detector instanceof MultiThreaded )
+							// Try the cache first.
+							List< Spot > spotsThisFrame = ( null == cacheKey ) ? null : cache.get( cacheKey, frame );
+							if ( null != spotsThisFrame && null != prefetcher )
+								prefetcher.discard( frame );
+
+							if ( null == spotsThisFrame )
 							{
-								final MultiThreaded md = ( MultiThreaded ) detector;
-								md.setNumThreads( threadsPerFrame );
-							}
+								// Yield detector for target frame
+								final ImgPlus< FloatType > frameImg = ( null == prefetcher ) ? null : prefetcher.take( frame );
+								final SpotDetector< ? > detector;
+								if ( null == frameImg )
+								{
+									detector = factory.getDetector( interval, frame );
+								}
+								else
+								{
+									final SpotDetectorFactory frameFactory = factory.getClass().newInstance();
+									frameFactory.setTarget( frameImg, settings.detectorSettings );
+									detector = frameFactory.getDetector( interval, frame );
+								}
+								if ( detector instanceof MultiThreaded )
+								{
+									final MultiThreaded md = ( MultiThreaded ) detector;
+									md.setNumThreads( threadsPerFrame );
+								}
 
-							if ( wasInterrupted() )
-								return;
+								if ( wasInterrupted() )
+									return;
+
+								// Execute detection
+								if ( !ok.get() || !detector.checkInput() || !detector.process() )
+								{
+									// Fail: exit and report error.
+									ok.set( false );
+									errorMessage = detector.getErrorMessage();
+									return;
+								}
 
-							// Execute detection
-							if ( ok.get() && detector.checkInput() && detector.process() )
-							{
 								// On success, get results.
-								final List< Spot > spotsThisFrame = detector.getResult();
+								spotsThisFrame = detector.getResult();
 
 								/*
 								 * Special case: if we have a single column
@@ -352,43 +438,50 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 									}
 								}
 
-								List< Spot > prunedSpots;
-								if ( settings.roi != null )
-								{
-									prunedSpots = new ArrayList<>();
-									for ( final Spot spot : spotsThisFrame )
-									{
-										if ( settings.roi.contains( (int) Math.round( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] ), (int) Math.round( spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) ) )
-											prunedSpots.add( spot );
-									}
-								}
-								else
-								{
-									prunedSpots = spotsThisFrame;
-								}
-								// Add detection feature other than position
-								for ( final Spot spot : prunedSpots )
+								if ( null != cacheKey )
+									cache.put( cacheKey, frame, spotsThisFrame );
+							}
+
+							List< Spot > prunedSpots;
+							if ( settings.roi != null )
+							{
+								prunedSpots = new ArrayList<>();
+								for ( final Spot spot : spotsThisFrame )
 								{
-									// FRAME will be set upon adding to
-									// SpotCollection.
-									spot.putFeature( Spot.POSITION_T, frame * settings.dt );
+									if ( settings.roi.contains( (int) Math.round( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] ), (int) Math.round( spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) ) )
+										prunedSpots.add( spot );
 								}
-								// Store final results for this frame
-								spots.put( frame, prunedSpots );
-								// Report
-								spotFound.addAndGet( prunedSpots.size() );
-								logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
-
 							}
 							else
 							{
-								// Fail: exit and report error.
-								ok.set( false );
-								errorMessage = detector.getErrorMessage();
-								return;
+								prunedSpots = spotsThisFrame;
 							}
+							// Add detection feature other than position
+							for ( final Spot spot : prunedSpots )
+							{
+								// FRAME will be set upon adding to
+								// SpotCollection.
+								spot.putFeature( Spot.POSITION_T, frame * settings.dt );
+							}
+							// Store final results for this frame
+							spots.put( frame, prunedSpots );
+							// Report
+							spotFound.addAndGet( prunedSpots.size() );
+							logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
 
 						}
+						catch ( final InterruptedException e )
+						{
+							ok.set( false );
+							errorMessage = "Detection interrupted while reading frame " + frame + ".\n";
+							return;
+						}
+						catch ( final InstantiationException | IllegalAccessException e )
+						{
+							ok.set( false );
+							errorMessage = "Could not create a detector factory for frame " + frame + ": " + e.getMessage() + "\n";
+							return;
+						}
 						catch ( final RuntimeException e )
 						{
 							final Throwable cause = e.getCause();
@@ -402,6 +495,8 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 		logger.setStatus( "Detection..." );
 		logger.setProgress( 0 );
 
+		if ( null != prefetcher )
+			prefetcher.start();
 		try
 		{
 			SimpleMultiThreading.startAndJoin( threads );
@@ -432,6 +527,16 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 				throw e;
 			}
 		}
+		finally
+		{
+			if ( null != prefetcher )
+			{
+				prefetcher.stop();
+				if ( null != prefetcher.getFailure() )
+					logger.error( "Reading frames ahead of detection was abandoned after an error: "
+							+ prefetcher.getFailure().getMessage() + "\nRemaining frames were read by the detection threads.\n" );
+			}
+		}
 		model.setSpots( spots, true );
 
 		if ( ok.get() )
@@ -527,17 +632,28 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 			logger.log( "Starting track filtering process.\n" );
 		}
 
+		// Fetch feature columns once. Missing values are NaN and pass filters.
+		final FeatureModel fm = model.getFeatureModel();
+		final List< FeatureFilter > filters = settings.getTrackFilters();
+		final double[][] columns = new double[ filters.size() ][];
+		for ( int f = 0; f < columns.length; f++ )
+			columns[ f ] = fm.getTrackFeatureColumn( filters.get( f ).feature );
+
 		model.beginUpdate();
 		try
 		{
 			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
 			{
+				final int index = fm.getTrackIndex( trackID );
 				boolean trackIsOk = true;
-				for ( final FeatureFilter filter : settings.getTrackFilters() )
+				for ( int f = 0; f < columns.length; f++ )
 				{
-					final Double tval = filter.value;
-					final Double val = model.getFeatureModel().getTrackFeature( trackID, filter.feature );
-					if ( null == val )
+					final FeatureFilter filter = filters.get( f );
+					final double tval = filter.value.doubleValue();
+					if ( index < 0 || index >= columns[ f ].length )
+						continue;
+					final double val = columns[ f ][ index ];
+					if ( Double.isNaN( val ) )
 						continue;
 
 					if ( filter.isAbove )
@@ -573,6 +689,27 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named
 		return name;
 	}
 
+	/**
+	 * Returns <code>true</code> if the specified factory can be targeted at
+	 * the float frames read by a {@link FramePrefetcher}: it must be a
+	 * {@link LogDetectorFactory}, which includes the DoG detector, and new
+	 * instances of it must be created with its no-argument constructor.
+	 */
+	private static boolean acceptsFloatFrames( final SpotDetectorFactory< ? > factory )
+	{
+		if ( !( factory instanceof LogDetectorFactory ) )
+			return false;
+		try
+		{
+			factory.getClass().newInstance();
+			return true;
+		}
+		catch ( final InstantiationException | IllegalAccessException | RuntimeException e )
+		{
+			return false;
+		}
+	}
+
 	/*
 	 * ALGORITHM METHODS
 	 */
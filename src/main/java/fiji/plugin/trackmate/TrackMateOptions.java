@@ -25,8 +25,38 @@ public class TrackMateOptions extends OptionsPlugin
 			choices = { "Turbo", "Jet", "Viridis", "Algae", "Amp", "Balance", "Curl", "Deep", "Delta", "Dense", "Gray", "Haline", "Ice", "Matter", "Oxy", "Phase", "Solar", "Speed", "Tempo", "Thermal", "Turbid" }  )
 	private String lutChoice = "Jet";
 
+	@Parameter(
+			label = "Cache detection results",
+			description = "Reuse detection results when detection is run again with the same image and settings." )
+	private boolean useDetectionCache = false;
+
+	@Parameter(
+			label = "Save detection cache next to image",
+			description = "Also write the detection cache to a folder next to the image file." )
+	private boolean spillDetectionCache = false;
+
+	@Parameter(
+			label = "Update features in background",
+			description = "Recompute features after manual edits on a background thread, so that editing large lineages stays fluid." )
+	private boolean asyncFeatureUpdate = false;
+
 	public InterpolatePaintScale getPaintScale()
 	{
 		return InterpolatePaintScale.getAvailableLUTs().get( lutChoice );
 	}
+
+	public boolean isUseDetectionCache()
+	{
+		return useDetectionCache;
+	}
+
+	public boolean isSpillDetectionCache()
+	{
+		return spillDetectionCache;
+	}
+
+	public boolean isAsyncFeatureUpdate()
+	{
+		return asyncFeatureUpdate;
+	}
 }
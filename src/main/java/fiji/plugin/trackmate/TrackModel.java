@@ -29,10 +29,13 @@ import org.jgrapht.graph.SimpleWeightedGraph;
 import org.jgrapht.traverse.BreadthFirstIterator;
 import org.jgrapht.traverse.DepthFirstIterator;
 import org.jgrapht.traverse.GraphIterator;
+
+import fiji.plugin.trackmate.graph.CompactSpotGraph;
 import fiji.plugin.trackmate.graph.Function1;
 import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborSnapshot;
 import fiji.plugin.trackmate.graph.TimeDirectedSortedDepthFirstIterator;
 import fiji.plugin.trackmate.util.AlphanumComparator;
 import fiji.plugin.trackmate.util.TMUtils;
@@ -56,6 +59,11 @@ public class TrackModel
 
 	private final MyGraphListener mgl;
 
+	/**
+	 * If <code>true</code>, the graph is stored in a {@link CompactSpotGraph}.
+	 */
+	private final boolean compactGraph;
+
 	/*
 	 * TRANSACTION FIELDS
 	 */
@@ -128,13 +136,25 @@ public class TrackModel
 
 	TrackModel()
 	{
-		this( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
+		this( false );
 	}
 
-	private TrackModel( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	/**
+	 * Creates an empty track model.
+	 *
+	 * @param compactGraph
+	 *            if <code>true</code>, the graph of this model is stored in a
+	 *            {@link CompactSpotGraph}, which keeps the links between spots
+	 *            in primitive arrays. Edges are still one object each, and
+	 *            the track bookkeeping of this model is unchanged. Graphs
+	 *            passed to {@link #from(SimpleWeightedGraph, Map, Map, Map, Map)}
+	 *            are used as is.
+	 */
+	TrackModel( final boolean compactGraph )
 	{
+		this.compactGraph = compactGraph;
 		this.mgl = new MyGraphListener();
-		setGraph( graph );
+		setGraph( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
 	}
 
 	/*
@@ -146,6 +166,9 @@ public class TrackModel
 	 * Clears the content of this model and replace it by the tracks found by
 	 * inspecting the specified graph. All new tracks found will be made visible
 	 * and will be given a default name.
+	 * <p>
+	 * If this model uses a {@link CompactSpotGraph}, the specified graph is
+	 * copied into one, and the edges of this model are new instances.
 	 *
 	 * @param graph
 	 *            the graph to parse for tracks.
@@ -156,9 +179,10 @@ public class TrackModel
 		{
 			this.graph.removeGraphListener( mgl );
 		}
-		this.graph = new DefaultListenableGraph< >( graph );
+		final Graph< Spot, DefaultWeightedEdge > lGraph = compactGraph ? new CompactSpotGraph( graph ) : graph;
+		this.graph = new DefaultListenableGraph< >( lGraph );
 		this.graph.addGraphListener( mgl );
-		init( graph );
+		init( lGraph );
 	}
 
 	/**
@@ -781,6 +805,19 @@ public class TrackModel
 		return new TimeDirectedNeighborIndex( graph );
 	}
 
+	/**
+	 * Returns an immutable snapshot of the predecessors and successors in time
+	 * of all the spots in this model. Unlike the index returned by
+	 * {@link #getDirectedNeighborIndex()}, it is not updated when the model
+	 * changes, but is faster to query and can be shared by several threads.
+	 *
+	 * @return a new {@link TimeDirectedNeighborSnapshot}.
+	 */
+	public TimeDirectedNeighborSnapshot getDirectedNeighborSnapshot()
+	{
+		return TimeDirectedNeighborSnapshot.create( this, Runtime.getRuntime().availableProcessors() );
+	}
+
 	/**
 	 * Returns the shortest path between two connected spot, using Dijkstra's
 	 * algorithm. The edge weights, if any, are ignored here, meaning that the
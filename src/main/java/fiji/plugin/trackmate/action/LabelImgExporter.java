@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate.action;
 
 import java.awt.Component;
+import java.awt.Frame;
+import java.io.File;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -12,14 +14,19 @@ import org.scijava.plugin.Plugin;
 import fiji.plugin.trackmate.LoadTrackMatePlugIn_;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
+import fiji.plugin.trackmate.io.IOUtils;
 import fiji.plugin.trackmate.util.SpotNeighborhood;
 import fiji.plugin.trackmate.util.TMUtils;
+import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
 import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
@@ -28,8 +35,15 @@ import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgFactory;
 import net.imglib2.meta.view.HyperSliceImgPlus;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
@@ -47,7 +61,11 @@ public class LabelImgExporter extends AbstractTMAction
 			+ "Spots that do not belong to tracks are painted with a unique integer "
 			+ "larger than the last trackID in the dataset. "
 			+ "<p> "
-			+ "Only visible spots are painted. "
+			+ "Only visible spots are painted. If there are more than 65535 labels, "
+			+ "a 32-bit image is generated instead. "
+			+ "<p> "
+			+ "For large movies, each frame can be saved to a separate TIFF file "
+			+ "instead, so that only a few frames are held in memory at once. "
 			+ "</html>";
 
 	public static final String KEY = "EXPORT_LABEL_IMG";
@@ -56,6 +74,12 @@ public class LabelImgExporter extends AbstractTMAction
 
 	public static final String NAME = "Export label image";
 
+	/** Largest label that can be stored in a 16-bit image. */
+	private static final int MAX_16_BIT_LABEL = 65535;
+
+	/** Largest label that can be stored exactly in a 32-bit float image. */
+	private static final int MAX_FLOAT_LABEL = 1 << 24;
+
 	/**
 	 * Parent component to display the dialog.
 	 */
@@ -75,6 +99,7 @@ public class LabelImgExporter extends AbstractTMAction
 
 		final boolean exportSpotsAsDots;
 		final boolean exportTracksOnly;
+		final boolean saveFrames;
 		if ( gui != null )
 		{
 			final LabelImgExporterPanel panel = new LabelImgExporterPanel();
@@ -91,17 +116,31 @@ public class LabelImgExporter extends AbstractTMAction
 
 			exportSpotsAsDots = panel.isExportSpotsAsDots();
 			exportTracksOnly = panel.isExportTracksOnly();
+			saveFrames = panel.isSaveFrames();
 		}
 		else
 		{
 			exportSpotsAsDots = false;
 			exportTracksOnly = false;
+			saveFrames = false;
 		}
 
 		/*
 		 * Generate label image.
 		 */
 
+		if ( saveFrames )
+		{
+			final Settings settings = trackmate.getSettings();
+			final File folder = IOUtils.askForFolder( new File( settings.imageFolder, settings.imageFileName ),
+					"Folder to save label frames", ( gui instanceof Frame ) ? ( Frame ) gui : null, logger );
+			if ( null == folder )
+				return;
+
+			saveLabelImgFrames( trackmate.getModel(), settings.imp, folder, exportSpotsAsDots, exportTracksOnly, logger );
+			return;
+		}
+
 		createLabelImagePlus( trackmate, exportSpotsAsDots, exportTracksOnly, logger ).show();
 	}
 
@@ -239,7 +278,7 @@ public class LabelImgExporter extends AbstractTMAction
 		final int[] dimensions = imp.getDimensions();
 		final int[] dims = new int[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], dimensions[ 4 ] };
 
-		final ImagePlus lblImp = createLabelImagePlus( model, dims, exportSpotsAsDots, exportTracksOnly, logger );
+		final ImagePlus lblImp = createLabelImagePlus( model, dims, TMUtils.getSpatialCalibration( imp ), exportSpotsAsDots, exportTracksOnly, logger );
 		lblImp.setCalibration( imp.getCalibration().copy() );
 		lblImp.setTitle( "LblImg_" + imp.getTitle() );
 		return lblImp;
@@ -308,12 +347,58 @@ public class LabelImgExporter extends AbstractTMAction
 			final boolean exportSpotsAsDots,
 			final boolean exportTracksOnly,
 			final Logger logger )
+	{
+		return createLabelImagePlus( model, dimensions, Util.getArrayFromValue( 1., 3 ), exportSpotsAsDots, exportTracksOnly, logger );
+	}
+
+	/**
+	 * Creates a new label {@link ImagePlus} where the spots of the specified
+	 * model are painted as ellipsoids taken from their shape, with their track
+	 * ID as pixel value. The image is 16-bit, or 32-bit if there are more than
+	 * 65535 labels to paint.
+	 *
+	 * @param model
+	 *            the model from which we takes the spots to paint.
+	 * @param dimensions
+	 *            the desired dimensions of the output image (width, height,
+	 *            nZSlices, nFrames) as a 4 element int array. Spots outside
+	 *            these dimensions are ignored.
+	 * @param calibration
+	 *            the pixel sizes in X, Y and Z, used to convert spot
+	 *            coordinates to pixel coordinates.
+	 * @param exportSpotsAsDots
+	 *            if <code>true</code>, spots will be painted as single dots
+	 *            instead of ellipsoids.
+	 * @param exportTracksOnly
+	 *            if <code>true</code>, only the spots belonging to visible
+	 *            tracks will be painted. If <code>false</code>, spots not
+	 *            belonging to a track will be painted with a unique ID,
+	 *            different from the track IDs and different for each spot.
+	 * @param logger
+	 *            a {@link Logger} instance, to report progress of the export
+	 *            process.
+	 *
+	 * @return a new {@link ImagePlus}.
+	 */
+	public static final ImagePlus createLabelImagePlus(
+			final Model model,
+			final int[] dimensions,
+			final double[] calibration,
+			final boolean exportSpotsAsDots,
+			final boolean exportTracksOnly,
+			final Logger logger )
 	{
 		final long[] dims = new long[ 4 ];
 		for ( int d = 0; d < dims.length; d++ )
 			dims[ d ] = dimensions[ d ];
 
-		final ImagePlus lblImp = ImageJFunctions.wrap( createLabelImg( model, dims, exportSpotsAsDots, exportTracksOnly, logger ), "LblImage" );
+		final Labels labels = new Labels( model, dimensions[ 3 ], exportTracksOnly );
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		final ImagePlus lblImp;
+		if ( labels.maxLabel > MAX_16_BIT_LABEL )
+			lblImp = ImageJFunctions.wrap( createLabelImg( model, dims, calibration, labels, exportSpotsAsDots, new UnsignedIntType(), numThreads, logger ), "LblImage" );
+		else
+			lblImp = ImageJFunctions.wrap( createLabelImg( model, dims, calibration, labels, exportSpotsAsDots, new UnsignedShortType(), numThreads, logger ), "LblImage" );
 		lblImp.setDimensions( 1, dimensions[ 2 ], dimensions[ 3 ] );
 		lblImp.setOpenAsHyperStack( true );
 		lblImp.resetDisplayRange();
@@ -382,68 +467,285 @@ public class LabelImgExporter extends AbstractTMAction
 			final boolean exportSpotsAsDots,
 			final boolean exportTracksOnly,
 			final Logger logger )
+	{
+		return createLabelImg( model, dimensions, Util.getArrayFromValue( 1., 3 ), exportSpotsAsDots, exportTracksOnly, new UnsignedShortType(), logger );
+	}
+
+	/**
+	 * Creates a new label {@link Img} where the spots of the specified model
+	 * are painted as ellipsoids taken from their shape, with their track ID as
+	 * pixel value. Frames are painted in parallel.
+	 * <p>
+	 * The pixel type must be able to represent all the labels. Use
+	 * {@link #getMaxLabel(Model, int, boolean)} to pick a 16-bit or a 32-bit
+	 * type.
+	 *
+	 * @param model
+	 *            the model from which we takes the spots to paint.
+	 * @param dimensions
+	 *            the desired dimensions of the output image (width, height,
+	 *            nZSlices, nFrames) as a 4 element int array. Spots outside
+	 *            these dimensions are ignored.
+	 * @param calibration
+	 *            the pixel sizes in X, Y and Z, used to convert spot
+	 *            coordinates to pixel coordinates.
+	 * @param exportSpotsAsDots
+	 *            if <code>true</code>, spots will be painted as single dots
+	 *            instead of ellipsoids.
+	 * @param exportTracksOnly
+	 *            if <code>true</code>, only the spots belonging to visible
+	 *            tracks will be painted. If <code>false</code>, spots not
+	 *            belonging to a track will be painted with a unique ID,
+	 *            different from the track IDs and different for each spot.
+	 * @param type
+	 *            the pixel type of the label image.
+	 * @param logger
+	 *            a {@link Logger} instance, to report progress of the export
+	 *            process.
+	 *
+	 * @return a new {@link Img}.
+	 */
+	public static final < T extends RealType< T > & NativeType< T > > Img< T > createLabelImg(
+			final Model model,
+			final long[] dimensions,
+			final double[] calibration,
+			final boolean exportSpotsAsDots,
+			final boolean exportTracksOnly,
+			final T type,
+			final Logger logger )
+	{
+		final Labels labels = new Labels( model, ( int ) dimensions[ 3 ], exportTracksOnly );
+		return createLabelImg( model, dimensions, calibration, labels, exportSpotsAsDots, type, Runtime.getRuntime().availableProcessors(), logger );
+	}
+
+	/**
+	 * Paints the spots of the specified model in a label image, and saves each
+	 * frame of this label image to a separate TIFF file, named after the
+	 * source image and the frame number. Frames are painted and saved in
+	 * parallel, and are discarded once saved, so that only as many frames as
+	 * there are threads are held in memory at once.
+	 * <p>
+	 * Frames are saved as 16-bit images, or as 32-bit float images if there
+	 * are more than 65535 labels to paint.
+	 *
+	 * @param model
+	 *            the model from which we takes the spots to paint.
+	 * @param imp
+	 *            a source image to read calibration, name and dimension from.
+	 * @param folder
+	 *            the folder to save the frames in.
+	 * @param exportSpotsAsDots
+	 *            if <code>true</code>, spots will be painted as single dots
+	 *            instead of ellipsoids.
+	 * @param exportTracksOnly
+	 *            if <code>true</code>, only the spots belonging to visible
+	 *            tracks will be painted. If <code>false</code>, spots not
+	 *            belonging to a track will be painted with a unique ID,
+	 *            different from the track IDs and different for each spot.
+	 * @param logger
+	 *            a {@link Logger} instance, to report progress of the export
+	 *            process.
+	 * @return <code>true</code> if all the frames could be saved.
+	 */
+	public static final boolean saveLabelImgFrames(
+			final Model model,
+			final ImagePlus imp,
+			final File folder,
+			final boolean exportSpotsAsDots,
+			final boolean exportTracksOnly,
+			final Logger logger )
+	{
+		final int[] dimensions = imp.getDimensions();
+		final int nFrames = dimensions[ 4 ];
+		final long[] frameDims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ] };
+		final double[] calibration = TMUtils.getSpatialCalibration( imp );
+		final Calibration cal = imp.getCalibration().copy();
+		final String baseName = "LblImg_" + ( imp.getShortTitle().isEmpty() ? "frame" : imp.getShortTitle() );
+		final int nDigits = Integer.toString( Math.max( 0, nFrames - 1 ) ).length();
+
+		final Labels labels = new Labels( model, nFrames, exportTracksOnly );
+		final boolean use32Bits = labels.maxLabel > MAX_16_BIT_LABEL;
+		if ( labels.maxLabel > MAX_FLOAT_LABEL )
+			logger.error( "Warning: there are " + labels.maxLabel + " labels, more than can be stored exactly in a 32-bit float image.\n" );
+
+		if ( !folder.isDirectory() && !folder.mkdirs() )
+		{
+			logger.error( "Cannot create folder " + folder + ".\n" );
+			return false;
+		}
+
+		logger.log( "Saving label image frames to " + folder + ".\n" );
+		final StringBuffer errors = new StringBuffer();
+		processFrames( nFrames, Runtime.getRuntime().availableProcessors(), logger, new FrameProcessor()
+		{
+			@Override
+			public void process( final int frame )
+			{
+				final ImagePlus frameImp = use32Bits
+						? paintFrame( model, frame, frameDims, calibration, labels, exportSpotsAsDots, new FloatType() )
+						: paintFrame( model, frame, frameDims, calibration, labels, exportSpotsAsDots, new UnsignedShortType() );
+				frameImp.setCalibration( cal );
+				final String frameStr = String.format( "%0" + nDigits + "d", frame );
+				final File file = new File( folder, baseName + "_t" + frameStr + ".tif" );
+				frameImp.setTitle( file.getName() );
+				if ( !IJ.saveAsTiff( frameImp, file.getAbsolutePath() ) )
+					errors.append( "Could not save frame " + frame + " to " + file + ".\n" );
+			}
+		} );
+
+		if ( errors.length() > 0 )
+		{
+			logger.error( errors.toString() );
+			return false;
+		}
+		logger.log( "Done.\n" );
+		return true;
+	}
+
+	/**
+	 * Returns the largest label that will be painted for the specified model.
+	 *
+	 * @param model
+	 *            the model from which we takes the spots to paint.
+	 * @param nFrames
+	 *            the number of frames to paint.
+	 * @param exportTracksOnly
+	 *            whether spots not belonging to a visible track are painted.
+	 * @return the largest label value.
+	 */
+	public static final int getMaxLabel( final Model model, final int nFrames, final boolean exportTracksOnly )
+	{
+		return new Labels( model, nFrames, exportTracksOnly ).maxLabel;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static final < T extends RealType< T > & NativeType< T > > Img< T > createLabelImg(
+			final Model model,
+			final long[] dimensions,
+			final double[] calibration,
+			final Labels labels,
+			final boolean exportSpotsAsDots,
+			final T type,
+			final int numThreads,
+			final Logger logger )
 	{
 		/*
 		 * Create target image.
 		 */
 		final Dimensions targetSize = FinalDimensions.wrap( dimensions );
-		final Img< UnsignedShortType > lblImg = Util.getArrayOrCellImgFactory( targetSize, new UnsignedShortType() ).create( targetSize );
+		final Img< T > lblImg = Util.getArrayOrCellImgFactory( targetSize, type ).create( targetSize );
 		final AxisType[] axes = new AxisType[] {
 				Axes.X,
 				Axes.Y,
 				Axes.Z,
 				Axes.TIME };
-		final ImgPlus< UnsignedShortType > imgPlus = new ImgPlus<>( lblImg, "LblImg", axes );
+		final double[] cal = new double[] { calibration[ 0 ], calibration[ 1 ], calibration[ 2 ], 1. };
+		final ImgPlus< T > imgPlus = new ImgPlus<>( lblImg, "LblImg", axes, cal );
 
 		/*
-		 * Determine the starting id for spots not in tracks.
-		 */
-
-		int maxTrackID = -1;
-		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
-		if ( null != trackIDs )
-			for ( final Integer trackID : trackIDs )
-				if ( trackID > maxTrackID )
-					maxTrackID = trackID.intValue();
-		final AtomicInteger lonelySpotID = new AtomicInteger( maxTrackID + 2 );
-
-		/*
-		 * Frame by frame iteration.
+		 * Frames are painted in parallel. They do not overlap in the target
+		 * image, and labels do not depend on the painting order.
 		 */
 
 		logger.log( "Writing label image.\n" );
-		for ( int frame = 0; frame < dimensions[ 3 ]; frame++ )
+		processFrames( ( int ) dimensions[ 3 ], numThreads, logger, new FrameProcessor()
 		{
-			final ImgPlus< UnsignedShortType > imgC = HyperSliceImgPlus.fixChannelAxis( imgPlus, 0 );
-			final ImgPlus< UnsignedShortType > imgCT = HyperSliceImgPlus.fixTimeAxis( imgC, frame );
+			@Override
+			public void process( final int frame )
+			{
+				final ImgPlus< T > imgC = HyperSliceImgPlus.fixChannelAxis( imgPlus, 0 );
+				final ImgPlus< T > imgCT = HyperSliceImgPlus.fixTimeAxis( imgC, frame );
+				paintFrame( model, frame, imgCT, labels, exportSpotsAsDots );
+			}
+		} );
+		logger.log( "Done.\n" );
 
-			final SpotWriter spotWriter = exportSpotsAsDots
-					? new SpotAsDotWriter( imgCT )
-					: new SpotSphereWriter( imgCT );
+		return lblImg;
+	}
 
-			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
-			{
-				final int id;
-				final Integer trackID = model.getTrackModel().trackIDOf( spot );
-				if ( null == trackID || !model.getTrackModel().isVisible( trackID ) )
-				{
-					if ( exportTracksOnly )
-						continue;
+	/**
+	 * Paints a single frame in a new 3D image, backed by one array per Z
+	 * slice, and returns it as an {@link ImagePlus} sharing these arrays.
+	 */
+	private static final < T extends RealType< T > & NativeType< T > > ImagePlus paintFrame(
+			final Model model,
+			final int frame,
+			final long[] frameDims,
+			final double[] calibration,
+			final Labels labels,
+			final boolean exportSpotsAsDots,
+			final T type )
+	{
+		final PlanarImg< T, ? > img = new PlanarImgFactory<>( type ).create( frameDims );
+		final AxisType[] axes = new AxisType[] { Axes.X, Axes.Y, Axes.Z };
+		final ImgPlus< T > imgPlus = new ImgPlus<>( img, "LblImg", axes, calibration );
+		paintFrame( model, frame, imgPlus, labels, exportSpotsAsDots );
+
+		final ImageStack stack = new ImageStack( ( int ) frameDims[ 0 ], ( int ) frameDims[ 1 ] );
+		for ( int z = 0; z < img.numSlices(); z++ )
+			stack.addSlice( "", img.getPlane( z ).getCurrentStorageArray() );
+		return new ImagePlus( "LblImg", stack );
+	}
 
-					id = lonelySpotID.getAndIncrement();
-				}
-				else
-				{
-					id = 1 + trackID.intValue();
-				}
+	private static final < T extends RealType< T > > void paintFrame(
+			final Model model,
+			final int frame,
+			final ImgPlus< T > img,
+			final Labels labels,
+			final boolean exportSpotsAsDots )
+	{
+		final SpotWriter spotWriter = exportSpotsAsDots
+				? new SpotAsDotWriter<>( img )
+				: new SpotSphereWriter<>( img );
+
+		int lonelySpotID = labels.firstLonelySpotIDs[ frame ];
+		for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+		{
+			final int id;
+			final Integer trackID = model.getTrackModel().trackIDOf( spot );
+			if ( null == trackID || !model.getTrackModel().isVisible( trackID ) )
+			{
+				if ( labels.exportTracksOnly )
+					continue;
 
-				spotWriter.write( spot, id );
+				id = lonelySpotID++;
 			}
-			logger.setProgress( ( double ) ( 1 + frame ) / dimensions[ 3 ] );
+			else
+			{
+				id = 1 + trackID.intValue();
+			}
+
+			spotWriter.write( spot, id );
 		}
-		logger.log( "Done.\n" );
+	}
 
-		return lblImg;
+	/**
+	 * Runs the specified processor on all frames, on several threads.
+	 */
+	private static final void processFrames( final int nFrames, final int numThreads, final Logger logger, final FrameProcessor processor )
+	{
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nFrames ) ) );
+		for ( int i = 0; i < threads.length; i++ )
+		{
+			threads[ i ] = new Thread( "LabelImgExporter thread " + i )
+			{
+				@Override
+				public void run()
+				{
+					for ( int frame = ai.getAndIncrement(); frame < nFrames; frame = ai.getAndIncrement() )
+					{
+						processor.process( frame );
+						logger.setProgress( ( double ) progress.incrementAndGet() / nFrames );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
 	}
 
 	@Plugin( type = TrackMateActionFactory.class )
@@ -481,6 +783,62 @@ public class LabelImgExporter extends AbstractTMAction
 		}
 	}
 
+	/**
+	 * Interface for classes that process one frame of the label image.
+	 */
+	private static interface FrameProcessor
+	{
+		public void process( int frame );
+	}
+
+	/**
+	 * Determines the labels of the spots not in tracks, frame by frame, so
+	 * that frames can be painted in any order and still get the same labels.
+	 */
+	private static final class Labels
+	{
+
+		private final boolean exportTracksOnly;
+
+		/** The label of the first spot not in a track, for each frame. */
+		private final int[] firstLonelySpotIDs;
+
+		private final int maxLabel;
+
+		public Labels( final Model model, final int nFrames, final boolean exportTracksOnly )
+		{
+			this.exportTracksOnly = exportTracksOnly;
+
+			/*
+			 * Determine the starting id for spots not in tracks.
+			 */
+
+			int maxTrackID = -1;
+			final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+			if ( null != trackIDs )
+				for ( final Integer trackID : trackIDs )
+					if ( trackID > maxTrackID )
+						maxTrackID = trackID.intValue();
+
+			int lonelySpotID = maxTrackID + 2;
+			this.firstLonelySpotIDs = new int[ Math.max( 0, nFrames ) ];
+			for ( int frame = 0; frame < firstLonelySpotIDs.length; frame++ )
+			{
+				firstLonelySpotIDs[ frame ] = lonelySpotID;
+				if ( exportTracksOnly )
+					continue;
+
+				for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+				{
+					final Integer trackID = model.getTrackModel().trackIDOf( spot );
+					if ( null == trackID || !model.getTrackModel().isVisible( trackID ) )
+						lonelySpotID++;
+				}
+			}
+			this.maxLabel = Math.max( maxTrackID + 1, lonelySpotID - 1 );
+		}
+	}
+
 	/**
 	 * Interface for classes that can 'write' a spot into a label image.
 	 */
@@ -489,12 +847,12 @@ public class LabelImgExporter extends AbstractTMAction
 		public void write( Spot spot, int id );
 	}
 
-	private static final class SpotSphereWriter implements SpotWriter
+	private static final class SpotSphereWriter< T extends RealType< T > > implements SpotWriter
 	{
 
-		private final ImgPlus< UnsignedShortType > img;
+		private final ImgPlus< T > img;
 
-		public SpotSphereWriter( final ImgPlus< UnsignedShortType > img )
+		public SpotSphereWriter( final ImgPlus< T > img )
 		{
 			this.img = img;
 		}
@@ -502,22 +860,22 @@ public class LabelImgExporter extends AbstractTMAction
 		@Override
 		public void write( final Spot spot, final int id )
 		{
-			final SpotNeighborhood< UnsignedShortType > neighborhood = new SpotNeighborhood< UnsignedShortType >( spot, img );
-			for ( final UnsignedShortType pixel : neighborhood )
-				pixel.set( id );
+			final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
+			for ( final T pixel : neighborhood )
+				pixel.setReal( id );
 		}
 	}
 
-	private static final class SpotAsDotWriter implements SpotWriter
+	private static final class SpotAsDotWriter< T extends RealType< T > > implements SpotWriter
 	{
 
 		private final double[] calibration;
 
 		private final long[] center;
 
-		private final RandomAccess< UnsignedShortType > ra;
+		private final RandomAccess< T > ra;
 
-		public SpotAsDotWriter( final ImgPlus< UnsignedShortType > img )
+		public SpotAsDotWriter( final ImgPlus< T > img )
 		{
 			this.calibration = TMUtils.getSpatialCalibration( img );
 			this.center = new long[ img.numDimensions() ];
@@ -531,7 +889,7 @@ public class LabelImgExporter extends AbstractTMAction
 				center[ d ] = Math.round( spot.getFeature( Spot.POSITION_FEATURES[ d ] ).doubleValue() / calibration[ d ] );
 
 			ra.setPosition( center );
-			ra.get().set( id );
+			ra.get().setReal( id );
 		}
 	}
 
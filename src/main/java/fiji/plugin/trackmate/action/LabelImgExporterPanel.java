@@ -16,6 +16,8 @@ public class LabelImgExporterPanel extends JPanel
 
 	private final JCheckBox exportTracksOnly;
 
+	private final JCheckBox saveFrames;
+
 	public LabelImgExporterPanel()
 	{
 		final GridBagLayout gridBagLayout = new GridBagLayout();
@@ -34,6 +36,12 @@ public class LabelImgExporterPanel extends JPanel
 		gbc.gridy++;
 		add( exportTracksOnly, gbc );
 
+		saveFrames = new JCheckBox( "Save each frame to a TIFF file", false );
+		saveFrames.setToolTipText( "Paint and save frames one by one instead of "
+				+ "creating the whole label image in memory. Useful for large 3D movies." );
+		gbc.gridy++;
+		add( saveFrames, gbc );
+
 	}
 
 	public boolean isExportSpotsAsDots()
@@ -45,4 +53,9 @@ public class LabelImgExporterPanel extends JPanel
 	{
 		return exportTracksOnly.isSelected();
 	}
+
+	public boolean isSaveFrames()
+	{
+		return saveFrames.isSelected();
+	}
 }
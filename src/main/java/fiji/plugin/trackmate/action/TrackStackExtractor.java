@@ -0,0 +1,411 @@
+package fiji.plugin.trackmate.action;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * Extracts image stacks centered on the spots of several paths at once.
+ * <p>
+ * For each path, a stack is created with one time-point per spot in the path,
+ * all the channels of the source image and either the central slice or a 3D
+ * crop around each spot. Crops are copied frame by frame, on several threads:
+ * each image plane of the source image is read at most once per frame,
+ * however many paths visit this frame. The stack of a path is only allocated
+ * when its first frame is processed.
+ * <p>
+ * If an output folder is set, each stack is saved to a TIFF file in this
+ * folder as soon as it is complete, and is released afterwards.
+ */
+public class TrackStackExtractor implements Algorithm, Benchmark, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MSG = "[TrackStackExtractor] ";
+
+	/**
+	 * By how much we resize the capture window to get a nice border around the
+	 * spot.
+	 */
+	private static final float RESIZE_FACTOR = 1.5f;
+
+	private final Settings settings;
+
+	private final List< List< Spot > > paths;
+
+	private final List< String > names;
+
+	private final double radiusRatio;
+
+	private final boolean do3d;
+
+	private File outputFolder;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	private ImagePlus[] results;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	private String errorMessage;
+
+	/**
+	 * Creates a new extractor.
+	 *
+	 * @param settings
+	 *            the settings to read the source image and frame interval
+	 *            from.
+	 * @param paths
+	 *            the paths to extract a stack for. Each path is a list of
+	 *            spots sorted by time, with at most one spot per frame.
+	 * @param names
+	 *            the names of the stacks, one per path.
+	 * @param radiusRatio
+	 *            the size of the crops, in units of the largest spot radius of
+	 *            each path.
+	 * @param do3d
+	 *            if <code>true</code>, 3D crops are extracted. Otherwise only
+	 *            the slice containing the spot center is.
+	 */
+	public TrackStackExtractor( final Settings settings, final List< List< Spot > > paths, final List< String > names, final double radiusRatio, final boolean do3d )
+	{
+		this.settings = settings;
+		this.paths = paths;
+		this.names = names;
+		this.radiusRatio = radiusRatio;
+		this.do3d = do3d;
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the folder to save the stacks to. If <code>null</code> (the
+	 * default), stacks are kept in memory and returned by
+	 * {@link #getResult()}.
+	 */
+	public void setOutputFolder( final File outputFolder )
+	{
+		this.outputFolder = outputFolder;
+	}
+
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/**
+	 * Returns the extracted stacks, in the order of the paths. Entries are
+	 * <code>null</code> for empty paths and for stacks saved to the output
+	 * folder.
+	 */
+	public List< ImagePlus > getResult()
+	{
+		final List< ImagePlus > list = new ArrayList<>( results.length );
+		for ( final ImagePlus imp : results )
+			list.add( imp );
+		return list;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == settings.imp )
+		{
+			errorMessage = BASE_ERROR_MSG + "The source image is null.\n";
+			return false;
+		}
+		if ( paths.size() != names.size() )
+		{
+			errorMessage = BASE_ERROR_MSG + "Expected one name per path, got " + names.size() + " names for " + paths.size() + " paths.\n";
+			return false;
+		}
+		if ( null != outputFolder && !outputFolder.isDirectory() && !outputFolder.mkdirs() )
+		{
+			errorMessage = BASE_ERROR_MSG + "Cannot create folder " + outputFolder + ".\n";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		final ImagePlus imp = settings.imp;
+		final double[] calibration = TMUtils.getSpatialCalibration( imp );
+		final int nChannels = imp.getNChannels();
+		final int nSlices = imp.getNSlices();
+		final ImageStack source = imp.getStack();
+
+		/*
+		 * Compute target stack sizes, and sort spots by frame.
+		 */
+
+		final Extract[] extracts = new Extract[ paths.size() ];
+		final TreeMap< Integer, List< int[] > > jobs = new TreeMap<>();
+		for ( int p = 0; p < paths.size(); p++ )
+		{
+			final List< Spot > path = paths.get( p );
+			if ( path.isEmpty() )
+				continue;
+
+			double radius = 0.;
+			for ( final Spot spot : path )
+				radius = Math.max( radius, Math.abs( spot.getFeature( Spot.RADIUS ) ) );
+			radius *= radiusRatio;
+
+			final int width = Math.max( 1, ( int ) Math.ceil( 2 * radius * RESIZE_FACTOR / calibration[ 0 ] ) );
+			final int height = Math.max( 1, ( int ) Math.ceil( 2 * radius * RESIZE_FACTOR / calibration[ 1 ] ) );
+			final int depth = do3d ? Math.max( 1, ( int ) Math.ceil( 2 * radius * RESIZE_FACTOR / calibration[ 2 ] ) ) : 1;
+
+			for ( int i = 0; i < path.size(); i++ )
+			{
+				final Spot spot = path.get( i );
+				final Integer frame = Integer.valueOf( spot.getFeature( Spot.FRAME ).intValue() );
+				List< int[] > frameJobs = jobs.get( frame );
+				if ( null == frameJobs )
+				{
+					frameJobs = new ArrayList<>();
+					jobs.put( frame, frameJobs );
+				}
+				frameJobs.add( new int[] { p, i } );
+			}
+			extracts[ p ] = new Extract( path, width, height, depth, nChannels, imp.getBitDepth() );
+		}
+
+		/*
+		 * Copy crops frame by frame.
+		 */
+
+		results = new ImagePlus[ paths.size() ];
+		final StringBuffer errors = new StringBuffer();
+		final List< Map.Entry< Integer, List< int[] > > > frameJobs = new ArrayList<>( jobs.entrySet() );
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, frameJobs.size() ) ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "TrackStackExtractor thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					for ( int f = ai.getAndIncrement(); f < frameJobs.size(); f = ai.getAndIncrement() )
+					{
+						final int frame = frameJobs.get( f ).getKey().intValue();
+
+						// Planes of this frame, read at most once.
+						final ImageProcessor[] planes = new ImageProcessor[ nChannels * nSlices ];
+
+						for ( final int[] job : frameJobs.get( f ).getValue() )
+						{
+							final Extract extract = extracts[ job[ 0 ] ];
+							final Spot spot = paths.get( job[ 0 ] ).get( job[ 1 ] );
+
+							// Compute target coordinates for current spot
+							final int x = ( int ) ( Math.round( ( spot.getFeature( Spot.POSITION_X ) ) / calibration[ 0 ] ) - extract.width / 2 );
+							final int y = ( int ) ( Math.round( ( spot.getFeature( Spot.POSITION_Y ) ) / calibration[ 1 ] ) - extract.height / 2 );
+							int slice = 0;
+							if ( nSlices > 1 )
+							{
+								slice = ( int ) Math.round( spot.getFeature( Spot.POSITION_Z ) / calibration[ 2 ] );
+								if ( slice < 0 )
+									slice = 0;
+								if ( slice >= nSlices )
+									slice = nSlices - 1;
+							}
+
+							for ( int dz = 0; dz < extract.depth; dz++ )
+							{
+								final int z = slice - extract.depth / 2 + dz;
+								if ( z < 0 || z >= nSlices )
+									continue; // Stays black.
+
+								for ( int c = 0; c < nChannels; c++ )
+								{
+									final int pi = c + z * nChannels;
+									if ( null == planes[ pi ] )
+										planes[ pi ] = getPlane( source, imp.getStackIndex( c + 1, z + 1, frame + 1 ) );
+
+									final int targetIndex = 1 + c + nChannels * ( dz + extract.depth * job[ 1 ] );
+									extract.stack().getProcessor( targetIndex ).insert( planes[ pi ], -x, -y );
+								}
+							}
+
+							if ( extract.remaining.decrementAndGet() == 0 )
+								finish( job[ 0 ], extracts, calibration, nChannels, errors );
+						}
+						logger.setProgress( ( double ) progress.incrementAndGet() / frameJobs.size() );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+
+		if ( errors.length() > 0 )
+		{
+			errorMessage = BASE_ERROR_MSG + errors.toString();
+			return false;
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static final ImageProcessor getPlane( final ImageStack source, final int index )
+	{
+		// Virtual stacks read from disk and are not meant to be shared.
+		if ( source.isVirtual() )
+		{
+			synchronized ( source )
+			{
+				return source.getProcessor( index );
+			}
+		}
+		return source.getProcessor( index );
+	}
+
+	/**
+	 * Wraps a complete stack in an {@link ImagePlus}, and saves it if an output
+	 * folder is set. Saved stacks are released.
+	 */
+	private void finish( final int p, final Extract[] extracts, final double[] calibration, final int nChannels, final StringBuffer errors )
+	{
+		final Extract extract = extracts[ p ];
+		final ImagePlus stackTrack = new ImagePlus( names.get( p ), extract.stack() );
+		final Calibration impCal = stackTrack.getCalibration();
+		impCal.setTimeUnit( settings.imp.getCalibration().getTimeUnit() );
+		impCal.setUnit( settings.imp.getCalibration().getUnit() );
+		impCal.pixelWidth = calibration[ 0 ];
+		impCal.pixelHeight = calibration[ 1 ];
+		impCal.pixelDepth = calibration[ 2 ];
+		impCal.frameInterval = settings.dt;
+		stackTrack.setDimensions( nChannels, extract.depth, extract.nspots );
+		stackTrack.setOpenAsHyperStack( true );
+
+		if ( null == outputFolder )
+		{
+			results[ p ] = stackTrack;
+			return;
+		}
+
+		final File file = new File( outputFolder, names.get( p ).replaceAll( "[^\\w.-]", "_" ) + ".tif" );
+		if ( !IJ.saveAsTiff( stackTrack, file.getAbsolutePath() ) )
+			errors.append( "Could not save " + names.get( p ) + " to " + file + ".\n" );
+
+		// All the spots of this path are copied, nothing reads it anymore.
+		extracts[ p ] = null;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Extract
+	{
+
+		private final List< Spot > path;
+
+		private final int width;
+
+		private final int height;
+
+		private final int depth;
+
+		private final int nChannels;
+
+		private final int bitDepth;
+
+		private final int nspots;
+
+		/** Number of spots not copied yet. */
+		private final AtomicInteger remaining;
+
+		/** Created when the first frame of the path is processed. */
+		private ImageStack stack;
+
+		private Extract( final List< Spot > path, final int width, final int height, final int depth, final int nChannels, final int bitDepth )
+		{
+			this.path = path;
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+			this.nChannels = nChannels;
+			this.bitDepth = bitDepth;
+			this.nspots = path.size();
+			this.remaining = new AtomicInteger( nspots );
+		}
+
+		private synchronized ImageStack stack()
+		{
+			if ( null == stack )
+			{
+				stack = ImageStack.create( width, height, nChannels * depth * nspots, bitDepth );
+				for ( int i = 0; i < nspots; i++ )
+				{
+					final String label = path.get( i ).toString();
+					for ( int s = 0; s < nChannels * depth; s++ )
+						stack.setSliceLabel( label, 1 + s + i * nChannels * depth );
+				}
+			}
+			return stack;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package fiji.plugin.trackmate.detection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fiji.plugin.trackmate.Spot;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import net.imglib2.Interval;
+
+/**
+ * A cache for detection results, used by
+ * {@link fiji.plugin.trackmate.TrackMate#execDetection()} to skip the
+ * detection of frames that were already processed with identical inputs.
+ * <p>
+ * Results are keyed by the source image identity, the detection interval, the
+ * detector and a canonical hash of the detector settings, and by the frame.
+ * They are stored in memory as primitive arrays, and optionally spilled to a
+ * folder on disk, so that they can be reused across sessions.
+ * <p>
+ * The cache stores the spots as returned by the detector, before ROI pruning
+ * and before the {@link Spot#POSITION_T} feature is set. Spots returned by
+ * this cache are always new instances, so that the cached results are never
+ * modified by the model they are added to.
+ */
+public class DetectionCache
+{
+
+	/** Extension of the folder created next to the image to spill results. */
+	public static final String SPILL_FOLDER_SUFFIX = ".trackmate-cache";
+
+	private static final String SPILL_FILE_EXTENSION = ".spots";
+
+	private static final int SPILL_FILE_VERSION = 2;
+
+	private final Map< String, CachedFrame > cache = new ConcurrentHashMap<>();
+
+	private final File spillFolder;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new in-memory detection cache.
+	 */
+	public DetectionCache()
+	{
+		this( null );
+	}
+
+	/**
+	 * Creates a new detection cache that also stores its content in the
+	 * specified folder.
+	 *
+	 * @param spillFolder
+	 *            the folder to write cached results to. If <code>null</code>,
+	 *            results are only stored in memory.
+	 */
+	public DetectionCache( final File spillFolder )
+	{
+		this.spillFolder = spillFolder;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the spots cached for the specified key and frame.
+	 *
+	 * @param key
+	 *            the cache key, as returned by
+	 *            {@link #key(ImagePlus, Interval, SpotDetectorFactory, Map)}.
+	 * @param frame
+	 *            the frame.
+	 * @return a new list of new spots, or <code>null</code> if there is
+	 *         nothing in the cache for this key and frame.
+	 */
+	public List< Spot > get( final String key, final int frame )
+	{
+		final String frameKey = frameKey( key, frame );
+		CachedFrame cached = cache.get( frameKey );
+		if ( null == cached && null != spillFolder )
+		{
+			cached = read( new File( spillFolder, frameKey + SPILL_FILE_EXTENSION ) );
+			if ( null != cached )
+				cache.put( frameKey, cached );
+		}
+		if ( null == cached )
+			return null;
+		return cached.toSpots();
+	}
+
+	/**
+	 * Stores the specified spots for the specified key and frame. The spot
+	 * features are copied, so later modifications of the spots are not
+	 * reflected in the cache.
+	 *
+	 * @param key
+	 *            the cache key, as returned by
+	 *            {@link #key(ImagePlus, Interval, SpotDetectorFactory, Map)}.
+	 * @param frame
+	 *            the frame.
+	 * @param spots
+	 *            the spots detected in this frame.
+	 */
+	public void put( final String key, final int frame, final List< Spot > spots )
+	{
+		final String frameKey = frameKey( key, frame );
+		final CachedFrame cached = new CachedFrame( spots );
+		cache.put( frameKey, cached );
+		if ( null != spillFolder )
+			write( new File( spillFolder, frameKey + SPILL_FILE_EXTENSION ), cached );
+	}
+
+	/**
+	 * Removes all the results stored in memory. Results spilled to disk are
+	 * not deleted.
+	 */
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Returns the number of frames stored in memory.
+	 *
+	 * @return the number of frames.
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Returns the folder this cache spills its content to.
+	 *
+	 * @return the folder, or <code>null</code> if this cache is in-memory
+	 *         only.
+	 */
+	public File getSpillFolder()
+	{
+		return spillFolder;
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Returns the default folder to spill results for the specified image,
+	 * next to the image file.
+	 *
+	 * @param imp
+	 *            the source image.
+	 * @return the spill folder, or <code>null</code> if the image is not
+	 *         backed by a file.
+	 */
+	public static File getDefaultSpillFolder( final ImagePlus imp )
+	{
+		final File file = getImageFile( imp );
+		if ( null == file )
+			return null;
+		return new File( file.getParentFile(), file.getName() + SPILL_FOLDER_SUFFIX );
+	}
+
+	/**
+	 * Builds the cache key for a detection run. The key is a hash of the image
+	 * identity, the detection interval, the detector key and the detector
+	 * settings. The detector settings are sorted by key, so that two maps with
+	 * the same content yield the same key.
+	 * <p>
+	 * If the image is backed by a file and has no unsaved changes, its
+	 * identity is made of the file path, size and modification date, so that
+	 * keys are stable across sessions. Otherwise, the image ID of the current
+	 * session is used, together with a checksum of the pixel values, so that
+	 * images edited in place do not return stale results. Unsaved virtual
+	 * stacks are not cached, since computing their checksum would mean
+	 * reading the whole stack. The spatial calibration is part of the key,
+	 * since detectors return spot positions in physical units.
+	 *
+	 * @param imp
+	 *            the source image.
+	 * @param interval
+	 *            the detection interval.
+	 * @param factory
+	 *            the detector factory.
+	 * @param detectorSettings
+	 *            the detector settings.
+	 * @return the cache key, or <code>null</code> if results for this image
+	 *         cannot be cached.
+	 */
+	public static String key( final ImagePlus imp, final Interval interval, final SpotDetectorFactory< ? > factory, final Map< String, Object > detectorSettings )
+	{
+		final StringBuilder str = new StringBuilder();
+
+		// Image identity.
+		final File file = getImageFile( imp );
+		if ( null != file && !imp.changes )
+			str.append( "file=" + file.getAbsolutePath() + ";size=" + file.length() + ";modified=" + file.lastModified() );
+		else if ( imp.getStack().isVirtual() )
+			return null;
+		else
+			str.append( "imp=" + imp.getID() + ";title=" + imp.getTitle() + ";pixels=" + Long.toHexString( checksum( imp ) ) );
+		str.append( ";dims=" + Arrays.toString( imp.getDimensions() ) );
+		final Calibration cal = imp.getCalibration();
+		str.append( ";cal=" + cal.pixelWidth + "," + cal.pixelHeight + "," + cal.pixelDepth );
+
+		// Interval.
+		for ( int d = 0; d < interval.numDimensions(); d++ )
+			str.append( ";d" + d + "=" + interval.min( d ) + ":" + interval.max( d ) );
+
+		// Detector and its settings.
+		str.append( ";detector=" + factory.getKey() );
+		final Map< String, Object > sorted = new TreeMap<>( detectorSettings );
+		for ( final String settingKey : sorted.keySet() )
+		{
+			final Object value = sorted.get( settingKey );
+			str.append( ";" + settingKey + "=" );
+			if ( null == value )
+				str.append( "null" );
+			else if ( value instanceof Object[] )
+				str.append( value.getClass().getName() + ":" + Arrays.deepToString( ( Object[] ) value ) );
+			else
+				str.append( value.getClass().getName() + ":" + value );
+		}
+
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+			final byte[] hash = digest.digest( str.toString().getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder hex = new StringBuilder( 2 * hash.length );
+			for ( final byte b : hash )
+				hex.append( String.format( "%02x", b ) );
+			return hex.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			// SHA-1 is mandatory in all JREs.
+			throw new RuntimeException( e );
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static String frameKey( final String key, final int frame )
+	{
+		return key + "_t" + frame;
+	}
+
+	/**
+	 * Returns a checksum of the pixel values of all the planes of the
+	 * specified image.
+	 */
+	private static long checksum( final ImagePlus imp )
+	{
+		final ImageStack stack = imp.getStack();
+		long hash = 17;
+		for ( int i = 1; i <= stack.getSize(); i++ )
+		{
+			final Object pixels = stack.getPixels( i );
+			if ( pixels instanceof byte[] )
+			{
+				for ( final byte v : ( byte[] ) pixels )
+					hash = 31 * hash + v;
+			}
+			else if ( pixels instanceof short[] )
+			{
+				for ( final short v : ( short[] ) pixels )
+					hash = 31 * hash + v;
+			}
+			else if ( pixels instanceof float[] )
+			{
+				for ( final float v : ( float[] ) pixels )
+					hash = 31 * hash + Float.floatToIntBits( v );
+			}
+			else if ( pixels instanceof int[] )
+			{
+				for ( final int v : ( int[] ) pixels )
+					hash = 31 * hash + v;
+			}
+		}
+		return hash;
+	}
+
+	private static File getImageFile( final ImagePlus imp )
+	{
+		final FileInfo fileInfo = imp.getOriginalFileInfo();
+		if ( null == fileInfo || null == fileInfo.directory || null == fileInfo.fileName )
+			return null;
+		final File file = new File( fileInfo.directory, fileInfo.fileName );
+		if ( !file.exists() )
+			return null;
+		return file;
+	}
+
+	private static void write( final File file, final CachedFrame cached )
+	{
+		final File folder = file.getParentFile();
+		if ( !folder.exists() && !folder.mkdirs() )
+			return;
+
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ))
+		{
+			out.writeInt( SPILL_FILE_VERSION );
+			out.writeInt( cached.nSpots );
+			out.writeInt( cached.features.length );
+			for ( final String feature : cached.features )
+				out.writeUTF( feature );
+			for ( final double value : cached.values )
+				out.writeDouble( value );
+			for ( final boolean present : cached.present )
+				out.writeBoolean( present );
+		}
+		catch ( final IOException e )
+		{
+			// Spilling is a best effort. The results are still in memory.
+			file.delete();
+		}
+	}
+
+	private static CachedFrame read( final File file )
+	{
+		if ( !file.exists() )
+			return null;
+
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+		{
+			if ( in.readInt() != SPILL_FILE_VERSION )
+				return null;
+			final int nSpots = in.readInt();
+			final String[] features = new String[ in.readInt() ];
+			for ( int i = 0; i < features.length; i++ )
+				features[ i ] = in.readUTF();
+			final double[] values = new double[ nSpots * features.length ];
+			for ( int i = 0; i < values.length; i++ )
+				values[ i ] = in.readDouble();
+			final boolean[] present = new boolean[ values.length ];
+			for ( int i = 0; i < present.length; i++ )
+				present[ i ] = in.readBoolean();
+			return new CachedFrame( nSpots, features, values, present );
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * The detection results for one frame, stored as a spot-major array of
+	 * feature values. Since spots may not all have the same features, a mask
+	 * of the same size records which values are set, so that NaN feature
+	 * values are restored as such.
+	 */
+	private static final class CachedFrame
+	{
+
+		private final int nSpots;
+
+		private final String[] features;
+
+		private final double[] values;
+
+		private final boolean[] present;
+
+		private CachedFrame( final int nSpots, final String[] features, final double[] values, final boolean[] present )
+		{
+			this.nSpots = nSpots;
+			this.features = features;
+			this.values = values;
+			this.present = present;
+		}
+
+		private CachedFrame( final List< Spot > spots )
+		{
+			this.nSpots = spots.size();
+			final TreeSet< String > featureNames = new TreeSet<>();
+			for ( final Spot spot : spots )
+				featureNames.addAll( spot.getFeatures().keySet() );
+
+			this.features = featureNames.toArray( new String[ featureNames.size() ] );
+			this.values = new double[ nSpots * features.length ];
+			this.present = new boolean[ values.length ];
+			int index = 0;
+			for ( final Spot spot : spots )
+			{
+				for ( final String feature : features )
+				{
+					final Double val = spot.getFeature( feature );
+					if ( null != val )
+					{
+						values[ index ] = val.doubleValue();
+						present[ index ] = true;
+					}
+					index++;
+				}
+			}
+		}
+
+		private List< Spot > toSpots()
+		{
+			final List< Spot > spots = new ArrayList<>( nSpots );
+			int index = 0;
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				final Spot spot = new Spot( 0., 0., 0., 0., 0. );
+				for ( final String feature : features )
+				{
+					if ( present[ index ] )
+						spot.putFeature( feature, Double.valueOf( values[ index ] ) );
+					index++;
+				}
+				spots.add( spot );
+			}
+			return spots;
+		}
+	}
+}
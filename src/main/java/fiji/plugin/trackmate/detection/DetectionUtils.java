@@ -6,9 +6,11 @@ import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.detection.util.MedianFilter2D;
+import fiji.plugin.trackmate.detection.util.MedianFilter3x3;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
@@ -18,8 +20,6 @@ import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.localextrema.LocalExtrema;
 import net.imglib2.algorithm.localextrema.LocalExtrema.LocalNeighborhoodCheck;
-import net.imglib2.algorithm.localextrema.RefinedPeak;
-import net.imglib2.algorithm.localextrema.SubpixelLocalization;
 import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
@@ -28,16 +28,27 @@ import net.imglib2.img.array.ArrayCursor;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 public class DetectionUtils
 {
 
+	/**
+	 * Maximal number of times a local maximum is moved to a neighbor pixel
+	 * during sub-pixel localization.
+	 */
+	private static final int MAX_NUM_MOVES = 10;
+
+	/** Number of local maxima refined in one go by a thread. */
+	private static final int PEAK_BATCH_SIZE = 256;
+
 	/**
 	 * Creates a laplacian of gaussian (LoG) kernel tuned for blobs with a
 	 * radius specified <b>using calibrated units</b>. The specified calibration
@@ -144,6 +155,68 @@ public class DetectionUtils
 		return output;
 	}
 
+	/**
+	 * Copy an interval of the specified source image on a float image, using
+	 * several threads. The interval is split in slabs along its last
+	 * dimension, and each thread copies a slab.
+	 *
+	 * @param img
+	 *            the source image.
+	 * @param interval
+	 *            the interval in the source image to copy.
+	 * @param factory
+	 *            a factory used to build the float image.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new float Img. Careful: even if the specified interval does not
+	 *         start at (0, 0), the new image will have its first pixel at
+	 *         coordinates (0, 0).
+	 */
+	@SuppressWarnings( "deprecation" )
+	public static final < T extends RealType< T >> Img< FloatType > copyToFloatImg( final RandomAccessible< T > img, final Interval interval, final ImgFactory< FloatType > factory, final int numThreads )
+	{
+		final int last = interval.numDimensions() - 1;
+		final int nSlabs = ( int ) Math.min( numThreads, interval.dimension( last ) );
+		if ( nSlabs < 2 )
+			return copyToFloatImg( img, interval, factory );
+
+		final Img< FloatType > output = factory.create( interval );
+		final long[] min = new long[ interval.numDimensions() ];
+		interval.min( min );
+		final RandomAccessible< T > source = Views.offset( img, min );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( nSlabs );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			final long[] slabMin = new long[ interval.numDimensions() ];
+			final long[] slabMax = new long[ interval.numDimensions() ];
+			for ( int d = 0; d < last; d++ )
+				slabMax[ d ] = interval.dimension( d ) - 1;
+			slabMin[ last ] = interval.dimension( last ) * ithread / nSlabs;
+			slabMax[ last ] = interval.dimension( last ) * ( ithread + 1 ) / nSlabs - 1;
+			final Interval slab = new FinalInterval( slabMin, slabMax );
+
+			threads[ ithread ] = new Thread( "TrackMate copy to float thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< T > in = source.randomAccess();
+					final Cursor< FloatType > out = Views.interval( output, slab ).localizingCursor();
+					final RealFloatConverter< T > c = new RealFloatConverter< >();
+					while ( out.hasNext() )
+					{
+						out.fwd();
+						in.setPosition( out );
+						c.convert( in.get(), out.get() );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+		return output;
+	}
+
 	/**
 	 * Returns a new {@link Interval}, built by squeezing out singleton
 	 * dimensions from the specified interval.
@@ -180,14 +253,133 @@ public class DetectionUtils
 
 	/**
 	 * Apply a simple 3x3 median filter to the target image.
+	 * <p>
+	 * 3D images are filtered plane by plane. Images that fit in a
+	 * <code>float</code> array are filtered with {@link MedianFilter3x3}, the
+	 * other ones with {@link MedianFilter2D}.
+	 *
+	 * @param image
+	 *            the image to filter.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new filtered image, or <code>null</code> if the image could
+	 *         not be filtered.
+	 */
+	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image, final int numThreads )
+	{
+		final long size = Intervals.numElements( image );
+		if ( image.numDimensions() > 3 || size >= Integer.MAX_VALUE )
+		{
+			final MedianFilter2D< R > medFilt = new MedianFilter2D< >( image, 1 );
+			if ( !medFilt.checkInput() || !medFilt.process() ) { return null; }
+			return medFilt.getResult();
+		}
+
+		final long[] dims = new long[ image.numDimensions() ];
+		image.dimensions( dims );
+		final float[] source = new float[ ( int ) size ];
+		final Cursor< R > in = Views.flatIterable( image ).cursor();
+		for ( int i = 0; in.hasNext(); i++ )
+			source[ i ] = in.next().getRealFloat();
+
+		final float[] target = new float[ source.length ];
+		MedianFilter3x3.filter( source, target, dims, false, numThreads );
+
+		final R type = Util.getTypeFromInterval( image ).createVariable();
+		final Img< R > output = Util.getArrayOrCellImgFactory( image, type ).create( image );
+		final Cursor< R > out = Views.flatIterable( output ).cursor();
+		for ( int i = 0; out.hasNext(); i++ )
+			out.next().setReal( target[ i ] );
+		return output;
+	}
+
+	/**
+	 * Applies a 3x3 median filter to a float image, and writes the result in
+	 * this image. Array images are filtered without being copied to another
+	 * image type.
+	 *
+	 * @param img
+	 *            the image to filter. Must be 1D, 2D or 3D.
+	 * @param in3D
+	 *            if <code>true</code>, 3D images are filtered over 3x3x3
+	 *            neighborhoods. Otherwise they are filtered plane by plane.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return <code>true</code> if the image could be filtered.
+	 */
+	public static final boolean applyMedianFilter( final Img< FloatType > img, final boolean in3D, final int numThreads )
+	{
+		final long size = Intervals.numElements( img );
+		if ( img.numDimensions() > 3 || size >= Integer.MAX_VALUE )
+			return false;
+
+		final long[] dims = new long[ img.numDimensions() ];
+		img.dimensions( dims );
+		final float[] data = getFloatArray( img );
+		if ( null != data )
+		{
+			MedianFilter3x3.filter( data.clone(), data, dims, in3D, numThreads );
+			return true;
+		}
+
+		final float[] source = new float[ ( int ) size ];
+		final Cursor< FloatType > in = Views.flatIterable( img ).cursor();
+		for ( int i = 0; in.hasNext(); i++ )
+			source[ i ] = in.next().get();
+		final float[] target = new float[ source.length ];
+		MedianFilter3x3.filter( source, target, dims, in3D, numThreads );
+		final Cursor< FloatType > out = Views.flatIterable( img ).cursor();
+		for ( int i = 0; out.hasNext(); i++ )
+			out.next().set( target[ i ] );
+		return true;
+	}
+
+	/**
+	 * Returns the <code>float</code> array that stores the pixels of the
+	 * specified image, or <code>null</code> if it is not an array image.
 	 */
-	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image )
+	@SuppressWarnings( "unchecked" )
+	private static final float[] getFloatArray( final Img< FloatType > img )
 	{
-		final MedianFilter2D< R > medFilt = new MedianFilter2D< >( image, 1 );
-		if ( !medFilt.checkInput() || !medFilt.process() ) { return null; }
-		return medFilt.getResult();
+		if ( !( img instanceof ArrayImg ) )
+			return null;
+		final Object access = ( ( ArrayImg< FloatType, ? > ) img ).update( null );
+		if ( !( access instanceof FloatArray ) )
+			return null;
+		return ( ( FloatArray ) access ).getCurrentStorageArray();
 	}
 
+	/**
+	 * Finds the local maxima of a filtered image above a threshold, and
+	 * creates a spot at each of them.
+	 * <p>
+	 * If sub-pixel localization is requested, the position of each maximum is
+	 * refined by fitting a quadratic function over its 3<sup>n</sup>
+	 * neighborhood. The fit is solved in closed form from the central
+	 * differences of the image. If the summit of the quadratic function is
+	 * more than half a pixel away, the maximum is moved to the neighbor pixel
+	 * in that direction and fitted again, up to {@link #MAX_NUM_MOVES} times.
+	 * Maxima for which no stable fit is found keep their pixel position.
+	 * Refinement is done in parallel batches, and positions and qualities are
+	 * stored in primitive arrays before spots are created.
+	 *
+	 * @param source
+	 *            the filtered image.
+	 * @param threshold
+	 *            the threshold on the filtered value. Maxima below it are
+	 *            discarded.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @param radius
+	 *            the radius of the spots created.
+	 * @param doSubPixelLocalization
+	 *            whether to refine maxima position.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new list of spots. Their quality is the filtered value at the
+	 *         pixel where the maximum was found.
+	 */
+	@SuppressWarnings( "deprecation" )
 	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads )
 	{
 		/*
@@ -213,119 +405,201 @@ public class DetectionUtils
 
 		if ( peaks.isEmpty() ) { return Collections.emptyList(); }
 
-		final List< Spot > spots;
-		if ( doSubPixelLocalization )
+		/*
+		 * Read quality and refine position of maxima, in batches.
+		 */
+
+		final int n = source.numDimensions();
+		final int nPeaks = peaks.size();
+		final long[] peakPositions = new long[ nPeaks * n ];
+		for ( int i = 0; i < nPeaks; i++ )
+			for ( int d = 0; d < n; d++ )
+				peakPositions[ i * n + d ] = peaks.get( i ).getLongPosition( d );
+
+		final double[] positions = new double[ nPeaks * n ];
+		final double[] qualities = new double[ nPeaks ];
+		final int nBatches = ( nPeaks + PEAK_BATCH_SIZE - 1 ) / PEAK_BATCH_SIZE;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nBatches ) ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
 		{
+			threads[ ithread ] = new Thread( "TrackMate sub-pixel localization thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< FloatType > ra = dogWithBorder.randomAccess();
+					final long[] peak = new long[ n ];
+					final double[] offset = new double[ n ];
+					final double[] gradient = new double[ n ];
+					final double[][] hessian = new double[ n ][ n ];
+					for ( int b = ai.getAndIncrement(); b < nBatches; b = ai.getAndIncrement() )
+					{
+						final int to = Math.min( nPeaks, ( b + 1 ) * PEAK_BATCH_SIZE );
+						for ( int i = b * PEAK_BATCH_SIZE; i < to; i++ )
+						{
+							for ( int d = 0; d < n; d++ )
+								peak[ d ] = peakPositions[ i * n + d ];
+							ra.setPosition( peak );
+							qualities[ i ] = ra.get().getRealDouble();
 
-			/*
-			 * Sub-pixel localize them.
-			 */
+							if ( doSubPixelLocalization && refinePeak( ra, source, peak, gradient, hessian, offset ) )
+							{
+								for ( int d = 0; d < n; d++ )
+									positions[ i * n + d ] = peak[ d ] + offset[ d ];
+							}
+							else
+							{
+								for ( int d = 0; d < n; d++ )
+									positions[ i * n + d ] = peakPositions[ i * n + d ];
+							}
+						}
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
 
-			final SubpixelLocalization< Point, FloatType > spl = new SubpixelLocalization< >( source.numDimensions() );
-			spl.setNumThreads( numThreads );
-			spl.setReturnInvalidPeaks( true );
-			spl.setCanMoveOutside( true );
-			spl.setAllowMaximaTolerance( true );
-			spl.setMaxNumMoves( 10 );
-			final ArrayList< RefinedPeak< Point >> refined = spl.process( peaks, dogWithBorder, source );
+		/*
+		 * Create spots.
+		 */
 
-			spots = new ArrayList< >( refined.size() );
-			final RandomAccess< FloatType > ra = source.randomAccess();
+		final List< Spot > spots = new ArrayList< >( nPeaks );
+		final double[] xyz = new double[ 3 ];
+		for ( int i = 0; i < nPeaks; i++ )
+		{
+			for ( int d = 0; d < n; d++ )
+				xyz[ d ] = positions[ i * n + d ] * calibration[ d ];
+			spots.add( new Spot( xyz[ 0 ], xyz[ 1 ], xyz[ 2 ], radius, qualities[ i ] ) );
+		}
+		return spots;
+	}
 
+	/**
+	 * Refines the position of a maximum by fitting a quadratic function over
+	 * its neighborhood, moving it to a neighbor pixel when the fitted summit
+	 * is more than half a pixel away.
+	 *
+	 * @param peak
+	 *            the pixel position of the maximum. Is updated with the pixel
+	 *            the fit is made around.
+	 * @param offset
+	 *            is set with the position of the fitted summit relative to the
+	 *            updated peak position.
+	 * @return <code>true</code> if a stable fit was found.
+	 */
+	private static final boolean refinePeak( final RandomAccess< FloatType > ra, final Interval interval, final long[] peak, final double[] gradient, final double[][] hessian, final double[] offset )
+	{
+		final int n = peak.length;
+		for ( int move = 0; move < MAX_NUM_MOVES; move++ )
+		{
 			/*
-			 * Deal with different dimensionality manually. Profound comment:
-			 * this is the proof that this part of the code is sloppy. ImgLib2
-			 * is supposed to be dimension-generic. I just did not use properly
-			 * here.
+			 * Central differences: gradient and hessian.
 			 */
 
-			if ( source.numDimensions() > 2 )
-			{ // 3D
-				for ( final RefinedPeak< Point > refinedPeak : refined )
-				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = refinedPeak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final double z = refinedPeak.getDoublePosition( 2 ) * calibration[ 2 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else if ( source.numDimensions() > 1 )
-			{ // 2D
-				final double z = 0;
-				for ( final RefinedPeak< Point > refinedPeak : refined )
+			ra.setPosition( peak );
+			final double center = ra.get().getRealDouble();
+			for ( int d = 0; d < n; d++ )
+			{
+				ra.setPosition( peak[ d ] + 1, d );
+				final double plus = ra.get().getRealDouble();
+				ra.setPosition( peak[ d ] - 1, d );
+				final double minus = ra.get().getRealDouble();
+				ra.setPosition( peak[ d ], d );
+				gradient[ d ] = 0.5 * ( plus - minus );
+				hessian[ d ][ d ] = plus - 2. * center + minus;
+
+				for ( int e = 0; e < d; e++ )
 				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = refinedPeak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
+					ra.setPosition( peak[ d ] + 1, d );
+					ra.setPosition( peak[ e ] + 1, e );
+					final double pp = ra.get().getRealDouble();
+					ra.setPosition( peak[ e ] - 1, e );
+					final double pm = ra.get().getRealDouble();
+					ra.setPosition( peak[ d ] - 1, d );
+					final double mm = ra.get().getRealDouble();
+					ra.setPosition( peak[ e ] + 1, e );
+					final double mp = ra.get().getRealDouble();
+					ra.setPosition( peak[ d ], d );
+					ra.setPosition( peak[ e ], e );
+					hessian[ d ][ e ] = 0.25 * ( pp - pm - mp + mm );
+					hessian[ e ][ d ] = hessian[ d ][ e ];
 				}
 			}
-			else
-			{ // 1D
-				final double z = 0;
-				final double y = 0;
-				for ( final RefinedPeak< Point > refinedPeak : refined )
+
+			/*
+			 * Summit of the quadratic function: hessian * offset = -gradient.
+			 */
+
+			for ( int d = 0; d < n; d++ )
+				offset[ d ] = -gradient[ d ];
+			if ( !solve( hessian, offset ) )
+				return false;
+
+			boolean stable = true;
+			for ( int d = 0; d < n; d++ )
+			{
+				if ( Math.abs( offset[ d ] ) > 0.5 )
 				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
+					final long moved = peak[ d ] + ( offset[ d ] > 0 ? 1 : -1 );
+					if ( moved < interval.min( d ) || moved > interval.max( d ) )
+						return false;
+					peak[ d ] = moved;
+					stable = false;
 				}
-
 			}
+			if ( stable )
+				return true;
 		}
-		else
+		return false;
+	}
+
+	/**
+	 * Solves the linear system <code>A x = b</code> in place by Gaussian
+	 * elimination with partial pivoting.
+	 *
+	 * @param a
+	 *            the matrix. Is overwritten.
+	 * @param b
+	 *            the right-hand side. Is overwritten by the solution.
+	 * @return <code>false</code> if the matrix is singular.
+	 */
+	private static final boolean solve( final double[][] a, final double[] b )
+	{
+		final int n = b.length;
+		for ( int col = 0; col < n; col++ )
 		{
-			spots = new ArrayList< >( peaks.size() );
-			final RandomAccess< FloatType > ra = source.randomAccess();
-			if ( source.numDimensions() > 2 )
-			{ // 3D
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = peak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final double z = peak.getDoublePosition( 2 ) * calibration[ 2 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else if ( source.numDimensions() > 1 )
-			{ // 2D
-				final double z = 0;
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = peak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
+			int pivot = col;
+			for ( int row = col + 1; row < n; row++ )
+				if ( Math.abs( a[ row ][ col ] ) > Math.abs( a[ pivot ][ col ] ) )
+					pivot = row;
+			if ( Math.abs( a[ pivot ][ col ] ) < 1e-12 )
+				return false;
+			if ( pivot != col )
+			{
+				final double[] rowTmp = a[ pivot ];
+				a[ pivot ] = a[ col ];
+				a[ col ] = rowTmp;
+				final double tmp = b[ pivot ];
+				b[ pivot ] = b[ col ];
+				b[ col ] = tmp;
 			}
-			else
-			{ // 1D
-				final double z = 0;
-				final double y = 0;
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-
+			for ( int row = col + 1; row < n; row++ )
+			{
+				final double factor = a[ row ][ col ] / a[ col ][ col ];
+				for ( int k = col; k < n; k++ )
+					a[ row ][ k ] -= factor * a[ col ][ k ];
+				b[ row ] -= factor * b[ col ];
 			}
 		}
-
-		return spots;
+		for ( int row = n - 1; row >= 0; row-- )
+		{
+			double sum = b[ row ];
+			for ( int k = row + 1; k < n; k++ )
+				sum -= a[ row ][ k ] * b[ k ];
+			b[ row ] = sum / a[ row ][ row ];
+		}
+		return true;
 	}
 }
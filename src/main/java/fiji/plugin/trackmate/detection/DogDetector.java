@@ -38,11 +38,8 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 	 */
 
 	@Override
-	public boolean process()
+	public RandomAccessibleInterval< FloatType > computeResponse()
 	{
-
-		final long start = System.currentTimeMillis();
-
 		RandomAccessibleInterval< T > view = Views.interval( img, interval );
 
 		/*
@@ -51,11 +48,11 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 
 		if ( doMedianFilter )
 		{
-			view = DetectionUtils.applyMedianFilter( view );
+			view = DetectionUtils.applyMedianFilter( view, numThreads );
 			if ( null == view )
 			{
 				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				return null;
 			}
 		}
 
@@ -105,11 +102,6 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 		while ( dogCursor.hasNext() )
 			dogCursor.next().sub( tmpCursor.next() );
 
-		spots = DetectionUtils.findLocalMaxima( dog, threshold, calibration, radius, doSubPixelLocalization, numThreads );
-
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-
-		return true;
+		return dog;
 	}
 }
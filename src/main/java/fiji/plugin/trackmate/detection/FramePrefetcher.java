@@ -0,0 +1,309 @@
+package fiji.plugin.trackmate.detection;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Reads the frames of an {@link ImagePlus} ahead of the detection threads.
+ * <p>
+ * When the image is a virtual stack, each plane is decoded from disk when it
+ * is accessed. Without prefetching, the detection threads would stall on I/O.
+ * This class runs a single thread that decodes frames in increasing order,
+ * converts them to float and stores them in a pool of bounded capacity. The
+ * detection threads take the frames they need from the pool, which frees a
+ * slot for the next frame to be read.
+ * <p>
+ * A frame is returned as an {@link ImgPlus} with the same axes as the
+ * {@link ImgPlus} wrapping the whole image, minus the time axis. If a target
+ * channel is specified, only this channel is read, and the channel axis is
+ * removed as well.
+ */
+public class FramePrefetcher
+{
+
+	private final ImagePlus imp;
+
+	private final ImgPlus< ? > img;
+
+	private final int first;
+
+	private final int last;
+
+	private final int capacity;
+
+	/** The channel to read, 1-based, or 0 to read all channels. */
+	private final int channel;
+
+	private final Map< Integer, ImgPlus< FloatType > > pool = new HashMap<>();
+
+	/** Frames that will not be taken and must not be kept in the pool. */
+	private final Set< Integer > discarded = new HashSet<>();
+
+	/** The frame being read, or the next one to be read. */
+	private int next;
+
+	private boolean stopped = false;
+
+	/** The error that stopped reading frames, if any. */
+	private volatile RuntimeException failure;
+
+	private final Thread thread;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new prefetcher. Reading starts when {@link #start()} is
+	 * called.
+	 *
+	 * @param imp
+	 *            the image to read frames from.
+	 * @param img
+	 *            the {@link ImgPlus} wrapping this image, as returned by
+	 *            {@link TMUtils#rawWraps(ImagePlus)}.
+	 * @param first
+	 *            the first frame to read, 0-based.
+	 * @param last
+	 *            the last frame to read, 0-based and inclusive.
+	 * @param capacity
+	 *            the maximal number of frames read ahead and not taken yet.
+	 * @param channel
+	 *            the channel the detection targets, 1-based. Only this channel
+	 *            is read. If it is not a channel of the image, for instance
+	 *            0, all channels are read.
+	 */
+	public FramePrefetcher( final ImagePlus imp, final ImgPlus< ? > img, final int first, final int last, final int capacity, final int channel )
+	{
+		this.imp = imp;
+		this.img = img;
+		this.first = first;
+		this.last = last;
+		this.capacity = Math.max( 1, capacity );
+		this.channel = ( channel >= 1 && channel <= imp.getNChannels() && TMUtils.findCAxisIndex( img ) >= 0 ) ? channel : 0;
+		this.next = first;
+		this.thread = new Thread( "TrackMate frame prefetcher thread" )
+		{
+			@Override
+			public void run()
+			{
+				readFrames();
+			}
+		};
+		thread.setDaemon( true );
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if it is worth prefetching the frames of the
+	 * specified image, and if this class can read them: the image must be a
+	 * virtual stack with several frames, of a grayscale type, and its
+	 * {@link ImgPlus} must have its axes ordered as X, Y, C, Z, T.
+	 *
+	 * @param imp
+	 *            the image.
+	 * @param img
+	 *            the {@link ImgPlus} wrapping this image.
+	 * @return whether frames can be prefetched.
+	 */
+	public static boolean isSupported( final ImagePlus imp, final ImgPlus< ? > img )
+	{
+		if ( null == imp || !imp.getStack().isVirtual() || imp.getNFrames() < 2 || imp.getType() == ImagePlus.COLOR_RGB )
+			return false;
+
+		final AxisType[] order = new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z, Axes.TIME };
+		int k = 0;
+		for ( int d = 0; d < img.numDimensions(); d++ )
+		{
+			while ( k < order.length && img.axis( d ).type() != order[ k ] )
+				k++;
+			if ( k == order.length )
+				return false;
+		}
+		return TMUtils.findTAxisIndex( img ) >= 0;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public void start()
+	{
+		thread.start();
+	}
+
+	/**
+	 * Stops reading frames and releases the pool. Threads waiting for a frame
+	 * receive <code>null</code>.
+	 */
+	public synchronized void stop()
+	{
+		stopped = true;
+		pool.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Returns the specified frame, waiting for it to be read if needed. The
+	 * frame is removed from the pool.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 * @return the frame as a float image, or <code>null</code> if it is not
+	 *         going to be read, because the prefetcher was stopped, failed to
+	 *         read it, or because the frame was already taken. In that case,
+	 *         the caller should read the frame from the source image.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting.
+	 */
+	public synchronized ImgPlus< FloatType > take( final int frame ) throws InterruptedException
+	{
+		while ( !pool.containsKey( frame ) )
+		{
+			if ( stopped || frame < next || frame < first || frame > last )
+				return null;
+			wait();
+		}
+		final ImgPlus< FloatType > frameImg = pool.remove( frame );
+		notifyAll();
+		return frameImg;
+	}
+
+	/**
+	 * Returns the error that made the prefetcher stop reading frames, or
+	 * <code>null</code> if there was none. After such an error,
+	 * {@link #take(int)} returns <code>null</code> for the frames not read
+	 * yet.
+	 *
+	 * @return the read error, or <code>null</code>.
+	 */
+	public RuntimeException getFailure()
+	{
+		return failure;
+	}
+
+	/**
+	 * Signals that the specified frame will not be taken, for instance
+	 * because its detection results were cached. The frame is removed from
+	 * the pool, or not read at all.
+	 *
+	 * @param frame
+	 *            the frame, 0-based.
+	 */
+	public synchronized void discard( final int frame )
+	{
+		if ( null != pool.remove( frame ) )
+			notifyAll();
+		else if ( frame >= next )
+			discarded.add( frame );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void readFrames()
+	{
+		try
+		{
+			for ( int frame = first; frame <= last; frame++ )
+			{
+				synchronized ( this )
+				{
+					while ( !stopped && pool.size() >= capacity )
+						wait();
+					if ( stopped )
+						return;
+					next = frame;
+					if ( discarded.remove( frame ) )
+						continue;
+				}
+
+				final ImgPlus< FloatType > frameImg = readFrame( frame );
+
+				synchronized ( this )
+				{
+					if ( !discarded.remove( frame ) && !stopped )
+						pool.put( frame, frameImg );
+					next = frame + 1;
+					notifyAll();
+				}
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			// Stop reading.
+		}
+		catch ( final RuntimeException e )
+		{
+			// Let the detection threads read frames themselves.
+			failure = e;
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				stopped = true;
+				next = last + 1;
+				notifyAll();
+			}
+		}
+	}
+
+	private ImgPlus< FloatType > readFrame( final int frame )
+	{
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		final int nSlices = imp.getNSlices();
+		final int planeSize = width * height;
+		final int cStart = ( channel > 0 ) ? channel - 1 : 0;
+		final int cEnd = ( channel > 0 ) ? channel : imp.getNChannels();
+		final float[] data = new float[ planeSize * ( cEnd - cStart ) * nSlices ];
+
+		// Channels vary faster than slices, as in the ImgPlus.
+		final ImageStack stack = imp.getStack();
+		int offset = 0;
+		for ( int z = 0; z < nSlices; z++ )
+		{
+			for ( int c = cStart; c < cEnd; c++ )
+			{
+				final ImageProcessor ip = stack.getProcessor( imp.getStackIndex( c + 1, z + 1, frame + 1 ) );
+				for ( int i = 0; i < planeSize; i++ )
+					data[ offset + i ] = ip.getf( i );
+				offset += planeSize;
+			}
+		}
+
+		final int tindex = TMUtils.findTAxisIndex( img );
+		final int cindex = ( channel > 0 ) ? TMUtils.findCAxisIndex( img ) : -1;
+		final int n = img.numDimensions() - ( ( cindex < 0 ) ? 1 : 2 );
+		final long[] dims = new long[ n ];
+		final AxisType[] axes = new AxisType[ n ];
+		final double[] calibration = new double[ n ];
+		for ( int d = 0, k = 0; d < img.numDimensions(); d++ )
+		{
+			if ( d == tindex || d == cindex )
+				continue;
+			dims[ k ] = img.dimension( d );
+			axes[ k ] = img.axis( d ).type();
+			calibration[ k ] = img.averageScale( d );
+			k++;
+		}
+		return new ImgPlus<>( ArrayImgs.floats( data, dims ), img.getName(), axes, calibration );
+	}
+}
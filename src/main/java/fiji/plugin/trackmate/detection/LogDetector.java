@@ -8,6 +8,7 @@ import java.util.concurrent.Executors;
 import fiji.plugin.trackmate.Spot;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.fft2.FFTConvolution;
 import net.imglib2.img.Img;
@@ -18,7 +19,6 @@ import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 public class LogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded
@@ -99,28 +99,95 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 	{
 		final long start = System.currentTimeMillis();
 
-		/*
-		 * Copy to float for convolution.
-		 */
+		final RandomAccessibleInterval< FloatType > response = computeResponse();
+		if ( null == response )
+			return false;
+
+		spots = DetectionUtils.findLocalMaxima( response, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+
+		return true;
+	}
 
+	/**
+	 * Runs only the maxima extraction step of this detector, on a filtered
+	 * image previously returned by {@link #computeResponse()}. The current
+	 * threshold and sub-pixel localization settings of this detector are
+	 * used. This allows changing the threshold without redoing the costly
+	 * filtering step, for instance in interactive previews.
+	 *
+	 * @param response
+	 *            the filtered image, as returned by {@link #computeResponse()}.
+	 * @return <code>true</code> if the maxima extraction completed without
+	 *         errors.
+	 */
+	public boolean process( final RandomAccessibleInterval< FloatType > response )
+	{
+		final long start = System.currentTimeMillis();
+		if ( null == response )
+		{
+			errorMessage = baseErrorMessage + "Filtered image is null.";
+			return false;
+		}
+		spots = DetectionUtils.findLocalMaxima( response, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Computes the filtered image on which maxima are searched for: copy to
+	 * float, optional median filtering and LoG filtering. The returned image
+	 * is positioned over the detection interval, in the coordinates of the
+	 * source image.
+	 * <p>
+	 * If the source image is already a float image and no median filtering
+	 * is needed, it is read directly by the convolution, without being copied
+	 * first. Otherwise it is copied to float using several threads.
+	 *
+	 * @return the filtered image, or <code>null</code> if the computation
+	 *         failed. In that case, the error message is set.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public RandomAccessibleInterval< FloatType > computeResponse()
+	{
 		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( interval, new FloatType() );
-		Img< FloatType > floatImg = DetectionUtils.copyToFloatImg( img, interval, factory );
+		final boolean isFloat = Util.getTypeFromInterval( Views.interval( img, interval ) ) instanceof FloatType;
 
 		/*
-		 * Do median filtering (or not).
+		 * Copy to float for convolution, unless we can read the source
+		 * directly.
 		 */
 
-		if ( doMedianFilter )
+		final RandomAccessibleInterval< FloatType > input;
+		Img< FloatType > floatImg;
+		if ( isFloat && !doMedianFilter )
+		{
+			input = Views.zeroMin( Views.interval( ( RandomAccessible< FloatType > ) ( RandomAccessible< ? > ) img, interval ) );
+			floatImg = factory.create( interval );
+		}
+		else
 		{
-			floatImg = DetectionUtils.applyMedianFilter( floatImg );
-			if ( null == floatImg )
+			floatImg = DetectionUtils.copyToFloatImg( img, interval, factory, numThreads );
+
+			/*
+			 * Do median filtering (or not), in the float image if possible.
+			 */
+
+			if ( doMedianFilter && !DetectionUtils.applyMedianFilter( floatImg, false, numThreads ) )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				floatImg = DetectionUtils.applyMedianFilter( floatImg, numThreads );
+				if ( null == floatImg )
+				{
+					errorMessage = baseErrorMessage + "Failed to apply median filter.";
+					return null;
+				}
 			}
+			input = floatImg;
 		}
 
-
 		// Squeeze singleton dimensions
 		int ndims = interval.numDimensions();
 		for ( int d = 0; d < interval.numDimensions(); d++ )
@@ -128,7 +195,6 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 				ndims--;
 
 		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, ndims, calibration );
-		final FFTConvolution< FloatType > fftconv = new FFTConvolution<>( floatImg, kernel );
 
 		/*
 		 * Determine the right img factory for FFT calculation.
@@ -137,10 +203,10 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 		for ( int d = 0; d < kernel.numDimensions(); d++ )
 			fftinterval = Intervals.expand( fftinterval, kernel.dimension( d ), d );
 		final ImgFactory< ComplexFloatType > imgFactory = Util.getArrayOrCellImgFactory( fftinterval, new ComplexFloatType() );
-		fftconv.setFFTImgFactory( imgFactory );
+		final FFTConvolution< FloatType > fftconv = new FFTConvolution<>( input, kernel, floatImg, imgFactory );
 
-		final ExecutorService service = Executors.newFixedThreadPool(numThreads);
-		fftconv.setExecutorService(service);
+		final ExecutorService service = Executors.newFixedThreadPool( numThreads );
+		fftconv.setExecutorService( service );
 
 		fftconv.convolve();
 		service.shutdown();
@@ -150,13 +216,29 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 		for ( int d = 0; d < minopposite.length; d++ )
 			minopposite[ d ] = -minopposite[ d ];
 
-		final IntervalView< FloatType > to = Views.offset( floatImg, minopposite );
-		spots = DetectionUtils.findLocalMaxima( to, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		return Views.offset( floatImg, minopposite );
+	}
 
-		final long end = System.currentTimeMillis();
-		this.processingTime = end - start;
+	/**
+	 * Sets the threshold on quality used in the maxima extraction step.
+	 *
+	 * @param threshold
+	 *            the threshold.
+	 */
+	public void setThreshold( final double threshold )
+	{
+		this.threshold = threshold;
+	}
 
-		return true;
+	/**
+	 * Sets whether the maxima extraction step does sub-pixel localization.
+	 *
+	 * @param doSubPixelLocalization
+	 *            whether to do sub-pixel localization.
+	 */
+	public void setDoSubPixelLocalization( final boolean doSubPixelLocalization )
+	{
+		this.doSubPixelLocalization = doSubPixelLocalization;
 	}
 
 	@Override
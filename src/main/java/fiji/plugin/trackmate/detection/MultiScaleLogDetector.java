@@ -0,0 +1,554 @@
+package fiji.plugin.trackmate.detection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.util.MedianFilter3x3;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * A LoG detector that looks for spots over a range of radii in a single pass.
+ * <p>
+ * The source image is blurred by Gaussians of increasing sigmas, each level
+ * being computed from the previous one with the sigma increment that is
+ * needed to reach it. The scale-normalized Laplacian of each level is then
+ * computed by finite differences, and spots are the maxima of this response
+ * across space and scale. Each spot gets the radius of the scale at which it
+ * responds best, interpolated between scales if sub-pixel localization is
+ * on. Spots whose center lies within a spot of higher quality are discarded.
+ * <p>
+ * Radii are spaced geometrically between the min and max radius. The quality
+ * of a spot is the value of the scale-normalized LoG response at its
+ * location, so that the qualities found at different scales can be
+ * compared.
+ * <p>
+ * Filtered images are stored in plain <code>float</code> arrays, so the
+ * detection interval must have less than {@link Integer#MAX_VALUE} pixels.
+ */
+public class MultiScaleLogDetector< T extends RealType< T > & NativeType< T >> extends LogDetector< T >
+{
+
+	/*
+	 * CONSTANTS
+	 */
+
+	public final static String BASE_ERROR_MESSAGE = "MultiScaleLogDetector: ";
+
+	/*
+	 * FIELDS
+	 */
+
+	private final double maxRadius;
+
+	private final int nScales;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new multi-scale LoG detector.
+	 *
+	 * @param img
+	 *            the image to segment.
+	 * @param interval
+	 *            the interval in the image to segment.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @param minRadius
+	 *            the smallest radius to look for, in image units.
+	 * @param maxRadius
+	 *            the largest radius to look for, in image units.
+	 * @param nScales
+	 *            the number of radii to try, including the min and max radius.
+	 * @param threshold
+	 *            the threshold on the scale-normalized LoG response.
+	 * @param doSubPixelLocalization
+	 *            whether to refine the position and radius of spots.
+	 * @param doMedianFilter
+	 *            whether to apply a 3x3 median filter to the image first.
+	 */
+	public MultiScaleLogDetector( final RandomAccessible< T > img, final Interval interval, final double[] calibration, final double minRadius, final double maxRadius, final int nScales, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter )
+	{
+		super( img, interval, calibration, minRadius, threshold, doSubPixelLocalization, doMedianFilter );
+		this.maxRadius = maxRadius;
+		this.nScales = nScales;
+		this.baseErrorMessage = BASE_ERROR_MESSAGE;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( nScales < 1 )
+		{
+			errorMessage = baseErrorMessage + "Number of scales cannot be lower than 1, got " + nScales + ".";
+			return false;
+		}
+		if ( radius <= 0 )
+		{
+			errorMessage = baseErrorMessage + "Min radius must be strictly positive, got " + radius + ".";
+			return false;
+		}
+		if ( nScales > 1 && maxRadius <= radius )
+		{
+			errorMessage = baseErrorMessage + "Max radius must be larger than min radius, got " + maxRadius + " <= " + radius + ".";
+			return false;
+		}
+		if ( Intervals.numElements( interval ) >= Integer.MAX_VALUE )
+		{
+			errorMessage = baseErrorMessage + "Detection interval is too large, got " + Intervals.numElements( interval ) + " pixels.";
+			return false;
+		}
+		return super.checkInput();
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		final int n = interval.numDimensions();
+		final long[] dims = new long[ n ];
+		interval.dimensions( dims );
+		final int size = ( int ) Intervals.numElements( interval );
+
+		/*
+		 * Copy to float, with median filtering or not.
+		 */
+
+		float[] gauss = new float[ size ];
+		float[] tmp = new float[ size ];
+		final Cursor< T > cursor = Views.flatIterable( Views.interval( img, interval ) ).cursor();
+		for ( int i = 0; cursor.hasNext(); i++ )
+			gauss[ i ] = cursor.next().getRealFloat();
+		if ( doMedianFilter )
+		{
+			MedianFilter3x3.filter( gauss, tmp, dims, false, numThreads );
+			final float[] swap = gauss;
+			gauss = tmp;
+			tmp = swap;
+		}
+
+		/*
+		 * Build the scale space level by level. The responses of three
+		 * consecutive levels are kept, so that the maxima of a level can be
+		 * searched for as soon as the next level is known.
+		 */
+
+		final double[] radii = getRadii();
+		final float[][] responses = new float[ 3 ][];
+		final List< Spot > candidates = new ArrayList<>();
+		double previousSigma = 0.;
+		for ( int k = 0; k <= radii.length; k++ )
+		{
+			if ( k < radii.length )
+			{
+				final double sigma = radii[ k ] / Math.sqrt( n );
+				final double increment = Math.sqrt( sigma * sigma - previousSigma * previousSigma );
+				final double[] sigmas = new double[ n ];
+				for ( int d = 0; d < n; d++ )
+					sigmas[ d ] = increment / calibration[ d ];
+				try
+				{
+					Gauss3.gauss( sigmas, Views.extendMirrorSingle( ArrayImgs.floats( gauss, dims ) ), ArrayImgs.floats( tmp, dims ), numThreads );
+				}
+				catch ( final IncompatibleTypeException e )
+				{
+					errorMessage = baseErrorMessage + "Failed to compute Gaussian level: " + e.getMessage();
+					return false;
+				}
+				final float[] swap = gauss;
+				gauss = tmp;
+				tmp = swap;
+				previousSigma = sigma;
+
+				if ( null == responses[ k % 3 ] )
+					responses[ k % 3 ] = new float[ size ];
+				computeLaplacian( gauss, responses[ k % 3 ], dims, sigma );
+			}
+			if ( k > 0 )
+			{
+				final int level = k - 1;
+				final float[] below = level > 0 ? responses[ ( level - 1 ) % 3 ] : null;
+				final float[] above = level < radii.length - 1 ? responses[ ( level + 1 ) % 3 ] : null;
+				candidates.addAll( findMaxima( below, responses[ level % 3 ], above, dims, level, radii ) );
+			}
+		}
+
+		spots = suppressOverlaps( candidates );
+
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Returns the radii at which spots are searched for, spaced geometrically
+	 * from the min to the max radius.
+	 *
+	 * @return a new array of radii, in image units.
+	 */
+	public double[] getRadii()
+	{
+		final double[] radii = new double[ nScales ];
+		radii[ 0 ] = radius;
+		if ( nScales > 1 )
+		{
+			final double ratio = Math.pow( maxRadius / radius, 1. / ( nScales - 1 ) );
+			for ( int k = 1; k < nScales; k++ )
+				radii[ k ] = radii[ k - 1 ] * ratio;
+			radii[ nScales - 1 ] = maxRadius;
+		}
+		return radii;
+	}
+
+	/**
+	 * The multi-scale response cannot be expressed as a single image, so this
+	 * method is not supported. Use {@link #process()} instead.
+	 *
+	 * @return <code>null</code>, and the error message is set.
+	 */
+	@Override
+	public RandomAccessibleInterval< FloatType > computeResponse()
+	{
+		errorMessage = baseErrorMessage + "The multi-scale response cannot be computed as a single image.";
+		return null;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Computes the scale-normalized LoG response <code>-sigma² ΔG</code> of a
+	 * Gaussian level, by finite differences with mirror boundary conditions.
+	 */
+	private void computeLaplacian( final float[] gauss, final float[] response, final long[] dims, final double sigma )
+	{
+		final int n = dims.length;
+		final int width = ( int ) dims[ 0 ];
+		final int[] strides = strides( dims );
+		final double[] weights = new double[ n ];
+		for ( int d = 0; d < n; d++ )
+			weights[ d ] = -sigma * sigma / calibration[ d ] / calibration[ d ];
+
+		processLines( dims, new LineProcessor()
+		{
+			@Override
+			public void process( final int line, final int[] position, final List< Spot > out )
+			{
+				final int base = line * width;
+				for ( int x = 0; x < width; x++ )
+				{
+					position[ 0 ] = x;
+					final int i = base + x;
+					final float center = gauss[ i ];
+					double val = 0.;
+					for ( int d = 0; d < n; d++ )
+					{
+						if ( dims[ d ] < 2 )
+							continue;
+						final int s = strides[ d ];
+						final float lo = position[ d ] > 0 ? gauss[ i - s ] : gauss[ i + s ];
+						final float hi = position[ d ] < dims[ d ] - 1 ? gauss[ i + s ] : gauss[ i - s ];
+						val += weights[ d ] * ( lo - 2. * center + hi );
+					}
+					response[ i ] = ( float ) val;
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Finds the maxima of a level of the response, over its 3x3x3
+	 * neighborhood in space and scale. Neighbors outside of the image are
+	 * clamped to its border.
+	 */
+	private List< Spot > findMaxima( final float[] below, final float[] current, final float[] above, final long[] dims, final int level, final double[] radii )
+	{
+		final int n = dims.length;
+		final int width = ( int ) dims[ 0 ];
+		final int[] strides = strides( dims );
+		final long[] min = new long[ n ];
+		interval.min( min );
+
+		// All the offsets of the 3^n neighborhood, center included.
+		int nNeighbors = 1;
+		for ( int d = 0; d < n; d++ )
+			nNeighbors *= 3;
+		final int[][] deltas = new int[ nNeighbors ][ n ];
+		final int[] offsets = new int[ nNeighbors ];
+		for ( int j = 0; j < nNeighbors; j++ )
+		{
+			int r = j;
+			for ( int d = 0; d < n; d++ )
+			{
+				deltas[ j ][ d ] = r % 3 - 1;
+				offsets[ j ] += deltas[ j ][ d ] * strides[ d ];
+				r /= 3;
+			}
+		}
+
+		final float[][] levels = new float[][] { below, current, above };
+		return processLines( dims, new LineProcessor()
+		{
+			@Override
+			public void process( final int line, final int[] position, final List< Spot > out )
+			{
+				final int[] neighbors = new int[ nNeighbors ];
+				boolean interiorLine = true;
+				for ( int d = 1; d < n; d++ )
+					if ( position[ d ] < 1 || position[ d ] > dims[ d ] - 2 )
+						interiorLine = false;
+
+				final int base = line * width;
+				for ( int x = 0; x < width; x++ )
+				{
+					final int i = base + x;
+					final float val = current[ i ];
+					if ( val < threshold )
+						continue;
+
+					position[ 0 ] = x;
+					if ( interiorLine && x > 0 && x < width - 1 )
+					{
+						for ( int j = 0; j < nNeighbors; j++ )
+							neighbors[ j ] = i + offsets[ j ];
+					}
+					else
+					{
+						for ( int j = 0; j < nNeighbors; j++ )
+						{
+							int index = 0;
+							for ( int d = 0; d < n; d++ )
+							{
+								final long p = Math.min( dims[ d ] - 1, Math.max( 0, position[ d ] + deltas[ j ][ d ] ) );
+								index += p * strides[ d ];
+							}
+							neighbors[ j ] = index;
+						}
+					}
+
+					if ( !isMaximum( val, levels, neighbors ) )
+						continue;
+
+					out.add( createSpot( val, i, position, strides, min, below, current, above, level, radii ) );
+				}
+			}
+		} );
+	}
+
+	private static boolean isMaximum( final float val, final float[][] levels, final int[] neighbors )
+	{
+		for ( final float[] level : levels )
+		{
+			if ( null == level )
+				continue;
+			for ( final int j : neighbors )
+				if ( level[ j ] > val )
+					return false;
+		}
+		return true;
+	}
+
+	private Spot createSpot( final float val, final int i, final int[] position, final int[] strides, final long[] min, final float[] below, final float[] current, final float[] above, final int level, final double[] radii )
+	{
+		final int n = position.length;
+		final double[] pos = new double[ 3 ];
+		double spotRadius = radii[ level ];
+		for ( int d = 0; d < n; d++ )
+		{
+			double offset = 0.;
+			if ( doSubPixelLocalization && position[ d ] > 0 && position[ d ] < this.interval.dimension( d ) - 1 )
+				offset = quadraticOffset( current[ i - strides[ d ] ], val, current[ i + strides[ d ] ] );
+			pos[ d ] = ( min[ d ] + position[ d ] + offset ) * calibration[ d ];
+		}
+		if ( doSubPixelLocalization && null != below && null != above )
+		{
+			// Interpolate in log-radius, in which scales are evenly spaced.
+			final double offset = quadraticOffset( below[ i ], val, above[ i ] );
+			final double logRatio = Math.log( radii[ level + 1 ] / radii[ level ] );
+			spotRadius = radii[ level ] * Math.exp( offset * logRatio );
+		}
+		return new Spot( pos[ 0 ], pos[ 1 ], pos[ 2 ], spotRadius, val );
+	}
+
+	/**
+	 * Returns the position of the summit of the parabola passing through 3
+	 * evenly spaced values, relative to the middle one and clamped to
+	 * <code>[-0.5, 0.5]</code>.
+	 */
+	private static double quadraticOffset( final double lo, final double center, final double hi )
+	{
+		final double curvature = lo - 2. * center + hi;
+		if ( curvature >= 0. )
+			return 0.;
+		final double offset = 0.5 * ( lo - hi ) / curvature;
+		return Math.max( -0.5, Math.min( 0.5, offset ) );
+	}
+
+	/**
+	 * Discards the spots whose center lies within a spot of higher quality.
+	 * Spots are binned on a grid whose cells are as large as the largest spot,
+	 * so that only neighbor cells have to be inspected.
+	 */
+	private static List< Spot > suppressOverlaps( final List< Spot > candidates )
+	{
+		if ( candidates.isEmpty() )
+			return candidates;
+
+		Collections.sort( candidates, new Comparator< Spot >()
+		{
+			@Override
+			public int compare( final Spot o1, final Spot o2 )
+			{
+				return Double.compare( o2.getFeature( Spot.QUALITY ), o1.getFeature( Spot.QUALITY ) );
+			}
+		} );
+		double cellSize = 0.;
+		for ( final Spot spot : candidates )
+			cellSize = Math.max( cellSize, spot.getFeature( Spot.RADIUS ) );
+
+		final Map< Long, List< Spot > > grid = new HashMap<>();
+		final List< Spot > kept = new ArrayList<>();
+		final long[] cell = new long[ 3 ];
+		for ( final Spot spot : candidates )
+		{
+			for ( int d = 0; d < 3; d++ )
+				cell[ d ] = ( long ) Math.floor( spot.getDoublePosition( d ) / cellSize );
+
+			boolean overlaps = false;
+			search: for ( long cx = cell[ 0 ] - 1; cx <= cell[ 0 ] + 1; cx++ )
+				for ( long cy = cell[ 1 ] - 1; cy <= cell[ 1 ] + 1; cy++ )
+					for ( long cz = cell[ 2 ] - 1; cz <= cell[ 2 ] + 1; cz++ )
+					{
+						final List< Spot > others = grid.get( cellKey( cx, cy, cz ) );
+						if ( null == others )
+							continue;
+						for ( final Spot other : others )
+						{
+							final double r = other.getFeature( Spot.RADIUS );
+							if ( spot.squareDistanceTo( other ) < r * r )
+							{
+								overlaps = true;
+								break search;
+							}
+						}
+					}
+			if ( overlaps )
+				continue;
+
+			kept.add( spot );
+			final Long key = cellKey( cell[ 0 ], cell[ 1 ], cell[ 2 ] );
+			List< Spot > list = grid.get( key );
+			if ( null == list )
+			{
+				list = new ArrayList<>();
+				grid.put( key, list );
+			}
+			list.add( spot );
+		}
+		return kept;
+	}
+
+	/**
+	 * Packs 3 cell coordinates in a single key. Distant cells may share a
+	 * key, which only costs a few more distance computations.
+	 */
+	private static Long cellKey( final long cx, final long cy, final long cz )
+	{
+		return Long.valueOf( ( ( cx & 0x1FFFFF ) << 42 ) | ( ( cy & 0x1FFFFF ) << 21 ) | ( cz & 0x1FFFFF ) );
+	}
+
+	private static int[] strides( final long[] dims )
+	{
+		final int[] strides = new int[ dims.length ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < dims.length; d++ )
+			strides[ d ] = strides[ d - 1 ] * ( int ) dims[ d - 1 ];
+		return strides;
+	}
+
+	/**
+	 * Processes all the lines along X of an image, in parallel. Each thread
+	 * collects spots in its own list, and the lists are concatenated in the
+	 * order of the lines.
+	 */
+	@SuppressWarnings( "deprecation" )
+	private List< Spot > processLines( final long[] dims, final LineProcessor processor )
+	{
+		final int nLines = ( int ) ( Intervals.numElements( dims ) / dims[ 0 ] );
+		final int chunkSize = Math.max( 1, nLines / ( 4 * numThreads ) );
+		final int nChunks = ( nLines + chunkSize - 1 ) / chunkSize;
+		@SuppressWarnings( "unchecked" )
+		final List< Spot >[] chunkSpots = new List[ nChunks ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nChunks ) ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "MultiScaleLogDetector thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					final int[] position = new int[ dims.length ];
+					for ( int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement() )
+					{
+						final List< Spot > out = new ArrayList<>();
+						final int to = Math.min( nLines, ( c + 1 ) * chunkSize );
+						for ( int line = c * chunkSize; line < to; line++ )
+						{
+							int r = line;
+							for ( int d = 1; d < dims.length; d++ )
+							{
+								position[ d ] = ( int ) ( r % dims[ d ] );
+								r /= dims[ d ];
+							}
+							processor.process( line, position, out );
+						}
+						chunkSpots[ c ] = out;
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+
+		final List< Spot > spotList = new ArrayList<>();
+		for ( final List< Spot > list : chunkSpots )
+			spotList.addAll( list );
+		return spotList;
+	}
+
+	private static interface LineProcessor
+	{
+		/**
+		 * Processes the line with the specified index. The position array
+		 * holds the coordinates of the line in dimensions 1 and above, and can
+		 * be used as a buffer for dimension 0.
+		 */
+		public void process( int line, int[] position, List< Spot > out );
+	}
+}
@@ -0,0 +1,232 @@
+package fiji.plugin.trackmate.detection.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * A fast median filter over 3x3 neighborhoods, operating on images stored in
+ * flat <code>float</code> arrays, with X varying fastest.
+ * <p>
+ * Like {@link MedianFilter2D}, 3D images are filtered plane by plane, unless
+ * the 3x3x3 mode is selected. Pixels outside of the image are taken to be 0,
+ * so that this filter gives the same results as {@link MedianFilter2D} with a
+ * radius of 1.
+ * <p>
+ * In 2D, each column of 3 pixels is sorted once and reused for the 3 pixels
+ * it is a neighbor of. The median of the 9 pixels is then the median of the
+ * max of the 3 column minima, of the median of the 3 column medians and of
+ * the min of the 3 column maxima. In 3x3x3 mode, the median of the 27 pixels
+ * is found by selection. 1D images are filtered over 3 pixels. Rows are
+ * processed in parallel.
+ */
+public class MedianFilter3x3
+{
+
+	/** Number of rows processed in one go by a thread. */
+	private static final int CHUNK_SIZE = 16;
+
+	private MedianFilter3x3()
+	{}
+
+	/**
+	 * Applies the median filter to the source image and writes the result in
+	 * the target image.
+	 *
+	 * @param source
+	 *            the source image. Will not be modified.
+	 * @param target
+	 *            the target image. Must not be the source image, and must have
+	 *            the same size.
+	 * @param dims
+	 *            the dimensions of the images. Must be 1D, 2D or 3D.
+	 * @param in3D
+	 *            if <code>true</code>, 3D images are filtered over 3x3x3
+	 *            neighborhoods. Otherwise they are filtered plane by plane.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	@SuppressWarnings( "deprecation" )
+	public static void filter( final float[] source, final float[] target, final long[] dims, final boolean in3D, final int numThreads )
+	{
+		final int width = ( int ) dims[ 0 ];
+		if ( dims.length == 1 )
+		{
+			filter1D( source, target, width );
+			return;
+		}
+		final int height = dims.length > 1 ? ( int ) dims[ 1 ] : 1;
+		final int depth = dims.length > 2 ? ( int ) dims[ 2 ] : 1;
+		final boolean use3D = in3D && dims.length > 2;
+		final int nRows = height * depth;
+		final int nChunks = ( nRows + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nChunks ) ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "MedianFilter3x3 thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					final float[] values = new float[ 27 ];
+					for ( int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement() )
+					{
+						final int to = Math.min( nRows, ( c + 1 ) * CHUNK_SIZE );
+						for ( int row = c * CHUNK_SIZE; row < to; row++ )
+						{
+							final int y = row % height;
+							final int z = row / height;
+							if ( use3D )
+								filterRow3D( source, target, width, height, depth, y, z, values );
+							else
+								filterRow2D( source, target, width, height, y, z );
+						}
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static void filter1D( final float[] source, final float[] target, final int width )
+	{
+		for ( int x = 0; x < width; x++ )
+		{
+			final float left = x > 0 ? source[ x - 1 ] : 0f;
+			final float right = x < width - 1 ? source[ x + 1 ] : 0f;
+			target[ x ] = median( left, source[ x ], right );
+		}
+	}
+
+	private static void filterRow2D( final float[] source, final float[] target, final int width, final int height, final int y, final int z )
+	{
+		final int offset = ( z * height + y ) * width;
+		final boolean hasUp = y > 0;
+		final boolean hasDown = y < height - 1;
+
+		/*
+		 * Sorted columns at x-1, x and x+1. The column at x = -1 is outside
+		 * the image, and holds only zeros.
+		 */
+
+		float lo0 = 0f, me0 = 0f, hi0 = 0f;
+		float lo1, me1, hi1;
+		float lo2, me2, hi2;
+		{
+			final int i = offset;
+			final float a = hasUp ? source[ i - width ] : 0f;
+			final float b = source[ i ];
+			final float c = hasDown ? source[ i + width ] : 0f;
+			lo1 = Math.min( a, Math.min( b, c ) );
+			me1 = median( a, b, c );
+			hi1 = Math.max( a, Math.max( b, c ) );
+		}
+		for ( int x = 0; x < width; x++ )
+		{
+			if ( x < width - 1 )
+			{
+				final int i = offset + x + 1;
+				final float a = hasUp ? source[ i - width ] : 0f;
+				final float b = source[ i ];
+				final float c = hasDown ? source[ i + width ] : 0f;
+				lo2 = Math.min( a, Math.min( b, c ) );
+				me2 = median( a, b, c );
+				hi2 = Math.max( a, Math.max( b, c ) );
+			}
+			else
+			{
+				lo2 = 0f;
+				me2 = 0f;
+				hi2 = 0f;
+			}
+
+			final float maxLo = Math.max( lo0, Math.max( lo1, lo2 ) );
+			final float medMe = median( me0, me1, me2 );
+			final float minHi = Math.min( hi0, Math.min( hi1, hi2 ) );
+			target[ offset + x ] = median( maxLo, medMe, minHi );
+
+			lo0 = lo1;
+			me0 = me1;
+			hi0 = hi1;
+			lo1 = lo2;
+			me1 = me2;
+			hi1 = hi2;
+		}
+	}
+
+	private static void filterRow3D( final float[] source, final float[] target, final int width, final int height, final int depth, final int y, final int z, final float[] values )
+	{
+		final int plane = width * height;
+		final int offset = ( z * height + y ) * width;
+		for ( int x = 0; x < width; x++ )
+		{
+			int n = 0;
+			for ( int dz = -1; dz <= 1; dz++ )
+			{
+				final int zz = z + dz;
+				for ( int dy = -1; dy <= 1; dy++ )
+				{
+					final int yy = y + dy;
+					for ( int dx = -1; dx <= 1; dx++ )
+					{
+						final int xx = x + dx;
+						if ( xx < 0 || xx >= width || yy < 0 || yy >= height || zz < 0 || zz >= depth )
+							values[ n++ ] = 0f;
+						else
+							values[ n++ ] = source[ zz * plane + yy * width + xx ];
+					}
+				}
+			}
+			target[ offset + x ] = select( values, 13 );
+		}
+	}
+
+	private static float median( final float a, final float b, final float c )
+	{
+		return Math.max( Math.min( a, b ), Math.min( Math.max( a, b ), c ) );
+	}
+
+	/**
+	 * Returns the k-th smallest value of the specified array, which is
+	 * reordered in the process.
+	 */
+	private static float select( final float[] values, final int k )
+	{
+		int left = 0;
+		int right = values.length - 1;
+		while ( left < right )
+		{
+			final float pivot = values[ ( left + right ) >>> 1 ];
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( values[ i ] < pivot )
+					i++;
+				while ( values[ j ] > pivot )
+					j--;
+				if ( i <= j )
+				{
+					final float t = values[ i ];
+					values[ i ] = values[ j ];
+					values[ j ] = t;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return values[ k ];
+		}
+		return values[ k ];
+	}
+}
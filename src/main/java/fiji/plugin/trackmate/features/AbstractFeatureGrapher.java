@@ -19,6 +19,10 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
 
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
+import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.InterpolatePaintScale;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -27,12 +31,20 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMateOptionUtils;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
+import fiji.plugin.trackmate.util.XYDensityDataset;
+import fiji.plugin.trackmate.util.XYDensityRenderer;
 
 public abstract class AbstractFeatureGrapher
 {
 
 	protected static final Shape DEFAULT_SHAPE = new Ellipse2D.Double( -3, -3, 6, 6 );
 
+	/**
+	 * Above this number of points, plots are rendered as density plots, see
+	 * {@link #configureDensityPlot(XYPlot, XYDensityDataset)}.
+	 */
+	protected static final int DENSITY_THRESHOLD = 20000;
+
 	protected final InterpolatePaintScale paints = TrackMateOptionUtils.getOptions().getPaintScale();
 
 	protected final String xFeature;
@@ -88,6 +100,36 @@ public abstract class AbstractFeatureGrapher
 		frame.setVisible( true );
 	}
 
+	/**
+	 * Configures the specified plot to render the specified density dataset as
+	 * its first dataset. The dataset is re-binned every time the plot axes
+	 * change, so that zooming in reveals the details of the point
+	 * distribution.
+	 */
+	protected final void configureDensityPlot( final XYPlot plot, final XYDensityDataset dataset )
+	{
+		final XYDensityRenderer renderer = new XYDensityRenderer();
+		final int nseries = dataset.getSeriesCount();
+		for ( int i = 0; i < nseries; i++ )
+			renderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+		plot.setDataset( 0, dataset );
+		plot.setRenderer( 0, renderer );
+
+		final ValueAxis domainAxis = plot.getDomainAxis();
+		final ValueAxis rangeAxis = plot.getRangeAxis();
+		final AxisChangeListener rebinner = new AxisChangeListener()
+		{
+			@Override
+			public void axisChanged( final AxisChangeEvent event )
+			{
+				dataset.setBinRanges( domainAxis.getRange(), rangeAxis.getRange() );
+			}
+		};
+		domainAxis.addChangeListener( rebinner );
+		rangeAxis.addChangeListener( rebinner );
+		dataset.setBinRanges( domainAxis.getRange(), rangeAxis.getRange() );
+	}
+
 	/**
 	 * @return the unique mapped values in the given map, for the collection of
 	 *         keys given.
@@ -1,5 +1,6 @@
 package fiji.plugin.trackmate.features;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +12,8 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeChunk;
+import fiji.plugin.trackmate.features.edges.EdgeChunkAnalyzer;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 /**
@@ -110,6 +113,12 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 		{
 			logger.log( "Computing edge features:\n", Logger.BLUE_COLOR );
 		}
+		/*
+		 * Analyzers that can work on chunks of edges are run together, in a
+		 * single pass over the edges.
+		 */
+		final List< EdgeChunkAnalyzer > chunkAnalyzers = new ArrayList<>();
+		final List< EdgeAnalyzer > otherAnalyzers = new ArrayList<>();
 		for ( final EdgeAnalyzer analyzer : analyzers )
 		{
 			if ( analyzer.isManualFeature() )
@@ -117,6 +126,32 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 				// Skip manual features.
 				continue;
 			}
+			if ( analyzer instanceof EdgeChunkAnalyzer )
+				chunkAnalyzers.add( ( EdgeChunkAnalyzer ) analyzer );
+			else
+				otherAnalyzers.add( analyzer );
+		}
+
+		if ( !chunkAnalyzers.isEmpty() )
+		{
+			final long start = System.currentTimeMillis();
+			EdgeChunk.process( edges, model, chunkAnalyzers, numThreads );
+			final long end = System.currentTimeMillis();
+			if ( doLogIt )
+			{
+				final StringBuilder names = new StringBuilder();
+				for ( final EdgeChunkAnalyzer analyzer : chunkAnalyzers )
+				{
+					if ( names.length() > 0 )
+						names.append( ", " );
+					names.append( analyzer.getName() );
+				}
+				logger.log( "  - " + names + " in " + ( end - start ) + " ms.\n" );
+			}
+		}
+
+		for ( final EdgeAnalyzer analyzer : otherAnalyzers )
+		{
 			analyzer.setNumThreads( numThreads );
 			analyzer.process( edges, model );
 			if ( doLogIt )
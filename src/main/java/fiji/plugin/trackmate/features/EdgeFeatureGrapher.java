@@ -14,6 +14,7 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.xy.XYDataset;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -23,6 +24,7 @@ import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.util.XYDensityDataset;
 import fiji.plugin.trackmate.util.XYEdgeRenderer;
 import fiji.plugin.trackmate.util.XYEdgeSeries;
 import fiji.plugin.trackmate.util.XYEdgeSeriesCollection;
@@ -64,6 +66,9 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher
 		// Find how many different dimensions
 		final Set< Dimension > dimensions = getUniqueValues( yFeatures, yDimensions );
 
+		// Density plots for large number of edges
+		final boolean density = edges.size() > DENSITY_THRESHOLD;
+
 		// Generate one panel per different dimension
 		final ArrayList< ExportableChartPanel > chartPanels = new ArrayList<>( dimensions.size() );
 		for ( final Dimension dimension : dimensions )
@@ -85,16 +90,9 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher
 			final String title = buildPlotTitle( featuresThisDimension, featureNames );
 
 			// Data-set for points (easy)
-			final XYSeriesCollection pointDataset = buildEdgeDataSet( featuresThisDimension, edges );
-
-			// Point renderer
-			final XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
-
-			// Edge renderer
-			final XYEdgeRenderer edgeRenderer = new XYEdgeRenderer();
-
-			// Data-set for edges
-			final XYEdgeSeriesCollection edgeDataset = buildConnectionDataSet( featuresThisDimension, edges );
+			final XYDataset pointDataset = density
+					? buildEdgeDensityDataSet( featuresThisDimension, edges )
+					: buildEdgeDataSet( featuresThisDimension, edges );
 
 			// The chart
 			final JFreeChart chart = ChartFactory.createXYLineChart( title, xAxisLabel, yAxisLabel, pointDataset, PlotOrientation.VERTICAL, true, true, false );
@@ -103,24 +101,42 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher
 
 			// The plot
 			final XYPlot plot = chart.getXYPlot();
-			plot.setDataset( 1, edgeDataset );
-			plot.setRenderer( 1, edgeRenderer );
-			plot.setRenderer( 0, pointRenderer );
 			plot.getRangeAxis().setLabelFont( FONT );
 			plot.getRangeAxis().setTickLabelFont( SMALL_FONT );
 			plot.getDomainAxis().setLabelFont( FONT );
 			plot.getDomainAxis().setTickLabelFont( SMALL_FONT );
 
-			// Paint
-			pointRenderer.setUseOutlinePaint( true );
-			final int nseries = edgeDataset.getSeriesCount();
-			for ( int i = 0; i < nseries; i++ )
+			if ( density )
 			{
-				pointRenderer.setSeriesOutlinePaint( i, Color.black );
-				pointRenderer.setSeriesLinesVisible( i, false );
-				pointRenderer.setSeriesShape( i, DEFAULT_SHAPE, false );
-				pointRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
-				edgeRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+				// Connections would just cover the density plot.
+				configureDensityPlot( plot, ( XYDensityDataset ) pointDataset );
+			}
+			else
+			{
+				// Point renderer
+				final XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
+
+				// Edge renderer
+				final XYEdgeRenderer edgeRenderer = new XYEdgeRenderer();
+
+				// Data-set for edges
+				final XYEdgeSeriesCollection edgeDataset = buildConnectionDataSet( featuresThisDimension, edges );
+
+				plot.setDataset( 1, edgeDataset );
+				plot.setRenderer( 1, edgeRenderer );
+				plot.setRenderer( 0, pointRenderer );
+
+				// Paint
+				pointRenderer.setUseOutlinePaint( true );
+				final int nseries = edgeDataset.getSeriesCount();
+				for ( int i = 0; i < nseries; i++ )
+				{
+					pointRenderer.setSeriesOutlinePaint( i, Color.black );
+					pointRenderer.setSeriesLinesVisible( i, false );
+					pointRenderer.setSeriesShape( i, DEFAULT_SHAPE, false );
+					pointRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+					edgeRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+				}
 			}
 
 			// The panel
@@ -198,4 +214,33 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher
 		}
 		return dataset;
 	}
+
+	/**
+	 * @return a new density dataset that contains the values, specified from
+	 *         the given feature, and extracted from all the given edges.
+	 */
+	private XYDensityDataset buildEdgeDensityDataSet( final Iterable< String > targetYFeatures, final List< DefaultWeightedEdge > lEdges )
+	{
+		final XYDensityDataset dataset = new XYDensityDataset();
+		final FeatureModel fm = model.getFeatureModel();
+		final double[] x = new double[ lEdges.size() ];
+		final double[] y = new double[ lEdges.size() ];
+		for ( final String feature : targetYFeatures )
+		{
+			int n = 0;
+			for ( final DefaultWeightedEdge edge : lEdges )
+			{
+				final Number xv = fm.getEdgeFeature( edge, xFeature );
+				final Number yv = fm.getEdgeFeature( edge, feature );
+				if ( null == xv || null == yv )
+					continue;
+
+				x[ n ] = xv.doubleValue();
+				y[ n ] = yv.doubleValue();
+				n++;
+			}
+			dataset.addSeries( featureNames.get( feature ), x, y, n );
+		}
+		return dataset;
+	}
 }
@@ -1,21 +1,58 @@
 package fiji.plugin.trackmate.features;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
 
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.ModelChangeListener;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
 import net.imglib2.algorithm.MultiThreaded;
 
 /**
  * A utility class that listens to the change occurring in a model, and updates
  * its spot, edge and track features accordingly. Useful to keep the model in 
  * sync with manual editing.
+ * <p>
+ * By default, features are recomputed synchronously, in the thread that fired
+ * the model change event. In asynchronous mode (see
+ * {@link #setAsynchronous(boolean)}), the spots, edges and tracks to update are
+ * queued, and bursts of events are coalesced in a single computation, run on a
+ * background thread after a short delay. The computation does not hold the
+ * model lock, so that the model can be edited while features are being
+ * computed. Features are computed on a snapshot of the spots and tracks, taken
+ * holding the model lock, and in a private feature model, then published to the model in one step, on the event
+ * dispatch thread and holding the model lock. Views reading features on the
+ * event dispatch thread therefore never see half-updated values. After
+ * publication, the listeners registered with
+ * {@link #addFeatureUpdateListener(ModelChangeListener)} are notified with a
+ * {@link ModelChangeEvent#MODEL_MODIFIED} event listing all the spots, edges
+ * and tracks that were updated. Views can query {@link #isFeaturesPending()}
+ * to know whether the features they display are up to date.
  *    
  * @author Jean-Yves Tinevez - 2013
  */
@@ -27,8 +64,36 @@ public class ModelFeatureUpdater implements ModelChangeListener, MultiThreaded
 	private final TrackFeatureCalculator trackFeatureCalculator;
 	private final Model model;
 
+	private final Settings settings;
+
 	private int numThreads;
 
+	/** The default delay, in ms, over which model changes are coalesced. */
+	public static final long DEFAULT_COALESCING_DELAY = 100l;
+
+	private boolean asynchronous = false;
+
+	private long coalescingDelay = DEFAULT_COALESCING_DELAY;
+
+	private ScheduledExecutorService executor;
+
+	/** Lock for the pending collections and flags below. */
+	private final Object lock = new Object();
+
+	private final Set< Spot > pendingSpots = new LinkedHashSet<>();
+
+	private final Set< DefaultWeightedEdge > pendingEdges = new LinkedHashSet<>();
+
+	private final Set< Integer > pendingTracks = new LinkedHashSet<>();
+
+	/** Whether an update task is scheduled and has not started draining yet. */
+	private boolean scheduled = false;
+
+	/** Whether some features are waiting to be recomputed or published. */
+	private volatile boolean featuresPending = false;
+
+	private final CopyOnWriteArrayList< ModelChangeListener > featureUpdateListeners = new CopyOnWriteArrayList<>();
+
 	/**
 	 * Constructs and activate a {@link ModelFeatureUpdater}. The new instance is 
 	 * registered to listen to model changes, and update its feature.
@@ -38,6 +103,7 @@ public class ModelFeatureUpdater implements ModelChangeListener, MultiThreaded
 	 */
 	public ModelFeatureUpdater(Model model, Settings settings) {
 		this.model = model;
+		this.settings = settings;
 		this.spotFeatureCalculator = new SpotFeatureCalculator(model, settings);
 		this.edgeFeatureCalculator = new EdgeFeatureCalculator(model, settings);
 		this.trackFeatureCalculator = new TrackFeatureCalculator(model, settings);
@@ -56,39 +122,130 @@ public class ModelFeatureUpdater implements ModelChangeListener, MultiThreaded
 			return;
 		}
 
+		if ( asynchronous )
+		{
+			enqueue( event );
+			return;
+		}
+
 		// Build spot list
-		ArrayList<Spot> spots = new ArrayList<>(event.getSpots().size());
-		for (Spot spot : event.getSpots()) {
-			if (event.getSpotFlag(spot) != ModelChangeEvent.FLAG_SPOT_REMOVED) {
-				spots.add(spot);
+		final ArrayList< Spot > spots = new ArrayList<>( event.getSpots().size() );
+		for ( final Spot spot : event.getSpots() )
+		{
+			if ( event.getSpotFlag( spot ) != ModelChangeEvent.FLAG_SPOT_REMOVED )
+			{
+				spots.add( spot );
 			}
 		}
-		SpotCollection sc = SpotCollection.fromCollection(spots);
-		
+
 		// Build edge list
-		ArrayList<DefaultWeightedEdge> edges = new ArrayList<>(event.getEdges().size());
-		for (DefaultWeightedEdge edge : event.getEdges()) {
-			if (event.getEdgeFlag(edge) != ModelChangeEvent.FLAG_EDGE_REMOVED) {
-				edges.add(edge);
+		final ArrayList< DefaultWeightedEdge > edges = new ArrayList<>( event.getEdges().size() );
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_REMOVED )
+			{
+				edges.add( edge );
 			}
 		}
 
-		// Update spot features
-		spotFeatureCalculator.computeSpotFeatures(sc, false);
-		
-		// Update edge features
-		edgeFeatureCalculator.computeEdgesFeatures(edges, false);
-		
-		// Update track features
-		trackFeatureCalculator.computeTrackFeatures(event.getTrackUpdated(), false);
+		computeFeatures( spots, edges, event.getTrackUpdated() );
 	}
-	
+
+	/**
+	 * Sets whether this updater recomputes features asynchronously.
+	 * 
+	 * @param asynchronous
+	 *            if <code>true</code>, features are recomputed on a background
+	 *            thread, coalescing bursts of model changes. If
+	 *            <code>false</code>, they are recomputed in the thread that
+	 *            fired the model change event.
+	 */
+	public void setAsynchronous( final boolean asynchronous )
+	{
+		this.asynchronous = asynchronous;
+	}
+
+	/**
+	 * Returns whether this updater recomputes features asynchronously.
+	 * 
+	 * @return <code>true</code> if features are recomputed asynchronously.
+	 */
+	public boolean isAsynchronous()
+	{
+		return asynchronous;
+	}
+
+	/**
+	 * Sets the delay over which model changes are coalesced in asynchronous
+	 * mode, before features are recomputed.
+	 * 
+	 * @param coalescingDelay
+	 *            the delay, in ms.
+	 */
+	public void setCoalescingDelay( final long coalescingDelay )
+	{
+		this.coalescingDelay = coalescingDelay;
+	}
+
+	/**
+	 * Returns <code>true</code> if some model changes were received and the
+	 * features they affect have not been recomputed yet. Always return
+	 * <code>false</code> in synchronous mode.
+	 * 
+	 * @return whether some features are pending.
+	 */
+	public boolean isFeaturesPending()
+	{
+		return featuresPending;
+	}
+
+	/**
+	 * Registers a listener that will be notified when features have been
+	 * recomputed in asynchronous mode. The listener receives a
+	 * {@link ModelChangeEvent#MODEL_MODIFIED} event, fired on the event
+	 * dispatch thread, that lists the spots, edges and tracks that were
+	 * updated.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 */
+	public void addFeatureUpdateListener( final ModelChangeListener listener )
+	{
+		featureUpdateListeners.add( listener );
+	}
+
+	/**
+	 * Removes a listener registered with
+	 * {@link #addFeatureUpdateListener(ModelChangeListener)}.
+	 * 
+	 * @param listener
+	 *            the listener to remove.
+	 * @return <code>true</code> if the listener was registered.
+	 */
+	public boolean removeFeatureUpdateListener( final ModelChangeListener listener )
+	{
+		return featureUpdateListeners.remove( listener );
+	}
+
 	/**
 	 * Re-registers this instance from the listeners of the model, and stop
 	 * updating its features.
 	 */
 	public void quit() {
 		model.removeModelChangeListener(this);
+		synchronized ( lock )
+		{
+			if ( null != executor )
+			{
+				executor.shutdownNow();
+				executor = null;
+			}
+			pendingSpots.clear();
+			pendingEdges.clear();
+			pendingTracks.clear();
+			scheduled = false;
+			featuresPending = false;
+		}
 	}
 
 	@Override
@@ -112,4 +269,403 @@ public class ModelFeatureUpdater implements ModelChangeListener, MultiThreaded
 		trackFeatureCalculator.setNumThreads( numThreads );
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void computeFeatures( final Collection< Spot > spots, final Collection< DefaultWeightedEdge > edges, final Collection< Integer > trackIDs )
+	{
+		// Update spot features
+		final SpotCollection sc = SpotCollection.fromCollection( spots );
+		spotFeatureCalculator.computeSpotFeatures( sc, false );
+
+		// Update edge features
+		edgeFeatureCalculator.computeEdgesFeatures( edges, false );
+
+		// Update track features
+		trackFeatureCalculator.computeTrackFeatures( trackIDs, false );
+	}
+
+	/**
+	 * Adds the content of the specified event to the pending collections, and
+	 * schedules an update if there is none waiting already.
+	 */
+	private void enqueue( final ModelChangeEvent event )
+	{
+		synchronized ( lock )
+		{
+			for ( final Spot spot : event.getSpots() )
+			{
+				if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_REMOVED )
+					pendingSpots.remove( spot );
+				else
+					pendingSpots.add( spot );
+			}
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
+			{
+				if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_REMOVED )
+					pendingEdges.remove( edge );
+				else
+					pendingEdges.add( edge );
+			}
+			if ( null != event.getTrackUpdated() )
+				pendingTracks.addAll( event.getTrackUpdated() );
+
+			featuresPending = true;
+			if ( scheduled )
+				return;
+
+			if ( null == executor )
+			{
+				executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+				{
+					@Override
+					public Thread newThread( final Runnable r )
+					{
+						final Thread thread = new Thread( r, "TrackMate feature updater" );
+						thread.setDaemon( true );
+						return thread;
+					}
+				} );
+			}
+			scheduled = true;
+			executor.schedule( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					update();
+				}
+			}, coalescingDelay, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	/**
+	 * Drains the pending collections, computes the features they point to
+	 * without holding the model lock, then publishes them on the event
+	 * dispatch thread. Runs on the background executor.
+	 */
+	private void update()
+	{
+		final ArrayList< Spot > spots;
+		final ArrayList< DefaultWeightedEdge > edges;
+		final HashSet< Integer > trackIDs;
+		final StagingModel staging;
+
+		/*
+		 * Drain the pending collections, and take a snapshot of the spots and
+		 * tracks to compute, so that analyzers neither read the model while it
+		 * is edited nor write in it. This is done holding the model lock so
+		 * that the snapshot is consistent.
+		 */
+		synchronized ( model )
+		{
+			synchronized ( lock )
+			{
+				scheduled = false;
+				spots = new ArrayList<>( pendingSpots );
+				edges = new ArrayList<>( pendingEdges );
+				trackIDs = new HashSet<>( pendingTracks );
+				pendingSpots.clear();
+				pendingEdges.clear();
+				pendingTracks.clear();
+			}
+
+			// Tracks might have been merged or removed since they were queued.
+			final TrackModel tm = model.getTrackModel();
+			trackIDs.retainAll( tm.trackIDs( false ) );
+
+			// Edges might have been removed too.
+			final Set< DefaultWeightedEdge > edgeSet = tm.edgeSet();
+			final Iterator< DefaultWeightedEdge > it = edges.iterator();
+			while ( it.hasNext() )
+				if ( !edgeSet.contains( it.next() ) )
+					it.remove();
+
+			staging = new StagingModel( tm, spots );
+		}
+
+		/*
+		 * Compute features in the staging model, without holding the model
+		 * lock. The model might be edited in the meantime, in which case the
+		 * changes will schedule a new update.
+		 */
+		final List< DefaultWeightedEdge > stagedEdges = staging.stagedEdges( edges );
+		try
+		{
+			final SpotFeatureCalculator sfc = new SpotFeatureCalculator( staging, settings );
+			sfc.setNumThreads( numThreads );
+			sfc.computeSpotFeatures( staging.getSpots(), false );
+
+			final EdgeFeatureCalculator efc = new EdgeFeatureCalculator( staging, settings );
+			efc.setNumThreads( numThreads );
+			efc.computeEdgesFeatures( stagedEdges, false );
+
+			final TrackFeatureCalculator tfc = new TrackFeatureCalculator( staging, settings );
+			tfc.setNumThreads( numThreads );
+			tfc.computeTrackFeatures( trackIDs, false );
+		}
+		catch ( final RuntimeException e )
+		{
+			synchronized ( lock )
+			{
+				if ( !scheduled )
+					featuresPending = false;
+			}
+			model.getLogger().error( "Problem updating features: " + e.getMessage() + '\n' );
+			return;
+		}
+
+		SwingUtilities.invokeLater( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				publish( staging, spots, edges, stagedEdges );
+			}
+		} );
+	}
+
+	/**
+	 * Copies the features computed in the staging model to the model, in one
+	 * step holding the model lock, then notifies the feature update listeners.
+	 * Runs on the event dispatch thread.
+	 */
+	private void publish( final StagingModel staging, final List< Spot > spots, final List< DefaultWeightedEdge > edges, final List< DefaultWeightedEdge > stagedEdges )
+	{
+		final Set< Integer > trackIDs;
+		synchronized ( model )
+		{
+			// Spots. Only copy computed features, so that edits made in the
+			// meantime are not reverted.
+			final Set< String > spotFeatures = new HashSet<>();
+			for ( final SpotAnalyzerFactory< ? > factory : settings.getSpotAnalyzerFactories() )
+				spotFeatures.addAll( factory.getFeatures() );
+			for ( final Spot spot : spots )
+			{
+				final Spot copy = staging.copyOf( spot );
+				for ( final String feature : spotFeatures )
+				{
+					final Double val = copy.getFeature( feature );
+					if ( null != val )
+						spot.putFeature( feature, val );
+				}
+			}
+
+			// Edges that still exist.
+			final FeatureModel fm = model.getFeatureModel();
+			final Set< DefaultWeightedEdge > edgeSet = model.getTrackModel().edgeSet();
+			for ( int i = 0; i < edges.size(); i++ )
+			{
+				final DefaultWeightedEdge edge = edges.get( i );
+				if ( !edgeSet.contains( edge ) )
+					continue;
+				for ( final EdgeAnalyzer analyzer : settings.getEdgeAnalyzers() )
+				{
+					if ( analyzer.isManualFeature() )
+						continue;
+					for ( final String feature : analyzer.getFeatures() )
+					{
+						final Double val = staging.featureModel.getStagedEdgeFeature( stagedEdges.get( i ), feature );
+						if ( null != val )
+							fm.putEdgeFeature( edge, feature, val );
+					}
+				}
+			}
+
+			// Tracks that still exist. Non-local analyzers might have
+			// computed features for all of them.
+			trackIDs = new HashSet<>();
+			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			{
+				for ( final TrackAnalyzer analyzer : settings.getTrackAnalyzers() )
+				{
+					if ( analyzer.isManualFeature() )
+						continue;
+					for ( final String feature : analyzer.getFeatures() )
+					{
+						final Double val = staging.featureModel.getStagedTrackFeature( trackID, feature );
+						if ( null != val )
+						{
+							fm.putTrackFeature( trackID, feature, val );
+							trackIDs.add( trackID );
+						}
+					}
+				}
+			}
+		}
+
+		synchronized ( lock )
+		{
+			if ( !scheduled )
+				featuresPending = false;
+		}
+
+		if ( featureUpdateListeners.isEmpty() )
+			return;
+
+		final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.MODEL_MODIFIED );
+		event.addAllSpots( spots );
+		for ( final Spot spot : spots )
+			event.putSpotFlag( spot, ModelChangeEvent.FLAG_SPOT_MODIFIED );
+		event.addAllEdges( edges );
+		for ( final DefaultWeightedEdge edge : edges )
+			event.putEdgeFlag( edge, ModelChangeEvent.FLAG_EDGE_MODIFIED );
+		event.setTracksUpdated( trackIDs );
+		for ( final ModelChangeListener listener : featureUpdateListeners )
+			listener.modelChanged( event );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A model in which features are computed before being published. It holds
+	 * a snapshot of the tracks of the updated model, made of copies of their
+	 * spots and of new edges, and its own feature model. The spots to compute
+	 * are copied as well.
+	 */
+	private final class StagingModel extends Model
+	{
+
+		private final StagingFeatureModel featureModel;
+
+		private final SpotCollection spotCopies;
+
+		/** From the spots of the updated model to their copy. */
+		private final Map< Spot, Spot > copies = new HashMap<>();
+
+		/** From the edges of the updated model to the staged edges. */
+		private final Map< DefaultWeightedEdge, DefaultWeightedEdge > staged = new HashMap<>();
+
+		/** From the staged edges to the edges of the updated model. */
+		private final Map< DefaultWeightedEdge, DefaultWeightedEdge > original = new HashMap<>();
+
+		/**
+		 * Takes the snapshot. Must be called holding the lock of the updated
+		 * model.
+		 */
+		private StagingModel( final TrackModel tm, final Collection< Spot > spots )
+		{
+			this.featureModel = ( StagingFeatureModel ) super.getFeatureModel();
+
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+			final Map< Integer, Set< Spot > > trackSpots = new HashMap<>();
+			final Map< Integer, Set< DefaultWeightedEdge > > trackEdges = new HashMap<>();
+			final Map< Integer, Boolean > trackVisibility = new HashMap<>();
+			final Map< Integer, String > trackNames = new HashMap<>();
+			for ( final Integer trackID : tm.trackIDs( false ) )
+			{
+				final Set< Spot > lSpots = new HashSet<>();
+				for ( final Spot spot : tm.trackSpots( trackID ) )
+				{
+					final Spot copy = copy( spot );
+					graph.addVertex( copy );
+					lSpots.add( copy );
+				}
+				final Set< DefaultWeightedEdge > lEdges = new HashSet<>();
+				for ( final DefaultWeightedEdge edge : tm.trackEdges( trackID ) )
+				{
+					final DefaultWeightedEdge copy = graph.addEdge( copies.get( tm.getEdgeSource( edge ) ), copies.get( tm.getEdgeTarget( edge ) ) );
+					graph.setEdgeWeight( copy, tm.getEdgeWeight( edge ) );
+					staged.put( edge, copy );
+					original.put( copy, edge );
+					lEdges.add( copy );
+				}
+				trackSpots.put( trackID, lSpots );
+				trackEdges.put( trackID, lEdges );
+				trackVisibility.put( trackID, Boolean.valueOf( tm.isVisible( trackID ) ) );
+				trackNames.put( trackID, tm.name( trackID ) );
+			}
+			super.getTrackModel().from( graph, trackSpots, trackEdges, trackVisibility, trackNames );
+
+			final List< Spot > lSpotCopies = new ArrayList<>( spots.size() );
+			for ( final Spot spot : spots )
+				lSpotCopies.add( copy( spot ) );
+			this.spotCopies = SpotCollection.fromCollection( lSpotCopies );
+		}
+
+		private Spot copy( final Spot spot )
+		{
+			Spot copy = copies.get( spot );
+			if ( null == copy )
+			{
+				copy = new Spot( spot.ID() );
+				copy.setName( spot.getName() );
+				copy.getFeatures().putAll( spot.getFeatures() );
+				copies.put( spot, copy );
+			}
+			return copy;
+		}
+
+		private Spot copyOf( final Spot spot )
+		{
+			return copies.get( spot );
+		}
+
+		private List< DefaultWeightedEdge > stagedEdges( final List< DefaultWeightedEdge > edges )
+		{
+			final List< DefaultWeightedEdge > list = new ArrayList<>( edges.size() );
+			for ( final DefaultWeightedEdge edge : edges )
+				list.add( staged.get( edge ) );
+			return list;
+		}
+
+		@Override
+		protected FeatureModel createFeatureModel()
+		{
+			return new StagingFeatureModel( this );
+		}
+
+		@Override
+		public SpotCollection getSpots()
+		{
+			return spotCopies;
+		}
+	}
+
+	/**
+	 * A feature model that stores the features computed in a staging model.
+	 * Edge and track features not computed yet are read from the updated
+	 * model, so that analyzers depending on other features see them.
+	 */
+	private final class StagingFeatureModel extends FeatureModel
+	{
+
+		private final StagingModel staging;
+
+		private StagingFeatureModel( final StagingModel staging )
+		{
+			super( staging );
+			this.staging = staging;
+		}
+
+		@Override
+		public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
+		{
+			final Double val = super.getEdgeFeature( edge, featureName );
+			if ( null != val )
+				return val;
+			final DefaultWeightedEdge original = staging.original.get( edge );
+			return ( null == original ) ? null : model.getFeatureModel().getEdgeFeature( original, featureName );
+		}
+
+		@Override
+		public Double getTrackFeature( final Integer trackID, final String feature )
+		{
+			final Double val = super.getTrackFeature( trackID, feature );
+			return ( null == val ) ? model.getFeatureModel().getTrackFeature( trackID, feature ) : val;
+		}
+
+		private Double getStagedEdgeFeature( final DefaultWeightedEdge edge, final String feature )
+		{
+			return super.getEdgeFeature( edge, feature );
+		}
+
+		private Double getStagedTrackFeature( final Integer trackID, final String feature )
+		{
+			return super.getTrackFeature( trackID, feature );
+		}
+	}
 }
@@ -1,16 +1,22 @@
 package fiji.plugin.trackmate.features;
 
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSnapshot;
+import fiji.plugin.trackmate.features.track.TrackSnapshotAnalyzer;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
 
 /**
  * A class dedicated to centralizing the calculation of the numerical features
@@ -98,6 +104,11 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	/**
 	 * Calculate all features for the tracks with the given IDs.
+	 * <p>
+	 * Local {@link TrackSnapshotAnalyzer}s are run first, in a single parallel
+	 * pass over the tracks: each track is fetched once from the track model
+	 * and fed to all of them. The other analyzers are then run one after the
+	 * other, in their declaration order.
 	 */
 	private void computeTrackFeaturesAgent( final Collection< Integer > trackIDs, final List< TrackAnalyzer > analyzers, final boolean doLogIt )
 	{
@@ -107,6 +118,8 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 			logger.log( "Computing track features:\n", Logger.BLUE_COLOR );
 		}
 
+		final List< TrackSnapshotAnalyzer > snapshotAnalyzers = new ArrayList<>();
+		final List< TrackAnalyzer > otherAnalyzers = new ArrayList<>();
 		for ( final TrackAnalyzer analyzer : analyzers )
 		{
 			if ( analyzer.isManualFeature() )
@@ -115,6 +128,33 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 				continue;
 			}
 
+			if ( analyzer instanceof TrackSnapshotAnalyzer && analyzer.isLocal() )
+				snapshotAnalyzers.add( ( TrackSnapshotAnalyzer ) analyzer );
+			else
+				otherAnalyzers.add( analyzer );
+		}
+
+		if ( !snapshotAnalyzers.isEmpty() )
+		{
+			final long start = System.currentTimeMillis();
+			computeSnapshotFeatures( trackIDs, snapshotAnalyzers );
+			final long end = System.currentTimeMillis();
+
+			if ( doLogIt )
+			{
+				final StringBuilder str = new StringBuilder();
+				for ( final TrackSnapshotAnalyzer analyzer : snapshotAnalyzers )
+				{
+					if ( str.length() > 0 )
+						str.append( ", " );
+					str.append( analyzer.getName() );
+				}
+				logger.log( "  - " + str.toString() + " in " + ( end - start ) + " ms.\n" );
+			}
+		}
+
+		for ( final TrackAnalyzer analyzer : otherAnalyzers )
+		{
 			analyzer.setNumThreads( numThreads );
 			if ( analyzer.isLocal() )
 			{
@@ -130,4 +170,34 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 		}
 	}
+
+	@SuppressWarnings( "deprecation" )
+	private void computeSnapshotFeatures( final Collection< Integer > trackIDs, final List< TrackSnapshotAnalyzer > analyzers )
+	{
+		if ( trackIDs.isEmpty() )
+			return;
+
+		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue<>( trackIDs.size(), false, trackIDs );
+		final FeatureModel fm = model.getFeatureModel();
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		for ( int i = 0; i < threads.length; i++ )
+		{
+			threads[ i ] = new Thread( "TrackFeatureCalculator thread " + i )
+			{
+				@Override
+				public void run()
+				{
+					Integer trackID;
+					while ( ( trackID = queue.poll() ) != null )
+					{
+						final TrackSnapshot track = TrackSnapshot.create( trackID, model );
+						for ( final TrackSnapshotAnalyzer analyzer : analyzers )
+							analyzer.process( track, fm );
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
 }
@@ -14,6 +14,7 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.xy.XYDataset;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
@@ -22,6 +23,7 @@ import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.util.XYDensityDataset;
 
 public class TrackFeatureGrapher extends AbstractFeatureGrapher
 {
@@ -57,6 +59,9 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher
 		// Find how many different dimensions
 		final Set< Dimension > dimensions = getUniqueValues( yFeatures, yDimensions );
 
+		// Density plots for large number of tracks
+		final boolean density = model.getTrackModel().nTracks( true ) > DENSITY_THRESHOLD;
+
 		// Generate one panel per different dimension
 		final ArrayList< ExportableChartPanel > chartPanels = new ArrayList<>( dimensions.size() );
 		for ( final Dimension dimension : dimensions )
@@ -78,10 +83,9 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher
 			final String title = buildPlotTitle( featuresThisDimension, featureNames );
 
 			// Data-set for points (easy)
-			final XYSeriesCollection pointDataset = buildTrackDataSet( featuresThisDimension );
-
-			// Point renderer
-			final XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
+			final XYDataset pointDataset = density
+					? buildTrackDensityDataSet( featuresThisDimension )
+					: buildTrackDataSet( featuresThisDimension );
 
 			// The chart
 			final JFreeChart chart = ChartFactory.createXYLineChart( title, xAxisLabel, yAxisLabel, pointDataset, PlotOrientation.VERTICAL, true, true, false );
@@ -90,21 +94,31 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher
 
 			// The plot
 			final XYPlot plot = chart.getXYPlot();
-			plot.setRenderer( 0, pointRenderer );
 			plot.getRangeAxis().setLabelFont( FONT );
 			plot.getRangeAxis().setTickLabelFont( SMALL_FONT );
 			plot.getDomainAxis().setLabelFont( FONT );
 			plot.getDomainAxis().setTickLabelFont( SMALL_FONT );
 
-			// Paint
-			pointRenderer.setUseOutlinePaint( true );
-			final int nseries = pointDataset.getSeriesCount();
-			for ( int i = 0; i < nseries; i++ )
+			if ( density )
 			{
-				pointRenderer.setSeriesOutlinePaint( i, Color.black );
-				pointRenderer.setSeriesLinesVisible( i, false );
-				pointRenderer.setSeriesShape( i, DEFAULT_SHAPE, false );
-				pointRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+				configureDensityPlot( plot, ( XYDensityDataset ) pointDataset );
+			}
+			else
+			{
+				// Point renderer
+				final XYLineAndShapeRenderer pointRenderer = new XYLineAndShapeRenderer();
+				plot.setRenderer( 0, pointRenderer );
+
+				// Paint
+				pointRenderer.setUseOutlinePaint( true );
+				final int nseries = pointDataset.getSeriesCount();
+				for ( int i = 0; i < nseries; i++ )
+				{
+					pointRenderer.setSeriesOutlinePaint( i, Color.black );
+					pointRenderer.setSeriesLinesVisible( i, false );
+					pointRenderer.setSeriesShape( i, DEFAULT_SHAPE, false );
+					pointRenderer.setSeriesPaint( i, paints.getPaint( ( double ) i / nseries ), false );
+				}
 			}
 
 			// The panel
@@ -140,4 +154,35 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher
 		}
 		return dataset;
 	}
+
+	/**
+	 * @return a new density dataset that contains the values, specified from
+	 *         the given feature, and extracted from all the visible tracks in
+	 *         the model.
+	 */
+	private XYDensityDataset buildTrackDensityDataSet( final Iterable< String > targetYFeatures )
+	{
+		final XYDensityDataset dataset = new XYDensityDataset();
+		final FeatureModel fm = model.getFeatureModel();
+		final int ntracks = model.getTrackModel().nTracks( true );
+		final double[] x = new double[ ntracks ];
+		final double[] y = new double[ ntracks ];
+		for ( final String feature : targetYFeatures )
+		{
+			int n = 0;
+			for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+			{
+				final Double xv = fm.getTrackFeature( trackID, xFeature );
+				final Double yv = fm.getTrackFeature( trackID, feature );
+				if ( null == xv || null == yv )
+					continue;
+
+				x[ n ] = xv.doubleValue();
+				y[ n ] = yv.doubleValue();
+				n++;
+			}
+			dataset.addSeries( featureNames.get( feature ), x, y, n );
+		}
+		return dataset;
+	}
 }
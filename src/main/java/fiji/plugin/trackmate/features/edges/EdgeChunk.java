@@ -0,0 +1,149 @@
+package fiji.plugin.trackmate.features.edges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * A chunk of edges with their source spot, target spot and weight resolved
+ * once from the {@link TrackModel}, so that several
+ * {@link EdgeChunkAnalyzer}s can use them without querying the model again.
+ */
+public class EdgeChunk
+{
+
+	/** Maximal number of edges in a chunk. */
+	public static final int CHUNK_SIZE = 1024;
+
+	private final DefaultWeightedEdge[] edges = new DefaultWeightedEdge[ CHUNK_SIZE ];
+
+	private final Spot[] sources = new Spot[ CHUNK_SIZE ];
+
+	private final Spot[] targets = new Spot[ CHUNK_SIZE ];
+
+	private final double[] weights = new double[ CHUNK_SIZE ];
+
+	private int size;
+
+	/**
+	 * Returns the number of edges in this chunk.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public DefaultWeightedEdge edge( final int index )
+	{
+		return edges[ index ];
+	}
+
+	public Spot source( final int index )
+	{
+		return sources[ index ];
+	}
+
+	public Spot target( final int index )
+	{
+		return targets[ index ];
+	}
+
+	public double weight( final int index )
+	{
+		return weights[ index ];
+	}
+
+	/**
+	 * Fills this chunk with the specified edges.
+	 */
+	private void set( final DefaultWeightedEdge[] all, final int from, final int to, final TrackModel trackModel )
+	{
+		size = to - from;
+		for ( int i = 0; i < size; i++ )
+		{
+			final DefaultWeightedEdge edge = all[ from + i ];
+			edges[ i ] = edge;
+			sources[ i ] = trackModel.getEdgeSource( edge );
+			targets[ i ] = trackModel.getEdgeTarget( edge );
+			weights[ i ] = trackModel.getEdgeWeight( edge );
+		}
+	}
+
+	/**
+	 * Computes the features of the specified edges with the specified
+	 * analyzers, in a single parallel pass over chunks of edges. The endpoints
+	 * of each edge are resolved once for all analyzers, and feature values are
+	 * computed in primitive columns and stored in the {@link FeatureModel} one
+	 * chunk at a time.
+	 *
+	 * @param edges
+	 *            the edges to analyze.
+	 * @param model
+	 *            the model the edges belong to.
+	 * @param analyzers
+	 *            the analyzers to run.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	@SuppressWarnings( "deprecation" )
+	public static void process( final Collection< DefaultWeightedEdge > edges, final Model model, final List< ? extends EdgeChunkAnalyzer > analyzers, final int numThreads )
+	{
+		if ( edges.isEmpty() || analyzers.isEmpty() )
+			return;
+
+		final DefaultWeightedEdge[] all = edges.toArray( new DefaultWeightedEdge[ edges.size() ] );
+		final int nChunks = ( all.length + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final List< List< String > > features = new ArrayList<>( analyzers.size() );
+		for ( final EdgeChunkAnalyzer analyzer : analyzers )
+			features.add( new ArrayList<>( analyzer.getFeatures() ) );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nChunks ) ) );
+		for ( int i = 0; i < threads.length; i++ )
+		{
+			threads[ i ] = new Thread( "EdgeChunk thread " + i )
+			{
+				@Override
+				public void run()
+				{
+					/*
+					 * Per-thread buffers. Column k of an analyzer receives the
+					 * values of feature k of its feature list, so we take this
+					 * list once and use it both to size the columns and to
+					 * store them.
+					 */
+					final EdgeChunk chunk = new EdgeChunk();
+					final double[][][] columns = new double[ analyzers.size() ][][];
+					for ( int a = 0; a < columns.length; a++ )
+						columns[ a ] = new double[ features.get( a ).size() ][ CHUNK_SIZE ];
+
+					for ( int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement() )
+					{
+						final int from = c * CHUNK_SIZE;
+						final int to = Math.min( all.length, from + CHUNK_SIZE );
+						chunk.set( all, from, to, trackModel );
+						for ( int a = 0; a < columns.length; a++ )
+						{
+							final EdgeChunkAnalyzer analyzer = analyzers.get( a );
+							analyzer.process( chunk, columns[ a ] );
+							fm.putEdgeFeatures( chunk.edges, chunk.size, features.get( a ), columns[ a ] );
+						}
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+}
@@ -0,0 +1,29 @@
+package fiji.plugin.trackmate.features.edges;
+
+import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
+
+/**
+ * Interface for {@link EdgeAnalyzer}s that can compute their features for a
+ * chunk of edges into primitive arrays.
+ * <p>
+ * The {@link EdgeFeatureCalculator} runs all such analyzers in a single
+ * parallel pass over chunks of edges, resolving the endpoints of each edge
+ * only once, and stores their values in the feature model in bulk.
+ * Implementations must be thread-safe.
+ */
+public interface EdgeChunkAnalyzer extends EdgeAnalyzer
+{
+
+	/**
+	 * Computes the features of the edges in the specified chunk.
+	 *
+	 * @param chunk
+	 *            the edges to analyze.
+	 * @param values
+	 *            the array to write feature values to, indexed by feature, in
+	 *            the order of {@link #getFeatures()}, then by edge index in
+	 *            the chunk.
+	 */
+	public void process( final EdgeChunk chunk, final double[][] values );
+
+}
@@ -2,26 +2,22 @@ package fiji.plugin.trackmate.features.edges;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
 
-import net.imglib2.multithreading.SimpleMultiThreading;
-
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
-@SuppressWarnings( "deprecation" )
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTargetAnalyzer implements EdgeAnalyzer
+public class EdgeTargetAnalyzer implements EdgeChunkAnalyzer
 {
 
 	public static final String KEY = "Edge target";
@@ -91,43 +87,28 @@ public class EdgeTargetAnalyzer implements EdgeAnalyzer
 	@Override
 	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
 	{
-
-		if ( edges.isEmpty() ) { return; }
-
-		final FeatureModel featureModel = model.getFeatureModel();
-
-		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< >( edges.size(), false, edges );
-
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
-		{
-			threads[ i ] = new Thread( "EdgeTargetAnalyzer thread " + i )
-			{
-				@Override
-				public void run()
-				{
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-						// Edge weight
-						featureModel.putEdgeFeature( edge, EDGE_COST, model.getTrackModel().getEdgeWeight( edge ) );
-						// Source & target name & ID
-						final Spot source = model.getTrackModel().getEdgeSource( edge );
-						featureModel.putEdgeFeature( edge, SPOT_SOURCE_ID, Double.valueOf( source.ID() ) );
-						final Spot target = model.getTrackModel().getEdgeTarget( edge );
-						featureModel.putEdgeFeature( edge, SPOT_TARGET_ID, Double.valueOf( target.ID() ) );
-					}
-
-				}
-			};
-		}
-
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		EdgeChunk.process( edges, model, Collections.singletonList( this ), numThreads );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final EdgeChunk chunk, final double[][] values )
+	{
+		final double[] sourceIDs = values[ FEATURES.indexOf( SPOT_SOURCE_ID ) ];
+		final double[] targetIDs = values[ FEATURES.indexOf( SPOT_TARGET_ID ) ];
+		final double[] costs = values[ FEATURES.indexOf( EDGE_COST ) ];
+		for ( int i = 0; i < chunk.size(); i++ )
+		{
+			// Source & target ID
+			sourceIDs[ i ] = chunk.source( i ).ID();
+			targetIDs[ i ] = chunk.target( i ).ID();
+			// Edge weight
+			costs[ i ] = chunk.weight( i );
+		}
+	}
+
 	@Override
 	public String getKey()
 	{
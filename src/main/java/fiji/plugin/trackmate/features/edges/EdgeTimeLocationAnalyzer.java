@@ -2,26 +2,22 @@ package fiji.plugin.trackmate.features.edges;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
 
-import net.imglib2.multithreading.SimpleMultiThreading;
-
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
-@SuppressWarnings( "deprecation" )
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer
+public class EdgeTimeLocationAnalyzer implements EdgeChunkAnalyzer
 {
 
 	public static final String KEY = "Edge mean location";
@@ -97,49 +93,31 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer
 	@Override
 	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
 	{
-
-		if ( edges.isEmpty() ) { return; }
-
-		final FeatureModel featureModel = model.getFeatureModel();
-
-		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< >( edges.size(), false, edges );
-
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
-		{
-			threads[ i ] = new Thread( "EdgeTimeLocationAnalyzer thread " + i )
-			{
-				@Override
-				public void run()
-				{
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-
-						final Spot source = model.getTrackModel().getEdgeSource( edge );
-						final Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-						final double x = 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) );
-						final double y = 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) );
-						final double z = 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) );
-						final double t = 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) );
-
-						featureModel.putEdgeFeature( edge, TIME, t );
-						featureModel.putEdgeFeature( edge, X_LOCATION, x );
-						featureModel.putEdgeFeature( edge, Y_LOCATION, y );
-						featureModel.putEdgeFeature( edge, Z_LOCATION, z );
-					}
-
-				}
-			};
-		}
-
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		EdgeChunk.process( edges, model, Collections.singletonList( this ), numThreads );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final EdgeChunk chunk, final double[][] values )
+	{
+		final double[] times = values[ FEATURES.indexOf( TIME ) ];
+		final double[] xs = values[ FEATURES.indexOf( X_LOCATION ) ];
+		final double[] ys = values[ FEATURES.indexOf( Y_LOCATION ) ];
+		final double[] zs = values[ FEATURES.indexOf( Z_LOCATION ) ];
+		for ( int i = 0; i < chunk.size(); i++ )
+		{
+			final Spot source = chunk.source( i );
+			final Spot target = chunk.target( i );
+
+			times[ i ] = 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) );
+			xs[ i ] = 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) );
+			ys[ i ] = 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) );
+			zs[ i ] = 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) );
+		}
+	}
+
 	@Override
 	public String getKey()
 	{
@@ -2,26 +2,22 @@ package fiji.plugin.trackmate.features.edges;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
 
-import net.imglib2.multithreading.SimpleMultiThreading;
-
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
-@SuppressWarnings( "deprecation" )
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeVelocityAnalyzer implements EdgeAnalyzer
+public class EdgeVelocityAnalyzer implements EdgeChunkAnalyzer
 {
 
 	public static final String KEY = "Edge velocity";
@@ -83,48 +79,34 @@ public class EdgeVelocityAnalyzer implements EdgeAnalyzer
 	@Override
 	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
 	{
-
-		if ( edges.isEmpty() ) { return; }
-
-		final FeatureModel featureModel = model.getFeatureModel();
-
-		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< >( edges.size(), false, edges );
-
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
-		{
-			threads[ i ] = new Thread( "EdgeVelocityAnalyzer thread " + i )
-			{
-				@Override
-				public void run()
-				{
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-						final Spot source = model.getTrackModel().getEdgeSource( edge );
-						final Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-						final double dx = target.diffTo( source, Spot.POSITION_X );
-						final double dy = target.diffTo( source, Spot.POSITION_Y );
-						final double dz = target.diffTo( source, Spot.POSITION_Z );
-						final double dt = target.diffTo( source, Spot.POSITION_T );
-						final double D = Math.sqrt( dx * dx + dy * dy + dz * dz );
-						final double V = D / Math.abs( dt );
-
-						featureModel.putEdgeFeature( edge, VELOCITY, V );
-						featureModel.putEdgeFeature( edge, DISPLACEMENT, D );
-					}
-
-				}
-			};
-		}
-
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		EdgeChunk.process( edges, model, Collections.singletonList( this ), numThreads );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final EdgeChunk chunk, final double[][] values )
+	{
+		final double[] velocities = values[ FEATURES.indexOf( VELOCITY ) ];
+		final double[] displacements = values[ FEATURES.indexOf( DISPLACEMENT ) ];
+		for ( int i = 0; i < chunk.size(); i++ )
+		{
+			final Spot source = chunk.source( i );
+			final Spot target = chunk.target( i );
+
+			final double dx = target.diffTo( source, Spot.POSITION_X );
+			final double dy = target.diffTo( source, Spot.POSITION_Y );
+			final double dz = target.diffTo( source, Spot.POSITION_Z );
+			final double dt = target.diffTo( source, Spot.POSITION_T );
+			final double D = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			final double V = D / Math.abs( dt );
+
+			velocities[ i ] = V;
+			displacements[ i ] = D;
+		}
+	}
+
 	@Override
 	public String getKey()
 	{
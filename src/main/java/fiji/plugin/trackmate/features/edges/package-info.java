@@ -3,7 +3,9 @@
  * spots (edges), such as instantaneous velocities, etc....
  * <p>
  * All analyzers should implement {@link fiji.plugin.trackmate.features.edges.EdgeAnalyzer},
- * which is limited to the independent analysis of a single edge.
+ * which is limited to the independent analysis of a single edge. Analyzers
+ * that also implement {@link fiji.plugin.trackmate.features.edges.EdgeChunkAnalyzer}
+ * are run together in a single pass over chunks of edges.
  * <p>
  * Registration of analyzers is done through SciJava plugins discovery mechanism. Annotate your
  * class with <code>@Plugin( type = EdgeAnalyzer.class )</code> to have it used in TrackMate.
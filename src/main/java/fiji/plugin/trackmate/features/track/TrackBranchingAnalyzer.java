@@ -3,26 +3,24 @@ package fiji.plugin.trackmate.features.track;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.multithreading.SimpleMultiThreading;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
 @SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class )
-public class TrackBranchingAnalyzer implements TrackAnalyzer
+public class TrackBranchingAnalyzer implements TrackSnapshotAnalyzer
 {
 
 	/*
@@ -112,6 +110,7 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer
 		if ( trackIDs.isEmpty() ) { return; }
 
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< >( trackIDs.size(), false, trackIDs );
+		final FeatureModel fm = model.getFeatureModel();
 
 		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 		for ( int i = 0; i < threads.length; i++ )
@@ -124,85 +123,7 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer
 					Integer trackID;
 					while ( ( trackID = queue.poll() ) != null )
 					{
-
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
-						int nmerges = 0;
-						int nsplits = 0;
-						int ncomplex = 0;
-						for ( final Spot spot : track )
-						{
-							final Set< DefaultWeightedEdge > edges = model.getTrackModel().edgesOf( spot );
-
-							// get neighbors
-							final Set< Spot > neighbors = new HashSet< >();
-							for ( final DefaultWeightedEdge edge : edges )
-							{
-								neighbors.add( model.getTrackModel().getEdgeSource( edge ) );
-								neighbors.add( model.getTrackModel().getEdgeTarget( edge ) );
-							}
-							neighbors.remove( spot );
-
-							// inspect neighbors relative time position
-							int earlier = 0;
-							int later = 0;
-							for ( final Spot neighbor : neighbors )
-							{
-								if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
-								{
-									earlier++; // neighbor is before in time
-								}
-								else
-								{
-									later++;
-								}
-							}
-
-							// Test for classical spot
-							if ( earlier == 1 && later == 1 )
-							{
-								continue;
-							}
-
-							// classify spot
-							if ( earlier <= 1 && later > 1 )
-							{
-								nsplits++;
-							}
-							else if ( later <= 1 && earlier > 1 )
-							{
-								nmerges++;
-							}
-							else if ( later > 1 && earlier > 1 )
-							{
-								ncomplex++;
-							}
-						}
-
-						int ngaps = 0, longestgap = 0;
-						for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
-						{
-							final Spot source = model.getTrackModel().getEdgeSource( edge );
-							final Spot target = model.getTrackModel().getEdgeTarget( edge );
-							final int gaplength = (int)Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
-							if ( gaplength > 0 )
-							{
-								ngaps++;
-								if ( longestgap < gaplength )
-								{
-									longestgap = gaplength;
-								}
-							}
-						}
-
-						// Put feature data
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
-						model.getFeatureModel().putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( track.size() ) );
-
+						process( TrackSnapshot.create( trackID, model ), fm );
 					}
 
 				}
@@ -215,6 +136,82 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final TrackSnapshot track, final FeatureModel fm )
+	{
+		/*
+		 * Count, for each spot, its neighbors before and after it in time,
+		 * and the gaps along edges.
+		 */
+
+		final int nspots = track.nSpots();
+		final int[] earlier = new int[ nspots ];
+		final int[] later = new int[ nspots ];
+		int ngaps = 0, longestgap = 0;
+		for ( int e = 0; e < track.nEdges(); e++ )
+		{
+			final int si = track.sourceIndex( e );
+			final int ti = track.targetIndex( e );
+			final Spot source = track.spot( si );
+			final Spot target = track.spot( ti );
+
+			// inspect neighbors relative time position
+			if ( source.diffTo( target, Spot.FRAME ) > 0 )
+				earlier[ si ]++; // neighbor is before in time
+			else
+				later[ si ]++;
+			if ( target.diffTo( source, Spot.FRAME ) > 0 )
+				earlier[ ti ]++;
+			else
+				later[ ti ]++;
+
+			final int gaplength = ( int ) Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
+			if ( gaplength > 0 )
+			{
+				ngaps++;
+				if ( longestgap < gaplength )
+				{
+					longestgap = gaplength;
+				}
+			}
+		}
+
+		int nmerges = 0;
+		int nsplits = 0;
+		int ncomplex = 0;
+		for ( int i = 0; i < nspots; i++ )
+		{
+			// Test for classical spot
+			if ( earlier[ i ] == 1 && later[ i ] == 1 )
+			{
+				continue;
+			}
+
+			// classify spot
+			if ( earlier[ i ] <= 1 && later[ i ] > 1 )
+			{
+				nsplits++;
+			}
+			else if ( later[ i ] <= 1 && earlier[ i ] > 1 )
+			{
+				nmerges++;
+			}
+			else if ( later[ i ] > 1 && earlier[ i ] > 1 )
+			{
+				ncomplex++;
+			}
+		}
+
+		// Put feature data
+		final Integer trackID = track.trackID();
+		fm.putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
+		fm.putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
+		fm.putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
+		fm.putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
+		fm.putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
+		fm.putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( nspots ) );
+	}
+
 	@Override
 	public int getNumThreads()
 	{
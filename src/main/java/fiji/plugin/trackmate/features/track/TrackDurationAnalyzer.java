@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
@@ -21,7 +20,7 @@ import fiji.plugin.trackmate.Spot;
 
 @SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class )
-public class TrackDurationAnalyzer implements TrackAnalyzer
+public class TrackDurationAnalyzer implements TrackSnapshotAnalyzer
 {
 
 	public static final String KEY = "Track duration";
@@ -107,36 +106,7 @@ public class TrackDurationAnalyzer implements TrackAnalyzer
 					Integer trackID;
 					while ( ( trackID = queue.poll() ) != null )
 					{
-
-						// I love brute force.
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-						double minT = Double.POSITIVE_INFINITY;
-						double maxT = Double.NEGATIVE_INFINITY;
-						Double t;
-						Spot startSpot = null;
-						Spot endSpot = null;
-						for ( final Spot spot : track )
-						{
-							t = spot.getFeature( Spot.POSITION_T );
-							if ( t < minT )
-							{
-								minT = t;
-								startSpot = spot;
-							}
-							if ( t > maxT )
-							{
-								maxT = t;
-								endSpot = spot;
-							}
-						}
-						if (null == startSpot || null == endSpot)
-							continue;
-						
-						fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
-						fm.putTrackFeature( trackID, TRACK_START, minT );
-						fm.putTrackFeature( trackID, TRACK_STOP, maxT );
-						fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
-
+						process( TrackSnapshot.create( trackID, model ), fm );
 					}
 				}
 			};
@@ -148,6 +118,39 @@ public class TrackDurationAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final TrackSnapshot track, final FeatureModel fm )
+	{
+		// I love brute force.
+		double minT = Double.POSITIVE_INFINITY;
+		double maxT = Double.NEGATIVE_INFINITY;
+		Spot startSpot = null;
+		Spot endSpot = null;
+		for ( int i = 0; i < track.nSpots(); i++ )
+		{
+			final Spot spot = track.spot( i );
+			final double t = spot.getFeature( Spot.POSITION_T ).doubleValue();
+			if ( t < minT )
+			{
+				minT = t;
+				startSpot = spot;
+			}
+			if ( t > maxT )
+			{
+				maxT = t;
+				endSpot = spot;
+			}
+		}
+		if ( null == startSpot || null == endSpot )
+			return;
+
+		final Integer trackID = track.trackID();
+		fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
+		fm.putTrackFeature( trackID, TRACK_START, minT );
+		fm.putTrackFeature( trackID, TRACK_STOP, maxT );
+		fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+	}
+
 	@Override
 	public int getNumThreads()
 	{
@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
@@ -21,7 +20,7 @@ import fiji.plugin.trackmate.Spot;
 
 @SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class )
-public class TrackLocationAnalyzer implements TrackAnalyzer
+public class TrackLocationAnalyzer implements TrackSnapshotAnalyzer
 {
 
 	/*
@@ -107,28 +106,7 @@ public class TrackLocationAnalyzer implements TrackAnalyzer
 					Integer trackID;
 					while ( ( trackID = queue.poll() ) != null )
 					{
-
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
-						double x = 0;
-						double y = 0;
-						double z = 0;
-
-						for ( final Spot spot : track )
-						{
-							x += spot.getFeature( Spot.POSITION_X );
-							y += spot.getFeature( Spot.POSITION_Y );
-							z += spot.getFeature( Spot.POSITION_Z );
-						}
-						final int nspots = track.size();
-						x /= nspots;
-						y /= nspots;
-						z /= nspots;
-
-						fm.putTrackFeature( trackID, X_LOCATION, x );
-						fm.putTrackFeature( trackID, Y_LOCATION, y );
-						fm.putTrackFeature( trackID, Z_LOCATION, z );
-
+						process( TrackSnapshot.create( trackID, model ), fm );
 					}
 
 				}
@@ -141,6 +119,31 @@ public class TrackLocationAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final TrackSnapshot track, final FeatureModel fm )
+	{
+		double x = 0;
+		double y = 0;
+		double z = 0;
+
+		final int nspots = track.nSpots();
+		for ( int i = 0; i < nspots; i++ )
+		{
+			final Spot spot = track.spot( i );
+			x += spot.getFeature( Spot.POSITION_X );
+			y += spot.getFeature( Spot.POSITION_Y );
+			z += spot.getFeature( Spot.POSITION_Z );
+		}
+		x /= nspots;
+		y /= nspots;
+		z /= nspots;
+
+		final Integer trackID = track.trackID();
+		fm.putTrackFeature( trackID, X_LOCATION, x );
+		fm.putTrackFeature( trackID, Y_LOCATION, y );
+		fm.putTrackFeature( trackID, Z_LOCATION, z );
+	}
+
 	@Override
 	public int getNumThreads()
 	{
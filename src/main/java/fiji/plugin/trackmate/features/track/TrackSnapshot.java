@@ -0,0 +1,130 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A read-only view over the spots and edges of a single track, fetched once
+ * from the {@link TrackModel} so that several {@link TrackSnapshotAnalyzer}s
+ * can walk them without querying the model again.
+ * <p>
+ * Edges are stored as two arrays of indices in the spot array, for their
+ * source and target spots.
+ */
+public class TrackSnapshot
+{
+
+	private final Integer trackID;
+
+	private final Spot[] spots;
+
+	private final DefaultWeightedEdge[] edges;
+
+	private final int[] sources;
+
+	private final int[] targets;
+
+	private TrackSnapshot( final Integer trackID, final Spot[] spots, final DefaultWeightedEdge[] edges, final int[] sources, final int[] targets )
+	{
+		this.trackID = trackID;
+		this.spots = spots;
+		this.edges = edges;
+		this.sources = sources;
+		this.targets = targets;
+	}
+
+	/**
+	 * Fetches the spots and edges of the specified track.
+	 *
+	 * @param trackID
+	 *            the ID of the track.
+	 * @param model
+	 *            the model to read the track from.
+	 * @return a new snapshot.
+	 */
+	public static TrackSnapshot create( final Integer trackID, final Model model )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< Spot > trackSpots = trackModel.trackSpots( trackID );
+		final Set< DefaultWeightedEdge > trackEdges = trackModel.trackEdges( trackID );
+
+		final Spot[] spots = trackSpots.toArray( new Spot[ trackSpots.size() ] );
+		final Map< Spot, Integer > indices = new HashMap<>( 2 * spots.length );
+		for ( int i = 0; i < spots.length; i++ )
+			indices.put( spots[ i ], Integer.valueOf( i ) );
+
+		final DefaultWeightedEdge[] edges = trackEdges.toArray( new DefaultWeightedEdge[ trackEdges.size() ] );
+		final int[] sources = new int[ edges.length ];
+		final int[] targets = new int[ edges.length ];
+		for ( int e = 0; e < edges.length; e++ )
+		{
+			sources[ e ] = indices.get( trackModel.getEdgeSource( edges[ e ] ) ).intValue();
+			targets[ e ] = indices.get( trackModel.getEdgeTarget( edges[ e ] ) ).intValue();
+		}
+		return new TrackSnapshot( trackID, spots, edges, sources, targets );
+	}
+
+	public Integer trackID()
+	{
+		return trackID;
+	}
+
+	/**
+	 * Returns the number of spots in the track.
+	 */
+	public int nSpots()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the number of edges in the track.
+	 */
+	public int nEdges()
+	{
+		return edges.length;
+	}
+
+	public Spot spot( final int index )
+	{
+		return spots[ index ];
+	}
+
+	public DefaultWeightedEdge edge( final int index )
+	{
+		return edges[ index ];
+	}
+
+	/**
+	 * Returns the index of the source spot of the specified edge.
+	 */
+	public int sourceIndex( final int edge )
+	{
+		return sources[ edge ];
+	}
+
+	/**
+	 * Returns the index of the target spot of the specified edge.
+	 */
+	public int targetIndex( final int edge )
+	{
+		return targets[ edge ];
+	}
+
+	public Spot source( final int edge )
+	{
+		return spots[ sources[ edge ] ];
+	}
+
+	public Spot target( final int edge )
+	{
+		return spots[ targets[ edge ] ];
+	}
+}
@@ -0,0 +1,29 @@
+package fiji.plugin.trackmate.features.track;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.features.TrackFeatureCalculator;
+
+/**
+ * Interface for local {@link TrackAnalyzer}s that can compute the features of
+ * a single track from a {@link TrackSnapshot}.
+ * <p>
+ * The {@link TrackFeatureCalculator} fetches each track once and feeds it to
+ * all such analyzers in a single parallel pass over tracks, instead of
+ * running them one after the other. Implementations must therefore be
+ * thread-safe, and must return <code>true</code> from {@link #isLocal()}.
+ */
+public interface TrackSnapshotAnalyzer extends TrackAnalyzer
+{
+
+	/**
+	 * Computes the features of the specified track and stores them in the
+	 * feature model.
+	 *
+	 * @param track
+	 *            the track to analyze.
+	 * @param fm
+	 *            the feature model to store feature values in.
+	 */
+	public void process( final TrackSnapshot track, final FeatureModel fm );
+
+}
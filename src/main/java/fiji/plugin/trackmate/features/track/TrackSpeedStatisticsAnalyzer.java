@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
@@ -13,7 +12,6 @@ import javax.swing.ImageIcon;
 import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.util.Util;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
@@ -23,7 +21,7 @@ import fiji.plugin.trackmate.Spot;
 
 @SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer
+public class TrackSpeedStatisticsAnalyzer implements TrackSnapshotAnalyzer
 {
 
 	/*
@@ -137,74 +135,7 @@ public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer
 					Integer trackID;
 					while ( ( trackID = queue.poll() ) != null )
 					{
-
-						final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-
-						double sum = 0;
-						double mean = 0;
-						double M2 = 0;
-						// double M3 = 0;
-						// double M4 = 0;
-						double delta, delta_n;
-						// double delta_n2;
-						double term1;
-						int n1;
-
-						// Others
-						Double val;
-						final double[] velocities = new double[ track.size() ];
-						int n = 0;
-
-						for ( final DefaultWeightedEdge edge : track )
-						{
-							final Spot source = model.getTrackModel().getEdgeSource( edge );
-							final Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-							// Edge velocity
-							final double d2 = source.squareDistanceTo( target );
-							final double dt = source.diffTo( target, Spot.POSITION_T );
-							val = Math.sqrt( d2 ) / Math.abs( dt );
-
-							// For median, min and max
-							velocities[ n ] = val;
-							// For variance and mean
-							sum += val;
-
-							// For kurtosis
-							n1 = n;
-							n++;
-							delta = val - mean;
-							delta_n = delta / n;
-							// delta_n2 = delta_n * delta_n;
-							term1 = delta * delta_n * n1;
-							mean = mean + delta_n;
-							// M4 = M4 + term1 * delta_n2 * (n*n - 3*n + 3) + 6
-							// * delta_n2 * M2 - 4 * delta_n * M3;
-							// M3 = M3 + term1 * delta_n * (n - 2) - 3 * delta_n
-							// * M2;
-							M2 = M2 + term1;
-						}
-
-						Util.quicksort( velocities, 0, track.size() - 1 );
-						final double median = velocities[ track.size() / 2 ];
-						final double min = velocities[ 0 ];
-						final double max = velocities[ track.size() - 1 ];
-						mean = sum / track.size();
-						final double variance = M2 / ( track.size() - 1 );
-						// double kurtosis = (n*M4) / (M2*M2) - 3;
-						// double skewness = Math.sqrt(n) * M3 / Math.pow(M2,
-						// 3/2.0) ;
-
-						fm.putTrackFeature( trackID, TRACK_MEDIAN_SPEED, median );
-						fm.putTrackFeature( trackID, TRACK_MIN_SPEED, min );
-						fm.putTrackFeature( trackID, TRACK_MAX_SPEED, max );
-						fm.putTrackFeature( trackID, TRACK_MEAN_SPEED, mean );
-						fm.putTrackFeature( trackID, TRACK_STD_SPEED, Math.sqrt( variance ) );
-						// fm.putTrackFeature(index, TRACK_SPEED_KURTOSIS,
-						// kurtosis);
-						// fm.putTrackFeature(index, TRACK_SPEED_SKEWNESS,
-						// skewness);
-
+						process( TrackSnapshot.create( trackID, model ), fm );
 					}
 
 				}
@@ -217,6 +148,64 @@ public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final TrackSnapshot track, final FeatureModel fm )
+	{
+		final int nEdges = track.nEdges();
+		if ( nEdges == 0 )
+			return;
+
+		double sum = 0;
+		double mean = 0;
+		double M2 = 0;
+		double delta, delta_n;
+		double term1;
+		int n1;
+
+		// Others
+		double val;
+		final double[] velocities = new double[ nEdges ];
+		int n = 0;
+
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			final Spot source = track.source( e );
+			final Spot target = track.target( e );
+
+			// Edge velocity
+			final double d2 = source.squareDistanceTo( target );
+			final double dt = source.diffTo( target, Spot.POSITION_T );
+			val = Math.sqrt( d2 ) / Math.abs( dt );
+
+			// For median, min and max
+			velocities[ n ] = val;
+			// For variance and mean
+			sum += val;
+
+			n1 = n;
+			n++;
+			delta = val - mean;
+			delta_n = delta / n;
+			term1 = delta * delta_n * n1;
+			mean = mean + delta_n;
+			M2 = M2 + term1;
+		}
+
+		Util.quicksort( velocities, 0, nEdges - 1 );
+		final double median = velocities[ nEdges / 2 ];
+		final double min = velocities[ 0 ];
+		final double max = velocities[ nEdges - 1 ];
+		mean = sum / nEdges;
+		final double variance = M2 / ( nEdges - 1 );
+
+		final Integer trackID = track.trackID();
+		fm.putTrackFeature( trackID, TRACK_MEDIAN_SPEED, median );
+		fm.putTrackFeature( trackID, TRACK_MIN_SPEED, min );
+		fm.putTrackFeature( trackID, TRACK_MAX_SPEED, max );
+		fm.putTrackFeature( trackID, TRACK_MEAN_SPEED, mean );
+		fm.putTrackFeature( trackID, TRACK_STD_SPEED, Math.sqrt( variance ) );
+	}
+
 	@Override
 	public int getNumThreads()
 	{
@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.ImageIcon;
@@ -22,7 +21,7 @@ import fiji.plugin.trackmate.Spot;
 
 @SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer
+public class TrackSpotQualityFeatureAnalyzer implements TrackSnapshotAnalyzer
 {
 
 	/*
@@ -123,40 +122,7 @@ public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer
 					Integer trackID;
 					while ( ( trackID = queue.poll() ) != null )
 					{
-
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
-						double sum = 0, sum2 = 0;
-
-						// Others
-						final double[] qualities = new double[ track.size() ];
-						int n = 0;
-
-						for ( final Spot spot : track )
-						{
-							final double val = spot.getFeature( Spot.QUALITY );
-
-							// For median, min and max
-							qualities[ n++ ] = val;
-							// For variance and mean
-							sum += val;
-							sum2 += val * val;
-						}
-
-						Util.quicksort( qualities, 0, track.size() - 1 );
-						final double median = qualities[ track.size() / 2 ];
-						final double min = qualities[ 0 ];
-						final double max = qualities[ track.size() - 1 ];
-						final double mean = sum / track.size();
-						final double mean2 = sum2 / track.size();
-						final double variance = mean2 - mean * mean;
-
-						fm.putTrackFeature( trackID, TRACK_MEDIAN_QUALITY, median );
-						fm.putTrackFeature( trackID, TRACK_MIN_QUALITY, min );
-						fm.putTrackFeature( trackID, TRACK_MAX_QUALITY, max );
-						fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, mean );
-						fm.putTrackFeature( trackID, TRACK_STD_QUALITY, Math.sqrt( variance ) );
-
+						process( TrackSnapshot.create( trackID, model ), fm );
 					}
 
 				}
@@ -169,6 +135,41 @@ public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
+	@Override
+	public void process( final TrackSnapshot track, final FeatureModel fm )
+	{
+		final int nspots = track.nSpots();
+		double sum = 0, sum2 = 0;
+
+		// Others
+		final double[] qualities = new double[ nspots ];
+		for ( int i = 0; i < nspots; i++ )
+		{
+			final double val = track.spot( i ).getFeature( Spot.QUALITY );
+
+			// For median, min and max
+			qualities[ i ] = val;
+			// For variance and mean
+			sum += val;
+			sum2 += val * val;
+		}
+
+		Util.quicksort( qualities, 0, nspots - 1 );
+		final double median = qualities[ nspots / 2 ];
+		final double min = qualities[ 0 ];
+		final double max = qualities[ nspots - 1 ];
+		final double mean = sum / nspots;
+		final double mean2 = sum2 / nspots;
+		final double variance = mean2 - mean * mean;
+
+		final Integer trackID = track.trackID();
+		fm.putTrackFeature( trackID, TRACK_MEDIAN_QUALITY, median );
+		fm.putTrackFeature( trackID, TRACK_MIN_QUALITY, min );
+		fm.putTrackFeature( trackID, TRACK_MAX_QUALITY, max );
+		fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, mean );
+		fm.putTrackFeature( trackID, TRACK_STD_QUALITY, Math.sqrt( variance ) );
+	}
+
 	@Override
 	public int getNumThreads()
 	{
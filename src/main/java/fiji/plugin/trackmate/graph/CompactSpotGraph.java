@@ -0,0 +1,738 @@
+package fiji.plugin.trackmate.graph;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.jgrapht.Graph;
+import org.jgrapht.GraphType;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DefaultGraphType;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A simple, undirected, weighted graph of {@link Spot}s, stored in primitive
+ * arrays indexed by dense <code>int</code> indices.
+ * <p>
+ * This graph can replace the JGraphT
+ * {@link org.jgrapht.graph.SimpleWeightedGraph} used to store tracks. It
+ * avoids the per-spot and per-edge containers of the JGraphT graph, but edges
+ * are still one {@link DefaultWeightedEdge} object each, so that they can be
+ * used as keys by the rest of TrackMate. Spots are given a dense index, looked up from their ID in a primitive hash
+ * table, and edges are instances of {@link CompactEdge} that carry
+ * their own index. Edge endpoints and weights are stored in <code>int[]</code>
+ * and <code>double[]</code> arrays, and the edges of each spot are chained in
+ * two linked lists stored in <code>int[]</code> arrays: one for the edges to
+ * spots later in time (successors), and one for the edges to spots earlier in
+ * time (predecessors). The time split is made with the {@link Spot#FRAME}
+ * feature of the spots when the edge is added.
+ * <p>
+ * Like all JGraphT graphs, this graph is not thread-safe for modifications,
+ * but can be read concurrently by several threads.
+ */
+public class CompactSpotGraph extends AbstractGraph< Spot, DefaultWeightedEdge >
+{
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final int NONE = -1;
+
+	/*
+	 * SPOTS
+	 */
+
+	private Spot[] spots = new Spot[ INITIAL_CAPACITY ];
+
+	/** Head of the successor edge list of each spot. */
+	private int[] firstSucc = new int[ INITIAL_CAPACITY ];
+
+	/** Head of the predecessor edge list of each spot. */
+	private int[] firstPred = new int[ INITIAL_CAPACITY ];
+
+	/** Number of spot indices ever used. */
+	private int spotHigh = 0;
+
+	private int nSpots = 0;
+
+	/** Head of the free spot index list, chained through firstSucc. */
+	private int freeSpot = NONE;
+
+	/** From spot ID to spot index. */
+	private final SpotIDTable table = new SpotIDTable( INITIAL_CAPACITY );
+
+	/*
+	 * EDGES
+	 */
+
+	private CompactEdge[] edges = new CompactEdge[ INITIAL_CAPACITY ];
+
+	/** Index of the earlier spot of each edge. */
+	private int[] early = new int[ INITIAL_CAPACITY ];
+
+	/** Index of the later spot of each edge. */
+	private int[] late = new int[ INITIAL_CAPACITY ];
+
+	/**
+	 * Whether the source of each edge is its later spot, to return sources and
+	 * targets as they were given.
+	 */
+	private boolean[] flipped = new boolean[ INITIAL_CAPACITY ];
+
+	private double[] weights = new double[ INITIAL_CAPACITY ];
+
+	/** Next edge in the successor list of the early spot of each edge. */
+	private int[] nextSucc = new int[ INITIAL_CAPACITY ];
+
+	/** Next edge in the predecessor list of the late spot of each edge. */
+	private int[] nextPred = new int[ INITIAL_CAPACITY ];
+
+	/** Number of edge indices ever used. */
+	private int edgeHigh = 0;
+
+	private int nEdges = 0;
+
+	/** Head of the free edge index list, chained through nextSucc. */
+	private int freeEdge = NONE;
+
+	private final Set< Spot > vertexSet = new SpotSet();
+
+	private final Set< DefaultWeightedEdge > edgeSet = new EdgeSet();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates an empty graph.
+	 */
+	public CompactSpotGraph()
+	{}
+
+	/**
+	 * Creates a graph with the spots and edges of the specified graph. The
+	 * edges of the new graph are new instances.
+	 *
+	 * @param graph
+	 *            the graph to copy.
+	 */
+	public CompactSpotGraph( final Graph< Spot, DefaultWeightedEdge > graph )
+	{
+		for ( final Spot spot : graph.vertexSet() )
+			addVertex( spot );
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			final DefaultWeightedEdge newEdge = addEdge( graph.getEdgeSource( edge ), graph.getEdgeTarget( edge ) );
+			setEdgeWeight( newEdge, graph.getEdgeWeight( edge ) );
+		}
+	}
+
+	/*
+	 * TIME-DIRECTED METHODS
+	 */
+
+	/**
+	 * Returns the edges linking the specified spot to spots later in time.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return a new set.
+	 */
+	public Set< DefaultWeightedEdge > successorEdgesOf( final Spot spot )
+	{
+		final int s = checkedIndexOf( spot );
+		final EdgeArraySet set = new EdgeArraySet();
+		for ( int e = firstSucc[ s ]; e != NONE; e = nextSucc[ e ] )
+			set.push( edges[ e ] );
+		return set;
+	}
+
+	/**
+	 * Returns the edges linking the specified spot to spots earlier in time.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return a new set.
+	 */
+	public Set< DefaultWeightedEdge > predecessorEdgesOf( final Spot spot )
+	{
+		final int s = checkedIndexOf( spot );
+		final EdgeArraySet set = new EdgeArraySet();
+		for ( int e = firstPred[ s ]; e != NONE; e = nextPred[ e ] )
+			set.push( edges[ e ] );
+		return set;
+	}
+
+	/*
+	 * GRAPH METHODS
+	 */
+
+	@Override
+	public Set< DefaultWeightedEdge > getAllEdges( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final DefaultWeightedEdge edge = getEdge( sourceVertex, targetVertex );
+		if ( null == edge )
+			return ( containsVertex( sourceVertex ) && containsVertex( targetVertex ) ) ? Collections.emptySet() : null;
+		return Collections.singleton( edge );
+	}
+
+	@Override
+	public DefaultWeightedEdge getEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int e = edgeBetween( indexOf( sourceVertex ), indexOf( targetVertex ) );
+		return e == NONE ? null : edges[ e ];
+	}
+
+	@Override
+	public Supplier< Spot > getVertexSupplier()
+	{
+		return null;
+	}
+
+	@Override
+	public Supplier< DefaultWeightedEdge > getEdgeSupplier()
+	{
+		return CompactEdge::new;
+	}
+
+	@Override
+	public DefaultWeightedEdge addEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final CompactEdge edge = new CompactEdge();
+		return addEdge( sourceVertex, targetVertex, edge ) ? edge : null;
+	}
+
+	@Override
+	public boolean addEdge( final Spot sourceVertex, final Spot targetVertex, final DefaultWeightedEdge e )
+	{
+		if ( null == e )
+			throw new NullPointerException();
+		if ( !( e instanceof CompactEdge ) )
+			throw new IllegalArgumentException( "Can only add edges created by a CompactSpotGraph." );
+		if ( containsEdge( e ) )
+			return false;
+
+		final CompactEdge edge = ( CompactEdge ) e;
+		if ( edge.index != NONE )
+			throw new IllegalArgumentException( "Edge belongs to another graph." );
+
+		final int s = checkedIndexOf( sourceVertex );
+		final int t = checkedIndexOf( targetVertex );
+		if ( s == t )
+			throw new IllegalArgumentException( "Loops not allowed." );
+		if ( edgeBetween( s, t ) != NONE )
+			return false;
+
+		final int index = newEdgeIndex();
+		final boolean flip = isLater( sourceVertex, targetVertex );
+		edge.graph = this;
+		edge.index = index;
+		edges[ index ] = edge;
+		early[ index ] = flip ? t : s;
+		late[ index ] = flip ? s : t;
+		flipped[ index ] = flip;
+		weights[ index ] = Graph.DEFAULT_EDGE_WEIGHT;
+
+		nextSucc[ index ] = firstSucc[ early[ index ] ];
+		firstSucc[ early[ index ] ] = index;
+		nextPred[ index ] = firstPred[ late[ index ] ];
+		firstPred[ late[ index ] ] = index;
+		nEdges++;
+		return true;
+	}
+
+	@Override
+	public Spot addVertex()
+	{
+		throw new UnsupportedOperationException( "The graph contains no vertex supplier." );
+	}
+
+	@Override
+	public boolean addVertex( final Spot v )
+	{
+		if ( null == v )
+			throw new NullPointerException();
+		if ( indexOf( v ) != NONE )
+			return false;
+
+		final int index;
+		if ( freeSpot != NONE )
+		{
+			index = freeSpot;
+			freeSpot = firstSucc[ index ];
+		}
+		else
+		{
+			if ( spotHigh == spots.length )
+			{
+				final int capacity = 2 * spots.length;
+				spots = Arrays.copyOf( spots, capacity );
+				firstSucc = Arrays.copyOf( firstSucc, capacity );
+				firstPred = Arrays.copyOf( firstPred, capacity );
+			}
+			index = spotHigh++;
+		}
+		spots[ index ] = v;
+		firstSucc[ index ] = NONE;
+		firstPred[ index ] = NONE;
+		nSpots++;
+		table.put( v.ID(), index );
+		return true;
+	}
+
+	@Override
+	public boolean containsEdge( final DefaultWeightedEdge e )
+	{
+		return edgeIndexOf( e ) != NONE;
+	}
+
+	@Override
+	public boolean containsVertex( final Spot v )
+	{
+		return indexOf( v ) != NONE;
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > edgeSet()
+	{
+		return edgeSet;
+	}
+
+	@Override
+	public int degreeOf( final Spot vertex )
+	{
+		final int s = checkedIndexOf( vertex );
+		int degree = 0;
+		for ( int e = firstSucc[ s ]; e != NONE; e = nextSucc[ e ] )
+			degree++;
+		for ( int e = firstPred[ s ]; e != NONE; e = nextPred[ e ] )
+			degree++;
+		return degree;
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > edgesOf( final Spot vertex )
+	{
+		final int s = checkedIndexOf( vertex );
+		final EdgeArraySet set = new EdgeArraySet();
+		for ( int e = firstPred[ s ]; e != NONE; e = nextPred[ e ] )
+			set.push( edges[ e ] );
+		for ( int e = firstSucc[ s ]; e != NONE; e = nextSucc[ e ] )
+			set.push( edges[ e ] );
+		return set;
+	}
+
+	@Override
+	public int inDegreeOf( final Spot vertex )
+	{
+		return degreeOf( vertex );
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > incomingEdgesOf( final Spot vertex )
+	{
+		return edgesOf( vertex );
+	}
+
+	@Override
+	public int outDegreeOf( final Spot vertex )
+	{
+		return degreeOf( vertex );
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > outgoingEdgesOf( final Spot vertex )
+	{
+		return edgesOf( vertex );
+	}
+
+	@Override
+	public DefaultWeightedEdge removeEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int e = edgeBetween( indexOf( sourceVertex ), indexOf( targetVertex ) );
+		if ( e == NONE )
+			return null;
+		final CompactEdge edge = edges[ e ];
+		removeEdgeIndex( e );
+		return edge;
+	}
+
+	@Override
+	public boolean removeEdge( final DefaultWeightedEdge e )
+	{
+		final int index = edgeIndexOf( e );
+		if ( index == NONE )
+			return false;
+		removeEdgeIndex( index );
+		return true;
+	}
+
+	@Override
+	public boolean removeVertex( final Spot v )
+	{
+		final int s = indexOf( v );
+		if ( s == NONE )
+			return false;
+
+		while ( firstSucc[ s ] != NONE )
+			removeEdgeIndex( firstSucc[ s ] );
+		while ( firstPred[ s ] != NONE )
+			removeEdgeIndex( firstPred[ s ] );
+
+		table.remove( spots[ s ].ID() );
+		spots[ s ] = null;
+		firstPred[ s ] = NONE;
+		firstSucc[ s ] = freeSpot;
+		freeSpot = s;
+		nSpots--;
+		return true;
+	}
+
+	@Override
+	public Set< Spot > vertexSet()
+	{
+		return vertexSet;
+	}
+
+	@Override
+	public Spot getEdgeSource( final DefaultWeightedEdge e )
+	{
+		final int index = checkedEdgeIndexOf( e );
+		return spots[ flipped[ index ] ? late[ index ] : early[ index ] ];
+	}
+
+	@Override
+	public Spot getEdgeTarget( final DefaultWeightedEdge e )
+	{
+		final int index = checkedEdgeIndexOf( e );
+		return spots[ flipped[ index ] ? early[ index ] : late[ index ] ];
+	}
+
+	@Override
+	public GraphType getType()
+	{
+		return DefaultGraphType.simple().asWeighted();
+	}
+
+	@Override
+	public double getEdgeWeight( final DefaultWeightedEdge e )
+	{
+		return weights[ checkedEdgeIndexOf( e ) ];
+	}
+
+	@Override
+	public void setEdgeWeight( final DefaultWeightedEdge e, final double weight )
+	{
+		weights[ checkedEdgeIndexOf( e ) ] = weight;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if the first spot is strictly later in time
+	 * than the second one.
+	 */
+	private static boolean isLater( final Spot s1, final Spot s2 )
+	{
+		final Double f1 = s1.getFeature( Spot.FRAME );
+		final Double f2 = s2.getFeature( Spot.FRAME );
+		if ( null != f1 && null != f2 )
+			return f1.doubleValue() > f2.doubleValue();
+		final Double t1 = s1.getFeature( Spot.POSITION_T );
+		final Double t2 = s2.getFeature( Spot.POSITION_T );
+		return null != t1 && null != t2 && t1.doubleValue() > t2.doubleValue();
+	}
+
+	private int indexOf( final Spot spot )
+	{
+		if ( null == spot )
+			return NONE;
+		return table.get( spot.ID() );
+	}
+
+	private int checkedIndexOf( final Spot spot )
+	{
+		final int index = indexOf( spot );
+		if ( index == NONE )
+			throw new IllegalArgumentException( "No such vertex in graph: " + spot );
+		return index;
+	}
+
+	private int edgeIndexOf( final DefaultWeightedEdge e )
+	{
+		if ( !( e instanceof CompactEdge ) )
+			return NONE;
+		final int index = ( ( CompactEdge ) e ).index;
+		if ( index < 0 || index >= edgeHigh || edges[ index ] != e )
+			return NONE;
+		return index;
+	}
+
+	private int checkedEdgeIndexOf( final DefaultWeightedEdge e )
+	{
+		final int index = edgeIndexOf( e );
+		if ( index == NONE )
+			throw new IllegalArgumentException( "No such edge in graph: " + e );
+		return index;
+	}
+
+	/**
+	 * Returns the index of the edge between the two specified spot indices,
+	 * whatever its direction.
+	 */
+	private int edgeBetween( final int s, final int t )
+	{
+		if ( s == NONE || t == NONE )
+			return NONE;
+		for ( int e = firstSucc[ s ]; e != NONE; e = nextSucc[ e ] )
+			if ( late[ e ] == t )
+				return e;
+		for ( int e = firstPred[ s ]; e != NONE; e = nextPred[ e ] )
+			if ( early[ e ] == t )
+				return e;
+		return NONE;
+	}
+
+	private int newEdgeIndex()
+	{
+		if ( freeEdge != NONE )
+		{
+			final int index = freeEdge;
+			freeEdge = nextSucc[ index ];
+			return index;
+		}
+		if ( edgeHigh == edges.length )
+		{
+			final int capacity = 2 * edges.length;
+			edges = Arrays.copyOf( edges, capacity );
+			early = Arrays.copyOf( early, capacity );
+			late = Arrays.copyOf( late, capacity );
+			flipped = Arrays.copyOf( flipped, capacity );
+			weights = Arrays.copyOf( weights, capacity );
+			nextSucc = Arrays.copyOf( nextSucc, capacity );
+			nextPred = Arrays.copyOf( nextPred, capacity );
+		}
+		return edgeHigh++;
+	}
+
+	private void removeEdgeIndex( final int index )
+	{
+		// Unlink from the successor list of the early spot.
+		final int s = early[ index ];
+		if ( firstSucc[ s ] == index )
+		{
+			firstSucc[ s ] = nextSucc[ index ];
+		}
+		else
+		{
+			int e = firstSucc[ s ];
+			while ( nextSucc[ e ] != index )
+				e = nextSucc[ e ];
+			nextSucc[ e ] = nextSucc[ index ];
+		}
+
+		// Unlink from the predecessor list of the late spot.
+		final int t = late[ index ];
+		if ( firstPred[ t ] == index )
+		{
+			firstPred[ t ] = nextPred[ index ];
+		}
+		else
+		{
+			int e = firstPred[ t ];
+			while ( nextPred[ e ] != index )
+				e = nextPred[ e ];
+			nextPred[ e ] = nextPred[ index ];
+		}
+
+		edges[ index ].graph = null;
+		edges[ index ].index = NONE;
+		edges[ index ] = null;
+		nextSucc[ index ] = freeEdge;
+		freeEdge = index;
+		nEdges--;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The edges of a {@link CompactSpotGraph}. They store their graph and
+	 * their index in it, and are only compared by identity. Their source,
+	 * target and weight are read from the graph.
+	 */
+	public static class CompactEdge extends DefaultWeightedEdge
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private transient CompactSpotGraph graph;
+
+		private int index = NONE;
+
+		@Override
+		protected Object getSource()
+		{
+			return null == graph ? null : graph.getEdgeSource( this );
+		}
+
+		@Override
+		protected Object getTarget()
+		{
+			return null == graph ? null : graph.getEdgeTarget( this );
+		}
+
+		@Override
+		protected double getWeight()
+		{
+			return null == graph ? Graph.DEFAULT_EDGE_WEIGHT : graph.getEdgeWeight( this );
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + getSource() + " : " + getTarget() + ")";
+		}
+	}
+
+	/**
+	 * A live, unmodifiable view on the spots of this graph.
+	 */
+	private final class SpotSet extends AbstractSet< Spot >
+	{
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return ( o instanceof Spot ) && containsVertex( ( Spot ) o );
+		}
+
+		@Override
+		public int size()
+		{
+			return nSpots;
+		}
+
+		@Override
+		public Iterator< Spot > iterator()
+		{
+			return new ArrayIterator<>( spots, spotHigh );
+		}
+	}
+
+	/**
+	 * A live, unmodifiable view on the edges of this graph.
+	 */
+	private final class EdgeSet extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return ( o instanceof DefaultWeightedEdge ) && containsEdge( ( DefaultWeightedEdge ) o );
+		}
+
+		@Override
+		public int size()
+		{
+			return nEdges;
+		}
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new ArrayIterator<>( edges, edgeHigh );
+		}
+	}
+
+	/**
+	 * Iterates over the non-<code>null</code> elements of an array.
+	 */
+	private static final class ArrayIterator< T > implements Iterator< T >
+	{
+
+		private final T[] array;
+
+		private final int high;
+
+		private int next = -1;
+
+		private ArrayIterator( final T[] array, final int high )
+		{
+			this.array = array;
+			this.high = high;
+			advance();
+		}
+
+		private void advance()
+		{
+			next++;
+			while ( next < high && null == array[ next ] )
+				next++;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < high;
+		}
+
+		@Override
+		public T next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			final T t = array[ next ];
+			advance();
+			return t;
+		}
+	}
+
+	/**
+	 * A small, unmodifiable set of edges backed by an array. Since the edges of
+	 * a spot are few and distinct, elements are not checked for duplicates.
+	 */
+	private static final class EdgeArraySet extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		private DefaultWeightedEdge[] array = new DefaultWeightedEdge[ 4 ];
+
+		private int size = 0;
+
+		private void push( final DefaultWeightedEdge e )
+		{
+			if ( size == array.length )
+				array = Arrays.copyOf( array, 2 * size );
+			array[ size++ ] = e;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			for ( int i = 0; i < size; i++ )
+				if ( array[ i ] == o )
+					return true;
+			return false;
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new ArrayIterator<>( array, size );
+		}
+	}
+}
@@ -9,17 +9,22 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.jgrapht.alg.connectivity.ConnectivityInspector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleDirectedGraph;
-import org.jgrapht.graph.SimpleGraph;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackModel;
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
 
 /**
  * A class that can decompose the tracks of a {@link Model} in convex branches.
@@ -143,7 +148,7 @@ import net.imglib2.algorithm.Benchmark;
  * 
  * @author Jean-Yves Tinevez - 2014
  */
-public class ConvexBranchesDecomposition implements Algorithm, Benchmark
+public class ConvexBranchesDecomposition implements Algorithm, Benchmark, MultiThreaded
 {
 	private static final String BASE_ERROR_MSG = "[ConvexBranchesDecomposition] ";
 
@@ -161,7 +166,7 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 
 	private final TrackModel tm;
 
-	private final TimeDirectedNeighborIndex neighborIndex;
+	private int numThreads;
 
 	private final boolean forbidMiddleLinks;
 
@@ -190,7 +195,7 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		this.forbidMiddleLinks = forbidMiddleLinks;
 		this.forbidGaps = forbidGaps;
 		this.tm = model.getTrackModel();
-		this.neighborIndex = tm.getDirectedNeighborIndex();
+		setNumThreads();
 	}
 
 	/**
@@ -236,15 +241,52 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 	{
 		final long startT = System.currentTimeMillis();
 
-		final Set< Integer > trackIDs = tm.trackIDs( true );
+		final List< Integer > trackIDs = new ArrayList<>( tm.trackIDs( true ) );
+		final TimeDirectedNeighborSnapshot neighborIndex = TimeDirectedNeighborSnapshot.create( tm, numThreads );
+
+		/*
+		 * Tracks are independent: decompose them in parallel, with at most
+		 * numThreads tasks run by the common fork-join pool.
+		 */
+		final TrackBranchDecomposition[] decompositions = new TrackBranchDecomposition[ trackIDs.size() ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final int nTasks = Math.max( 1, Math.min( numThreads, trackIDs.size() ) );
+		final List< Callable< Void > > tasks = new ArrayList<>( nTasks );
+		for ( int i = 0; i < nTasks; i++ )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					for ( int t = ai.getAndIncrement(); t < decompositions.length; t = ai.getAndIncrement() )
+						decompositions[ t ] = processTrack( trackIDs.get( t ), tm, neighborIndex, forbidMiddleLinks, forbidGaps );
+					return null;
+				}
+			} );
+		}
+		for ( final Future< Void > future : ForkJoinPool.commonPool().invokeAll( tasks ) )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				errorMessage = BASE_ERROR_MSG + "Problem decomposing tracks: " + e.getMessage() + '\n';
+				return false;
+			}
+		}
 
+		// Collect results in track order.
 		branches = new ArrayList<>();
 		branchesPerTrack = new HashMap<>();
 		links = new ArrayList< >();
 		linksPerTrack = new HashMap<>();
-		for ( final Integer trackID : trackIDs )
+		for ( int t = 0; t < decompositions.length; t++ )
 		{
-			final TrackBranchDecomposition branchDecomposition = processTrack( trackID, tm, neighborIndex, forbidMiddleLinks, forbidGaps );
+			final Integer trackID = trackIDs.get( t );
+			final TrackBranchDecomposition branchDecomposition = decompositions[ t ];
 
 			branchesPerTrack.put( trackID, branchDecomposition.branches );
 			linksPerTrack.put( trackID, branchDecomposition.links );
@@ -269,8 +311,9 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 	 * @param tm
 	 *            the {@link TrackModel} in which the track is stored.
 	 * @param neighborIndex
-	 *            a {@link TimeDirectedNeighborIndex} needed to quickly retrieve
-	 *            neighbors in the mother graph.
+	 *            a {@link TimeDirectedNeighbors} needed to quickly retrieve
+	 *            neighbors in the mother graph, such as a
+	 *            {@link TimeDirectedNeighborSnapshot} of the model.
 	 * @param forbidMiddleLinks
 	 *            if <code>true</code>, the decomposition will include branches
 	 *            where only the first and last spots may have more than one
@@ -284,20 +327,14 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 	 * @return a new {@link TrackBranchDecomposition}.
 	 * @see ConvexBranchesDecomposition
 	 */
-	public static final TrackBranchDecomposition processTrack( final Integer trackID, final TrackModel tm, final TimeDirectedNeighborIndex neighborIndex, final boolean forbidMiddleLinks, final boolean forbidGaps )
+	public static final TrackBranchDecomposition processTrack( final Integer trackID, final TrackModel tm, final TimeDirectedNeighbors neighborIndex, final boolean forbidMiddleLinks, final boolean forbidGaps )
 	{
 		final Set< Spot > allSpots = tm.trackSpots( trackID );
-		final Set< DefaultWeightedEdge > allEdges = tm.trackEdges( trackID );
-		final SimpleGraph< Spot, DefaultWeightedEdge > graph = new SimpleGraph< >( DefaultWeightedEdge.class );
 
-		for ( final Spot spot : allSpots )
-		{
-			graph.addVertex( spot );
-		}
-		for ( final DefaultWeightedEdge edge : allEdges )
-		{
-			graph.addEdge( tm.getEdgeSource( edge ), tm.getEdgeTarget( edge ) );
-		}
+		/*
+		 * 1st pass: cut links around branching points. Links are stored from
+		 * the earliest spot to the latest.
+		 */
 
 		final Collection< List< Spot >> links = new HashSet< >();
 		for ( final Spot spot : allSpots )
@@ -320,7 +357,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 					}
 					else
 					{
-						graph.removeEdge( spot, successor );
 						links.add( makeLink( spot, successor ) );
 					}
 				}
@@ -336,7 +372,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 					}
 					else
 					{
-						graph.removeEdge( predecessor, spot );
 						links.add( makeLink( predecessor, spot ) );
 					}
 				}
@@ -348,13 +383,11 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 				{
 					for ( final Spot successor : successors )
 					{
-						graph.removeEdge( spot, successor );
 						links.add( makeLink( spot, successor ) );
 					}
 				}
 				else
 				{
-					graph.removeEdge( previous, spot );
 					links.add( makeLink( previous, spot ) );
 					boolean found = false;
 					for ( final Spot successor : successors )
@@ -365,7 +398,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 						}
 						else
 						{
-							graph.removeEdge( spot, successor );
 							links.add( makeLink( spot, successor ) );
 						}
 					}
@@ -378,13 +410,11 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 				{
 					for ( final Spot predecessor : predecessors )
 					{
-						graph.removeEdge( predecessor, spot );
 						links.add( makeLink( predecessor, spot ) );
 					}
 				}
 				else
 				{
-					graph.removeEdge( spot, next );
 					links.add( makeLink( spot, next ) );
 					boolean found = false;
 					for ( final Spot predecessor : predecessors )
@@ -395,7 +425,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 						}
 						else
 						{
-							graph.removeEdge( predecessor, spot );
 							links.add( makeLink( predecessor, spot ) );
 						}
 					}
@@ -416,7 +445,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 					}
 					else
 					{
-						graph.removeEdge( predecessor, spot );
 						links.add( makeLink( predecessor, spot ) );
 					}
 				}
@@ -434,7 +462,6 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 					}
 					else
 					{
-						graph.removeEdge( spot, successor );
 						links.add( makeLink( spot, successor ) );
 					}
 				}
@@ -442,45 +469,67 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		}
 
 		/*
-		 * 2nd pass: remove gaps.
+		 * 2nd pass: join the spots along the links that were not cut, and cut
+		 * gaps if required. Branches are the connected components we get.
 		 */
 
-		if ( forbidGaps )
+		final Spot[] spots = allSpots.toArray( new Spot[ allSpots.size() ] );
+		final Map< Spot, Integer > indices = new HashMap<>( 2 * spots.length );
+		for ( int i = 0; i < spots.length; i++ )
+			indices.put( spots[ i ], Integer.valueOf( i ) );
+
+		final int[] parent = new int[ spots.length ];
+		for ( int i = 0; i < parent.length; i++ )
+			parent[ i ] = i;
+
+		for ( int i = 0; i < spots.length; i++ )
 		{
-			final Set< DefaultWeightedEdge > newEdges = graph.edgeSet();
-			final Set< DefaultWeightedEdge > toRemove = new HashSet< >();
-			for ( final DefaultWeightedEdge edge : newEdges )
+			final Spot spot = spots[ i ];
+			for ( final Spot successor : neighborIndex.successorsOf( spot ) )
 			{
-				final Spot source = graph.getEdgeSource( edge );
-				final Spot target = graph.getEdgeTarget( edge );
-				if ( Math.abs( source.diffTo( target, Spot.FRAME ) ) > 1 )
+				final List< Spot > link = makeLink( spot, successor );
+				if ( links.contains( link ) )
+					continue;
+
+				if ( forbidGaps && Math.abs( successor.diffTo( spot, Spot.FRAME ) ) > 1 )
 				{
-					toRemove.add( edge );
-					links.add( makeLink( source, target ) );
+					links.add( link );
+					continue;
 				}
+				union( parent, i, indices.get( successor ).intValue() );
 			}
+		}
 
-			for ( final DefaultWeightedEdge edge : toRemove )
-			{
-				graph.removeEdge( edge );
-			}
+		// Links within a frame are not time-directed, and are never cut.
+		for ( final DefaultWeightedEdge edge : tm.trackEdges( trackID ) )
+		{
+			final Spot source = tm.getEdgeSource( edge );
+			final Spot target = tm.getEdgeTarget( edge );
+			if ( source.diffTo( target, Spot.FRAME ) == 0d )
+				union( parent, indices.get( source ).intValue(), indices.get( target ).intValue() );
 		}
 
 		/*
 		 * Output
 		 */
 
-		final ConnectivityInspector< Spot, DefaultWeightedEdge > connectivity = new ConnectivityInspector< >( graph );
-		final List< Set< Spot >> connectedSets = connectivity.connectedSets();
-		final Collection< List< Spot >> branches = new HashSet< >( connectedSets.size() );
-		final Comparator< Spot > comparator = Spot.frameComparator;
-		for ( final Set< Spot > set : connectedSets )
+		final Map< Integer, List< Spot > > branchMap = new HashMap<>();
+		final Collection< List< Spot >> branches = new ArrayList< >();
+		for ( int i = 0; i < spots.length; i++ )
 		{
-			final List< Spot > branch = new ArrayList< >( set.size() );
-			branch.addAll( set );
-			Collections.sort( branch, comparator );
-			branches.add( branch );
+			final Integer root = Integer.valueOf( find( parent, i ) );
+			List< Spot > branch = branchMap.get( root );
+			if ( null == branch )
+			{
+				branch = new ArrayList<>();
+				branchMap.put( root, branch );
+				branches.add( branch );
+			}
+			branch.add( spots[ i ] );
 		}
+		final Comparator< Spot > comparator = Spot.frameComparator;
+		for ( final List< Spot > branch : branches )
+			Collections.sort( branch, comparator );
 
 		final TrackBranchDecomposition output = new TrackBranchDecomposition();
 		output.branches = branches;
@@ -562,6 +611,24 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		return branchGraph;
 	}
 
+	private static final int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	private static final void union( final int[] parent, final int i, final int j )
+	{
+		final int ri = find( parent, i );
+		final int rj = find( parent, j );
+		if ( ri != rj )
+			parent[ Math.max( ri, rj ) ] = Math.min( ri, rj );
+	}
+
 	private static final List< Spot > makeLink( final Spot spotA, final Spot spotB )
 	{
 		final List< Spot > link = new ArrayList< >( 2 );
@@ -576,6 +643,24 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		return errorMessage;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	/**
 	 * Returns the collection of branches built by this algorithm.
 	 * <p>
@@ -29,7 +29,7 @@ public class GraphUtils {
 		/*
 		 * Get directed cache
 		 */
-		TimeDirectedNeighborIndex cache = model.getDirectedNeighborIndex();
+		TimeDirectedNeighbors cache = model.getDirectedNeighborSnapshot();
 		
 		/*
 		 * Check input
@@ -233,13 +233,13 @@ public class GraphUtils {
 	
 	
 	
-	public static final boolean isTree(TrackModel model, TimeDirectedNeighborIndex cache) {
+	public static final boolean isTree(TrackModel model, TimeDirectedNeighbors cache) {
 		return isTree(model.vertexSet(), cache);
 	}
 	
 
 	
-	public static final boolean isTree(Iterable<Spot> spots, TimeDirectedNeighborIndex cache) {
+	public static final boolean isTree(Iterable<Spot> spots, TimeDirectedNeighbors cache) {
 		for (Spot spot : spots) {
 			if (cache.predecessorsOf(spot).size() > 1) {
 				return false;
@@ -268,7 +268,7 @@ public class GraphUtils {
 		 * Build isleaf tree
 		 */
 
-		final TimeDirectedNeighborIndex cache = model.getDirectedNeighborIndex();
+		final TimeDirectedNeighbors cache = model.getDirectedNeighborSnapshot();
 
 		Function1<Spot, int[]> isLeafFun = new Function1<Spot, int[]>() {
 			@Override
@@ -0,0 +1,126 @@
+package fiji.plugin.trackmate.graph;
+
+import java.util.Arrays;
+
+/**
+ * A primitive hash table from spot IDs to <code>int</code> indices, with open
+ * addressing and linear probing. Indices must be positive or zero.
+ */
+public class SpotIDTable
+{
+
+	public static final int NONE = -1;
+
+	private int[] keys;
+
+	/** Values, {@link #NONE} marks empty slots. */
+	private int[] values;
+
+	private int size = 0;
+
+	/**
+	 * Creates a table sized for the specified number of entries.
+	 */
+	public SpotIDTable( final int expectedSize )
+	{
+		int capacity = 16;
+		while ( capacity < 2 * expectedSize )
+			capacity *= 2;
+		keys = new int[ capacity ];
+		values = newValues( capacity );
+	}
+
+	/**
+	 * Returns the index stored for the specified spot ID, or {@link #NONE}.
+	 */
+	public int get( final int id )
+	{
+		final int mask = keys.length - 1;
+		for ( int i = slot( id, mask );; i = ( i + 1 ) & mask )
+		{
+			final int value = values[ i ];
+			if ( value == NONE )
+				return NONE;
+			if ( keys[ i ] == id )
+				return value;
+		}
+	}
+
+	/**
+	 * Stores the index of a spot ID that is not in the table yet.
+	 */
+	public void put( final int id, final int index )
+	{
+		if ( 2 * ( size + 1 ) > keys.length )
+		{
+			// Grow and rehash.
+			final int[] oldKeys = keys;
+			final int[] oldValues = values;
+			keys = new int[ 2 * oldKeys.length ];
+			values = newValues( 2 * oldKeys.length );
+			for ( int i = 0; i < oldKeys.length; i++ )
+				if ( oldValues[ i ] != NONE )
+					insert( oldKeys[ i ], oldValues[ i ] );
+		}
+		insert( id, index );
+		size++;
+	}
+
+	public void remove( final int id )
+	{
+		final int mask = keys.length - 1;
+		int i = slot( id, mask );
+		while ( keys[ i ] != id || values[ i ] == NONE )
+		{
+			if ( values[ i ] == NONE )
+				return;
+			i = ( i + 1 ) & mask;
+		}
+
+		// Backward shift deletion.
+		int j = i;
+		while ( true )
+		{
+			j = ( j + 1 ) & mask;
+			if ( values[ j ] == NONE )
+				break;
+			final int k = slot( keys[ j ], mask );
+			// Move j to i if its home slot k is not cyclically in ]i, j].
+			if ( i <= j ? ( k <= i || k > j ) : ( k <= i && k > j ) )
+			{
+				keys[ i ] = keys[ j ];
+				values[ i ] = values[ j ];
+				i = j;
+			}
+		}
+		values[ i ] = NONE;
+		size--;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void insert( final int id, final int index )
+	{
+		final int mask = keys.length - 1;
+		int i = slot( id, mask );
+		while ( values[ i ] != NONE )
+			i = ( i + 1 ) & mask;
+		keys[ i ] = id;
+		values[ i ] = index;
+	}
+
+	private static int[] newValues( final int capacity )
+	{
+		final int[] array = new int[ capacity ];
+		Arrays.fill( array, NONE );
+		return array;
+	}
+
+	private static int slot( final int id, final int mask )
+	{
+		final int h = id * 0x9E3779B9;
+		return ( h ^ ( h >>> 16 ) ) & mask;
+	}
+}
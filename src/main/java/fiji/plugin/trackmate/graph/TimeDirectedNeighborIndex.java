@@ -19,7 +19,7 @@ import org.jgrapht.util.ModifiableInteger;
 
 import fiji.plugin.trackmate.Spot;
 
-public class TimeDirectedNeighborIndex extends NeighborCache< Spot, DefaultWeightedEdge >
+public class TimeDirectedNeighborIndex extends NeighborCache< Spot, DefaultWeightedEdge > implements TimeDirectedNeighbors
 {
 
 	// ~ Instance fields
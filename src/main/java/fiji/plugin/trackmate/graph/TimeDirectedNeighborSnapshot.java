@@ -0,0 +1,353 @@
+package fiji.plugin.trackmate.graph;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * An immutable snapshot of the predecessors and successors in time of all the
+ * spots of a {@link TrackModel}.
+ * <p>
+ * Spots are given a dense index, and their neighbors are stored in compressed
+ * sparse row arrays: the successors of the spot with index <code>i</code> are
+ * the spots whose indices are stored in the successor array between
+ * <code>successorOffset[i]</code> (inclusive) and
+ * <code>successorOffset[i+1]</code> (exclusive), and likewise for
+ * predecessors. Neighbors are listed in the order of
+ * {@link TrackModel#edgesOf(Spot)}, so that this snapshot returns the same
+ * neighbors in the same order as a {@link TimeDirectedNeighborIndex}.
+ * <p>
+ * Unlike the {@link TimeDirectedNeighborIndex}, this snapshot is not updated
+ * when the model changes, and can be shared by several threads. Algorithms
+ * that traverse whole tracks can use the index-based methods of this class
+ * to avoid creating objects.
+ */
+public class TimeDirectedNeighborSnapshot implements TimeDirectedNeighbors
+{
+
+	/** Number of spots processed in one go by a thread. */
+	private static final int CHUNK_SIZE = 4096;
+
+	private final Spot[] spots;
+
+	private final int[] frames;
+
+	private final SpotIDTable table;
+
+	private final int[] successorOffsets;
+
+	private final int[] successors;
+
+	private final int[] predecessorOffsets;
+
+	private final int[] predecessors;
+
+	private TimeDirectedNeighborSnapshot( final Spot[] spots, final int[] frames, final SpotIDTable table, final int[] successorOffsets, final int[] successors, final int[] predecessorOffsets, final int[] predecessors )
+	{
+		this.spots = spots;
+		this.frames = frames;
+		this.table = table;
+		this.successorOffsets = successorOffsets;
+		this.successors = successors;
+		this.predecessorOffsets = predecessorOffsets;
+		this.predecessors = predecessors;
+	}
+
+	/*
+	 * STATIC FACTORY
+	 */
+
+	/**
+	 * Builds a snapshot of the time-directed neighbors of all the spots in the
+	 * specified model, in one pass over the spots shared by several threads.
+	 *
+	 * @param tm
+	 *            the track model. It must not be modified while the snapshot
+	 *            is built.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new snapshot.
+	 */
+	@SuppressWarnings( "deprecation" )
+	public static TimeDirectedNeighborSnapshot create( final TrackModel tm, final int numThreads )
+	{
+		final Spot[] spots = tm.vertexSet().toArray( new Spot[ 0 ] );
+		final int n = spots.length;
+		final SpotIDTable table = new SpotIDTable( n );
+		final int[] frames = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			table.put( spots[ i ].ID(), i );
+			frames[ i ] = spots[ i ].getFeature( Spot.FRAME ).intValue();
+		}
+
+		/*
+		 * Collect neighbors chunk by chunk. Neighbor counts are stored in the
+		 * offset arrays, shifted by one.
+		 */
+
+		final int nChunks = ( n + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		final int[] successorOffsets = new int[ n + 1 ];
+		final int[] predecessorOffsets = new int[ n + 1 ];
+		final int[][] chunkSuccessors = new int[ nChunks ][];
+		final int[][] chunkPredecessors = new int[ nChunks ][];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, nChunks ) ) );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "TimeDirectedNeighborSnapshot thread " + ithread )
+			{
+				@Override
+				public void run()
+				{
+					final IntList succ = new IntList();
+					final IntList pred = new IntList();
+					for ( int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement() )
+					{
+						succ.clear();
+						pred.clear();
+						final int to = Math.min( n, ( c + 1 ) * CHUNK_SIZE );
+						for ( int i = c * CHUNK_SIZE; i < to; i++ )
+						{
+							final Spot spot = spots[ i ];
+							for ( final DefaultWeightedEdge edge : tm.edgesOf( spot ) )
+							{
+								final Spot source = tm.getEdgeSource( edge );
+								final Spot other = ( source.ID() == spot.ID() ) ? tm.getEdgeTarget( edge ) : source;
+								final int j = table.get( other.ID() );
+								if ( frames[ j ] > frames[ i ] )
+								{
+									succ.add( j );
+									successorOffsets[ i + 1 ]++;
+								}
+								else if ( frames[ j ] < frames[ i ] )
+								{
+									pred.add( j );
+									predecessorOffsets[ i + 1 ]++;
+								}
+							}
+						}
+						chunkSuccessors[ c ] = succ.toArray();
+						chunkPredecessors[ c ] = pred.toArray();
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+
+		/*
+		 * Cumulate counts and concatenate chunks.
+		 */
+
+		for ( int i = 0; i < n; i++ )
+		{
+			successorOffsets[ i + 1 ] += successorOffsets[ i ];
+			predecessorOffsets[ i + 1 ] += predecessorOffsets[ i ];
+		}
+		final int[] successors = new int[ successorOffsets[ n ] ];
+		final int[] predecessors = new int[ predecessorOffsets[ n ] ];
+		for ( int c = 0; c < nChunks; c++ )
+		{
+			final int from = c * CHUNK_SIZE;
+			System.arraycopy( chunkSuccessors[ c ], 0, successors, successorOffsets[ from ], chunkSuccessors[ c ].length );
+			System.arraycopy( chunkPredecessors[ c ], 0, predecessors, predecessorOffsets[ from ], chunkPredecessors[ c ].length );
+		}
+
+		return new TimeDirectedNeighborSnapshot( spots, frames, table, successorOffsets, successors, predecessorOffsets, predecessors );
+	}
+
+	/*
+	 * INDEX METHODS
+	 */
+
+	/**
+	 * Returns the number of spots in this snapshot.
+	 */
+	public int size()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the index of the specified spot, or -1 if it is not in this
+	 * snapshot.
+	 */
+	public int indexOf( final Spot spot )
+	{
+		return table.get( spot.ID() );
+	}
+
+	public Spot spot( final int index )
+	{
+		return spots[ index ];
+	}
+
+	/**
+	 * Returns the frame of the spot with the specified index, as it was when
+	 * this snapshot was built.
+	 */
+	public int frame( final int index )
+	{
+		return frames[ index ];
+	}
+
+	public int nSuccessors( final int index )
+	{
+		return successorOffsets[ index + 1 ] - successorOffsets[ index ];
+	}
+
+	/**
+	 * Returns the index of the k-th successor of the spot with the specified
+	 * index.
+	 */
+	public int successor( final int index, final int k )
+	{
+		return successors[ successorOffsets[ index ] + k ];
+	}
+
+	public int nPredecessors( final int index )
+	{
+		return predecessorOffsets[ index + 1 ] - predecessorOffsets[ index ];
+	}
+
+	/**
+	 * Returns the index of the k-th predecessor of the spot with the
+	 * specified index.
+	 */
+	public int predecessor( final int index, final int k )
+	{
+		return predecessors[ predecessorOffsets[ index ] + k ];
+	}
+
+	/*
+	 * TIMEDIRECTEDNEIGHBORS METHODS
+	 */
+
+	/**
+	 * Returns an unmodifiable view on the predecessors of the specified spot.
+	 * The set is empty if the spot is not in this snapshot.
+	 */
+	@Override
+	public Set< Spot > predecessorsOf( final Spot v )
+	{
+		final int index = indexOf( v );
+		if ( index < 0 )
+			return Collections.emptySet();
+		return new NeighborSet( predecessors, predecessorOffsets[ index ], predecessorOffsets[ index + 1 ] );
+	}
+
+	/**
+	 * Returns an unmodifiable view on the successors of the specified spot.
+	 * The set is empty if the spot is not in this snapshot.
+	 */
+	@Override
+	public Set< Spot > successorsOf( final Spot v )
+	{
+		final int index = indexOf( v );
+		if ( index < 0 )
+			return Collections.emptySet();
+		return new NeighborSet( successors, successorOffsets[ index ], successorOffsets[ index + 1 ] );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private final class NeighborSet extends AbstractSet< Spot >
+	{
+
+		private final int[] neighbors;
+
+		private final int from;
+
+		private final int to;
+
+		private NeighborSet( final int[] neighbors, final int from, final int to )
+		{
+			this.neighbors = neighbors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			if ( !( o instanceof Spot ) )
+				return false;
+			final int index = indexOf( ( Spot ) o );
+			for ( int k = from; k < to; k++ )
+				if ( neighbors[ k ] == index )
+					return true;
+			return false;
+		}
+
+		@Override
+		public int size()
+		{
+			return to - from;
+		}
+
+		@Override
+		public Iterator< Spot > iterator()
+		{
+			return new Iterator< Spot >()
+			{
+
+				private int k = from;
+
+				@Override
+				public boolean hasNext()
+				{
+					return k < to;
+				}
+
+				@Override
+				public Spot next()
+				{
+					if ( k >= to )
+						throw new NoSuchElementException();
+					return spots[ neighbors[ k++ ] ];
+				}
+			};
+		}
+	}
+
+	/**
+	 * A growable list of <code>int</code>s.
+	 */
+	private static final class IntList
+	{
+
+		private int[] array = new int[ 64 ];
+
+		private int size = 0;
+
+		private void add( final int val )
+		{
+			if ( size == array.length )
+				array = Arrays.copyOf( array, 2 * size );
+			array[ size++ ] = val;
+		}
+
+		private void clear()
+		{
+			size = 0;
+		}
+
+		private int[] toArray()
+		{
+			return Arrays.copyOf( array, size );
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package fiji.plugin.trackmate.graph;
+
+import java.util.Set;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Interface for classes that can return the neighbors of a spot in a track
+ * that are before or after it in time. Neighbors in the same frame are
+ * neither predecessors nor successors.
+ *
+ * @see TimeDirectedNeighborIndex
+ * @see TimeDirectedNeighborSnapshot
+ */
+public interface TimeDirectedNeighbors
+{
+
+	/**
+	 * Returns the neighbors of the specified spot that are in frames before
+	 * it.
+	 *
+	 * @param v
+	 *            the spot.
+	 * @return the predecessors of the spot.
+	 */
+	public Set< Spot > predecessorsOf( final Spot v );
+
+	/**
+	 * Returns the neighbors of the specified spot that are in frames after it.
+	 *
+	 * @param v
+	 *            the spot.
+	 * @return the successors of the spot.
+	 */
+	public Set< Spot > successorsOf( final Spot v );
+}
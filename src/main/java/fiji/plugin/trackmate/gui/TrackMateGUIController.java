@@ -36,6 +36,8 @@ import org.scijava.object.ObjectService;
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
@@ -231,6 +233,24 @@ public class TrackMateGUIController implements ActionListener
 		// Feature updater
 		final ModelFeatureUpdater modelFeatureUpdater = new ModelFeatureUpdater( trackmate.getModel(), trackmate.getSettings() );
 		modelFeatureUpdater.setNumThreads( trackmate.getNumThreads() );
+		if ( TrackMateOptionUtils.getOptions().isAsyncFeatureUpdate() )
+		{
+			modelFeatureUpdater.setAsynchronous( true );
+			modelFeatureUpdater.addFeatureUpdateListener( new ModelChangeListener()
+			{
+				@Override
+				public void modelChanged( final ModelChangeEvent event )
+				{
+					// Features were updated after the views got the edit event.
+					for ( final Object generator : new Object[] { spotColorGenerator, edgeColorGenerator, trackColorGenerator } )
+						if ( generator instanceof ModelChangeListener )
+							( ( ModelChangeListener ) generator ).modelChanged( event );
+
+					for ( final TrackMateModelView view : guimodel.views )
+						view.refresh();
+				}
+			} );
+		}
 
 		// Feature colorers
 		this.spotColorGenerator = createSpotColorGenerator();
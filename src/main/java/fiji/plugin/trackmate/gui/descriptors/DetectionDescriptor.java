@@ -3,6 +3,9 @@ package fiji.plugin.trackmate.gui.descriptors;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackMateOptionUtils;
+import fiji.plugin.trackmate.TrackMateOptions;
+import fiji.plugin.trackmate.detection.DetectionCache;
 import fiji.plugin.trackmate.gui.LogPanel;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
@@ -11,6 +14,7 @@ import fiji.plugin.trackmate.util.TMUtils;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
@@ -60,6 +64,17 @@ public class DetectionDescriptor implements WizardPanelDescriptor
 		logger.log( "with settings:\n" );
 		logger.log( TMUtils.echoMap( settings.detectorSettings, 2 ) );
 
+		final TrackMateOptions options = TrackMateOptionUtils.getOptions();
+		if ( !options.isUseDetectionCache() )
+		{
+			trackmate.setDetectionCache( null );
+		}
+		else if ( null == trackmate.getDetectionCache() )
+		{
+			final File spillFolder = options.isSpillDetectionCache() ? DetectionCache.getDefaultSpillFolder( settings.imp ) : null;
+			trackmate.setDetectionCache( new DetectionCache( spillFolder ) );
+		}
+
 		final JButton nextButton = controller.getGUI().getNextButton();
 		// We have to tweak the GUI a bit from here
 		final ActionListener[] actionListeners = nextButton.getActionListeners();
@@ -111,6 +111,16 @@ public class BlockLogDetectorConfigurationPanel extends LogDetectorConfiguration
 		jCheckBoxMedianFilter.setSelected( ( Boolean ) settings.get( KEY_DO_MEDIAN_FILTERING ) );
 	}
 
+	/**
+	 * The block LoG detector processes each block separately, so its filtered
+	 * image cannot be cached.
+	 */
+	@Override
+	protected boolean canCacheResponse()
+	{
+		return false;
+	}
+
 	@Override
 	protected void preview()
 	{
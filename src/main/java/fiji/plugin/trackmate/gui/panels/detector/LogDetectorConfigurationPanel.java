@@ -13,8 +13,10 @@ import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.ImageIcon;
@@ -34,15 +36,22 @@ import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.detection.LogDetector;
 import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import fiji.plugin.trackmate.detection.SpotDetector;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
 import fiji.plugin.trackmate.gui.ConfigurationPanel;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.panels.components.JNumericTextField;
 import fiji.plugin.trackmate.util.JLabelLogger;
+import fiji.plugin.trackmate.util.TMUtils;
 import fiji.util.NumberParser;
 import ij.ImagePlus;
 import ij.measure.Calibration;
+import net.imagej.ImgPlus;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
 
 /**
  * Configuration panel for spot detectors based on LoG detector.
@@ -110,6 +119,28 @@ public class LogDetectorConfigurationPanel extends ConfigurationPanel
 
 	protected final Settings settings;
 
+	/*
+	 * Preview cache: the filtered image of the last preview, and the
+	 * parameters it was computed with.
+	 */
+
+	@SuppressWarnings( "rawtypes" )
+	private LogDetector cachedDetector;
+
+	private RandomAccessibleInterval< FloatType > cachedResponse;
+
+	private int cachedFrame;
+
+	private int cachedChannel;
+
+	private double cachedRadius;
+
+	private boolean cachedMedian;
+
+	private String cachedDetectorKey;
+
+	private long[] cachedIntervalBounds;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -207,6 +238,21 @@ public class LogDetectorConfigurationPanel extends ConfigurationPanel
 	 * PRIVATE METHODS
 	 */
 
+	/**
+	 * Returns whether the preview can cache the filtered image computed by
+	 * the detector, and only redo the maxima extraction when the threshold or
+	 * the sub-pixel localization settings change. This is only possible for
+	 * detectors that extend {@link LogDetector} without overriding their
+	 * processing logic. Subclasses for which this is not the case should
+	 * return <code>false</code>.
+	 *
+	 * @return <code>true</code> if the filtered image can be cached.
+	 */
+	protected boolean canCacheResponse()
+	{
+		return true;
+	}
+
 	/**
 	 * Launch detection on the current frame.
 	 */
@@ -218,49 +264,187 @@ public class LogDetectorConfigurationPanel extends ConfigurationPanel
 			@Override
 			public void run()
 			{
-				final Settings lSettings = new Settings();
-				lSettings.setFrom( imp );
-				final int frame = imp.getFrame() - 1;
-				lSettings.tstart = frame;
-				lSettings.tend = frame;
-				lSettings.roi = settings.roi;
-
-				lSettings.detectorFactory = getDetectorFactory();
-				lSettings.detectorSettings = getSettings();
-
-				final TrackMate trackmate = new TrackMate( lSettings );
-				trackmate.getModel().setLogger( localLogger );
-
-				final boolean detectionOk = trackmate.execDetection();
-				if ( !detectionOk )
-				{
-					localLogger.error( trackmate.getErrorMessage() );
-					return;
-				}
-				localLogger.log( "Found " + trackmate.getModel().getSpots().getNSpots( false ) + " spots." );
-
-				// Wrap new spots in a list.
-				final SpotCollection newspots = trackmate.getModel().getSpots();
-				final Iterator< Spot > it = newspots.iterator( frame, false );
-				final ArrayList< Spot > spotsToCopy = new ArrayList< >( newspots.getNSpots( frame, false ) );
-				while ( it.hasNext() )
+				try
 				{
-					spotsToCopy.add( it.next() );
+					final Settings lSettings = new Settings();
+					lSettings.setFrom( imp );
+					final int frame = imp.getFrame() - 1;
+					lSettings.tstart = frame;
+					lSettings.tend = frame;
+					lSettings.roi = settings.roi;
+
+					lSettings.detectorFactory = getDetectorFactory();
+					lSettings.detectorSettings = getSettings();
+
+					final List< Spot > spotsToCopy = canCacheResponse()
+							? detectFromCachedResponse( lSettings, frame )
+							: detect( lSettings, frame );
+					if ( null == spotsToCopy )
+						return;
+
+					localLogger.log( "Found " + spotsToCopy.size() + " spots." );
+
+					// Pass new spot list to model.
+					model.getSpots().put( frame, spotsToCopy );
+					// Make them visible
+					for ( final Spot spot : spotsToCopy )
+					{
+						spot.putFeature( SpotCollection.VISIBLITY, SpotCollection.ONE );
+					}
+					// Generate event for listener to reflect changes.
+					model.setSpots( model.getSpots(), true );
 				}
-				// Pass new spot list to model.
-				model.getSpots().put( frame, spotsToCopy );
-				// Make them visible
-				for ( final Spot spot : spotsToCopy )
+				finally
 				{
-					spot.putFeature( SpotCollection.VISIBLITY, SpotCollection.ONE );
+					btnPreview.setEnabled( true );
 				}
-				// Generate event for listener to reflect changes.
-				model.setSpots( model.getSpots(), true );
+			}
+		}.start();
+	}
+
+	/**
+	 * Runs the full detection process on the specified frame.
+	 */
+	private List< Spot > detect( final Settings lSettings, final int frame )
+	{
+		final TrackMate trackmate = new TrackMate( lSettings );
+		trackmate.getModel().setLogger( localLogger );
+
+		final boolean detectionOk = trackmate.execDetection();
+		if ( !detectionOk )
+		{
+			localLogger.error( trackmate.getErrorMessage() );
+			return null;
+		}
+
+		// Wrap new spots in a list.
+		final SpotCollection newspots = trackmate.getModel().getSpots();
+		final Iterator< Spot > it = newspots.iterator( frame, false );
+		final ArrayList< Spot > spotsToCopy = new ArrayList< >( newspots.getNSpots( frame, false ) );
+		while ( it.hasNext() )
+		{
+			spotsToCopy.add( it.next() );
+		}
+		return spotsToCopy;
+	}
+
+	/**
+	 * Runs detection on the specified frame, reusing the filtered image of the
+	 * previous preview if the frame, channel, radius, median filtering and
+	 * detection interval did not change. Falls back to the full detection
+	 * process if the detector does not extend {@link LogDetector}.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private List< Spot > detectFromCachedResponse( final Settings lSettings, final int frame )
+	{
+		final Map< String, Object > detectorSettings = lSettings.detectorSettings;
+		final SpotDetectorFactory factory = lSettings.detectorFactory;
+		final int channel = ( Integer ) detectorSettings.get( KEY_TARGET_CHANNEL );
+		final double radius = ( Double ) detectorSettings.get( KEY_RADIUS );
+		final boolean doMedian = ( Boolean ) detectorSettings.get( KEY_DO_MEDIAN_FILTERING );
+
+		final ImgPlus img = TMUtils.rawWraps( imp );
+		final Interval interval = TMUtils.getInterval( img, lSettings );
+		final long[] intervalBounds = new long[ 2 * interval.numDimensions() ];
+		for ( int d = 0; d < interval.numDimensions(); d++ )
+		{
+			intervalBounds[ 2 * d ] = interval.min( d );
+			intervalBounds[ 2 * d + 1 ] = interval.max( d );
+		}
 
-				btnPreview.setEnabled( true );
+		final boolean cacheHit = null != cachedResponse
+				&& cachedFrame == frame
+				&& cachedChannel == channel
+				&& cachedRadius == radius
+				&& cachedMedian == doMedian
+				&& factory.getKey().equals( cachedDetectorKey )
+				&& Arrays.equals( intervalBounds, cachedIntervalBounds );
 
+		if ( !cacheHit )
+		{
+			clearResponseCache();
+			if ( !factory.setTarget( img, detectorSettings ) )
+			{
+				localLogger.error( factory.getErrorMessage() );
+				return null;
 			}
-		}.start();
+			final SpotDetector detector = factory.getDetector( interval, frame );
+			if ( !( detector instanceof LogDetector ) )
+				return detect( lSettings, frame );
+
+			final LogDetector logDetector = ( LogDetector ) detector;
+			logDetector.setNumThreads();
+			if ( !logDetector.checkInput() )
+			{
+				localLogger.error( logDetector.getErrorMessage() );
+				return null;
+			}
+			final RandomAccessibleInterval< FloatType > response = logDetector.computeResponse();
+			if ( null == response )
+			{
+				localLogger.error( logDetector.getErrorMessage() );
+				return null;
+			}
+
+			cachedDetector = logDetector;
+			cachedResponse = response;
+			cachedFrame = frame;
+			cachedChannel = channel;
+			cachedRadius = radius;
+			cachedMedian = doMedian;
+			cachedDetectorKey = factory.getKey();
+			cachedIntervalBounds = intervalBounds;
+		}
+
+		final double threshold = ( Double ) detectorSettings.get( KEY_THRESHOLD );
+		final boolean doSubpixel = ( Boolean ) detectorSettings.get( KEY_DO_SUBPIXEL_LOCALIZATION );
+		cachedDetector.setThreshold( threshold );
+		cachedDetector.setDoSubPixelLocalization( doSubpixel );
+		if ( !cachedDetector.process( cachedResponse ) )
+		{
+			localLogger.error( cachedDetector.getErrorMessage() );
+			return null;
+		}
+		final List< Spot > spotsThisFrame = cachedDetector.getResult();
+
+		/*
+		 * Same post-processing as in TrackMate#execDetection(): permute back X
+		 * & Y for single column images and prune spots outside of the ROI.
+		 */
+
+		final int zindex = TMUtils.findZAxisIndex( img );
+		if ( img.dimension( 0 ) < 2 && zindex < 0 )
+		{
+			for ( final Spot spot : spotsThisFrame )
+			{
+				spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
+				spot.putFeature( Spot.POSITION_X, 0d );
+			}
+		}
+
+		final double[] calibration = TMUtils.getSpatialCalibration( imp );
+		final List< Spot > spotsToCopy = new ArrayList<>( spotsThisFrame.size() );
+		for ( final Spot spot : spotsThisFrame )
+		{
+			if ( null != lSettings.roi
+					&& !lSettings.roi.contains( ( int ) Math.round( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] ), ( int ) Math.round( spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) ) )
+				continue;
+
+			spot.putFeature( Spot.POSITION_T, frame * lSettings.dt );
+			spotsToCopy.add( spot );
+		}
+		return spotsToCopy;
+	}
+
+	/**
+	 * Discards the filtered image cached by the preview.
+	 */
+	protected void clearResponseCache()
+	{
+		cachedDetector = null;
+		cachedResponse = null;
+		cachedDetectorKey = null;
+		cachedIntervalBounds = null;
 	}
 
 	/**
@@ -498,5 +682,7 @@ public class LogDetectorConfigurationPanel extends ConfigurationPanel
 
 	@Override
 	public void clean()
-	{}
+	{
+		clearResponseCache();
+	}
 }
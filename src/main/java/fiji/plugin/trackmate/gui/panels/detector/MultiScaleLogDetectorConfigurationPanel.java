@@ -0,0 +1,157 @@
+package fiji.plugin.trackmate.gui.panels.detector;
+
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_MEDIAN_FILTERING;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_THRESHOLD;
+import static fiji.plugin.trackmate.detection.MultiScaleLogDetectorFactory.KEY_MAX_RADIUS;
+import static fiji.plugin.trackmate.detection.MultiScaleLogDetectorFactory.KEY_N_SCALES;
+import static fiji.plugin.trackmate.gui.TrackMateWizard.FONT;
+
+import java.util.Map;
+
+import javax.swing.JLabel;
+import javax.swing.SpringLayout;
+import javax.swing.SwingConstants;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.detection.MultiScaleLogDetectorFactory;
+import fiji.plugin.trackmate.gui.panels.components.JNumericTextField;
+import fiji.util.NumberParser;
+
+public class MultiScaleLogDetectorConfigurationPanel extends LogDetectorConfigurationPanel
+{
+	private static final long serialVersionUID = 1L;
+
+	private JLabel jLabelMaxDiameter;
+
+	private JNumericTextField jTextFieldMaxDiameter;
+
+	private JLabel jLabelMaxDiameterUnit;
+
+	private JLabel jLabelNScales;
+
+	private JNumericTextField jTextFieldNScales;
+
+	public MultiScaleLogDetectorConfigurationPanel( final Settings settings, final Model model, final String infoText, final String detectorName )
+	{
+		super( settings, model, infoText, detectorName );
+	}
+
+	@SuppressWarnings( "rawtypes" )
+	@Override
+	protected MultiScaleLogDetectorFactory< ? > getDetectorFactory()
+	{
+		return new MultiScaleLogDetectorFactory();
+	}
+
+	@Override
+	protected void initGUI()
+	{
+		super.initGUI();
+		this.setPreferredSize( new java.awt.Dimension( 300, 461 ) );
+
+		// Add max diameter text and textfield
+		{
+			jLabelMaxDiameter = new JLabel();
+			layout.putConstraint( SpringLayout.NORTH, jLabelMaxDiameter, 290, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.WEST, jLabelMaxDiameter, 16, SpringLayout.WEST, this );
+			layout.putConstraint( SpringLayout.EAST, jLabelMaxDiameter, 160, SpringLayout.WEST, this );
+
+			jLabelMaxDiameter.setText( "Max. blob diameter:" );
+			jLabelMaxDiameter.setFont( FONT );
+			add( jLabelMaxDiameter );
+		}
+		{
+			jTextFieldMaxDiameter = new JNumericTextField();
+			jTextFieldMaxDiameter.setHorizontalAlignment( SwingConstants.CENTER );
+			jTextFieldMaxDiameter.setText( "20" );
+
+			layout.putConstraint( SpringLayout.NORTH, jTextFieldMaxDiameter, 290, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.WEST, jTextFieldMaxDiameter, 168, SpringLayout.WEST, this );
+			layout.putConstraint( SpringLayout.EAST, jTextFieldMaxDiameter, -78, SpringLayout.EAST, this );
+			jTextFieldMaxDiameter.setFont( FONT );
+			add( jTextFieldMaxDiameter );
+		}
+		{
+			jLabelMaxDiameterUnit = new JLabel( spaceUnits );
+			layout.putConstraint( SpringLayout.NORTH, jLabelMaxDiameterUnit, 290, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.WEST, jLabelMaxDiameterUnit, 6, SpringLayout.EAST, jTextFieldMaxDiameter );
+			jLabelMaxDiameterUnit.setFont( FONT );
+			add( jLabelMaxDiameterUnit );
+		}
+
+		// Add number of scales text and textfield
+		{
+			jLabelNScales = new JLabel();
+			layout.putConstraint( SpringLayout.NORTH, jLabelNScales, 312, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.WEST, jLabelNScales, 16, SpringLayout.WEST, this );
+			layout.putConstraint( SpringLayout.EAST, jLabelNScales, 160, SpringLayout.WEST, this );
+
+			jLabelNScales.setText( "Number of scales:" );
+			jLabelNScales.setFont( FONT );
+			add( jLabelNScales );
+		}
+		{
+			jTextFieldNScales = new JNumericTextField();
+			jTextFieldNScales.setHorizontalAlignment( SwingConstants.CENTER );
+			jTextFieldNScales.setText( "5" );
+
+			layout.putConstraint( SpringLayout.NORTH, jTextFieldNScales, 312, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.WEST, jTextFieldNScales, 168, SpringLayout.WEST, this );
+			layout.putConstraint( SpringLayout.EAST, jTextFieldNScales, -78, SpringLayout.EAST, this );
+			jTextFieldNScales.setFont( FONT );
+			add( jTextFieldNScales );
+		}
+
+		// Move the threshold label and put both checkboxes on one line.
+		{
+			layout.putConstraint( SpringLayout.NORTH, jLabelThreshold, 270, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.SOUTH, jLabelThreshold, 283, SpringLayout.NORTH, this );
+
+			layout.putConstraint( SpringLayout.NORTH, jCheckBoxMedianFilter, 336, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.SOUTH, jCheckBoxMedianFilter, 357, SpringLayout.NORTH, this );
+			layout.putConstraint( SpringLayout.EAST, jCheckBoxMedianFilter, 130, SpringLayout.WEST, this );
+			jCheckBoxMedianFilter.setText( "Median filter" );
+
+			layout.putConstraint( SpringLayout.WEST, jCheckSubPixel, 135, SpringLayout.WEST, this );
+			layout.putConstraint( SpringLayout.EAST, jCheckSubPixel, -10, SpringLayout.EAST, this );
+			jCheckSubPixel.setText( "Sub-pixel localization" );
+		}
+	}
+
+	@Override
+	public Map< String, Object > getSettings()
+	{
+		final Map< String, Object > lSettings = super.getSettings();
+		final double maxRadius = NumberParser.parseDouble( jTextFieldMaxDiameter.getText() ) / 2;
+		final int nScales = NumberParser.parseInteger( jTextFieldNScales.getText() );
+		lSettings.put( KEY_MAX_RADIUS, maxRadius );
+		lSettings.put( KEY_N_SCALES, nScales );
+		return lSettings;
+	}
+
+	@Override
+	public void setSettings( final Map< String, Object > settings )
+	{
+		sliderChannel.setValue( ( Integer ) settings.get( KEY_TARGET_CHANNEL ) );
+		jTextFieldBlobDiameter.setText( "" + ( 2 * ( Double ) settings.get( KEY_RADIUS ) ) );
+		jTextFieldMaxDiameter.setText( "" + ( 2 * ( Double ) settings.get( KEY_MAX_RADIUS ) ) );
+		jTextFieldNScales.setText( "" + settings.get( KEY_N_SCALES ) );
+		jTextFieldThreshold.setText( "" + settings.get( KEY_THRESHOLD ) );
+		jCheckSubPixel.setSelected( ( Boolean ) settings.get( KEY_DO_SUBPIXEL_LOCALIZATION ) );
+		jCheckBoxMedianFilter.setSelected( ( Boolean ) settings.get( KEY_DO_MEDIAN_FILTERING ) );
+	}
+
+	/**
+	 * The multi-scale LoG detector does not produce a single filtered image,
+	 * so there is nothing to cache.
+	 */
+	@Override
+	protected boolean canCacheResponse()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,516 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * Writes the spot, edge and track statistics of a model to CSV files, without
+ * going through ImageJ results tables.
+ * <p>
+ * The content of the files is the same as the tables generated by the
+ * "Export statistics to tables" action: spots and edges in tracks, sorted by
+ * track then by frame, and tracks in the order of
+ * {@link TrackModel#trackIDs(boolean)}. Missing feature values are written as
+ * empty fields.
+ * <p>
+ * Tracks are processed in chunks on several threads, and each chunk is
+ * written to the file as soon as it and all the chunks before it are ready,
+ * so that the output is deterministic and memory usage stays bounded.
+ * <p>
+ * Files which name ends with <code>.gz</code> are gzipped. Files which name
+ * ends with <code>.tsv</code> or <code>.tsv.gz</code> use tabs as separator,
+ * all others use commas. A <code>null</code> file skips the corresponding
+ * table. Typical use from a script:
+ *
+ * <pre>
+ * writer = CSVStatsWriter( model, File( 'spots.csv.gz' ), File( 'edges.csv.gz' ), File( 'tracks.csv.gz' ) )
+ * if not writer.checkInput() or not writer.process():
+ *     print( writer.getErrorMessage() )
+ * </pre>
+ */
+public class CSVStatsWriter implements Algorithm, Benchmark, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MSG = "[CSVStatsWriter] ";
+
+	private static final String LABEL_COLUMN = "LABEL";
+
+	private static final String ID_COLUMN = "ID";
+
+	private static final String TRACK_ID_COLUMN = "TRACK_ID";
+
+	/** Number of tracks processed in a chunk. */
+	private static final int CHUNK_SIZE = 64;
+
+	/** Number of chunks processed per thread before writing them. */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final Model model;
+
+	private final File spotFile;
+
+	private final File edgeFile;
+
+	private final File trackFile;
+
+	private final Logger logger;
+
+	private boolean visibleOnly = true;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	private String errorMessage;
+
+	/**
+	 * Creates a new writer.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param spotFile
+	 *            the file to write spot statistics to. Can be
+	 *            <code>null</code>.
+	 * @param edgeFile
+	 *            the file to write edge statistics to. Can be
+	 *            <code>null</code>.
+	 * @param trackFile
+	 *            the file to write track statistics to. Can be
+	 *            <code>null</code>.
+	 */
+	public CSVStatsWriter( final Model model, final File spotFile, final File edgeFile, final File trackFile )
+	{
+		this( model, spotFile, edgeFile, trackFile, Logger.VOID_LOGGER );
+	}
+
+	public CSVStatsWriter( final Model model, final File spotFile, final File edgeFile, final File trackFile, final Logger logger )
+	{
+		this.model = model;
+		this.spotFile = spotFile;
+		this.edgeFile = edgeFile;
+		this.trackFile = trackFile;
+		this.logger = logger;
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets whether only the visible tracks are exported. <code>true</code> by
+	 * default.
+	 */
+	public void setVisibleOnly( final boolean visibleOnly )
+	{
+		this.visibleOnly = visibleOnly;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == model )
+		{
+			errorMessage = BASE_ERROR_MSG + "Model is null.\n";
+			return false;
+		}
+		for ( final File file : new File[] { spotFile, edgeFile, trackFile } )
+		{
+			if ( null == file )
+				continue;
+			final File parent = file.getAbsoluteFile().getParentFile();
+			if ( file.exists() ? !file.canWrite() : ( null == parent || !parent.canWrite() ) )
+			{
+				errorMessage = BASE_ERROR_MSG + "Cannot write to " + file + ".\n";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( visibleOnly ) );
+		try
+		{
+			if ( null != spotFile )
+			{
+				logger.log( "  Writing spot statistics to " + spotFile + ".\n" );
+				write( spotFile, trackIDs, new SpotTable() );
+			}
+			if ( null != edgeFile )
+			{
+				logger.log( "  Writing edge statistics to " + edgeFile + ".\n" );
+				write( edgeFile, trackIDs, new EdgeTable() );
+			}
+			if ( null != trackFile )
+			{
+				logger.log( "  Writing track statistics to " + trackFile + ".\n" );
+				write( trackFile, trackIDs, new TrackTable() );
+			}
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MSG + e.getMessage();
+			return false;
+		}
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void write( final File file, final List< Integer > trackIDs, final Table table ) throws IOException
+	{
+		final String name = file.getName().toLowerCase();
+		final boolean gzip = name.endsWith( ".gz" );
+		final char separator = ( name.endsWith( ".tsv" ) || name.endsWith( ".tsv.gz" ) ) ? '\t' : ',';
+
+		OutputStream os = new FileOutputStream( file );
+		if ( gzip )
+			os = new GZIPOutputStream( os, 1 << 16 );
+		try (final Writer writer = new BufferedWriter( new OutputStreamWriter( os, StandardCharsets.UTF_8 ), 1 << 16 ))
+		{
+			// Header.
+			final StringBuilder header = new StringBuilder();
+			final String[] columns = table.columns();
+			for ( int c = 0; c < columns.length; c++ )
+			{
+				if ( c > 0 )
+					header.append( separator );
+				appendString( header, columns[ c ], separator );
+			}
+			header.append( '\n' );
+			writer.write( header.toString() );
+
+			// Rows, by chunks of tracks.
+			final int nChunks = ( trackIDs.size() + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+			final int window = Math.max( 1, numThreads * CHUNKS_PER_THREAD );
+			for ( int first = 0; first < nChunks; first += window )
+			{
+				final int firstChunk = first;
+				final String[] results = new String[ Math.min( window, nChunks - first ) ];
+				final AtomicInteger ai = new AtomicInteger( 0 );
+				final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( numThreads, results.length ) );
+				for ( int i = 0; i < threads.length; i++ )
+				{
+					threads[ i ] = new Thread( "CSVStatsWriter thread " + i )
+					{
+						@Override
+						public void run()
+						{
+							for ( int r = ai.getAndIncrement(); r < results.length; r = ai.getAndIncrement() )
+							{
+								final int from = ( firstChunk + r ) * CHUNK_SIZE;
+								final int to = Math.min( trackIDs.size(), from + CHUNK_SIZE );
+								final StringBuilder sb = new StringBuilder();
+								for ( final Integer trackID : trackIDs.subList( from, to ) )
+									table.appendRows( sb, trackID, separator );
+								results[ r ] = sb.toString();
+							}
+						}
+					};
+				}
+				SimpleMultiThreading.startAndJoin( threads );
+
+				for ( final String result : results )
+					writer.write( result );
+			}
+		}
+	}
+
+	/**
+	 * Appends the specified feature values to the builder, one field per
+	 * feature. <code>NaN</code> values are written as empty fields.
+	 */
+	private static final void appendValues( final StringBuilder sb, final double[] values, final boolean[] isInt, final char separator )
+	{
+		for ( int f = 0; f < values.length; f++ )
+		{
+			sb.append( separator );
+			final double val = values[ f ];
+			if ( Double.isNaN( val ) )
+				continue;
+			if ( isInt[ f ] )
+				sb.append( ( long ) val );
+			else
+				sb.append( val );
+		}
+	}
+
+	/**
+	 * Appends a string field, quoted if it contains the separator, a quote or
+	 * a line break.
+	 */
+	private static final void appendString( final StringBuilder sb, final String str, final char separator )
+	{
+		if ( null == str )
+			return;
+		if ( str.indexOf( separator ) < 0 && str.indexOf( '"' ) < 0 && str.indexOf( '\n' ) < 0 && str.indexOf( '\r' ) < 0 )
+		{
+			sb.append( str );
+			return;
+		}
+		sb.append( '"' );
+		for ( int i = 0; i < str.length(); i++ )
+		{
+			final char c = str.charAt( i );
+			if ( c == '"' )
+				sb.append( '"' );
+			sb.append( c );
+		}
+		sb.append( '"' );
+	}
+
+	private static final String[] columns( final String[] first, final Collection< String > features )
+	{
+		final String[] columns = Arrays.copyOf( first, first.length + features.size() );
+		int c = first.length;
+		for ( final String feature : features )
+			columns[ c++ ] = feature;
+		return columns;
+	}
+
+	private static final boolean[] isInt( final String[] features, final Map< String, Boolean > isIntMap )
+	{
+		final boolean[] isInt = new boolean[ features.length ];
+		for ( int f = 0; f < features.length; f++ )
+		{
+			final Boolean b = isIntMap.get( features[ f ] );
+			isInt[ f ] = null != b && b.booleanValue();
+		}
+		return isInt;
+	}
+
+	private static final double valueOf( final Double val )
+	{
+		return null == val ? Double.NaN : val.doubleValue();
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A table to export. Implementations must be thread safe.
+	 */
+	private static interface Table
+	{
+		public String[] columns();
+
+		/**
+		 * Appends the rows of the specified track to the builder, one line per
+		 * row.
+		 */
+		public void appendRows( StringBuilder sb, Integer trackID, char separator );
+	}
+
+	private final class SpotTable implements Table
+	{
+
+		private final String[] features;
+
+		private final boolean[] isInt;
+
+		private SpotTable()
+		{
+			final FeatureModel fm = model.getFeatureModel();
+			this.features = fm.getSpotFeatures().toArray( new String[ 0 ] );
+			this.isInt = isInt( features, fm.getSpotFeatureIsInt() );
+		}
+
+		@Override
+		public String[] columns()
+		{
+			return CSVStatsWriter.columns( new String[] { LABEL_COLUMN, ID_COLUMN, TRACK_ID_COLUMN }, Arrays.asList( features ) );
+		}
+
+		@Override
+		public void appendRows( final StringBuilder sb, final Integer trackID, final char separator )
+		{
+			final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+			final Spot[] spots = track.toArray( new Spot[ track.size() ] );
+			Arrays.sort( spots, Spot.frameComparator );
+
+			final double[] values = new double[ features.length ];
+			for ( final Spot spot : spots )
+			{
+				for ( int f = 0; f < features.length; f++ )
+					values[ f ] = valueOf( spot.getFeature( features[ f ] ) );
+
+				appendString( sb, spot.getName(), separator );
+				sb.append( separator ).append( spot.ID() );
+				sb.append( separator ).append( trackID.intValue() );
+				appendValues( sb, values, isInt, separator );
+				sb.append( '\n' );
+			}
+		}
+	}
+
+	private final class EdgeTable implements Table
+	{
+
+		private final String[] features;
+
+		private final boolean[] isInt;
+
+		private final boolean sortByTime;
+
+		private EdgeTable()
+		{
+			final FeatureModel fm = model.getFeatureModel();
+			this.features = fm.getEdgeFeatures().toArray( new String[ 0 ] );
+			this.isInt = isInt( features, fm.getEdgeFeatureIsInt() );
+			this.sortByTime = fm.getEdgeFeatures().contains( EdgeTimeLocationAnalyzer.TIME );
+		}
+
+		@Override
+		public String[] columns()
+		{
+			return CSVStatsWriter.columns( new String[] { LABEL_COLUMN, TRACK_ID_COLUMN }, Arrays.asList( features ) );
+		}
+
+		@Override
+		public void appendRows( final StringBuilder sb, final Integer trackID, final char separator )
+		{
+			final FeatureModel fm = model.getFeatureModel();
+			final TrackModel trackModel = model.getTrackModel();
+			final Set< DefaultWeightedEdge > track = trackModel.trackEdges( trackID );
+			final DefaultWeightedEdge[] edges = track.toArray( new DefaultWeightedEdge[ track.size() ] );
+
+			/*
+			 * Sort by time if the EdgeTimeLocationAnalyzer feature is
+			 * declared, by source spot frame otherwise.
+			 */
+
+			final double[] times = new double[ edges.length ];
+			final Integer[] order = new Integer[ edges.length ];
+			for ( int e = 0; e < edges.length; e++ )
+			{
+				order[ e ] = Integer.valueOf( e );
+				times[ e ] = sortByTime
+						? valueOf( fm.getEdgeFeature( edges[ e ], EdgeTimeLocationAnalyzer.TIME ) )
+						: valueOf( trackModel.getEdgeSource( edges[ e ] ).getFeature( Spot.FRAME ) );
+			}
+			Arrays.sort( order, new Comparator< Integer >()
+			{
+				@Override
+				public int compare( final Integer o1, final Integer o2 )
+				{
+					return Double.compare( times[ o1.intValue() ], times[ o2.intValue() ] );
+				}
+			} );
+
+			final double[] values = new double[ features.length ];
+			for ( final Integer e : order )
+			{
+				final DefaultWeightedEdge edge = edges[ e.intValue() ];
+				for ( int f = 0; f < features.length; f++ )
+					values[ f ] = valueOf( fm.getEdgeFeature( edge, features[ f ] ) );
+
+				appendString( sb, edge.toString(), separator );
+				sb.append( separator ).append( trackID.intValue() );
+				appendValues( sb, values, isInt, separator );
+				sb.append( '\n' );
+			}
+		}
+	}
+
+	private final class TrackTable implements Table
+	{
+
+		private final String[] features;
+
+		private final boolean[] isInt;
+
+		private TrackTable()
+		{
+			final FeatureModel fm = model.getFeatureModel();
+			this.features = fm.getTrackFeatures().toArray( new String[ 0 ] );
+			this.isInt = isInt( features, fm.getTrackFeatureIsInt() );
+		}
+
+		@Override
+		public String[] columns()
+		{
+			return CSVStatsWriter.columns( new String[] { LABEL_COLUMN, TRACK_ID_COLUMN }, Arrays.asList( features ) );
+		}
+
+		@Override
+		public void appendRows( final StringBuilder sb, final Integer trackID, final char separator )
+		{
+			final FeatureModel fm = model.getFeatureModel();
+			final double[] values = new double[ features.length ];
+			for ( int f = 0; f < features.length; f++ )
+				values[ f ] = valueOf( fm.getTrackFeature( trackID, features[ f ] ) );
+
+			appendString( sb, model.getTrackModel().name( trackID ), separator );
+			sb.append( separator ).append( trackID.intValue() );
+			appendValues( sb, values, isInt, separator );
+			sb.append( '\n' );
+		}
+	}
+}
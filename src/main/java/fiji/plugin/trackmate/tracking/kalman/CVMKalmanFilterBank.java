@@ -0,0 +1,349 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * A collection of constant-velocity Kalman filters, each dealing with a single
+ * particle motion in 3D, stored in flat primitive arrays.
+ * <p>
+ * The filters are equivalent to {@link CVMKalmanFilter}, but do not allocate
+ * anything on prediction and update. Filters are addressed by a slot index,
+ * returned by {@link #add(double[], double)}. Slots of removed filters are
+ * reused.
+ * <p>
+ * The evolution, measurement and noise matrices of the constant-velocity model
+ * do not couple the X, Y and Z axes, and are identical for the three axes. If
+ * the initial covariance is diagonal, the 6×6 state covariance matrix is
+ * therefore made of three identical 2×2 blocks, one per axis, linking the
+ * position and the velocity along this axis. This class only stores the 3
+ * distinct elements of this block for each filter, which gives results
+ * identical to the full 6×6 computation.
+ */
+public class CVMKalmanFilterBank
+{
+
+	/** Number of filters per thread below which we do not parallelize. */
+	private static final int MIN_CHUNK_SIZE = 1024;
+
+	/** Process variance on position. */
+	private final double qp;
+
+	/** Process variance on velocity. */
+	private final double qv;
+
+	/** Measurement variance on position. */
+	private final double r;
+
+	/** Current states, 6 per filter: <code>x, y, z, vx, vy, vz</code>. */
+	private double[] X;
+
+	/** Predicted states, 6 per filter. */
+	private double[] Xp;
+
+	/**
+	 * Per-axis covariance blocks, 3 per filter: position variance,
+	 * position-velocity covariance and velocity variance.
+	 */
+	private double[] P;
+
+	/** Number of occlusions, per filter. */
+	private int[] nOcclusions;
+
+	/** Stack of free slots. */
+	private int[] freeSlots;
+
+	private int nFree;
+
+	/** Number of slots ever allocated. */
+	private int nSlots;
+
+	/**
+	 * Creates a new, empty collection of Kalman filters. All the filters share
+	 * the same noise parameters.
+	 *
+	 * @param positionProcessStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            <b>position</b> evolution.
+	 * @param velocityProcessStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            <b>velocity</b> evolution, in units of
+	 *            <code>length/frame</code>.
+	 * @param positionMeasurementStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            position <b>measurement</b>.
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	public CVMKalmanFilterBank( final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.qp = positionProcessStd * positionProcessStd;
+		this.qv = velocityProcessStd * velocityProcessStd;
+		this.r = positionMeasurementStd * positionMeasurementStd;
+		final int capacity = 16;
+		this.X = new double[ 6 * capacity ];
+		this.Xp = new double[ 6 * capacity ];
+		this.P = new double[ 3 * capacity ];
+		this.nOcclusions = new int[ capacity ];
+		this.freeSlots = new int[ capacity ];
+	}
+
+	/**
+	 * Adds a new Kalman filter with the specified initial state.
+	 *
+	 * @param X0
+	 *            initial state estimate, as a 6 elements array with
+	 *            <code>x0, y0, z0, vx0, vy0, vz0</code>.
+	 * @param initStateCovariance
+	 *            the initial state covariance.
+	 * @return the slot of the new filter.
+	 */
+	public int add( final double[] X0, final double initStateCovariance )
+	{
+		final int slot;
+		if ( nFree > 0 )
+		{
+			slot = freeSlots[ --nFree ];
+		}
+		else
+		{
+			slot = nSlots++;
+			ensureCapacity( nSlots );
+		}
+		System.arraycopy( X0, 0, X, 6 * slot, 6 );
+		System.arraycopy( X0, 0, Xp, 6 * slot, 6 );
+		P[ 3 * slot ] = initStateCovariance;
+		P[ 3 * slot + 1 ] = 0.;
+		P[ 3 * slot + 2 ] = initStateCovariance;
+		nOcclusions[ slot ] = 0;
+		return slot;
+	}
+
+	/**
+	 * Removes the filter at the specified slot. The slot may be reused by a
+	 * later call to {@link #add(double[], double)}.
+	 *
+	 * @param slot
+	 *            the slot of the filter to remove.
+	 */
+	public void remove( final int slot )
+	{
+		if ( nFree == freeSlots.length )
+			freeSlots = Arrays.copyOf( freeSlots, 2 * freeSlots.length );
+		freeSlots[ nFree++ ] = slot;
+	}
+
+	/**
+	 * Runs the prediction step for the filters at the specified slots.
+	 *
+	 * @param slots
+	 *            the slots of the filters to predict.
+	 * @param n
+	 *            the number of slots to read from the <code>slots</code>
+	 *            array.
+	 * @param numThreads
+	 *            the maximal number of threads to use.
+	 */
+	public void predict( final int[] slots, final int n, final int numThreads )
+	{
+		final ChunkProcessor predictor = new ChunkProcessor()
+		{
+			@Override
+			public void process( final int from, final int to )
+			{
+				for ( int i = from; i < to; i++ )
+				{
+					final int slot = slots[ i ];
+					final int o = 6 * slot;
+					for ( int d = 0; d < 3; d++ )
+					{
+						Xp[ o + d ] = X[ o + d ] + X[ o + 3 + d ];
+						Xp[ o + 3 + d ] = X[ o + 3 + d ];
+					}
+					// P = A P A' + Q
+					final int p = 3 * slot;
+					final double a = P[ p ];
+					final double b = P[ p + 1 ];
+					final double c = P[ p + 2 ];
+					P[ p ] = a + 2 * b + c + qp;
+					P[ p + 1 ] = b + c;
+					P[ p + 2 ] = c + qv;
+				}
+			}
+		};
+		processChunks( n, numThreads, predictor );
+	}
+
+	/**
+	 * Runs the update step for the filters at the specified slots, with the
+	 * specified measurements.
+	 *
+	 * @param slots
+	 *            the slots of the filters to update.
+	 * @param measurements
+	 *            the measured positions, 3 elements per slot:
+	 *            <code>x, y, z</code>.
+	 * @param n
+	 *            the number of slots to read from the <code>slots</code>
+	 *            array.
+	 * @param numThreads
+	 *            the maximal number of threads to use.
+	 */
+	public void update( final int[] slots, final double[] measurements, final int n, final int numThreads )
+	{
+		final ChunkProcessor updater = new ChunkProcessor()
+		{
+			@Override
+			public void process( final int from, final int to )
+			{
+				for ( int i = from; i < to; i++ )
+				{
+					final int slot = slots[ i ];
+					final int o = 6 * slot;
+					final int p = 3 * slot;
+					final double a = P[ p ];
+					final double b = P[ p + 1 ];
+					final double c = P[ p + 2 ];
+
+					// Gain.
+					final double s = a + r;
+					final double ka = a / s;
+					final double kb = b / s;
+
+					// State.
+					for ( int d = 0; d < 3; d++ )
+					{
+						final double innovation = measurements[ 3 * i + d ] - Xp[ o + d ];
+						X[ o + d ] = Xp[ o + d ] + ka * innovation;
+						X[ o + 3 + d ] = Xp[ o + 3 + d ] + kb * innovation;
+					}
+
+					// Covariance: P = (I - K H) P
+					P[ p ] = ( 1. - ka ) * a;
+					P[ p + 1 ] = ( 1. - ka ) * b;
+					P[ p + 2 ] = c - kb * b;
+				}
+			}
+		};
+		processChunks( n, numThreads, updater );
+	}
+
+	/**
+	 * Runs the update step for a filter for which no measurement could be
+	 * found. The filter state is set to its prediction, and its occlusion count
+	 * is incremented.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 */
+	public void occlude( final int slot )
+	{
+		nOcclusions[ slot ]++;
+		System.arraycopy( Xp, 6 * slot, X, 6 * slot, 6 );
+	}
+
+	/**
+	 * Returns the predicted position of the filter at the specified slot, as
+	 * computed by the last prediction step.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @param d
+	 *            the dimension, 0, 1 or 2.
+	 * @return the predicted position along this dimension.
+	 */
+	public double getPredictedPosition( final int slot, final int d )
+	{
+		return Xp[ 6 * slot + d ];
+	}
+
+	/**
+	 * Returns the number of occlusion events that occurred for the filter at
+	 * the specified slot.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the number of occlusions.
+	 */
+	public int getNOcclusion( final int slot )
+	{
+		return nOcclusions[ slot ];
+	}
+
+	/**
+	 * Return the root mean square error on position estimated through the
+	 * state covariance matrix.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the estimated error on position.
+	 */
+	public double getPositionError( final int slot )
+	{
+		return Math.sqrt( P[ 3 * slot ] );
+	}
+
+	/**
+	 * Return the root mean square error on velocity estimated through the
+	 * state covariance matrix.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the estimated error on velocity, in <code>length/frame</code>
+	 *         units.
+	 */
+	public double getVelocityError( final int slot )
+	{
+		return Math.sqrt( P[ 3 * slot + 2 ] );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void ensureCapacity( final int capacity )
+	{
+		if ( capacity <= nOcclusions.length )
+			return;
+
+		final int newCapacity = Math.max( capacity, 2 * nOcclusions.length );
+		X = Arrays.copyOf( X, 6 * newCapacity );
+		Xp = Arrays.copyOf( Xp, 6 * newCapacity );
+		P = Arrays.copyOf( P, 3 * newCapacity );
+		nOcclusions = Arrays.copyOf( nOcclusions, newCapacity );
+	}
+
+	private static void processChunks( final int n, final int numThreads, final ChunkProcessor processor )
+	{
+		final int nThreads = Math.max( 1, Math.min( numThreads, n / MIN_CHUNK_SIZE ) );
+		if ( nThreads == 1 )
+		{
+			processor.process( 0, n );
+			return;
+		}
+
+		final int chunkSize = ( n + nThreads - 1 ) / nThreads;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
+		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		{
+			threads[ ithread ] = new Thread( "TrackMate Kalman filter thread " + ( 1 + ithread ) + "/" + threads.length )
+			{
+				@Override
+				public void run()
+				{
+					for ( int chunk = ai.getAndIncrement(); chunk * chunkSize < n; chunk = ai.getAndIncrement() )
+						processor.process( chunk * chunkSize, Math.min( n, ( chunk + 1 ) * chunkSize ) );
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	private static interface ChunkProcessor
+	{
+		public void process( int from, int to );
+	}
+}
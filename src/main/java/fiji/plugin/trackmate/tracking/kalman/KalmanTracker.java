@@ -1,8 +1,8 @@
 package fiji.plugin.trackmate.tracking.kalman;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +20,6 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
-import net.imglib2.RealPoint;
 import net.imglib2.algorithm.Benchmark;
 
 public class KalmanTracker implements SpotTracker, Benchmark
@@ -52,6 +51,8 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 	private long processingTime;
 
+	private int numThreads;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -69,6 +70,7 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		this.maxSearchRadius = maxSearchRadius;
 		this.maxFrameGap = maxFrameGap;
 		this.initialSearchRadius = initialSearchRadius;
+		setNumThreads();
 	}
 
 	/*
@@ -175,8 +177,27 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		meanSpotRadius /= orphanSpots.size();
 		final double positionMeasurementStd = meanSpotRadius / 10d;
 
-		// The master map that contains the currently active KFs.
-		final Map< CVMKalmanFilter, Spot > kalmanFiltersMap = new HashMap< >( orphanSpots.size() );
+		// The bank that holds the Kalman filters.
+		final CVMKalmanFilterBank kfs = new CVMKalmanFilterBank( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		// The slots of the currently active KFs.
+		int[] activeSlots = new int[ Math.max( 16, orphanSpots.size() ) ];
+		int nActive = 0;
+		// The last spot of each KF, indexed by slot.
+		final List< Spot > kfSpots = new ArrayList<>( orphanSpots.size() );
+
+		// Cost function between a KF prediction (its slot) and a measurement.
+		final CostFunction< Integer, Spot > costFunction = new CostFunction< Integer, Spot >()
+		{
+			@Override
+			public double linkingCost( final Integer slot, final Spot spot )
+			{
+				final double dx = kfs.getPredictedPosition( slot, 0 ) - spot.getDoublePosition( 0 );
+				final double dy = kfs.getPredictedPosition( slot, 1 ) - spot.getDoublePosition( 1 );
+				final double dz = kfs.getPredictedPosition( slot, 2 ) - spot.getDoublePosition( 2 );
+				return dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL;
+				// So that it's never 0
+			}
+		};
 
 		/*
 		 * Then loop over time, starting from second frame.
@@ -193,29 +214,32 @@ public class KalmanTracker implements SpotTracker, Benchmark
 			 * Predict for all Kalman filters, and use it to generate linking
 			 * candidates.
 			 */
-			final Map< ComparableRealPoint, CVMKalmanFilter > predictionMap = new HashMap< >( kalmanFiltersMap.size() );
-			for ( final CVMKalmanFilter kf : kalmanFiltersMap.keySet() )
+			kfs.predict( activeSlots, nActive, numThreads );
+			final List< Integer > predictions = new ArrayList<>( nActive );
+			for ( int i = 0; i < nActive; i++ )
 			{
-				final double[] X = kf.predict();
-				final ComparableRealPoint point = new ComparableRealPoint( X );
-				predictionMap.put( new ComparableRealPoint( X ), kf );
+				final int slot = activeSlots[ i ];
+				predictions.add( Integer.valueOf( slot ) );
 
 				if ( savePredictions )
 				{
-					final Spot pred = toSpot( point );
-					final Spot s = kalmanFiltersMap.get( kf );
+					final Spot s = kfSpots.get( slot );
+					final Spot pred = new Spot(
+							kfs.getPredictedPosition( slot, 0 ),
+							kfs.getPredictedPosition( slot, 1 ),
+							kfs.getPredictedPosition( slot, 2 ),
+							2d, -1d );
 					pred.setName( "Pred_" + s.getName() );
 					pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
 					predictionsCollection.add( pred, frame );
 				}
 			}
-			final List< ComparableRealPoint > predictions = new ArrayList< >( predictionMap.keySet() );
 
 			/*
-			 * The KF for which we could not find a measurement in the target
-			 * frame. Is updated later.
+			 * The KF for which we found a measurement in the target frame.
+			 * The others are updated later.
 			 */
-			final Collection< CVMKalmanFilter > childlessKFs = new HashSet< >( kalmanFiltersMap.keySet() );
+			final boolean[] hasChild = new boolean[ kfSpots.size() ];
 
 			/*
 			 * Find the global (in space) optimum for associating a prediction
@@ -227,50 +251,82 @@ public class KalmanTracker implements SpotTracker, Benchmark
 			{
 				// Only link measurements to predictions if we have predictions.
 
-				final JaqamanLinkingCostMatrixCreator< ComparableRealPoint, Spot > crm = new JaqamanLinkingCostMatrixCreator< >(
+				final JaqamanLinkingCostMatrixCreator< Integer, Spot > crm = new JaqamanLinkingCostMatrixCreator< >(
 						predictions,
 						measurements,
-						CF,
+						costFunction,
 						maxCost,
 						ALTERNATIVE_COST_FACTOR,
 						PERCENTILE );
-				final JaqamanLinker< ComparableRealPoint, Spot > linker = new JaqamanLinker< >( crm );
+				final JaqamanLinker< Integer, Spot > linker = new JaqamanLinker< >( crm );
 				if ( !linker.checkInput() || !linker.process() )
 				{
 					errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
 					return false;
 				}
-				final Map< ComparableRealPoint, Spot > agnts = linker.getResult();
-				final Map< ComparableRealPoint, Double > costs = linker.getAssignmentCosts();
+				final Map< Integer, Spot > agnts = linker.getResult();
+				final Map< Integer, Double > costs = linker.getAssignmentCosts();
 
 				// Deal with found links.
-				for ( final ComparableRealPoint cm : agnts.keySet() )
+				final int[] updatedSlots = new int[ agnts.size() ];
+				final double[] updatedMeasurements = new double[ 3 * agnts.size() ];
+				int nUpdated = 0;
+				for ( final Integer slot : agnts.keySet() )
 				{
-					final CVMKalmanFilter kf = predictionMap.get( cm );
-
 					// Create links for found match.
-					final Spot source = kalmanFiltersMap.get( kf );
-					final Spot target = agnts.get( cm );
+					final Spot source = kfSpots.get( slot );
+					final Spot target = agnts.get( slot );
 
 					graph.addVertex( source );
 					graph.addVertex( target );
 					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = costs.get( cm );
+					final double cost = costs.get( slot );
 					graph.setEdgeWeight( edge, cost );
 
-					// Update Kalman filter
-					kf.update( toMeasurement( target ) );
+					// Queue Kalman filter update
+					updatedSlots[ nUpdated ] = slot;
+					for ( int d = 0; d < 3; d++ )
+						updatedMeasurements[ 3 * nUpdated + d ] = target.getDoublePosition( d );
+					nUpdated++;
 
 					// Update Kalman track spot
-					kalmanFiltersMap.put( kf, target );
+					kfSpots.set( slot, target );
 
 					// Remove from orphan set
 					orphanSpots.remove( target );
 
 					// Remove from childless KF set
-					childlessKFs.remove( kf );
+					hasChild[ slot ] = true;
+				}
+
+				// Update Kalman filters
+				kfs.update( updatedSlots, updatedMeasurements, nUpdated, numThreads );
+			}
+
+			// Deal with childless KFs.
+			int nKept = 0;
+			for ( int i = 0; i < nActive; i++ )
+			{
+				final int slot = activeSlots[ i ];
+				if ( !hasChild[ slot ] )
+				{
+					// Echo we missed a measurement
+					kfs.occlude( slot );
+
+					/*
+					 * We can bridge a limited number of gaps. If too much, we
+					 * die. If not, we will use predicted state next time.
+					 */
+					if ( kfs.getNOcclusion( slot ) > maxFrameGap )
+					{
+						kfs.remove( slot );
+						kfSpots.set( slot, null );
+						continue;
+					}
 				}
+				activeSlots[ nKept++ ] = slot;
 			}
+			nActive = nKept;
 
 			/*
 			 * Deal with orphans from the previous frame. (We deal with orphans
@@ -314,11 +370,16 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 					// Derive initial state and create Kalman filter.
 					final double[] XP = estimateInitialState( source, target );
-					final CVMKalmanFilter kt = new CVMKalmanFilter( XP, Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
 					// We trust the initial state a lot.
+					final int slot = kfs.add( XP, Double.MIN_NORMAL );
 
 					// Store filter and source
-					kalmanFiltersMap.put( kt, target );
+					while ( kfSpots.size() <= slot )
+						kfSpots.add( null );
+					kfSpots.set( slot, target );
+					if ( nActive == activeSlots.length )
+						activeSlots = Arrays.copyOf( activeSlots, 2 * activeSlots.length );
+					activeSlots[ nActive++ ] = slot;
 
 					// Add edge to the graph.
 					graph.addVertex( source );
@@ -330,20 +391,6 @@ public class KalmanTracker implements SpotTracker, Benchmark
 			}
 			previousOrphanSpots = orphanSpots;
 
-			// Deal with childless KFs.
-			for ( final CVMKalmanFilter kf : childlessKFs )
-			{
-				// Echo we missed a measurement
-				kf.update( null );
-
-				/*
-				 * We can bridge a limited number of gaps. If too much, we die.
-				 * If not, we will use predicted state next time.
-				 */
-				if ( kf.getNOcclusion() > maxFrameGap )
-					kalmanFiltersMap.remove( kf );
-			}
-
 			final double progress = ( double ) p / keySet.size();
 			logger.setProgress( progress );
 		}
@@ -388,16 +435,20 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 	@Override
 	public void setNumThreads()
-	{}
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	@Override
 	public void setNumThreads( final int numThreads )
-	{}
+	{
+		this.numThreads = numThreads;
+	}
 
 	@Override
 	public int getNumThreads()
 	{
-		return 1;
+		return numThreads;
 	}
 
 	@Override
@@ -412,22 +463,6 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		this.logger = logger;
 	}
 
-	private static final double[] toMeasurement( final Spot spot )
-	{
-		final double[] d = new double[] {
-				spot.getDoublePosition( 0 ),
-				spot.getDoublePosition( 1 ),
-				spot.getDoublePosition( 2 )
-		};
-		return d;
-	}
-
-	private static final Spot toSpot( final ComparableRealPoint X )
-	{
-		final Spot spot = new Spot( X, 2d, -1d );
-		return spot;
-	}
-
 	private static final double[] estimateInitialState( final Spot first, final Spot second )
 	{
 		final double[] xp = new double[] {
@@ -449,47 +484,4 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 		return list;
 	}
-
-	private static final class ComparableRealPoint extends RealPoint implements Comparable< ComparableRealPoint >
-	{
-		public ComparableRealPoint( final double[] A )
-		{
-			// Wrap array.
-			super( A, false );
-		}
-
-		/**
-		 * Sort based on X, Y, Z
-		 */
-		@Override
-		public int compareTo( final ComparableRealPoint o )
-		{
-			int i = 0;
-			while ( i < n )
-			{
-				if ( getDoublePosition( i ) != o.getDoublePosition( i ) ) { return ( int ) Math.signum( getDoublePosition( i ) - o.getDoublePosition( i ) ); }
-				i++;
-			}
-			return hashCode() - o.hashCode();
-		}
-	}
-
-	/**
-	 * Cost function that returns the square distance between a KF state and a
-	 * spots.
-	 */
-	private static final CostFunction< ComparableRealPoint, Spot > CF = new CostFunction< ComparableRealPoint, Spot >()
-	{
-
-		@Override
-		public double linkingCost( final ComparableRealPoint state, final Spot spot )
-		{
-			final double dx = state.getDoublePosition( 0 ) - spot.getDoublePosition( 0 );
-			final double dy = state.getDoublePosition( 1 ) - spot.getDoublePosition( 1 );
-			final double dz = state.getDoublePosition( 2 ) - spot.getDoublePosition( 2 );
-			return dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL;
-			// So that it's never 0
-		}
-	};
-
 }
@@ -21,8 +21,10 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CompiledFeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.IndexedCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
@@ -133,7 +135,6 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Prepare cost function
 		@SuppressWarnings( "unchecked" )
 		final Map< String, Double > featurePenalties = ( Map< String, Double > ) settings.get( KEY_LINKING_FEATURE_PENALTIES );
-		final CostFunction< Spot, Spot > costFunction = getCostFunction( featurePenalties );
 		final Double maxDist = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
 		final double costThreshold = maxDist * maxDist;
 		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
@@ -183,6 +184,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 						 * Run the linker.
 						 */
 
+						final IndexedCostFunction costFunction = compileCostFunction( featurePenalties, sources, targets );
 						final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
 						final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( creator );
 						if ( !linker.checkInput() || !linker.process() )
@@ -229,6 +231,27 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		return ok.get();
 	}
 
+	/**
+	 * Creates a suitable cost function, compiled for the specified sources and
+	 * targets.
+	 * <p>
+	 * By default, the cost function returned by
+	 * {@link #getCostFunction(Map)} is compiled, so that subclasses overriding
+	 * the latter are honored.
+	 *
+	 * @param featurePenalties
+	 *            feature penalties to base costs on. Can be <code>null</code>.
+	 * @param sources
+	 *            the sources of the linking step.
+	 * @param targets
+	 *            the targets of the linking step.
+	 * @return a new {@link IndexedCostFunction}.
+	 */
+	protected IndexedCostFunction compileCostFunction( final Map< String, Double > featurePenalties, final List< Spot > sources, final List< Spot > targets )
+	{
+		return CompiledFeaturePenaltyCostFunction.compile( getCostFunction( featurePenalties ), sources, targets );
+	}
+
 	/**
 	 * Creates a suitable cost function.
 	 *
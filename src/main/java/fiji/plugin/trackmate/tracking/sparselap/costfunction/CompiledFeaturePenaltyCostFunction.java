@@ -0,0 +1,160 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A primitive version of {@link FeaturePenaltyCostFunction} and
+ * {@link SquareDistCostFunction}, compiled for a list of sources and a list of
+ * targets.
+ * <p>
+ * Upon creation, the position and the penalized feature values of all the
+ * sources and targets are copied into flat <code>double[]</code> arrays,
+ * indexed by the spot index in its list. Cost evaluation then only reads these
+ * arrays, and returns the same values as the two cost functions above.
+ * Like for {@link FeaturePenaltyCostFunction}, a penalized feature missing in
+ * one of the spots generates a {@link NullPointerException}, here when the
+ * function is compiled.
+ * <p>
+ * An instance is meant to be built once per linking step, for the sources and
+ * targets that will be considered in this step.
+ */
+public class CompiledFeaturePenaltyCostFunction implements IndexedCostFunction
+{
+
+	/** Number of values stored per spot: X, Y, Z then the features. */
+	private final int stride;
+
+	/** Number of penalized features. */
+	private final int nFeatures;
+
+	/** Penalty factors, multiplied by 1.5. */
+	private final double[] factors;
+
+	/** Source values, <code>stride</code> per source. */
+	private final double[] sourceValues;
+
+	/** Target values, <code>stride</code> per target. */
+	private final double[] targetValues;
+
+	/**
+	 * Compiles a cost function for the specified sources and targets.
+	 *
+	 * @param featurePenalties
+	 *            the feature penalties. Can be <code>null</code> or empty, in
+	 *            which case the cost is the square distance.
+	 * @param sources
+	 *            the source spots.
+	 * @param targets
+	 *            the target spots.
+	 * @throws NullPointerException
+	 *             if one of the spots does not store a penalized feature.
+	 */
+	public CompiledFeaturePenaltyCostFunction( final Map< String, Double > featurePenalties, final List< Spot > sources, final List< Spot > targets )
+	{
+		final String[] features;
+		if ( null == featurePenalties )
+		{
+			features = new String[ 0 ];
+			factors = new double[ 0 ];
+		}
+		else
+		{
+			features = featurePenalties.keySet().toArray( new String[ featurePenalties.size() ] );
+			factors = new double[ features.length ];
+			for ( int f = 0; f < features.length; f++ )
+				factors[ f ] = 1.5 * featurePenalties.get( features[ f ] ).doubleValue();
+		}
+		this.nFeatures = features.length;
+		this.stride = 3 + nFeatures;
+		this.sourceValues = extract( sources, features, stride );
+		this.targetValues = ( sources == targets ) ? sourceValues : extract( targets, features, stride );
+	}
+
+	/**
+	 * Returns an {@link IndexedCostFunction} that gives the same costs as the
+	 * specified cost function, for the specified sources and targets.
+	 * <p>
+	 * If the cost function is a plain {@link FeaturePenaltyCostFunction} or
+	 * {@link SquareDistCostFunction}, it is compiled. Otherwise, for instance
+	 * if it is a subclass of these, the returned function calls it on the
+	 * spots at the specified indices.
+	 *
+	 * @param costFunction
+	 *            the cost function.
+	 * @param sources
+	 *            the source spots.
+	 * @param targets
+	 *            the target spots.
+	 * @return a new {@link IndexedCostFunction}.
+	 */
+	public static IndexedCostFunction compile( final CostFunction< Spot, Spot > costFunction, final List< Spot > sources, final List< Spot > targets )
+	{
+		if ( costFunction.getClass() == SquareDistCostFunction.class )
+			return new CompiledFeaturePenaltyCostFunction( null, sources, targets );
+
+		if ( costFunction.getClass() == FeaturePenaltyCostFunction.class )
+			return new CompiledFeaturePenaltyCostFunction( ( ( FeaturePenaltyCostFunction ) costFunction ).getFeaturePenalties(), sources, targets );
+
+		return new IndexedCostFunction()
+		{
+			@Override
+			public double linkingCost( final int source, final int target )
+			{
+				return costFunction.linkingCost( sources.get( source ), targets.get( target ) );
+			}
+		};
+	}
+
+	@Override
+	public double linkingCost( final int source, final int target )
+	{
+		final int si = source * stride;
+		final int ti = target * stride;
+
+		final double dx = targetValues[ ti ] - sourceValues[ si ];
+		final double dy = targetValues[ ti + 1 ] - sourceValues[ si + 1 ];
+		final double dz = targetValues[ ti + 2 ] - sourceValues[ si + 2 ];
+		final double d1 = dx * dx + dy * dy + dz * dz;
+		final double d2 = ( d1 == 0 ) ? Double.MIN_NORMAL : d1;
+
+		double penalty = 1;
+		for ( int f = 0; f < nFeatures; f++ )
+		{
+			final double a = sourceValues[ si + 3 + f ];
+			final double b = targetValues[ ti + 3 + f ];
+			if ( a == -b )
+				continue;
+
+			final double ndiff = Math.abs( a - b ) / ( ( a + b ) / 2 );
+			if ( Double.isNaN( ndiff ) )
+				continue;
+
+			penalty += factors[ f ] * ndiff;
+		}
+
+		return d2 * penalty * penalty;
+	}
+
+	private static final double[] extract( final List< Spot > spots, final String[] features, final int stride )
+	{
+		final double[] values = new double[ spots.size() * stride ];
+		int index = 0;
+		for ( final Spot spot : spots )
+		{
+			values[ index++ ] = spot.getDoublePosition( 0 );
+			values[ index++ ] = spot.getDoublePosition( 1 );
+			values[ index++ ] = spot.getDoublePosition( 2 );
+			for ( final String feature : features )
+			{
+				final Double val = spot.getFeature( feature );
+				if ( null == val )
+					throw new NullPointerException( "Spot " + spot + " does not store the feature " + feature + "." );
+				values[ index++ ] = val.doubleValue();
+			}
+		}
+		return values;
+	}
+}
@@ -41,6 +41,16 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 		this.featurePenalties = featurePenalties;
 	}
 
+	/**
+	 * Returns the feature penalties this cost function was created with.
+	 *
+	 * @return the feature penalties map.
+	 */
+	public Map< String, Double > getFeaturePenalties()
+	{
+		return featurePenalties;
+	}
+
 	@Override
 	public double linkingCost( final Spot source, final Spot target )
 	{
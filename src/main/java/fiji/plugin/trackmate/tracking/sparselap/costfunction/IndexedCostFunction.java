@@ -0,0 +1,26 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+/**
+ * Interface representing a function that can calculate the cost to link a
+ * source object to a target object, both specified by their index in a source
+ * list and a target list known to the function.
+ * <p>
+ * This is the primitive counterpart of {@link CostFunction}, meant for cost
+ * functions that pre-extract what they need from the objects to link, so that
+ * the cost evaluation does not have to look-up anything.
+ */
+public interface IndexedCostFunction
+{
+
+	/**
+	 * Returns the cost to link two objects.
+	 *
+	 * @param source
+	 *            the index of the source object in the source list.
+	 * @param target
+	 *            the index of the target object in the target list.
+	 * @return the cost as a double.
+	 */
+	public double linkingCost( int source, int target );
+
+}
@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.List;
 
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.IndexedCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
 /**
@@ -28,6 +29,8 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private final CostFunction< K, J > costFunction;
 
+	private final IndexedCostFunction indexedCostFunction;
+
 	private SparseCostMatrix scm;
 
 	private long processingTime;
@@ -51,6 +54,37 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		this.sources = sources;
 		this.targets = targets;
 		this.costFunction = costFunction;
+		this.indexedCostFunction = null;
+		this.costThreshold = costThreshold;
+		this.alternativeCostFactor = alternativeCostFactor;
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Instantiates a cost matrix creator that uses a cost function working on
+	 * the indices of the sources and targets in the specified lists.
+	 *
+	 * @param sources
+	 *            the sources.
+	 * @param targets
+	 *            the targets.
+	 * @param costFunction
+	 *            the cost function, that receives the index of the source in
+	 *            the source list and the index of the target in the target
+	 *            list.
+	 * @param costThreshold
+	 *            the cost above which links are not considered.
+	 * @param alternativeCostFactor
+	 *            the factor to compute the alternative cost.
+	 * @param percentile
+	 *            the percentile of costs to compute the alternative cost.
+	 */
+	public JaqamanLinkingCostMatrixCreator( final List< K > sources, final List< J > targets, final IndexedCostFunction costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile )
+	{
+		this.sources = sources;
+		this.targets = targets;
+		this.costFunction = null;
+		this.indexedCostFunction = costFunction;
 		this.costThreshold = costThreshold;
 		this.alternativeCostFactor = alternativeCostFactor;
 		this.percentile = percentile;
@@ -81,17 +115,40 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		final List< J > accTargets = new ArrayList< >();
 		final ResizableDoubleArray costs = new ResizableDoubleArray();
 
-		for ( final K source : sources )
+		if ( null != indexedCostFunction )
 		{
-			for ( final J target : targets )
+			final List< K > sl = ( List< K > ) sources;
+			final List< J > tl = ( List< J > ) targets;
+			final int nSources = sl.size();
+			final int nTargets = tl.size();
+			for ( int i = 0; i < nSources; i++ )
 			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
+				for ( int j = 0; j < nTargets; j++ )
+				{
+					final double cost = indexedCostFunction.linkingCost( i, j );
+					if ( cost < costThreshold )
+					{
+						accSources.add( sl.get( i ) );
+						accTargets.add( tl.get( j ) );
+						costs.add( cost );
+					}
+				}
+			}
+		}
+		else
+		{
+			for ( final K source : sources )
+			{
+				for ( final J target : targets )
 				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
+
+					final double cost = costFunction.linkingCost( source, target );
+					if ( cost < costThreshold )
+					{
+						accSources.add( source );
+						accTargets.add( target );
+						costs.add( cost );
+					}
 				}
 			}
 		}
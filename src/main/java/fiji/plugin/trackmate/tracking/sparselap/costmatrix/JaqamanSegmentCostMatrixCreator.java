@@ -16,8 +16,10 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTA
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CompiledFeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.IndexedCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
@@ -116,7 +118,6 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		// Gap closing.
 		@SuppressWarnings( "unchecked" )
 		final Map< String, Double > gcFeaturePenalties = ( Map< String, Double > ) settings.get( KEY_GAP_CLOSING_FEATURE_PENALTIES );
-		final CostFunction< Spot, Spot > gcCostFunction = getCostFunctionFor( gcFeaturePenalties );
 		final int maxFrameInterval = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
 		final double gcMaxDistance = ( Double ) settings.get( KEY_GAP_CLOSING_MAX_DISTANCE );
 		final double gcCostThreshold = gcMaxDistance * gcMaxDistance;
@@ -125,7 +126,6 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		// Merging
 		@SuppressWarnings( "unchecked" )
 		final Map< String, Double > mFeaturePenalties = ( Map< String, Double > ) settings.get( KEY_MERGING_FEATURE_PENALTIES );
-		final CostFunction< Spot, Spot > mCostFunction = getCostFunctionFor( mFeaturePenalties );
 		final double mMaxDistance = ( Double ) settings.get( KEY_MERGING_MAX_DISTANCE );
 		final double mCostThreshold = mMaxDistance * mMaxDistance;
 		final boolean allowMerging = ( Boolean ) settings.get( KEY_ALLOW_TRACK_MERGING );
@@ -133,7 +133,6 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		// Splitting
 		@SuppressWarnings( "unchecked" )
 		final Map< String, Double > sFeaturePenalties = ( Map< String, Double > ) settings.get( KEY_SPLITTING_FEATURE_PENALTIES );
-		final CostFunction< Spot, Spot > sCostFunction = getCostFunctionFor( sFeaturePenalties );
 		final boolean allowSplitting = ( Boolean ) settings.get( KEY_ALLOW_TRACK_SPLITTING );
 		final double sMaxDistance = ( Double ) settings.get( KEY_SPLITTING_MAX_DISTANCE );
 		final double sCostThreshold = sMaxDistance * sMaxDistance;
@@ -181,6 +180,18 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 			allMiddles = Collections.emptyList();
 		}
 
+		/*
+		 * Compile cost functions and extract frames once for all the spots we
+		 * will iterate over.
+		 */
+
+		final IndexedCostFunction gcCostFunction = allowGapClosing ? compileCostFunctionFor( gcFeaturePenalties, segmentEnds, segmentStarts ) : null;
+		final IndexedCostFunction mCostFunction = allowMerging ? compileCostFunctionFor( mFeaturePenalties, segmentEnds, allMiddles ) : null;
+		final IndexedCostFunction sCostFunction = allowSplitting ? compileCostFunctionFor( sFeaturePenalties, allMiddles, segmentStarts ) : null;
+		final int[] endFrames = extractFrames( segmentEnds );
+		final int[] startFrames = extractFrames( segmentStarts );
+		final int[] middleFrames = extractFrames( allMiddles );
+
 		final Object lock = new Object();
 
 		/*
@@ -197,14 +208,16 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		 */
 
 		final ExecutorService executorGCM = Executors.newFixedThreadPool( numThreads );
-		for ( final Spot source : segmentEnds )
+		for ( int i = 0; i < segmentEnds.size(); i++ )
 		{
+			final int sourceIndex = i;
+			final Spot source = segmentEnds.get( i );
 			executorGCM.submit( new Runnable()
 			{
 				@Override
 				public void run()
 				{
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+					final int sourceFrame = endFrames[ sourceIndex ];
 
 					/*
 					 * Iterate over segment starts - GAP-CLOSING.
@@ -212,11 +225,11 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 					if ( allowGapClosing )
 					{
-						for ( final Spot target : segmentStarts )
+						for ( int targetIndex = 0; targetIndex < startFrames.length; targetIndex++ )
 						{
 							// Check frame interval, must be within user
 							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
+							final int targetFrame = startFrames[ targetIndex ];
 							final int tdiff = targetFrame - sourceFrame;
 							if ( tdiff < 1 || tdiff > maxFrameInterval )
 							{
@@ -224,7 +237,7 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 							}
 
 							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
+							final double cost = gcCostFunction.linkingCost( sourceIndex, targetIndex );
 							if ( cost > gcCostThreshold )
 							{
 								continue;
@@ -245,10 +258,10 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 					if ( allowMerging )
 					{
-						for ( final Spot target : allMiddles )
+						for ( int targetIndex = 0; targetIndex < middleFrames.length; targetIndex++ )
 						{
 							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
+							final int targetFrame = middleFrames[ targetIndex ];
 							final int tdiff = targetFrame - sourceFrame;
 							if ( tdiff != 1 )
 							{
@@ -256,7 +269,7 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 							}
 
 							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
+							final double cost = mCostFunction.linkingCost( sourceIndex, targetIndex );
 							if ( cost > mCostThreshold )
 							{
 								continue;
@@ -290,18 +303,20 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		if ( allowSplitting )
 		{
 			final ExecutorService executorS = Executors.newFixedThreadPool( numThreads );
-			for ( final Spot source : allMiddles )
+			for ( int i = 0; i < allMiddles.size(); i++ )
 			{
+				final int sourceIndex = i;
+				final Spot source = allMiddles.get( i );
 				executorS.submit( new Runnable()
 				{
 					@Override
 					public void run()
 					{
-						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
+						final int sourceFrame = middleFrames[ sourceIndex ];
+						for ( int targetIndex = 0; targetIndex < startFrames.length; targetIndex++ )
 						{
 							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
+							final int targetFrame = startFrames[ targetIndex ];
 							final int tdiff = targetFrame - sourceFrame;
 
 							if ( tdiff != 1 )
@@ -310,7 +325,7 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 							}
 
 							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
+							final double cost = sCostFunction.linkingCost( sourceIndex, targetIndex );
 							if ( cost > sCostThreshold )
 							{
 								continue;
@@ -377,6 +392,35 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return true;
 	}
 
+	/**
+	 * Creates a suitable cost function, compiled for the specified sources and
+	 * targets.
+	 * <p>
+	 * By default, the cost function returned by
+	 * {@link #getCostFunctionFor(Map)} is compiled, so that subclasses
+	 * overriding the latter are honored.
+	 *
+	 * @param featurePenalties
+	 *            feature penalties to base costs on. Can be <code>null</code>.
+	 * @param sources
+	 *            the sources.
+	 * @param targets
+	 *            the targets.
+	 * @return a new {@link IndexedCostFunction}.
+	 */
+	protected IndexedCostFunction compileCostFunctionFor( final Map< String, Double > featurePenalties, final List< Spot > sources, final List< Spot > targets )
+	{
+		return CompiledFeaturePenaltyCostFunction.compile( getCostFunctionFor( featurePenalties ), sources, targets );
+	}
+
+	private static final int[] extractFrames( final List< Spot > spots )
+	{
+		final int[] frames = new int[ spots.size() ];
+		for ( int i = 0; i < frames.length; i++ )
+			frames[ i ] = spots.get( i ).getFeature( Spot.FRAME ).intValue();
+		return frames;
+	}
+
 	protected CostFunction< Spot, Spot > getCostFunctionFor( final Map< String, Double > featurePenalties )
 	{
 		// Link Nick Perry original non sparse LAP framework.
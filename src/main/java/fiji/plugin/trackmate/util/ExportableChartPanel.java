@@ -106,6 +106,31 @@ public class ExportableChartPanel extends ChartPanel
 		final String xColumnName = plot.getDomainAxis().getLabel();
 
 		final ResultsTable table = new ResultsTable();
+		if ( plot.getDataset( 0 ) instanceof XYDensityDataset )
+		{
+			// Export the raw values, not the bins.
+			final XYDensityDataset dataset = ( XYDensityDataset ) plot.getDataset( 0 );
+			final int nSeries = dataset.getSeriesCount();
+			int nPoints = 0;
+			for ( int j = 0; j < nSeries; j++ )
+				nPoints = Math.max( nPoints, dataset.getRawItemCount( j ) );
+
+			for ( int k = 0; k < nPoints; k++ )
+			{
+				table.incrementCounter();
+				for ( int j = 0; j < nSeries; j++ )
+				{
+					if ( k >= dataset.getRawItemCount( j ) )
+						continue;
+					final String seriesName = dataset.getSeriesKey( j ).toString();
+					table.addValue( seriesName + "(" + xColumnName + ")", dataset.getRawXValue( j, k ) );
+					table.addValue( seriesName + "(" + plot.getRangeAxis().getLabel() + ")", dataset.getRawYValue( j, k ) );
+				}
+			}
+			table.show( getChart().getTitle().getText() );
+			return;
+		}
+
 		final int nPoints = plot.getDataset( 0 ).getItemCount( 0 );
 		for ( int k = 0; k < nPoints; k++ )
 		{
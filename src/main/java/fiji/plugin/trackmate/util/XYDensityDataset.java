@@ -0,0 +1,339 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYZDataset;
+
+/**
+ * A XY dataset for large number of points, that stores the point coordinates
+ * in primitive arrays and exposes them binned on a 2D grid.
+ * <p>
+ * Items of this dataset are the non-empty bins of the grid: the X and Y
+ * values of an item are the coordinates of the bin center, and the Z value is
+ * the number of points in the bin. The grid spans the range set by
+ * {@link #setBinRanges(Range, Range)}, so that zooming on a plot can re-bin
+ * the data at a finer scale. The domain and range bounds reported by this
+ * dataset are always the ones of the whole data, regardless of binning.
+ * <p>
+ * The raw point coordinates can still be accessed, for instance to export
+ * them.
+ *
+ * @see XYDensityRenderer
+ */
+public class XYDensityDataset extends AbstractXYZDataset implements DomainInfo, RangeInfo
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/** Default number of bins along each axis. */
+	public static final int DEFAULT_N_BINS = 256;
+
+	private final int nBins;
+
+	private final List< Comparable< ? > > keys = new ArrayList<>();
+
+	private final List< double[] > xs = new ArrayList<>();
+
+	private final List< double[] > ys = new ArrayList<>();
+
+	/** For each series, the indices of the non-empty bins. */
+	private final List< int[] > binIndices = new ArrayList<>();
+
+	/** For each series, the number of points in the non-empty bins. */
+	private final List< int[] > binCounts = new ArrayList<>();
+
+	private final List< Integer > maxCounts = new ArrayList<>();
+
+	private double xmin = Double.POSITIVE_INFINITY;
+
+	private double xmax = Double.NEGATIVE_INFINITY;
+
+	private double ymin = Double.POSITIVE_INFINITY;
+
+	private double ymax = Double.NEGATIVE_INFINITY;
+
+	private Range xBinRange;
+
+	private Range yBinRange;
+
+	public XYDensityDataset()
+	{
+		this( DEFAULT_N_BINS );
+	}
+
+	public XYDensityDataset( final int nBins )
+	{
+		this.nBins = nBins;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Adds a series to this dataset. The arrays are copied.
+	 *
+	 * @param key
+	 *            the series key.
+	 * @param x
+	 *            the X values.
+	 * @param y
+	 *            the Y values.
+	 * @param n
+	 *            the number of points to read from the arrays.
+	 */
+	public void addSeries( final Comparable< ? > key, final double[] x, final double[] y, final int n )
+	{
+		final double[] lx = new double[ n ];
+		final double[] ly = new double[ n ];
+		System.arraycopy( x, 0, lx, 0, n );
+		System.arraycopy( y, 0, ly, 0, n );
+		for ( int i = 0; i < n; i++ )
+		{
+			xmin = Math.min( xmin, lx[ i ] );
+			xmax = Math.max( xmax, lx[ i ] );
+			ymin = Math.min( ymin, ly[ i ] );
+			ymax = Math.max( ymax, ly[ i ] );
+		}
+		keys.add( key );
+		xs.add( lx );
+		ys.add( ly );
+		binIndices.add( null );
+		binCounts.add( null );
+		maxCounts.add( 0 );
+
+		// Bin everything on the whole data range.
+		xBinRange = null;
+		yBinRange = null;
+		setBinRanges( getDomainBounds( false ), getRangeBounds( false ) );
+	}
+
+	/**
+	 * Re-bins the data on a grid spanning the specified ranges. Does nothing
+	 * if the ranges are unchanged.
+	 *
+	 * @param xRange
+	 *            the range to bin along X.
+	 * @param yRange
+	 *            the range to bin along Y.
+	 */
+	public void setBinRanges( final Range xRange, final Range yRange )
+	{
+		if ( null == xRange || null == yRange )
+			return;
+		if ( xRange.equals( xBinRange ) && yRange.equals( yBinRange ) )
+			return;
+		this.xBinRange = xRange;
+		this.yBinRange = yRange;
+
+		final double x0 = xRange.getLowerBound();
+		final double y0 = yRange.getLowerBound();
+		final double dx = getBinWidth();
+		final double dy = getBinHeight();
+		final int[] counts = new int[ nBins * nBins ];
+		for ( int s = 0; s < xs.size(); s++ )
+		{
+			final double[] x = xs.get( s );
+			final double[] y = ys.get( s );
+			for ( int i = 0; i < x.length; i++ )
+			{
+				final int ix = binOf( x[ i ], x0, dx );
+				final int iy = binOf( y[ i ], y0, dy );
+				if ( ix < 0 || iy < 0 )
+					continue;
+				counts[ ix * nBins + iy ]++;
+			}
+
+			// Compact non-empty bins.
+			int nonEmpty = 0;
+			for ( int b = 0; b < counts.length; b++ )
+				if ( counts[ b ] > 0 )
+					nonEmpty++;
+
+			final int[] indices = new int[ nonEmpty ];
+			final int[] values = new int[ nonEmpty ];
+			int max = 0;
+			int k = 0;
+			for ( int b = 0; b < counts.length; b++ )
+			{
+				if ( counts[ b ] == 0 )
+					continue;
+				indices[ k ] = b;
+				values[ k ] = counts[ b ];
+				max = Math.max( max, counts[ b ] );
+				counts[ b ] = 0;
+				k++;
+			}
+			binIndices.set( s, indices );
+			binCounts.set( s, values );
+			maxCounts.set( s, max );
+		}
+		fireDatasetChanged();
+	}
+
+	/**
+	 * Returns the width of the bins, in data units.
+	 */
+	public double getBinWidth()
+	{
+		return null == xBinRange ? 0. : xBinRange.getLength() / nBins;
+	}
+
+	/**
+	 * Returns the height of the bins, in data units.
+	 */
+	public double getBinHeight()
+	{
+		return null == yBinRange ? 0. : yBinRange.getLength() / nBins;
+	}
+
+	/**
+	 * Returns the number of points in the most populated bin of the specified
+	 * series.
+	 */
+	public int getMaxCount( final int series )
+	{
+		return maxCounts.get( series ).intValue();
+	}
+
+	/**
+	 * Returns the number of raw points in the specified series.
+	 */
+	public int getRawItemCount( final int series )
+	{
+		return xs.get( series ).length;
+	}
+
+	public double getRawXValue( final int series, final int item )
+	{
+		return xs.get( series )[ item ];
+	}
+
+	public double getRawYValue( final int series, final int item )
+	{
+		return ys.get( series )[ item ];
+	}
+
+	/*
+	 * XYZDATASET METHODS
+	 */
+
+	@Override
+	public int getSeriesCount()
+	{
+		return keys.size();
+	}
+
+	@SuppressWarnings( "rawtypes" )
+	@Override
+	public Comparable getSeriesKey( final int series )
+	{
+		return keys.get( series );
+	}
+
+	@Override
+	public int getItemCount( final int series )
+	{
+		return binIndices.get( series ).length;
+	}
+
+	@Override
+	public double getXValue( final int series, final int item )
+	{
+		final int ix = binIndices.get( series )[ item ] / nBins;
+		return xBinRange.getLowerBound() + ( ix + 0.5 ) * getBinWidth();
+	}
+
+	@Override
+	public double getYValue( final int series, final int item )
+	{
+		final int iy = binIndices.get( series )[ item ] % nBins;
+		return yBinRange.getLowerBound() + ( iy + 0.5 ) * getBinHeight();
+	}
+
+	@Override
+	public double getZValue( final int series, final int item )
+	{
+		return binCounts.get( series )[ item ];
+	}
+
+	@Override
+	public Number getX( final int series, final int item )
+	{
+		return Double.valueOf( getXValue( series, item ) );
+	}
+
+	@Override
+	public Number getY( final int series, final int item )
+	{
+		return Double.valueOf( getYValue( series, item ) );
+	}
+
+	@Override
+	public Number getZ( final int series, final int item )
+	{
+		return Double.valueOf( getZValue( series, item ) );
+	}
+
+	/*
+	 * DOMAININFO & RANGEINFO METHODS
+	 */
+
+	@Override
+	public double getDomainLowerBound( final boolean includeInterval )
+	{
+		return xmin;
+	}
+
+	@Override
+	public double getDomainUpperBound( final boolean includeInterval )
+	{
+		return xmax;
+	}
+
+	@Override
+	public Range getDomainBounds( final boolean includeInterval )
+	{
+		return xmin > xmax ? null : new Range( xmin, xmax );
+	}
+
+	@Override
+	public double getRangeLowerBound( final boolean includeInterval )
+	{
+		return ymin;
+	}
+
+	@Override
+	public double getRangeUpperBound( final boolean includeInterval )
+	{
+		return ymax;
+	}
+
+	@Override
+	public Range getRangeBounds( final boolean includeInterval )
+	{
+		return ymin > ymax ? null : new Range( ymin, ymax );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns the bin index of the specified value, or -1 if it is out of the
+	 * bin range.
+	 */
+	private int binOf( final double val, final double min, final double binSize )
+	{
+		if ( binSize <= 0. )
+			return val == min ? 0 : -1;
+		final int i = ( int ) Math.floor( ( val - min ) / binSize );
+		if ( i == nBins && val == min + nBins * binSize )
+			return nBins - 1; // Include upper bound.
+		return ( i < 0 || i >= nBins ) ? -1 : i;
+	}
+}
@@ -0,0 +1,82 @@
+package fiji.plugin.trackmate.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.geom.Rectangle2D;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.plot.CrosshairState;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.AbstractXYItemRenderer;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.chart.ui.RectangleEdge;
+import org.jfree.data.xy.XYDataset;
+
+/**
+ * Renders the bins of a {@link XYDensityDataset} as filled rectangles painted
+ * with the series color, which opacity increases with the log of the number
+ * of points in the bin.
+ */
+public class XYDensityRenderer extends AbstractXYItemRenderer
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/** Opacity of the bins with a single point. */
+	private static final float MIN_ALPHA = 0.25f;
+
+	@Override
+	public void drawItem( final Graphics2D g2, final XYItemRendererState state, final Rectangle2D dataArea, final PlotRenderingInfo info, final XYPlot plot,
+			final ValueAxis domainAxis, final ValueAxis rangeAxis, final XYDataset dataset, final int series, final int item, final CrosshairState crosshairState, final int pass )
+	{
+		final XYDensityDataset densityDataset = ( XYDensityDataset ) dataset;
+
+		final double x = densityDataset.getXValue( series, item );
+		final double y = densityDataset.getYValue( series, item );
+		final double hw = densityDataset.getBinWidth() / 2.;
+		final double hh = densityDataset.getBinHeight() / 2.;
+
+		final RectangleEdge xAxisLocation = plot.getDomainAxisEdge();
+		final RectangleEdge yAxisLocation = plot.getRangeAxisEdge();
+
+		final double transX0 = domainAxis.valueToJava2D( x - hw, dataArea, xAxisLocation );
+		final double transX1 = domainAxis.valueToJava2D( x + hw, dataArea, xAxisLocation );
+		final double transY0 = rangeAxis.valueToJava2D( y - hh, dataArea, yAxisLocation );
+		final double transY1 = rangeAxis.valueToJava2D( y + hh, dataArea, yAxisLocation );
+
+		// At least one pixel wide, so that isolated points are visible.
+		final double xl = Math.min( transX0, transX1 );
+		final double yl = Math.min( transY0, transY1 );
+		final double w = Math.max( 1., Math.abs( transX1 - transX0 ) );
+		final double h = Math.max( 1., Math.abs( transY1 - transY0 ) );
+
+		final Rectangle2D block;
+		if ( plot.getOrientation() == PlotOrientation.HORIZONTAL )
+			block = new Rectangle2D.Double( yl, xl, h, w );
+		else
+			block = new Rectangle2D.Double( xl, yl, w, h );
+
+		if ( !block.intersects( dataArea ) )
+			return;
+
+		final double count = densityDataset.getZValue( series, item );
+		final int maxCount = densityDataset.getMaxCount( series );
+		final float alpha = maxCount <= 1 ? 1f
+				: MIN_ALPHA + ( 1f - MIN_ALPHA ) * ( float ) ( Math.log( count ) / Math.log( maxCount ) );
+
+		final Paint paint = getItemPaint( series, item );
+		if ( paint instanceof Color )
+		{
+			final Color c = ( Color ) paint;
+			g2.setPaint( new Color( c.getRed(), c.getGreen(), c.getBlue(), Math.round( 255 * alpha ) ) );
+		}
+		else
+		{
+			g2.setPaint( paint );
+		}
+		g2.fill( block );
+	}
+}
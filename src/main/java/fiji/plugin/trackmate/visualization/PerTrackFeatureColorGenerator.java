@@ -6,8 +6,7 @@ package fiji.plugin.trackmate.visualization;
 import static fiji.plugin.trackmate.visualization.TrackMateModelView.DEFAULT_TRACK_COLOR;
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.jfree.chart.renderer.InterpolatePaintScale;
@@ -33,7 +32,11 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 
 	private final InterpolatePaintScale generator;
 
-	private Map< Integer, Color > colorMap;
+	/**
+	 * Track colors, indexed by track ID. Track IDs are small consecutive
+	 * integers, so this is cheaper than a map.
+	 */
+	private Color[] colorMap = new Color[ 0 ];
 
 	private final Model model;
 
@@ -91,7 +94,28 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 		{
 			final Set< DefaultWeightedEdge > edges = event.getEdges();
 			if ( edges.size() > 0 )
-				refreshColorMap();
+			{
+				final Set< Integer > trackIDs = event.getTrackUpdated();
+				if ( null == trackIDs || null == feature || feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
+				{
+					refreshColorMap();
+					return;
+				}
+
+				final double oldMin = min;
+				final double oldMax = max;
+				autoMinMax();
+				if ( min != oldMin || max != oldMax )
+				{
+					refreshColorMap();
+					return;
+				}
+
+				// Only the modified tracks need a new color.
+				final FeatureModel fm = model.getFeatureModel();
+				for ( final Integer trackID : trackIDs )
+					putColor( trackID, colorFor( fm.getTrackFeature( trackID, feature ) ) );
+			}
 		}
 	}
 
@@ -100,24 +124,23 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 		final TrackModel trackModel = model.getTrackModel();
 		final Set< Integer > trackIDs = trackModel.trackIDs( true );
 
+		int maxID = -1;
+		for ( final Integer trackID : trackIDs )
+			maxID = Math.max( maxID, trackID.intValue() );
+		final Color[] lColorMap = new Color[ maxID + 1 ];
+
 		if ( null == feature )
 		{
-
 			// Create value->color map
-			colorMap = new HashMap<>( trackIDs.size() );
 			for ( final Integer trackID : trackIDs )
-				colorMap.put( trackID, DEFAULT_TRACK_COLOR );
+				lColorMap[ trackID ] = DEFAULT_TRACK_COLOR;
 		}
 		else if ( feature.equals( TrackIndexAnalyzer.TRACK_INDEX ) )
 		{
 			// Create value->color map
-			colorMap = new HashMap<>( trackIDs.size() );
 			int index = 0;
 			for ( final Integer trackID : trackIDs )
-			{
-				final Color lColor = generator.getPaint( ( double ) index++ / ( trackIDs.size() - 1 ) );
-				colorMap.put( trackID, lColor );
-			}
+				lColorMap[ trackID ] = generator.getPaint( ( double ) index++ / ( trackIDs.size() - 1 ) );
 		}
 		else
 		{
@@ -127,21 +150,27 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 
 			// Create value->color map
 			final FeatureModel fm = model.getFeatureModel();
-			colorMap = new HashMap<>( trackIDs.size() );
 			for ( final Integer trackID : trackIDs )
-			{
-				final Double val = fm.getTrackFeature( trackID, feature );
-				final Color lColor;
-				if ( null == val )
-					lColor = TrackMateModelView.DEFAULT_UNASSIGNED_FEATURE_COLOR;
-				else if ( Double.isNaN( val.doubleValue() ) )
-					lColor = TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR;
-				else
-					lColor = generator.getPaint( ( val - min ) / ( max - min ) );
-
-				colorMap.put( trackID, lColor );
-			}
+				lColorMap[ trackID ] = colorFor( fm.getTrackFeature( trackID, feature ) );
 		}
+		colorMap = lColorMap;
+	}
+
+	private Color colorFor( final Double val )
+	{
+		if ( null == val )
+			return TrackMateModelView.DEFAULT_UNASSIGNED_FEATURE_COLOR;
+		else if ( Double.isNaN( val.doubleValue() ) )
+			return TrackMateModelView.DEFAULT_UNDEFINED_FEATURE_COLOR;
+		else
+			return generator.getPaint( ( val - min ) / ( max - min ) );
+	}
+
+	private void putColor( final int trackID, final Color lColor )
+	{
+		if ( trackID >= colorMap.length )
+			colorMap = Arrays.copyOf( colorMap, Math.max( trackID + 1, 2 * colorMap.length ) );
+		colorMap[ trackID ] = lColor;
 	}
 
 	@Override
@@ -153,7 +182,7 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	@Override
 	public void setCurrentTrackID( final Integer trackID )
 	{
-		this.color = colorMap.get( trackID );
+		this.color = colorOf( trackID );
 	}
 
 	@Override
@@ -179,7 +208,10 @@ public class PerTrackFeatureColorGenerator implements TrackColorGenerator, Model
 	 */
 	public Color colorOf( final Integer trackID )
 	{
-		return colorMap.get( trackID );
+		final Color[] lColorMap = colorMap;
+		if ( null == trackID || trackID < 0 || trackID >= lColorMap.length )
+			return null;
+		return lColorMap[ trackID ];
 	}
 
 	/*
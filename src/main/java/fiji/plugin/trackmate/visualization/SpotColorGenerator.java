@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.visualization;
 
 import java.awt.Color;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.jfree.chart.renderer.InterpolatePaintScale;
@@ -26,6 +27,12 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 
 	private final InterpolatePaintScale generator;
 
+	/**
+	 * Cache of the spot colors, indexed by spot ID. A <code>null</code> entry
+	 * means the color must be computed.
+	 */
+	private Color[] cache = new Color[ 0 ];
+
 	public SpotColorGenerator( final Model model )
 	{
 		this.model = model;
@@ -39,6 +46,26 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 		if ( null == feature )
 			return TrackMateModelView.DEFAULT_SPOT_COLOR;
 
+		final int id = spot.ID();
+		Color[] lcache = cache;
+		if ( id < lcache.length )
+		{
+			final Color color = lcache[ id ];
+			if ( null != color )
+				return color;
+		}
+		else
+		{
+			lcache = Arrays.copyOf( lcache, Math.max( id + 1, 2 * lcache.length ) );
+			cache = lcache;
+		}
+		final Color color = computeColor( spot );
+		lcache[ id ] = color;
+		return color;
+	}
+
+	private Color computeColor( final Spot spot )
+	{
 		final Double feat = spot.getFeature( feature );
 		if ( null == feat )
 			return TrackMateModelView.DEFAULT_UNASSIGNED_FEATURE_COLOR;
@@ -71,18 +98,30 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 	@Override
 	public void modelChanged( final ModelChangeEvent event )
 	{
-		if ( !autoMode || null == feature )
+		if ( null == feature )
 		{ return; }
 		if ( event.getEventID() == ModelChangeEvent.MODEL_MODIFIED )
 		{
 			final Set< Spot > spots = event.getSpots();
 			if ( spots.size() > 0 )
-				computeSpotColors();
+			{
+				// The changed spots need a new color, whatever the mode.
+				invalidate( spots );
+				if ( !autoMode )
+				{ return; }
 
+				final double oldMin = min;
+				final double oldMax = max;
+				computeSpotColors();
+				if ( min != oldMin || max != oldMax )
+					clearCache();
+			}
 		}
 		else if ( event.getEventID() == ModelChangeEvent.SPOTS_COMPUTED )
 		{
-			computeSpotColors();
+			if ( autoMode )
+				computeSpotColors();
+			clearCache();
 		}
 	}
 
@@ -103,6 +142,7 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 
 			this.feature = feature;
 			computeSpotColors();
+			clearCache();
 		}
 		else
 		{
@@ -140,6 +180,19 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 		}
 	}
 
+	private void clearCache()
+	{
+		cache = new Color[ cache.length ];
+	}
+
+	private void invalidate( final Set< Spot > spots )
+	{
+		final Color[] lcache = cache;
+		for ( final Spot spot : spots )
+			if ( spot.ID() < lcache.length )
+				lcache[ spot.ID() ] = null;
+	}
+
 	/*
 	 * MINMAXADJUSTABLE
 	 */
@@ -161,26 +214,25 @@ public class SpotColorGenerator implements FeatureColorGenerator< Spot >, ModelC
 	{
 		this.min = min;
 		this.max = max;
+		clearCache();
 	}
 
 	@Override
 	public void autoMinMax()
 	{
 		computeSpotColors();
+		clearCache();
 	}
 
 	@Override
 	public void setAutoMinMaxMode( final boolean autoMode )
 	{
 		this.autoMode = autoMode;
-		if ( autoMode )
-		{
-			activate();
-		}
-		else
-		{
-			terminate();
-		}
+		/*
+		 * Keep listening in manual mode too: the cached colors of modified
+		 * spots must be discarded whatever the mode.
+		 */
+		activate();
 	}
 
 	@Override
@@ -0,0 +1,586 @@
+package fiji.plugin.trackmate.visualization.threedviewer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.scijava.java3d.Appearance;
+import org.scijava.java3d.BranchGroup;
+import org.scijava.java3d.ColoringAttributes;
+import org.scijava.java3d.Geometry;
+import org.scijava.java3d.GeometryArray;
+import org.scijava.java3d.GeometryUpdater;
+import org.scijava.java3d.IndexedTriangleArray;
+import org.scijava.java3d.Material;
+import org.scijava.java3d.PolygonAttributes;
+import org.scijava.java3d.Shape3D;
+import org.scijava.java3d.TransparencyAttributes;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Color4f;
+import org.scijava.vecmath.Point3d;
+import org.scijava.vecmath.Point4d;
+
+/**
+ * A {@link SpotGroupNode} that renders all its spots with a single geometry,
+ * instead of one mesh and one scene graph branch per spot.
+ * <p>
+ * All the spot balls are packed in one indexed triangle array, built by
+ * reference from a unit sphere template. Each spot owns a slot of vertices in
+ * the shared coordinate, normal and color buffers. Hidden spots are not
+ * removed from the scene graph: their vertices are collapsed onto their
+ * center, which makes their triangles degenerate. Changes are batched and
+ * written to the buffers in a single {@link GeometryUpdater} call.
+ * <p>
+ * Text labels are only created when they are shown, for the visible spots.
+ *
+ * @param <K>
+ *            the type of the keys used to identify spots.
+ */
+public class MergedSpotGroupNode< K > extends SpotGroupNode< K >
+{
+
+	/*
+	 * A coarser sphere than for individual meshes, so that the buffers stay
+	 * small with many spots.
+	 */
+	private static final int MERIDIAN_NUMBER = 10;
+
+	private static final int PARALLEL_NUMBER = 8;
+
+	/** Coordinates of the unit sphere vertices, also used as normals. */
+	private static final float[] UNIT_VERTICES;
+
+	/** Triangle indices of the unit sphere, in {@link #UNIT_VERTICES}. */
+	private static final int[] UNIT_INDICES;
+
+	/** Number of vertices per spot. */
+	private static final int N_VERTICES;
+
+	/** Number of indices per spot. */
+	private static final int N_INDICES;
+
+	static
+	{
+		final float[][][] g = generateGlobe( MERIDIAN_NUMBER, PARALLEL_NUMBER );
+		final int nRows = g.length;
+		final int nCols = g[ 0 ].length;
+		N_VERTICES = nRows * nCols;
+		UNIT_VERTICES = new float[ 3 * N_VERTICES ];
+		for ( int j = 0; j < nRows; j++ )
+			for ( int k = 0; k < nCols; k++ )
+				for ( int d = 0; d < 3; d++ )
+					UNIT_VERTICES[ 3 * ( j * nCols + k ) + d ] = g[ j ][ k ][ d ];
+
+		// Same triangles as for the individual meshes.
+		final int[] indices = new int[ 6 * ( nRows - 1 ) * ( nCols - 1 ) ];
+		int n = 0;
+		for ( int j = 0; j < nRows - 1; j++ )
+		{
+			for ( int k = 0; k < nCols - 1; k++ )
+			{
+				if ( j != nRows - 2 )
+				{
+					indices[ n++ ] = ( j + 1 ) * nCols + k + 1;
+					indices[ n++ ] = j * nCols + k;
+					indices[ n++ ] = ( j + 1 ) * nCols + k;
+				}
+				if ( j != 0 )
+				{
+					indices[ n++ ] = j * nCols + k;
+					indices[ n++ ] = ( j + 1 ) * nCols + k + 1;
+					indices[ n++ ] = j * nCols + k + 1;
+				}
+			}
+		}
+		N_INDICES = n;
+		UNIT_INDICES = new int[ n ];
+		System.arraycopy( indices, 0, UNIT_INDICES, 0, n );
+	}
+
+	/** The keys of the spots, indexed by slot. <code>null</code> if free. */
+	private ArrayList< K > slotKeys;
+
+	/** Slots freed by removed spots, ready for reuse. */
+	private BitSet freeSlots;
+
+	/** Slots which buffer content must be rewritten. */
+	private BitSet dirtySlots;
+
+	/** Visible slots which spot is transparent. */
+	private BitSet transparentSlots;
+
+	private float[] coords;
+
+	private float[] normals;
+
+	private float[] rgba;
+
+	private int[] coordIndices;
+
+	private IndexedTriangleArray geometry;
+
+	private Shape3D shape;
+
+	private TransparencyAttributes transparencyAttributes;
+
+	private PolygonAttributes polygonAttributes;
+
+	private boolean showLabels = false;
+
+	private final GeometryUpdater flusher = new GeometryUpdater()
+	{
+		@Override
+		public void updateData( final Geometry geom )
+		{
+			for ( int slot = dirtySlots.nextSetBit( 0 ); slot >= 0; slot = dirtySlots.nextSetBit( slot + 1 ) )
+				writeSlot( slot );
+			dirtySlots.clear();
+		}
+	};
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Create a new {@link MergedSpotGroupNode} with spots at position and with
+	 * color given in argument. Arguments are interpreted as for
+	 * {@link SpotGroupNode#SpotGroupNode(Map, Map)}.
+	 *
+	 * @param centers
+	 *            a map that maps spot to their centers as Point4d.
+	 * @param colors
+	 *            a map that maps spot to their color and transparency as
+	 *            Color4f.
+	 */
+	public MergedSpotGroupNode( final Map< K, Point4d > centers, final Map< K, Color4f > colors )
+	{
+		super( centers, colors, false );
+		makeMeshes();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Re-create the shared geometry from the fields {@link #centers} and
+	 * {@link #colors}. All spots are made visible.
+	 */
+	@Override
+	protected void makeMeshes()
+	{
+		final int capacity = Math.max( 1, centers.size() );
+		slotKeys = new ArrayList< >( capacity );
+		freeSlots = new BitSet( capacity );
+		dirtySlots = new BitSet( capacity );
+		transparentSlots = new BitSet( capacity );
+		indices.clear();
+		for ( final K key : centers.keySet() )
+		{
+			indices.put( key, slotKeys.size() );
+			slotKeys.add( key );
+		}
+		switchMask = new BitSet( capacity );
+		switchMask.set( 0, centers.size() );
+
+		final Appearance appearance = new Appearance();
+		final Material material = new Material();
+		material.setLightingEnable( true );
+		appearance.setMaterial( material );
+		appearance.setColoringAttributes( new ColoringAttributes( new Color3f(), ColoringAttributes.SHADE_GOURAUD ) );
+		polygonAttributes = new PolygonAttributes();
+		polygonAttributes.setCapability( PolygonAttributes.ALLOW_MODE_WRITE );
+		appearance.setPolygonAttributes( polygonAttributes );
+		transparencyAttributes = new TransparencyAttributes( TransparencyAttributes.NONE, 0f );
+		transparencyAttributes.setCapability( TransparencyAttributes.ALLOW_MODE_WRITE );
+		appearance.setTransparencyAttributes( transparencyAttributes );
+
+		shape = new Shape3D();
+		shape.setCapability( Shape3D.ALLOW_GEOMETRY_WRITE );
+		shape.setAppearance( appearance );
+		allocate( capacity );
+		updateTransparencyMode();
+
+		textSwitch.removeAllChildren();
+		removeAllChildren();
+		addChild( shape );
+		addChild( textSwitch );
+		rebuildLabels();
+	}
+
+	@Override
+	public void add( final K key, final Point4d center, final Color4f color )
+	{
+		centers.put( key, new Point4d( center ) );
+		colors.put( key, new Color4f( color ) );
+		int slot = freeSlots.nextSetBit( 0 );
+		if ( slot < 0 )
+		{
+			slot = slotKeys.size();
+			if ( slot >= geometry.getVertexCount() / N_VERTICES )
+				allocate( 2 * slot );
+			slotKeys.add( key );
+		}
+		else
+		{
+			freeSlots.clear( slot );
+			slotKeys.set( slot, key );
+		}
+		indices.put( key, slot );
+		switchMask.set( slot );
+		dirtySlots.set( slot );
+		flush();
+		rebuildLabels();
+	}
+
+	@Override
+	public void remove( final K key )
+	{
+		final Integer slot = indices.remove( key );
+		if ( null == slot )
+			return;
+		// Collapse the slot on the removed spot, which stays in the bounds.
+		switchMask.clear( slot );
+		dirtySlots.set( slot );
+		flush();
+		slotKeys.set( slot, null );
+		freeSlots.set( slot );
+		centers.remove( key );
+		colors.remove( key );
+		updateTransparencyMode();
+		rebuildLabels();
+	}
+
+	@Override
+	public void setVisible( final Iterable< K > toShow )
+	{
+		final BitSet mask = new BitSet( slotKeys.size() );
+		for ( final K key : toShow )
+		{
+			final Integer slot = indices.get( key );
+			if ( null == slot )
+				continue;
+			mask.set( slot );
+		}
+		setMask( mask );
+	}
+
+	@Override
+	public void setVisible( final boolean visible )
+	{
+		final BitSet mask = new BitSet( slotKeys.size() );
+		if ( visible )
+		{
+			mask.set( 0, slotKeys.size() );
+			mask.andNot( freeSlots );
+		}
+		setMask( mask );
+	}
+
+	@Override
+	public void setVisible( final K key, final boolean visible )
+	{
+		final Integer slot = indices.get( key );
+		if ( null == slot || switchMask.get( slot ) == visible )
+			return;
+		switchMask.set( slot, visible );
+		dirtySlots.set( slot );
+		flush();
+		rebuildLabels();
+	}
+
+	@Override
+	public void setShowLabels( final boolean showLabels )
+	{
+		if ( this.showLabels == showLabels )
+			return;
+		this.showLabels = showLabels;
+		rebuildLabels();
+	}
+
+	@Override
+	public void setColor( final Color3f color )
+	{
+		for ( final Color4f c : colors.values() )
+			c.set( color.x, color.y, color.z, c.w );
+		markAllDirty();
+		flush();
+	}
+
+	@Override
+	public void setColor( final K key, final Color3f color )
+	{
+		final Color4f c = colors.get( key );
+		if ( null == c )
+			return;
+		c.set( color.x, color.y, color.z, c.w );
+		dirtySlots.set( indices.get( key ) );
+		flush();
+	}
+
+	@Override
+	public void setColor( final K key, final Color4f color )
+	{
+		if ( !colors.containsKey( key ) )
+			return;
+		colors.put( key, new Color4f( color ) );
+		dirtySlots.set( indices.get( key ) );
+		flush();
+	}
+
+	@Override
+	public void setTransparency( final K key, final float transparency )
+	{
+		final Color4f c = colors.get( key );
+		if ( null == c )
+			return;
+		c.w = transparency;
+		dirtySlots.set( indices.get( key ) );
+		flush();
+	}
+
+	@Override
+	public void setCenter( final K key, final Point3d center )
+	{
+		final Point4d c = centers.get( key );
+		if ( null == c )
+			return;
+		c.x = center.x;
+		c.y = center.y;
+		c.z = center.z;
+		dirtySlots.set( indices.get( key ) );
+		flush();
+		rebuildLabels();
+	}
+
+	@Override
+	public void setCenter( final K key, final Point4d center )
+	{
+		if ( !centers.containsKey( key ) )
+			return;
+		centers.put( key, new Point4d( center ) );
+		dirtySlots.set( indices.get( key ) );
+		flush();
+		rebuildLabels();
+	}
+
+	@Override
+	public void setRadius( final K key, final double radius )
+	{
+		final Point4d c = centers.get( key );
+		if ( null == c )
+			return;
+		c.w = radius;
+		dirtySlots.set( indices.get( key ) );
+		flush();
+		rebuildLabels();
+	}
+
+	/*
+	 * CONTENTNODE METHODS
+	 */
+
+	@Override
+	public void colorUpdated( final Color3f color )
+	{
+		setColor( color );
+	}
+
+	@Override
+	public void transparencyUpdated( final float transparency )
+	{
+		for ( final Color4f c : colors.values() )
+			c.w = transparency;
+		markAllDirty();
+		flush();
+	}
+
+	@Override
+	public void shadeUpdated( final boolean shaded )
+	{
+		polygonAttributes.setPolygonMode( shaded ? PolygonAttributes.POLYGON_FILL : PolygonAttributes.POLYGON_LINE );
+	}
+
+	@Override
+	public float getVolume()
+	{
+		float volume = 0;
+		for ( final Point4d c : centers.values() )
+			volume += ( float ) ( 4. / 3. * Math.PI * c.w * c.w * c.w );
+		return volume;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * (Re)allocates the buffers and the geometry for the specified number of
+	 * slots, copying the content of the current buffers. New slots are
+	 * collapsed onto the center of the first spot, so that they do not change
+	 * the bounds of this node.
+	 */
+	private void allocate( final int capacity )
+	{
+		final int oldCapacity = null == coords ? 0 : coords.length / ( 3 * N_VERTICES );
+		final float[] newCoords = new float[ 3 * N_VERTICES * capacity ];
+		final float[] newNormals = new float[ 3 * N_VERTICES * capacity ];
+		final float[] newRgba = new float[ 4 * N_VERTICES * capacity ];
+		final int[] newIndices = new int[ N_INDICES * capacity ];
+		if ( oldCapacity > 0 )
+		{
+			System.arraycopy( coords, 0, newCoords, 0, coords.length );
+			System.arraycopy( normals, 0, newNormals, 0, normals.length );
+			System.arraycopy( rgba, 0, newRgba, 0, rgba.length );
+			System.arraycopy( coordIndices, 0, newIndices, 0, coordIndices.length );
+		}
+
+		final Point4d anchor = centers.isEmpty() ? new Point4d() : centers.values().iterator().next();
+		for ( int slot = oldCapacity; slot < capacity; slot++ )
+		{
+			final int vOffset = slot * N_VERTICES;
+			for ( int v = 0; v < N_VERTICES; v++ )
+			{
+				final int i = 3 * ( vOffset + v );
+				newCoords[ i ] = ( float ) anchor.x;
+				newCoords[ i + 1 ] = ( float ) anchor.y;
+				newCoords[ i + 2 ] = ( float ) anchor.z;
+			}
+			System.arraycopy( UNIT_VERTICES, 0, newNormals, 3 * vOffset, UNIT_VERTICES.length );
+			final int iOffset = slot * N_INDICES;
+			for ( int i = 0; i < N_INDICES; i++ )
+				newIndices[ iOffset + i ] = vOffset + UNIT_INDICES[ i ];
+			if ( slot < slotKeys.size() && !freeSlots.get( slot ) )
+				dirtySlots.set( slot );
+		}
+		coords = newCoords;
+		normals = newNormals;
+		rgba = newRgba;
+		coordIndices = newIndices;
+
+		// Write the content of the new slots before the geometry goes live.
+		for ( int slot = dirtySlots.nextSetBit( 0 ); slot >= 0; slot = dirtySlots.nextSetBit( slot + 1 ) )
+			writeSlot( slot );
+		dirtySlots.clear();
+
+		geometry = new IndexedTriangleArray( N_VERTICES * capacity,
+				GeometryArray.COORDINATES | GeometryArray.NORMALS | GeometryArray.COLOR_4
+						| GeometryArray.BY_REFERENCE | GeometryArray.BY_REFERENCE_INDICES
+						| GeometryArray.USE_COORD_INDEX_ONLY,
+				N_INDICES * capacity );
+		geometry.setCapability( GeometryArray.ALLOW_REF_DATA_READ );
+		geometry.setCapability( GeometryArray.ALLOW_REF_DATA_WRITE );
+		geometry.setCoordRefFloat( coords );
+		geometry.setNormalRefFloat( normals );
+		geometry.setColorRefFloat( rgba );
+		geometry.setCoordIndicesRef( coordIndices );
+		shape.setGeometry( geometry );
+	}
+
+	/**
+	 * Writes the position, size, visibility and color of the spot in the
+	 * specified slot to the buffers. Must be called from a
+	 * {@link GeometryUpdater} if the geometry is live.
+	 */
+	private void writeSlot( final int slot )
+	{
+		final K key = slotKeys.get( slot );
+		final Point4d center = centers.get( key );
+		final Color4f color = colors.get( key );
+		final float x = ( float ) center.x;
+		final float y = ( float ) center.y;
+		final float z = ( float ) center.z;
+		// Hidden spots are collapsed onto their center.
+		final float r = switchMask.get( slot ) ? ( float ) center.w : 0f;
+		final float alpha = 1f - color.w;
+		transparentSlots.set( slot, r > 0f && color.w > 0f );
+
+		int i = 3 * slot * N_VERTICES;
+		int j = 4 * slot * N_VERTICES;
+		for ( int v = 0; v < N_VERTICES; v++ )
+		{
+			coords[ i ] = UNIT_VERTICES[ 3 * v ] * r + x;
+			coords[ i + 1 ] = UNIT_VERTICES[ 3 * v + 1 ] * r + y;
+			coords[ i + 2 ] = UNIT_VERTICES[ 3 * v + 2 ] * r + z;
+			i += 3;
+			rgba[ j ] = color.x;
+			rgba[ j + 1 ] = color.y;
+			rgba[ j + 2 ] = color.z;
+			rgba[ j + 3 ] = alpha;
+			j += 4;
+		}
+	}
+
+	/**
+	 * Writes all the dirty slots to the buffers, in a single update.
+	 */
+	private void flush()
+	{
+		if ( dirtySlots.isEmpty() )
+			return;
+		geometry.updateData( flusher );
+		updateTransparencyMode();
+	}
+
+	private void markAllDirty()
+	{
+		dirtySlots.set( 0, slotKeys.size() );
+		dirtySlots.andNot( freeSlots );
+	}
+
+	/**
+	 * Sets the visibility of all spots, and only rewrites the slots which
+	 * visibility changed.
+	 */
+	private void setMask( final BitSet mask )
+	{
+		final BitSet changed = ( BitSet ) mask.clone();
+		changed.xor( switchMask );
+		if ( changed.isEmpty() )
+			return;
+		switchMask = mask;
+		dirtySlots.or( changed );
+		flush();
+		rebuildLabels();
+	}
+
+	/**
+	 * Blending is only enabled if one spot at least is transparent, so that
+	 * opaque spots keep writing to the depth buffer.
+	 */
+	private void updateTransparencyMode()
+	{
+		final int mode = !transparentSlots.isEmpty() ? TransparencyAttributes.BLENDED : TransparencyAttributes.NONE;
+		if ( transparencyAttributes.getTransparencyMode() != mode )
+			transparencyAttributes.setTransparencyMode( mode );
+	}
+
+	/**
+	 * Re-creates the text labels of the visible spots if labels are shown,
+	 * and removes them otherwise.
+	 */
+	private void rebuildLabels()
+	{
+		if ( !showLabels && textSwitch.numChildren() == 0 )
+			return;
+		textSwitch.removeAllChildren();
+		if ( !showLabels )
+			return;
+		int n = 0;
+		for ( int slot = switchMask.nextSetBit( 0 ); slot >= 0; slot = switchMask.nextSetBit( slot + 1 ) )
+		{
+			final K key = slotKeys.get( slot );
+			if ( null == key )
+				continue;
+			final BranchGroup bg = new BranchGroup();
+			bg.setCapability( BranchGroup.ALLOW_DETACH );
+			bg.addChild( createLabel( key, centers.get( key ) ) );
+			textSwitch.addChild( bg );
+			n++;
+		}
+		final BitSet labelMask = new BitSet( n );
+		labelMask.set( 0, n );
+		textSwitch.setChildMask( labelMask );
+	}
+}
@@ -39,6 +39,12 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 
 	// public static final int DEFAULT_THRESHOLD = 50;
 
+	/**
+	 * Frames with more spots than this are displayed with a single merged
+	 * geometry, see {@link MergedSpotGroupNode}.
+	 */
+	public static final int MERGED_GEOMETRY_THRESHOLD = 1000;
+
 	private static final boolean DEBUG = false;
 
 	private static final String TRACK_CONTENT_NAME = "Tracks";
@@ -307,7 +313,9 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			col.w = 0f;
 			colors.put( spot, col );
 		}
-		final SpotGroupNode< Spot > blobGroup = new SpotGroupNode< >( centers, colors );
+		final SpotGroupNode< Spot > blobGroup = centers.size() > MERGED_GEOMETRY_THRESHOLD
+				? new MergedSpotGroupNode< >( centers, colors )
+				: new SpotGroupNode< >( centers, colors );
 		final ContentInstant contentThisFrame = new ContentInstant( "Spots_frame_" + frame );
 
 		try
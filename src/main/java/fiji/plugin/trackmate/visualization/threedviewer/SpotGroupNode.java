@@ -130,6 +130,24 @@ public class SpotGroupNode< K > extends ContentNode
 	 * @param colors
 	 */
 	public SpotGroupNode( final Map< K, Point4d > centers, final Map< K, Color4f > colors )
+	{
+		this( centers, colors, true );
+	}
+
+	/**
+	 * Create a new {@link SpotGroupNode}, and only create the spot meshes if
+	 * requested. Used by subclasses that display spots with their own
+	 * geometry.
+	 *
+	 * @param centers
+	 *            a map that maps spot to their centers as Point4d.
+	 * @param colors
+	 *            a map that maps spot to their color and transparency as
+	 *            Color4f.
+	 * @param makeMeshes
+	 *            if <code>true</code>, one mesh is created per spot.
+	 */
+	protected SpotGroupNode( final Map< K, Point4d > centers, final Map< K, Color4f > colors, final boolean makeMeshes )
 	{
 		this.centers = new HashMap< >( centers );
 		this.colors = new HashMap< >( colors );
@@ -145,7 +163,9 @@ public class SpotGroupNode< K > extends ContentNode
 		textSwitch.setCapability( Group.ALLOW_CHILDREN_EXTEND );
 		//
 		this.switchMask = new BitSet();
-		makeMeshes();
+		this.indices = new HashMap< >( centers.size() );
+		if ( makeMeshes )
+			makeMeshes();
 	}
 
 	/**
@@ -256,21 +276,7 @@ public class SpotGroupNode< K > extends ContentNode
 			index++;
 
 			// Deal with the text
-			final Transform3D translation = new Transform3D();
-			translation.rotX( Math.PI );
-			translation.setTranslation( new Vector3d( center.x + 1.5f * center.w, center.y, center.z ) );
-			final TransformGroup tg = new TransformGroup( translation );
-
-			final OrientedShape3D textShape = new OrientedShape3D();
-			textShape.setAlignmentMode( OrientedShape3D.ROTATE_NONE );
-
-			final Text3D textGeom = new Text3D( font3D, key.toString() );
-
-			textGeom.setAlignment( Text3D.ALIGN_FIRST );
-			textShape.addGeometry( textGeom );
-			textShape.setAppearance( textAp );
-
-			tg.addChild( textShape );
+			final TransformGroup tg = createLabel( key, center );
 			texts.put( key, tg );
 
 			final BranchGroup bg2 = new BranchGroup();
@@ -307,19 +313,7 @@ public class SpotGroupNode< K > extends ContentNode
 		spotSwitch.addChild( bg1 );
 
 		// Text
-		final Text3D textGeom = new Text3D( font3D, key.toString() );
-		textGeom.setAlignment( Text3D.ALIGN_FIRST );
-
-		final OrientedShape3D textShape = new OrientedShape3D();
-		textShape.setAlignmentMode( OrientedShape3D.ROTATE_NONE );
-		textShape.addGeometry( textGeom );
-		textShape.setAppearance( textAp );
-
-		final Transform3D translation = new Transform3D();
-		translation.rotX( Math.PI );
-		translation.setTranslation( new Vector3d( center.x + 1.5f * center.w, center.y, center.z ) );
-		final TransformGroup tg = new TransformGroup( translation );
-		tg.addChild( textShape );
+		final TransformGroup tg = createLabel( key, center );
 		final BranchGroup bg2 = new BranchGroup();
 		bg2.setCapability( BranchGroup.ALLOW_DETACH );
 		bg2.addChild( tg );
@@ -389,6 +383,28 @@ public class SpotGroupNode< K > extends ContentNode
 		}
 	}
 
+	/**
+	 * Creates the text label of the spot <code>key</code>, positioned next to
+	 * the ball of the specified center and radius.
+	 */
+	protected TransformGroup createLabel( final K key, final Point4d center )
+	{
+		final Text3D textGeom = new Text3D( font3D, key.toString() );
+		textGeom.setAlignment( Text3D.ALIGN_FIRST );
+
+		final OrientedShape3D textShape = new OrientedShape3D();
+		textShape.setAlignmentMode( OrientedShape3D.ROTATE_NONE );
+		textShape.addGeometry( textGeom );
+		textShape.setAppearance( textAp );
+
+		final Transform3D translation = new Transform3D();
+		translation.rotX( Math.PI );
+		translation.setTranslation( new Vector3d( center.x + 1.5f * center.w, center.y, center.z ) );
+		final TransformGroup tg = new TransformGroup( translation );
+		tg.addChild( textShape );
+		return tg;
+	}
+
 	/**
 	 * Create the list of points of the mesh of sphere, centered on (x, y, z) of
 	 * radius r, based on the {@link #globe} cache calculated by
@@ -735,7 +751,7 @@ public class SpotGroupNode< K > extends ContentNode
 	 * Taken from Albert and Bene's MeshMaker, simply changed the primitives
 	 * from double to float.
 	 */
-	private static float[][][] generateGlobe( int meridians, int parallels )
+	protected static float[][][] generateGlobe( int meridians, int parallels )
 	{
 		if ( meridians < 3 )
 			meridians = 3;
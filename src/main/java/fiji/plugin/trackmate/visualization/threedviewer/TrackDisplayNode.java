@@ -2,27 +2,27 @@ package fiji.plugin.trackmate.visualization.threedviewer;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.java3d.Appearance;
 import org.scijava.java3d.BranchGroup;
+import org.scijava.java3d.Geometry;
 import org.scijava.java3d.GeometryArray;
-import org.scijava.java3d.Group;
+import org.scijava.java3d.GeometryUpdater;
 import org.scijava.java3d.LineArray;
 import org.scijava.java3d.LineAttributes;
 import org.scijava.java3d.RenderingAttributes;
 import org.scijava.java3d.Shape3D;
-import org.scijava.java3d.Switch;
 import org.scijava.java3d.TransparencyAttributes;
 import org.scijava.java3d.View;
 import org.scijava.vecmath.Color3f;
-import org.scijava.vecmath.Color4f;
 import org.scijava.vecmath.Point3d;
 import org.scijava.vecmath.Tuple3d;
 
@@ -49,36 +49,58 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 	private int currentTimePoint = 0;
 
 	/**
-	 * Reference for each frame, then for each track, the line primitive indices
-	 * of edges present in that track and in that frame.
-	 * <p>
-	 * For instance
-	 *
-	 * <pre>
-	 *  frameIndices.get(2).get(3) = { 5, 10 }
-	 * </pre>
-	 *
-	 * indicates that in the frame number 2, the track number 3 has 2 edges,
-	 * that are represented in the {@link LineArray} primitive by points with
-	 * indices 5 and 10.
+	 * The frames in which at least one edge starts, in ascending order.
 	 */
-	private HashMap< Integer, HashMap< Integer, ArrayList< Integer > > > frameIndices;
+	private int[] frames;
 
 	/**
-	 * Dictionary referencing the line vertices corresponding to each edge, for
-	 * each track.
+	 * For each frame in {@link #frames}, the index of the first line vertex of
+	 * the edges starting in this frame. The vertices of the edges starting in
+	 * frame <code>frames[i]</code> range from <code>frameStarts[i]</code>
+	 * (inclusive) to <code>frameStarts[i+1]</code> (exclusive).
 	 */
-	private Map< Integer, HashMap< DefaultWeightedEdge, Integer > > edgeIndices;
+	private int[] frameStarts;
 
 	/**
-	 * Primitives: one {@link LineArray} per track.
+	 * The transparency last written for the edges of each frame in
+	 * {@link #frames}.
 	 */
-	private Map< Integer, LineArray > lines;
+	private float[] frameAlphas;
 
 	/**
-	 * Switch used for display. Is the only child of this {@link ContentNode}.
+	 * The frames in {@link #frames} whose edges have been written with
+	 * another transparency than in {@link #frameAlphas}, and must be rewritten
+	 * on the next refresh.
 	 */
-	private Switch trackSwitch;
+	private BitSet staleFrames;
+
+	/**
+	 * Dictionary referencing the index of the first line vertex corresponding
+	 * to each edge.
+	 */
+	private Map< DefaultWeightedEdge, Integer > edgeIndices;
+
+	/**
+	 * For each edge, that is each pair of line vertices, the index of the
+	 * track it belongs to.
+	 */
+	private int[] edgeTracks;
+
+	/**
+	 * Coordinates of all the line vertices, by reference.
+	 */
+	private float[] coords;
+
+	/**
+	 * RGBA colors of all the line vertices, by reference.
+	 */
+	private float[] rgba;
+
+	/**
+	 * Primitive: one {@link LineArray} for all the edges of all tracks, sorted
+	 * by frame.
+	 */
+	private LineArray line;
 
 	/**
 	 * Boolean set that controls the visibility of each tracks.
@@ -117,13 +139,25 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 	 */
 	public void setTrackVisible( final Collection< Integer > trackIDs )
 	{
-		switchMask.set( 0, model.getTrackModel().nTracks( false ), false );
+		switchMask.clear();
 		for ( final Integer trackID : trackIDs )
 		{
-			final int trackIndex = switchMaskIndex.get( trackID ).intValue();
-			switchMask.set( trackIndex, true );
+			final Integer trackIndex = switchMaskIndex.get( trackID );
+			if ( null == trackIndex )
+				continue;
+			switchMask.set( trackIndex.intValue(), true );
 		}
-		trackSwitch.setChildMask( switchMask );
+		staleFrames.set( 0, frames.length );
+		line.updateData( new GeometryUpdater()
+		{
+			@Override
+			public void updateData( final Geometry geometry )
+			{
+				for ( int i = 0; i < frames.length; i++ )
+					writeAlpha( i, frameAlphas[ i ] );
+				staleFrames.clear();
+			}
+		} );
 	}
 
 	public void setTrackDisplayMode( final int mode )
@@ -131,18 +165,19 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 		this.displayMode = mode;
 		if ( displayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE )
 		{
-			final Color4f color = new Color4f();
-			for ( final Integer trackID : lines.keySet() )
+			line.updateData( new GeometryUpdater()
 			{
-				final LineArray line = lines.get( trackID );
-
-				for ( int i = 0; i < line.getVertexCount(); i++ )
+				@Override
+				public void updateData( final Geometry geometry )
 				{
-					line.getColor( i, color );
-					color.w = 1f;
-					line.setColor( i, color );
+					for ( int i = 0; i < frames.length; i++ )
+					{
+						if ( staleFrames.get( i ) || frameAlphas[ i ] != 1f )
+							writeAlpha( i, 1f );
+					}
+					staleFrames.clear();
 				}
-			}
+			} );
 		}
 	}
 
@@ -153,8 +188,6 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 
 	void refresh()
 	{
-		// Holder for passing values
-		final Color4f color = new Color4f();
 		switch ( displayMode )
 		{
 
@@ -168,219 +201,65 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 			if ( null == edgeSelection )
 				break;
 
-			// Make them all invisible.
-			for ( final int frame : frameIndices.keySet() )
-			{
-				for ( final Integer trackID : lines.keySet() )
-				{
-					final LineArray line = lines.get( trackID );
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
-					{
-						line.getColor( index, color );
-						color.w = 0;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
-					}
-				}
-			}
-
-			// Restore visibility of selection.
-			for ( final DefaultWeightedEdge edge : edgeSelection )
-			{
-				final Integer trackID = model.getTrackModel().trackIDOf( edge );
-				final Integer index = edgeIndices.get( trackID ).get( edge );
-				final LineArray line = lines.get( trackID );
-				if ( null == line )
-					continue;
-
-				final int frame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
-				final int frameDist = Math.abs( frame  - currentTimePoint );
-				float tp;
-				if ( frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f - ( float ) frameDist / displayDepth;
-
-				line.getColor( index, color );
-				color.w = tp;
-				line.setColor( index, color );
-				line.setColor( index + 1, color );
-			}
-
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
-		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
-			{
-				frameDist = Math.abs( frame - currentTimePoint );
-				if ( frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f - ( float ) frameDist / displayDepth;
-
-				for ( final Integer trackID : lines.keySet() )
-				{
-					final LineArray line = lines.get( trackID );
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
-					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
-		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
+			line.updateData( new GeometryUpdater()
 			{
-				frameDist = Math.abs( frame - currentTimePoint );
-				if ( frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for ( final Integer trackID : lines.keySet() )
+				@Override
+				public void updateData( final Geometry geometry )
 				{
-					final LineArray line = lines.get( trackID );
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
+					// Make them all invisible.
+					for ( int i = 0; i < frames.length; i++ )
 					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
+						if ( staleFrames.get( i ) || frameAlphas[ i ] != 0f )
+							writeAlpha( i, 0f );
 					}
-				}
-			}
-			break;
-		}
+					staleFrames.clear();
 
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
-		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
-			{
-				frameDist = currentTimePoint - frame;
-				if ( frameDist <= 0 || frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f - ( float ) frameDist / displayDepth;
-
-				for ( final Integer trackID : lines.keySet() )
-				{
-					final LineArray line = lines.get( trackID );
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
+					// Restore visibility of selection.
+					for ( final DefaultWeightedEdge edge : edgeSelection )
 					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
+						final Integer index = edgeIndices.get( edge );
+						if ( null == index || !switchMask.get( edgeTracks[ index / 2 ] ) )
+							continue;
+
+						final int frame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+						final int frameDist = Math.abs( frame - currentTimePoint );
+						float tp;
+						if ( frameDist > displayDepth )
+							tp = 0f;
+						else
+							tp = 1f - ( float ) frameDist / displayDepth;
+
+						rgba[ 4 * index + 3 ] = tp;
+						rgba[ 4 * index + 7 ] = tp;
+						final int i = Arrays.binarySearch( frames, frame );
+						if ( i >= 0 )
+							staleFrames.set( i );
 					}
 				}
-			}
+			} );
 			break;
 		}
 
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
+		default:
 		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
+			/*
+			 * Only rewrite the edges of the frames which transparency changes,
+			 * that is the frames entering or leaving the display window.
+			 */
+			line.updateData( new GeometryUpdater()
 			{
-				frameDist = currentTimePoint - frame;
-				if ( frameDist <= 0 || frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for ( final Integer trackID : lines.keySet() )
+				@Override
+				public void updateData( final Geometry geometry )
 				{
-					final LineArray line = lines.get( trackID );
-					if ( null == line )
+					for ( int i = 0; i < frames.length; i++ )
 					{
-						continue;
-					}
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
-					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
+						final float tp = frameAlpha( frames[ i ] );
+						if ( staleFrames.get( i ) || frameAlphas[ i ] != tp )
+							writeAlpha( i, tp );
 					}
+					staleFrames.clear();
 				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
-		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
-			{
-				frameDist = frame - currentTimePoint;
-				if ( frameDist < 0 || frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f - ( float ) frameDist / displayDepth;
-
-				for ( final Integer trackID : lines.keySet() )
-				{
-					final LineArray line = lines.get( trackID );
-					if ( null == line )
-					{
-						continue;
-					}
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
-					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
-		{
-			float tp;
-			int frameDist;
-			for ( final int frame : frameIndices.keySet() )
-			{
-				frameDist = frame - currentTimePoint;
-				if ( frameDist < 0 || frameDist > displayDepth )
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for ( final Integer trackID : lines.keySet() )
-				{
-					final LineArray line = lines.get( trackID );
-					if ( null == line )
-					{
-						continue;
-					}
-					for ( final Integer index : frameIndices.get( frame ).get( trackID ) )
-					{
-						line.getColor( index, color );
-						color.w = tp;
-						line.setColor( index, color );
-						line.setColor( index + 1, color );
-					}
-				}
-			}
+			} );
 			break;
 		}
 		}
@@ -411,23 +290,25 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 	 */
 	public void setColor( final DefaultWeightedEdge edge, final Color color )
 	{
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf( edge );
-		if ( null == edgeIndices.get( trackID ) || null == edgeIndices.get( trackID ).get( edge ) )
+		final Integer index = edgeIndices.get( edge );
+		if ( null == index || null == color )
 			return;
 
-		// Set color of corresponding line primitive
-		final Color4f color4 = new Color4f();
-		final int index = edgeIndices.get( trackID ).get( edge );
-		final LineArray line = lines.get( trackID );
-		if ( null == line ) { return; }
-		line.getColor( index, color4 );
+		// Set color of corresponding line vertices
 		final float[] val = color.getRGBColorComponents( null );
-		color4.x = val[ 0 ];
-		color4.y = val[ 1 ];
-		color4.z = val[ 2 ];
-		line.setColor( index, color4 );
-		line.setColor( index + 1, color4 );
+		line.updateData( new GeometryUpdater()
+		{
+			@Override
+			public void updateData( final Geometry geometry )
+			{
+				for ( int v = index; v < index + 2; v++ )
+				{
+					rgba[ 4 * v ] = val[ 0 ];
+					rgba[ 4 * v + 1 ] = val[ 1 ];
+					rgba[ 4 * v + 2 ] = val[ 2 ];
+				}
+			}
+		} );
 	}
 
 	/**
@@ -435,15 +316,11 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 	 */
 	public Color getColor( final DefaultWeightedEdge edge )
 	{
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf( edge );
-		// Retrieve color from index
-		final Color4f color = new Color4f();
-		final int index = edgeIndices.get( trackID ).get( edge );
-		final LineArray line = lines.get( trackID );
-		if ( null == line ) { return null; }
-		line.getColor( index, color );
-		return color.get();
+		final Integer index = edgeIndices.get( edge );
+		if ( null == index )
+			return null;
+		final int i = 4 * index;
+		return new Color( rgba[ i ], rgba[ i + 1 ], rgba[ i + 2 ], rgba[ i + 3 ] );
 	}
 
 	/*
@@ -461,119 +338,196 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener
 	 * PRIVATE METHODS
 	 */
 
-	protected void makeMeshes()
+	/**
+	 * Returns the transparency of the edges starting in the specified frame,
+	 * for the current display mode, depth and time point.
+	 */
+	private float frameAlpha( final int frame )
 	{
+		int frameDist;
+		switch ( displayMode )
+		{
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
+			frameDist = Math.abs( frame - currentTimePoint );
+			if ( frameDist > displayDepth )
+				return 0f;
+			return 1f - ( float ) frameDist / displayDepth;
 
-		this.trackSwitch = new Switch( Switch.CHILD_MASK );
-		trackSwitch.setCapability( Switch.ALLOW_SWITCH_WRITE );
-		trackSwitch.setCapability( Group.ALLOW_CHILDREN_WRITE );
-		trackSwitch.setCapability( Group.ALLOW_CHILDREN_EXTEND );
-		this.switchMask = new BitSet();
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
+			frameDist = Math.abs( frame - currentTimePoint );
+			return frameDist > displayDepth ? 0f : 1f;
 
-		// All edges of ALL tracks
-		final int ntracks = model.getTrackModel().nTracks( false );
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+			frameDist = currentTimePoint - frame;
+			if ( frameDist <= 0 || frameDist > displayDepth )
+				return 0f;
+			return 1f - ( float ) frameDist / displayDepth;
 
-		// Instantiate refs fields
-		final int nframes = model.getSpots().keySet().size();
-		frameIndices = new HashMap< >( nframes, 1 ); // optimum
-		for ( final int frameIndex : model.getSpots().keySet() )
-		{
-			frameIndices.put( frameIndex, new HashMap< Integer, ArrayList< Integer > >( ntracks ) );
-			for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
-			{
-				frameIndices.get( frameIndex ).put( trackID, new ArrayList< Integer >() );
-			}
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
+			frameDist = currentTimePoint - frame;
+			return ( frameDist <= 0 || frameDist > displayDepth ) ? 0f : 1f;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
+			frameDist = frame - currentTimePoint;
+			if ( frameDist < 0 || frameDist > displayDepth )
+				return 0f;
+			return 1f - ( float ) frameDist / displayDepth;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
+			frameDist = frame - currentTimePoint;
+			return ( frameDist < 0 || frameDist > displayDepth ) ? 0f : 1f;
+
+		default:
+			return 1f;
 		}
-		edgeIndices = new HashMap< >( ntracks );
-		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+	}
+
+	/**
+	 * Writes the specified transparency to the vertices of the edges starting
+	 * in the frame <code>frames[i]</code>. Edges of invisible tracks are made
+	 * transparent. Must be called from a {@link GeometryUpdater}.
+	 */
+	private void writeAlpha( final int i, final float alpha )
+	{
+		for ( int v = frameStarts[ i ]; v < frameStarts[ i + 1 ]; v += 2 )
 		{
-			final int nedges = model.getTrackModel().trackEdges( trackID ).size();
-			edgeIndices.put( trackID, new HashMap< DefaultWeightedEdge, Integer >( nedges, 1 ) );
+			final float a = switchMask.get( edgeTracks[ v / 2 ] ) ? alpha : 0f;
+			rgba[ 4 * v + 3 ] = a;
+			rgba[ 4 * v + 7 ] = a;
 		}
-		lines = new HashMap< >( ntracks );
-
-		// Holder for coordinates (array ref will not be used, just its
-		// elements)
-		double[] coordinates = new double[ 3 ];
+		frameAlphas[ i ] = alpha;
+	}
 
-		// Common line appearance
-		final Appearance appearance = new Appearance();
-		final LineAttributes lineAtts = new LineAttributes( 4f, LineAttributes.PATTERN_SOLID, true );
-		appearance.setLineAttributes( lineAtts );
-		final TransparencyAttributes transAtts = new TransparencyAttributes( TransparencyAttributes.BLENDED, 0.2f );
-		appearance.setTransparencyAttributes( transAtts );
-		final RenderingAttributes renderingAtts = new RenderingAttributes();
-		renderingAtts.setAlphaTestFunction( RenderingAttributes.GREATER_OR_EQUAL );
-		renderingAtts.setAlphaTestValue( 0.3f );
-		appearance.setRenderingAttributes( renderingAtts );
+	protected void makeMeshes()
+	{
+		// All edges of ALL tracks
+		final int ntracks = model.getTrackModel().nTracks( false );
 
-		// Iterate over each track
+		// Sort edges by the frame of their source
+		final TreeMap< Integer, ArrayList< DefaultWeightedEdge > > frameEdges = new TreeMap< >();
+		final TreeMap< Integer, ArrayList< Integer > > frameTracks = new TreeMap< >();
+		final ArrayList< float[] > trackColors = new ArrayList< >( ntracks );
 		switchMaskIndex = new HashMap< >( ntracks );
 		int trackIndex = 0;
+		int nedges = 0;
 		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
 		{
-			switchMaskIndex.put( trackID, trackIndex++ );
-
-			final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-
-			// One line object to display all edges of one track
-			final LineArray line = new LineArray( 2 * track.size(), GeometryArray.COORDINATES | GeometryArray.COLOR_4 );
-			line.setCapability( GeometryArray.ALLOW_COLOR_WRITE );
+			switchMaskIndex.put( trackID, trackIndex );
 
 			// Color
 			Color trackColor = colors.get( trackID );
 			if ( null == trackColor )
-			{
 				trackColor = TrackMateModelView.DEFAULT_SPOT_COLOR;
+			trackColors.add( trackColor.getRGBColorComponents( null ) );
+
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+			{
+				final int frame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+				ArrayList< DefaultWeightedEdge > edges = frameEdges.get( frame );
+				if ( null == edges )
+				{
+					edges = new ArrayList< >();
+					frameEdges.put( frame, edges );
+					frameTracks.put( frame, new ArrayList< Integer >() );
+				}
+				edges.add( edge );
+				frameTracks.get( frame ).add( trackIndex );
+				nedges++;
 			}
-			final Color4f color = new Color4f( trackColor );
-			color.w = 1f; // opaque edge for now
+			trackIndex++;
+		}
 
-			// Iterate over track edge
-			int edgeIndex = 0;
-			for ( final DefaultWeightedEdge edge : track )
+		// Instantiate refs fields
+		final int nframes = frameEdges.size();
+		frames = new int[ nframes ];
+		frameStarts = new int[ nframes + 1 ];
+		frameAlphas = new float[ nframes ];
+		Arrays.fill( frameAlphas, 1f ); // opaque edges for now
+		staleFrames = new BitSet( nframes );
+		edgeIndices = new HashMap< >( nedges );
+		edgeTracks = new int[ nedges ];
+
+		// A LineArray needs at least 2 vertices.
+		final int nvertices = Math.max( 2, 2 * nedges );
+		coords = new float[ 3 * nvertices ];
+		rgba = new float[ 4 * nvertices ];
+
+		// Holder for coordinates
+		final double[] coordinates = new double[ 3 ];
+
+		int frameIndex = 0;
+		int vertexIndex = 0;
+		for ( final Integer frame : frameEdges.keySet() )
+		{
+			frames[ frameIndex ] = frame;
+			frameStarts[ frameIndex ] = vertexIndex;
+			frameIndex++;
+
+			final ArrayList< DefaultWeightedEdge > edges = frameEdges.get( frame );
+			final ArrayList< Integer > tracks = frameTracks.get( frame );
+			for ( int e = 0; e < edges.size(); e++ )
 			{
+				final DefaultWeightedEdge edge = edges.get( e );
+				final int index = tracks.get( e );
+
+				final float[] val = trackColors.get( index );
+
 				// Find source and target
-				final Spot target = model.getTrackModel().getEdgeTarget( edge );
 				final Spot source = model.getTrackModel().getEdgeSource( edge );
+				final Spot target = model.getTrackModel().getEdgeTarget( edge );
+
+				// Keep refs
+				edgeIndices.put( edge, vertexIndex );
+				edgeTracks[ vertexIndex / 2 ] = index;
 
 				// Add coords and colors of each vertex
-				coordinates = new double[ 3 ];
 				TMUtils.localize( source, coordinates );
-				line.setCoordinate( edgeIndex, coordinates );
-				line.setColor( edgeIndex, color );
-				edgeIndex++;
-				coordinates = new double[ 3 ];
+				setVertex( vertexIndex++, coordinates, val );
 				TMUtils.localize( target, coordinates );
-				line.setCoordinate( edgeIndex, coordinates );
-				line.setColor( edgeIndex, color );
-				edgeIndex++;
-
-				// Keep refs
-				edgeIndices.get( trackID ).put( edge, edgeIndex - 2 );
-				final int frame = source.getFeature( Spot.FRAME ).intValue();
-				frameIndices.get( frame ).get( trackID ).add( edgeIndex - 2 );
-
-			} // Finished building this track's line
+				setVertex( vertexIndex++, coordinates, val );
+			}
+		}
+		frameStarts[ nframes ] = vertexIndex;
 
-			// Add primitive to the switch and to the ref list
-			lines.put( trackID, line );
-			trackSwitch.addChild( new Shape3D( line, appearance ) );
+		// One line object to display all edges of all tracks
+		line = new LineArray( nvertices, GeometryArray.COORDINATES | GeometryArray.COLOR_4 | GeometryArray.BY_REFERENCE );
+		line.setCapability( GeometryArray.ALLOW_REF_DATA_READ );
+		line.setCapability( GeometryArray.ALLOW_REF_DATA_WRITE );
+		line.setCoordRefFloat( coords );
+		line.setColorRefFloat( rgba );
 
-		} // Finish iterating over tracks
+		// Common line appearance
+		final Appearance appearance = new Appearance();
+		final LineAttributes lineAtts = new LineAttributes( 4f, LineAttributes.PATTERN_SOLID, true );
+		appearance.setLineAttributes( lineAtts );
+		final TransparencyAttributes transAtts = new TransparencyAttributes( TransparencyAttributes.BLENDED, 0.2f );
+		appearance.setTransparencyAttributes( transAtts );
+		final RenderingAttributes renderingAtts = new RenderingAttributes();
+		renderingAtts.setAlphaTestFunction( RenderingAttributes.GREATER_OR_EQUAL );
+		renderingAtts.setAlphaTestValue( 0.3f );
+		appearance.setRenderingAttributes( renderingAtts );
 
-		// Add main switch to this content
 		switchMask = new BitSet( ntracks );
 		switchMask.set( 0, ntracks, true ); // all visible
-		trackSwitch.setChildMask( switchMask );
 
 		removeAllChildren();
 		final BranchGroup branchGroup = new BranchGroup();
 		branchGroup.setCapability( BranchGroup.ALLOW_DETACH );
-		branchGroup.addChild( trackSwitch );
+		branchGroup.addChild( new Shape3D( line, appearance ) );
 		addChild( branchGroup );
 	}
 
+	private void setVertex( final int v, final double[] coordinates, final float[] color )
+	{
+		coords[ 3 * v ] = ( float ) coordinates[ 0 ];
+		coords[ 3 * v + 1 ] = ( float ) coordinates[ 1 ];
+		coords[ 3 * v + 2 ] = ( float ) coordinates[ 2 ];
+		rgba[ 4 * v ] = color[ 0 ];
+		rgba[ 4 * v + 1 ] = color[ 1 ];
+		rgba[ 4 * v + 2 ] = color[ 2 ];
+		rgba[ 4 * v + 3 ] = 1f;
+	}
+
 	public void setSelection( final Collection< DefaultWeightedEdge > edgeSelection )
 	{
 		this.edgeSelection = edgeSelection;
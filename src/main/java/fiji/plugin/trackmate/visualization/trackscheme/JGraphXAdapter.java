@@ -34,10 +34,27 @@ public class JGraphXAdapter extends mxGraph implements GraphListener< Spot, Defa
 	 */
 
 	public JGraphXAdapter( final Model tmm )
+	{
+		this( tmm, true );
+	}
+
+	/**
+	 * Creates an adapter for the specified model.
+	 *
+	 * @param tmm
+	 *            the model to mirror.
+	 * @param createCells
+	 *            if <code>true</code>, cells are created for all the spots and
+	 *            edges of the visible tracks. If <code>false</code>, no cell is
+	 *            created, and the {@link TrackSchemeVirtualizer} creates them
+	 *            for the spots and edges in view.
+	 */
+	public JGraphXAdapter( final Model tmm, final boolean createCells )
 	{
 		super();
 		this.tmm = tmm;
-		insertTrackCollection( tmm );
+		if ( createCells )
+			insertTrackCollection( tmm );
 	}
 
 	/*
@@ -136,6 +153,12 @@ public class JGraphXAdapter extends mxGraph implements GraphListener< Spot, Defa
 		edgeToCellMap.put( edge, cell );
 	}
 
+	public void mapSpotToCell( final Spot spot, final mxCell cell )
+	{
+		cellToVertexMap.put( cell, spot );
+		vertexToCellMap.put( spot, cell );
+	}
+
 	public Spot getSpotFor( final mxICell cell )
 	{
 		return cellToVertexMap.get( cell );
@@ -156,6 +156,9 @@ public class SaveAction extends AbstractAction {
 		}
 
 
+		// Exports must contain all the cells, not only the ones in view.
+		final boolean virtualized = trackScheme.isVirtualized();
+		trackScheme.setVirtualized(false);
 		try {
 			String ext = filename.substring(filename.lastIndexOf('.') + 1);
 
@@ -213,6 +216,8 @@ public class SaveAction extends AbstractAction {
 		} catch (Throwable ex) {
 			ex.printStackTrace();
 			JOptionPane.showMessageDialog(graphComponent, ex.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+		} finally {
+			trackScheme.setVirtualized(virtualized);
 		}
 	}
 
@@ -1,15 +1,39 @@
 package fiji.plugin.trackmate.visualization.trackscheme;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import net.imagej.ImgPlus;
 import net.imglib2.meta.view.HyperSliceImgPlus;
 
+/**
+ * Generates and caches the thumbnail image strings of spots.
+ * <p>
+ * Image strings are stored in a LRU cache, keyed by the spot, its position and
+ * radius, the radius factor and the frame and channel they were grabbed from.
+ * The cache is bounded by a memory budget, see
+ * {@link #setMemoryBudget(long)}. Image strings can be generated
+ * synchronously with {@link #getImageString(Spot, double)}, or on a background
+ * thread with {@link #requestImageString(Spot, double, ImageStringListener)}.
+ * Pixels are grabbed outside of the cache lock, so that cache lookups from
+ * the EDT do not wait for them. The background thread is stopped by
+ * {@link #quit()}.
+ */
 @SuppressWarnings( "deprecation" )
 public class SpotImageUpdater
 {
 
+	/** Default memory budget for the thumbnail cache, in bytes. */
+	public static final long DEFAULT_MEMORY_BUDGET = 64l * 1024l * 1024l;
+
 	private int previousFrame;
 
 	private int previousChannel;
@@ -18,6 +42,18 @@ public class SpotImageUpdater
 
 	private final Settings settings;
 
+	private final LinkedHashMap< Key, String > cache = new LinkedHashMap<>( 16, 0.75f, true );
+
+	/** Approximate memory used by the cache, in bytes. */
+	private long cacheSize = 0l;
+
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	private final ThreadPoolExecutor executor;
+
+	/** Guards the grabber and the frame and channel it was made for. */
+	private final Object grabberLock = new Object();
+
 	/**
 	 * Instantiates a new spot image updater.
 	 *
@@ -30,6 +66,16 @@ public class SpotImageUpdater
 		this.settings = settings;
 		this.previousFrame = -1;
 		this.previousChannel = -1;
+		this.executor = new ThreadPoolExecutor( 1, 1, 0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue< Runnable >(), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, "TrackScheme thumbnail grabber" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
 	}
 
 	/**
@@ -44,11 +90,125 @@ public class SpotImageUpdater
 	 *            this radius.
 	 * @return the image string.
 	 */
-	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public String getImageString( final Spot spot, final double radiusFactor )
 	{
 		final int frame = spot.getFeature( Spot.FRAME ).intValue();
 		final int targetChannel = settings.imp.getC() - 1;
+		final Key key = new Key( spot, radiusFactor, frame, targetChannel );
+		synchronized ( this )
+		{
+			final String cached = cache.get( key );
+			if ( null != cached )
+				return cached;
+		}
+
+		final String imageString;
+		synchronized ( grabberLock )
+		{
+			imageString = grabImageString( spot, radiusFactor, frame, targetChannel );
+		}
+
+		synchronized ( this )
+		{
+			final String previous = cache.put( key, imageString );
+			if ( null != previous )
+				cacheSize -= sizeOf( previous );
+			cacheSize += sizeOf( imageString );
+			trimCache();
+		}
+		return imageString;
+	}
+
+	/**
+	 * Returns the image string of the given spot if it is in the cache.
+	 *
+	 * @param radiusFactor
+	 *            a factor that determines the size of the thumbnail.
+	 * @return the image string, or <code>null</code> if it has not been
+	 *         generated yet.
+	 */
+	public synchronized String getCachedImageString( final Spot spot, final double radiusFactor )
+	{
+		final int frame = spot.getFeature( Spot.FRAME ).intValue();
+		final int targetChannel = settings.imp.getC() - 1;
+		return cache.get( new Key( spot, radiusFactor, frame, targetChannel ) );
+	}
+
+	/**
+	 * Queues the generation of the image string of the given spot on a
+	 * background thread. The listener is notified from this thread when the
+	 * image string is ready. Requests are processed in order, so it is a good
+	 * idea to group requests for spots that belong to the same frame.
+	 *
+	 * @param spot
+	 *            the spot to generate a thumbnail for.
+	 * @param radiusFactor
+	 *            a factor that determines the size of the thumbnail.
+	 * @param listener
+	 *            the listener to notify when the image string is ready.
+	 */
+	public void requestImageString( final Spot spot, final double radiusFactor, final ImageStringListener listener )
+	{
+		if ( executor.isShutdown() )
+			return;
+		executor.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final String imageString = getImageString( spot, radiusFactor );
+				listener.imageStringReady( spot, imageString );
+			}
+		} );
+	}
+
+	/**
+	 * Discards all the requests that have not been processed yet.
+	 */
+	public void cancelPendingRequests()
+	{
+		executor.getQueue().clear();
+	}
+
+	/**
+	 * Discards all pending requests and stops the background thread. Requests
+	 * made after this call are ignored. Synchronous calls to
+	 * {@link #getImageString(Spot, double)} still work.
+	 */
+	public void quit()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Sets the memory budget of the thumbnail cache. The least recently used
+	 * image strings are discarded when the cache exceeds this budget.
+	 *
+	 * @param memoryBudget
+	 *            the budget, in bytes.
+	 */
+	public synchronized void setMemoryBudget( final long memoryBudget )
+	{
+		this.memoryBudget = memoryBudget;
+		trimCache();
+	}
+
+	/**
+	 * Empties the thumbnail cache.
+	 */
+	public synchronized void clearCache()
+	{
+		cache.clear();
+		cacheSize = 0l;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private String grabImageString( final Spot spot, final double radiusFactor, final int frame, final int targetChannel )
+	{
 		if ( frame == previousFrame && targetChannel == previousChannel )
 		{
 			// Keep the same image than in memory
@@ -65,4 +225,107 @@ public class SpotImageUpdater
 		}
 		return grabber.getImageString( spot, radiusFactor );
 	}
+
+	private void trimCache()
+	{
+		final Iterator< Map.Entry< Key, String > > it = cache.entrySet().iterator();
+		while ( cacheSize > memoryBudget && it.hasNext() )
+		{
+			cacheSize -= sizeOf( it.next().getValue() );
+			it.remove();
+		}
+	}
+
+	private static final long sizeOf( final String str )
+	{
+		// 2 bytes per char, plus key and entry overhead.
+		return 2l * str.length() + 128l;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Interface for listeners that are notified when an image string requested
+	 * with
+	 * {@link SpotImageUpdater#requestImageString(Spot, double, ImageStringListener)}
+	 * is ready.
+	 */
+	public static interface ImageStringListener
+	{
+		/**
+		 * Called from the thumbnail thread when the image string of a spot is
+		 * ready.
+		 *
+		 * @param spot
+		 *            the spot.
+		 * @param imageString
+		 *            its image string.
+		 */
+		public void imageStringReady( Spot spot, String imageString );
+	}
+
+	/**
+	 * Cache key. Includes the spot position and radius, so that a spot moved
+	 * or resized gets a new thumbnail.
+	 */
+	private static final class Key
+	{
+
+		private final Spot spot;
+
+		private final double x;
+
+		private final double y;
+
+		private final double z;
+
+		private final double radius;
+
+		private final double radiusFactor;
+
+		private final int frame;
+
+		private final int channel;
+
+		private final int hash;
+
+		private Key( final Spot spot, final double radiusFactor, final int frame, final int channel )
+		{
+			this.spot = spot;
+			this.x = spot.getFeature( Spot.POSITION_X ).doubleValue();
+			this.y = spot.getFeature( Spot.POSITION_Y ).doubleValue();
+			this.z = spot.getFeature( Spot.POSITION_Z ).doubleValue();
+			this.radius = spot.getFeature( Spot.RADIUS ).doubleValue();
+			this.radiusFactor = radiusFactor;
+			this.frame = frame;
+			this.channel = channel;
+			int h = spot.hashCode();
+			h = 31 * h + Double.hashCode( x );
+			h = 31 * h + Double.hashCode( y );
+			h = 31 * h + Double.hashCode( z );
+			h = 31 * h + Double.hashCode( radius );
+			h = 31 * h + Double.hashCode( radiusFactor );
+			h = 31 * h + frame;
+			h = 31 * h + channel;
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Key ) )
+				return false;
+			final Key o = ( Key ) obj;
+			return spot == o.spot && x == o.x && y == o.y && z == o.z && radius == o.radius
+					&& radiusFactor == o.radiusFactor && frame == o.frame && channel == o.channel;
+		}
+	}
 }
@@ -16,6 +16,8 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.ImageIcon;
 import javax.swing.JViewport;
@@ -44,6 +46,7 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMateOptionUtils;
 import fiji.plugin.trackmate.visualization.AbstractTrackMateModelView;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
+import fiji.plugin.trackmate.visualization.trackscheme.SpotImageUpdater.ImageStringListener;
 import ij.ImagePlus;
 
 public class TrackScheme extends AbstractTrackMateModelView
@@ -103,6 +106,12 @@ public class TrackScheme extends AbstractTrackMateModelView
 	/** Do we capture thumbnails by default? */
 	static final boolean DEFAULT_THUMBNAILS_ENABLED = false;
 
+	/**
+	 * Number of spots above which cells are only created for the spots and
+	 * edges in view, by default.
+	 */
+	static final int DEFAULT_VIRTUALIZATION_THRESHOLD = 20000;
+
 	public static final String KEY = "TRACKSCHEME";
 
 	/*
@@ -118,6 +127,9 @@ public class TrackScheme extends AbstractTrackMateModelView
 	/** The graph layout in charge of re-aligning the cells. */
 	private TrackSchemeGraphLayout graphLayout;
 
+	/** In charge of creating cells only for the spots and edges in view. */
+	private TrackSchemeVirtualizer virtualizer;
+
 	/**
 	 * A flag used to prevent double event firing when setting the selection
 	 * programmatically.
@@ -157,6 +169,31 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	private boolean doThumbnailCapture = DEFAULT_THUMBNAILS_ENABLED;
 
+	/** Thumbnails received from the background thread, not set yet. */
+	private final ConcurrentHashMap< Spot, String > pendingThumbnails = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean thumbnailFlushScheduled = new AtomicBoolean( false );
+
+	private final ImageStringListener thumbnailListener = new ImageStringListener()
+	{
+		@Override
+		public void imageStringReady( final Spot spot, final String imageString )
+		{
+			pendingThumbnails.put( spot, imageString );
+			if ( thumbnailFlushScheduled.compareAndSet( false, true ) )
+			{
+				SwingUtilities.invokeLater( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						flushThumbnails();
+					}
+				} );
+			}
+		}
+	};
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -229,6 +266,36 @@ public class TrackScheme extends AbstractTrackMateModelView
 		return graphLayout;
 	}
 
+	/**
+	 * Sets whether cells are only created for the spots and edges in view.
+	 * This speeds up display of large models and saves memory. Does nothing if
+	 * this TrackScheme has not been rendered yet.
+	 *
+	 * @param virtualized
+	 *            if <code>true</code>, only the spots and edges in and around
+	 *            the viewport have a cell. If <code>false</code>, cells are
+	 *            created for all of them.
+	 */
+	public void setVirtualized( final boolean virtualized )
+	{
+		if ( null == virtualizer )
+			return;
+		if ( virtualized )
+			virtualizer.enable();
+		else
+			virtualizer.disable();
+	}
+
+	/**
+	 * Returns whether cells are only created for the spots and edges in view.
+	 *
+	 * @return <code>true</code> if the display is virtualized.
+	 */
+	public boolean isVirtualized()
+	{
+		return null != virtualizer && virtualizer.isEnabled();
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
@@ -236,12 +303,16 @@ public class TrackScheme extends AbstractTrackMateModelView
 	/**
 	 * Used to instantiate and configure the {@link JGraphXAdapter} that will be
 	 * used for display.
+	 *
+	 * @param virtualized
+	 *            if <code>true</code>, cells are not created for all spots, but
+	 *            later by the {@link TrackSchemeVirtualizer}.
 	 */
-	private JGraphXAdapter createGraph()
+	private JGraphXAdapter createGraph( final boolean virtualized )
 	{
 		gui.logger.setStatus( "Creating graph adapter." );
 
-		final JGraphXAdapter lGraph = new JGraphXAdapter( model );
+		final JGraphXAdapter lGraph = new JGraphXAdapter( model, !virtualized );
 		lGraph.setAllowLoops( false );
 		lGraph.setAllowDanglingEdges( false );
 		lGraph.setCellsCloneable( false );
@@ -282,6 +353,13 @@ public class TrackScheme extends AbstractTrackMateModelView
 			}
 			if ( null == cell )
 			{
+				/*
+				 * The cell was recycled by the virtualizer. It will be created
+				 * again, up to date, when the spot comes back in view.
+				 */
+				if ( null != virtualizer && virtualizer.isManaged( spot ) )
+					return null;
+
 				/*
 				 * mxCell not present in graph. Most likely because the
 				 * corresponding spot belonged to an invisible track, and a cell
@@ -297,11 +375,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 			// Update cell look
 			if ( spotImageUpdater != null && doThumbnailCapture )
 			{
-				String style = cell.getStyle();
-				final double radiusFactor = ( Double ) displaySettings.get( KEY_SPOT_RADIUS_RATIO );
-				final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-				graph.getModel().setStyle( cell, style );
+				updateThumbnail( spot, cell );
 			}
 		}
 		finally
@@ -333,15 +407,67 @@ public class TrackScheme extends AbstractTrackMateModelView
 		final mxGeometry geometry = new mxGeometry( x, y, DEFAULT_CELL_WIDTH, DEFAULT_CELL_HEIGHT );
 		cellAdded.setGeometry( geometry );
 		// Set its style
-		final double radiusFactor = ( Double ) displaySettings.get( KEY_SPOT_RADIUS_RATIO );
 		if ( null != spotImageUpdater && doThumbnailCapture )
 		{
-			final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr );
+			updateThumbnail( spot, cellAdded );
 		}
 		return cellAdded;
 	}
 
+	/**
+	 * Sets the thumbnail of the specified cell if it is in the cache.
+	 * Otherwise, requests it in the background. The cell keeps its current
+	 * look until the thumbnail is ready.
+	 */
+	private void updateThumbnail( final Spot spot, final mxICell cell )
+	{
+		final double radiusFactor = ( Double ) displaySettings.get( KEY_SPOT_RADIUS_RATIO );
+		final String imageStr = spotImageUpdater.getCachedImageString( spot, radiusFactor );
+		if ( null != imageStr )
+			setThumbnail( cell, imageStr );
+		else
+			spotImageUpdater.requestImageString( spot, radiusFactor, thumbnailListener );
+	}
+
+	private void setThumbnail( final mxICell cell, final String imageStr )
+	{
+		final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
+		graph.getModel().setStyle( cell, style );
+	}
+
+	/**
+	 * Sets the thumbnails received from the background thread, in a single
+	 * model update. Runs on the EDT.
+	 */
+	private void flushThumbnails()
+	{
+		thumbnailFlushScheduled.set( false );
+		if ( !doThumbnailCapture )
+		{
+			pendingThumbnails.clear();
+			return;
+		}
+
+		graph.getModel().beginUpdate();
+		try
+		{
+			final Iterator< Spot > it = pendingThumbnails.keySet().iterator();
+			while ( it.hasNext() )
+			{
+				final Spot spot = it.next();
+				final String imageStr = pendingThumbnails.get( spot );
+				it.remove();
+				final mxICell cell = graph.getCellFor( spot );
+				if ( null != cell && null != imageStr )
+					setThumbnail( cell, imageStr );
+			}
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
+		}
+	}
+
 	/**
 	 * Import a whole track from the {@link Model} and make it visible.
 	 *
@@ -556,7 +682,84 @@ public class TrackScheme extends AbstractTrackMateModelView
 	@Override
 	public void centerViewOn( final Spot spot )
 	{
-		gui.centerViewOn( graph.getCellFor( spot ) );
+		final mxICell cell = graph.getCellFor( spot );
+		if ( null == cell && null != virtualizer )
+		{
+			// Out of view: the cell will be created once we get there.
+			virtualizer.centerViewOn( spot );
+			return;
+		}
+		gui.centerViewOn( cell );
+	}
+
+	/**
+	 * Called by the {@link TrackSchemeVirtualizer} after it created or reused
+	 * cells for spots and edges. Sets their thumbnail and restores their
+	 * selection.
+	 */
+	void cellsBound( final Collection< mxCell > vertices, final Collection< mxCell > edges )
+	{
+		final ArrayList< Object > selected = new ArrayList<>();
+		for ( final mxCell cell : vertices )
+		{
+			final Spot spot = graph.getSpotFor( cell );
+			if ( selectionModel.getSpotSelection().contains( spot ) )
+				selected.add( cell );
+			if ( null != spotImageUpdater && doThumbnailCapture )
+				updateThumbnail( spot, cell );
+		}
+		for ( final mxCell cell : edges )
+		{
+			if ( selectionModel.getEdgeSelection().contains( graph.getEdgeFor( cell ) ) )
+				selected.add( cell );
+		}
+		if ( selected.isEmpty() )
+			return;
+
+		final boolean fire = doFireSelectionChangeEvent;
+		doFireSelectionChangeEvent = false;
+		graph.getSelectionModel().addCells( selected.toArray() );
+		doFireSelectionChangeEvent = fire;
+	}
+
+	/**
+	 * Called by the {@link TrackSchemeVirtualizer} before it recycles cells.
+	 * Removes them from the graph selection, without changing the selection
+	 * model.
+	 */
+	void cellsUnbound( final Collection< mxCell > cells )
+	{
+		if ( cells.isEmpty() )
+			return;
+		final boolean fire = doFireSelectionChangeEvent;
+		doFireSelectionChangeEvent = false;
+		graph.getSelectionModel().removeCells( cells.toArray() );
+		doFireSelectionChangeEvent = fire;
+	}
+
+	/**
+	 * Returns the cell of the specified spot, and creates it again if it was
+	 * recycled by the virtualizer.
+	 */
+	private mxCell cellFor( final Spot spot )
+	{
+		final mxCell cell = graph.getCellFor( spot );
+		if ( null != cell || null == virtualizer )
+			return cell;
+		return virtualizer.getOrCreateCell( spot );
+	}
+
+	/**
+	 * Same as {@link #cellFor(Spot)}, and adds the cell to the specified
+	 * collection if it was created again.
+	 */
+	private mxCell cellFor( final Spot spot, final Collection< mxCell > created )
+	{
+		final boolean exists = null != graph.getCellFor( spot );
+		final mxCell cell = cellFor( spot );
+		if ( !exists && null != cell )
+			created.add( cell );
+		return cell;
 	}
 
 	/**
@@ -572,7 +775,15 @@ public class TrackScheme extends AbstractTrackMateModelView
 	{
 		// Only catch model changes
 		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
-		{ return; }
+		{
+			// Tracks might have been rebuilt with the same IDs.
+			if ( null != graphLayout && event.getEventID() == ModelChangeEvent.TRACKS_COMPUTED )
+				graphLayout.invalidateAll();
+			return;
+		}
+
+		if ( null != graphLayout )
+			graphLayout.invalidate( modifiedTracks( event ) );
 
 		graph.getModel().beginUpdate();
 		try
@@ -606,14 +817,16 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 						// Change the look of the cell
 						final mxICell cell = updateCellOf( spot );
-						spotsWithStyleToUpdate.add( ( mxCell ) cell );
+						if ( null != cell )
+							spotsWithStyleToUpdate.add( ( mxCell ) cell );
 
 					}
 					else if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_REMOVED )
 					{
 
 						final mxICell cell = graph.getCellFor( spot );
-						cellsToRemove.add( cell );
+						if ( null != cell )
+							cellsToRemove.add( cell );
 
 					}
 				}
@@ -657,9 +870,9 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 								// Make sure target & source cells exist
 								final Spot source = model.getTrackModel().getEdgeSource( edge );
-								final mxCell sourceCell = graph.getCellFor( source );
+								final mxCell sourceCell = cellFor( source, spotsWithStyleToUpdate );
 								final Spot target = model.getTrackModel().getEdgeTarget( edge );
-								final mxCell targetCell = graph.getCellFor( target );
+								final mxCell targetCell = cellFor( target, spotsWithStyleToUpdate );
 
 								if ( sourceCell == null || targetCell == null )
 								{
@@ -745,7 +958,8 @@ public class TrackScheme extends AbstractTrackMateModelView
 						{
 
 							final mxCell cell = graph.getCellFor( edge );
-							graph.removeCells( new Object[] { cell } );
+							if ( null != cell )
+								graph.removeCells( new Object[] { cell } );
 						}
 					}
 
@@ -804,8 +1018,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 	public void render()
 	{
 		final long start = System.currentTimeMillis();
+		// Only create the cells in view for large models.
+		final boolean virtualized = model.getSpots().getNSpots( false ) > DEFAULT_VIRTUALIZATION_THRESHOLD;
 		// Graph to mirror model
-		this.graph = createGraph();
+		this.graph = createGraph( virtualized );
 		gui.logger.setProgress( 0.5 );
 
 		SwingUtilities.invokeLater( new Runnable()
@@ -822,6 +1038,9 @@ public class TrackScheme extends AbstractTrackMateModelView
 				TrackScheme.this.stylist = new TrackSchemeStylist( graph, ( TrackColorGenerator ) displaySettings.get( KEY_TRACK_COLORING ) );
 				gui.logger.setStatus( "Creating layout manager." );
 				TrackScheme.this.graphLayout = new TrackSchemeGraphLayout( graph, model, gui.graphComponent );
+				TrackScheme.this.virtualizer = new TrackSchemeVirtualizer( TrackScheme.this, graph, gui.graphComponent );
+				if ( virtualized )
+					virtualizer.enable();
 
 				// Execute style and layout
 				gui.logger.setProgress( 0.75 );
@@ -1029,6 +1248,8 @@ public class TrackScheme extends AbstractTrackMateModelView
 			public void windowClosing( final WindowEvent e )
 			{
 				model.removeModelChangeListener( TrackScheme.this );
+				if ( null != spotImageUpdater )
+					spotImageUpdater.quit();
 			}
 		} );
 		gui.setLocationByPlatform( true );
@@ -1159,11 +1380,15 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	public boolean toggleThumbnail()
 	{
-		if ( !doThumbnailCapture )
+		doThumbnailCapture = !doThumbnailCapture;
+		if ( doThumbnailCapture )
 		{
 			createThumbnails();
 		}
-		doThumbnailCapture = !doThumbnailCapture;
+		else if ( null != spotImageUpdater )
+		{
+			spotImageUpdater.cancelPendingRequests();
+		}
 		return doThumbnailCapture;
 	}
 
@@ -1201,7 +1426,9 @@ public class TrackScheme extends AbstractTrackMateModelView
 				final HashSet< mxCell > set = new HashSet<>( edges.size() );
 				for ( final DefaultWeightedEdge edge : edges )
 				{
-					set.add( graph.getCellFor( edge ) );
+					final mxCell cell = graph.getCellFor( edge );
+					if ( null != cell )
+						set.add( cell );
 				}
 				edgeMap.put( trackID, set );
 			}
@@ -1243,12 +1470,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 				spotPerFrame.get( frame ).add( spot );
 			}
 		}
-		// Set spot image to cell style
+		// Set spot image to cell style. Missing thumbnails are grabbed in the
+		// background, frame by frame.
 		if ( null != spotImageUpdater )
 		{
-			gui.logger.setStatus( "Collecting spot thumbnails." );
-			final double radiusFactor = ( Double ) displaySettings.get( KEY_SPOT_RADIUS_RATIO );
-			int index = 0;
 			try
 			{
 				graph.getModel().beginUpdate();
@@ -1259,24 +1484,41 @@ public class TrackScheme extends AbstractTrackMateModelView
 					for ( final Spot spot : spotPerFrame.get( frame ) )
 					{
 						final mxICell cell = graph.getCellFor( spot );
-						final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-						String style = cell.getStyle();
-						style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-						graph.getModel().setStyle( cell, style );
-
+						if ( null != cell )
+							updateThumbnail( spot, cell );
 					}
-					gui.logger.setProgress( ( double ) index++ / frames.size() );
 				}
 			}
 			finally
 			{
 				graph.getModel().endUpdate();
-				gui.logger.setProgress( 0d );
-				gui.logger.setStatus( "" );
 			}
 		}
 	}
 
+	/**
+	 * Returns the IDs of the tracks affected by the specified event, so that
+	 * only their layout is recomputed.
+	 */
+	private Set< Integer > modifiedTracks( final ModelChangeEvent event )
+	{
+		final Set< Integer > trackIDs = new HashSet<>();
+		if ( null != event.getTrackUpdated() )
+			trackIDs.addAll( event.getTrackUpdated() );
+
+		for ( final Spot spot : event.getSpots() )
+		{
+			if ( event.getSpotFlag( spot ) != ModelChangeEvent.FLAG_SPOT_REMOVED )
+				trackIDs.add( model.getTrackModel().trackIDOf( spot ) );
+		}
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_REMOVED )
+				trackIDs.add( model.getTrackModel().trackIDOf( edge ) );
+		}
+		return trackIDs;
+	}
+
 	public void doTrackLayout()
 	{
 		// Position cells
@@ -1291,30 +1533,50 @@ public class TrackScheme extends AbstractTrackMateModelView
 			}
 		}
 		unlaidSpotColumn = maxLength;
+		if ( null != virtualizer )
+			virtualizer.update();
 		gui.graphComponent.refresh();
 	}
 
 	public void captureUndecorated()
 	{
-		final BufferedImage image = mxCellRenderer.createBufferedImage( graph, null, 1, Color.WHITE, true, null, gui.graphComponent.getCanvas() );
-		final ImagePlus imp = new ImagePlus( "TrackScheme capture", image );
-		imp.show();
+		final boolean virtualized = isVirtualized();
+		setVirtualized( false );
+		try
+		{
+			final BufferedImage image = mxCellRenderer.createBufferedImage( graph, null, 1, Color.WHITE, true, null, gui.graphComponent.getCanvas() );
+			final ImagePlus imp = new ImagePlus( "TrackScheme capture", image );
+			imp.show();
+		}
+		finally
+		{
+			setVirtualized( virtualized );
+		}
 	}
 
 	public void captureDecorated()
 	{
-		final JViewport view = gui.graphComponent.getViewport();
-		final Point currentPos = view.getViewPosition();
-		view.setViewPosition( new Point( 0, 0 ) ); // We have to do that
-		// otherwise, top left is
-		// not painted
-		final Dimension size = view.getViewSize();
-		final BufferedImage image = ( BufferedImage ) view.createImage( size.width, size.height );
-		final Graphics2D captureG = image.createGraphics();
-		view.paintComponents( captureG );
-		view.setViewPosition( currentPos );
-		final ImagePlus imp = new ImagePlus( "TrackScheme capture", image );
-		imp.show();
+		final boolean virtualized = isVirtualized();
+		setVirtualized( false );
+		try
+		{
+			final JViewport view = gui.graphComponent.getViewport();
+			final Point currentPos = view.getViewPosition();
+			view.setViewPosition( new Point( 0, 0 ) ); // We have to do that
+			// otherwise, top left is
+			// not painted
+			final Dimension size = view.getViewSize();
+			final BufferedImage image = ( BufferedImage ) view.createImage( size.width, size.height );
+			final Graphics2D captureG = image.createGraphics();
+			view.paintComponents( captureG );
+			view.setViewPosition( currentPos );
+			final ImagePlus imp = new ImagePlus( "TrackScheme capture", image );
+			imp.show();
+		}
+		finally
+		{
+			setVirtualized( virtualized );
+		}
 	}
 
 	public void toggleDisplayDecoration()
@@ -1367,7 +1629,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 					importTrack( ID );
 				}
 				// Check that the cells matching the 2 spots exist in the graph
-				mxICell currentCell = graph.getCellFor( currentSpot );
+				mxICell currentCell = cellFor( currentSpot );
 				if ( null == currentCell )
 				{
 					currentCell = insertSpotInGraph( currentSpot, targetColumn );
@@ -1376,7 +1638,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 						System.out.println( "[TrackScheme] linkSpots: creating cell " + currentCell + " for spot " + currentSpot );
 					}
 				}
-				mxICell previousCell = graph.getCellFor( previousSpot );
+				mxICell previousCell = cellFor( previousSpot );
 				if ( null == previousCell )
 				{
 					final int frame = previousSpot.getFeature( Spot.FRAME ).intValue();
@@ -59,6 +59,12 @@ public class TrackSchemeGraphComponent extends mxGraphComponent implements mxIEv
 	/** The trackID for each column. */
 	Integer[] columnTrackIDs;
 
+	/** The number of columns used by the last layout. */
+	int layoutColumns = 0;
+
+	/** The number of rows used by the last layout. */
+	int layoutRows = 0;
+
 	private final TrackScheme trackScheme;
 
 	private int paintDecorationLevel = TrackScheme.DEFAULT_PAINT_DECORATION_LEVEL;
@@ -406,6 +412,20 @@ public class TrackSchemeGraphComponent extends mxGraphComponent implements mxIEv
 
 	}
 
+	/**
+	 * Override this so that the scrollable area covers the whole layout, even
+	 * when the {@link TrackSchemeVirtualizer} only created the cells in view.
+	 */
+	@Override
+	protected Dimension getScaledPreferredSizeForGraph()
+	{
+		final Dimension dim = super.getScaledPreferredSizeForGraph();
+		final double scale = graph.getView().getScale();
+		final int width = ( int ) Math.ceil( ( layoutColumns + 1 ) * TrackScheme.X_COLUMN_SIZE * scale );
+		final int height = ( int ) Math.ceil( layoutRows * TrackScheme.Y_COLUMN_SIZE * scale );
+		return new Dimension( Math.max( dim.width, width ), Math.max( dim.height, height ) );
+	}
+
 	/**
 	 * This listener method will be invoked when a new edge has been created
 	 * interactively in the graph component. It is used then to update the
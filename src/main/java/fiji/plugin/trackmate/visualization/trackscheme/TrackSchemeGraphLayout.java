@@ -6,7 +6,10 @@ import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.X_COLU
 import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.Y_COLUMN_SIZE;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +32,7 @@ import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomp
 import fiji.plugin.trackmate.graph.GraphUtils;
 import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighbors;
 import net.imglib2.algorithm.Benchmark;
 
 /**
@@ -36,6 +40,15 @@ import net.imglib2.algorithm.Benchmark;
  * to tracks. It also sets the style of each cell so that they have a coloring
  * depending on the lane they belong to. Each lane's width and color is
  * available to other classes for further exploitation.
+ * <p>
+ * The layout of each track is cached, relative to the first column of the
+ * track. Successive calls to {@link #execute(Object)} only lay out again the
+ * tracks that were marked as modified with {@link #invalidate(Collection)},
+ * and shift the others to their new first column.
+ * <p>
+ * The grid position of each spot is also stored in a
+ * {@link TrackSchemePositions}, so that spots which have no cell yet can be
+ * found by position. Only the cells that exist are moved.
  *
  * @author Jean-Yves Tinevez &lt;jeanyves.tinevez@gmail.com&gt; - Mar 2011 - 2012 -
  *         2014
@@ -63,6 +76,18 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 
 	private long processingTime;
 
+	/**
+	 * The cached layout of each track, relative to the first column of the
+	 * track. Entries are removed when a track is modified.
+	 */
+	private final Map< Integer, TrackLayout > trackLayouts = new HashMap< >();
+
+	/**
+	 * The grid positions of the spots of the visible tracks, regenerated after
+	 * each call to {@link #execute(Object)}.
+	 */
+	private TrackSchemePositions positions;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -79,6 +104,33 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 	 * PUBLIC METHODS
 	 */
 
+	/**
+	 * Marks the layout of the specified tracks as invalid. They will be laid
+	 * out again at the next call to {@link #execute(Object)}. The layout of
+	 * the other tracks is reused, and only shifted if needed.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to lay out again. <code>null</code>
+	 *            elements are ignored.
+	 */
+	public void invalidate( final Collection< Integer > trackIDs )
+	{
+		for ( final Integer trackID : trackIDs )
+		{
+			if ( null != trackID )
+				trackLayouts.remove( trackID );
+		}
+	}
+
+	/**
+	 * Marks the layout of all tracks as invalid. The next call to
+	 * {@link #execute(Object)} will lay out all tracks.
+	 */
+	public void invalidateAll()
+	{
+		trackLayouts.clear();
+	}
+
 	@Override
 	public void execute( final Object lParent )
 	{
@@ -89,23 +141,14 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 		 * To be able to deal with lonely cells later (i.e. cells that are not
 		 * part of a track), we retrieve the list of all cells.
 		 */
-		final Object[] objs = graphAdapter.getChildVertices( graphAdapter.getDefaultParent() );
-		final ArrayList< mxCell > lonelyCells = new ArrayList< >( objs.length );
-		for ( final Object obj : objs )
-		{
-			lonelyCells.add( ( mxCell ) obj );
-		}
+		final Set< mxCell > lonelyCells = new LinkedHashSet< >( graphAdapter.getVertexCells() );
 
 		/*
-		 * Get a neighbor cache
+		 * Get a neighbor cache. We use the lazy index rather than a snapshot:
+		 * only the tracks that are laid out again query it.
 		 */
 		final TimeDirectedNeighborIndex neighborCache = model.getTrackModel().getDirectedNeighborIndex();
 
-		/*
-		 * Compute column width from recursive cumsum
-		 */
-		final Map< Spot, Integer > cumulativeBranchWidth = GraphUtils.cumulativeBranchWidth( model.getTrackModel() );
-
 		/*
 		 * How many rows do we have to parse?
 		 */
@@ -118,10 +161,14 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 			/*
 			 * Pass n tracks info on component
 			 */
-			final int ntracks = model.getTrackModel().nTracks( true );
+			final Set< Integer > trackIDs = model.getTrackModel().trackIDs( true );
+			final int ntracks = trackIDs.size();
 			component.columnWidths = new int[ ntracks ];
 			component.columnTrackIDs = new Integer[ ntracks ];
 
+			// Forget the tracks that are not displayed anymore.
+			trackLayouts.keySet().retainAll( trackIDs );
+
 			/*
 			 * Initialize the column occupancy array
 			 */
@@ -132,155 +179,66 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 			}
 
 			int trackIndex = 0;
-			for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+			int trackStart = START_COLUMN;
+			int maxCol = 0;
+			int sumWidth = START_COLUMN;
+			int maxRowSpan = 0;
+			final TrackSchemePositions lPositions = new TrackSchemePositions( model.getSpots().getNSpots( false ) );
+			for ( final Integer trackID : trackIDs )
 			{ // will be sorted by track name
 
-				// Get Tracks
-				final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
 				// Pass name & trackID to component
 				component.columnTrackIDs[ trackIndex ] = trackID;
 
-				// Get first spot
-				final TreeSet< Spot > sortedTrack = new TreeSet< >( Spot.frameComparator );
-				sortedTrack.addAll( track );
-				final Spot first = sortedTrack.first();
-
-				/*
-				 * A special case: our quick layout below fails for graph that
-				 * are not trees. That is: if a track has at least a spot that
-				 * has more than one predecessor. If we have to deal with such a
-				 * case, we revert to the old, slow scheme.
-				 */
-
-				final boolean isTree = GraphUtils.isTree( track, neighborCache );
-
-				if ( isTree )
+				// Get the track layout, relative to the track first column.
+				final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+				TrackLayout trackLayout = trackLayouts.get( trackID );
+				if ( null == trackLayout || !trackLayout.isValidFor( track ) )
 				{
-
-					/*
-					 * Quick layout for a tree-like track
-					 */
-
-					// First loop: Loop over spots in good order
-					final SortedDepthFirstIterator< Spot, DefaultWeightedEdge > iterator = model.getTrackModel().getSortedDepthFirstIterator( first, Spot.nameComparator, false );
-
-					while ( iterator.hasNext() )
-					{
-
-						final Spot spot = iterator.next();
-
-						// Get corresponding JGraphX cell, add it if it does not
-						// exist in the JGraphX yet
-						final mxICell cell = graphAdapter.getCellFor( spot );
-
-						// This is cell is in a track, remove it from the list
-						// of lonely cells
-						lonelyCells.remove( cell );
-
-						// Determine in what row to put the spot
-						final int frame = spot.getFeature( Spot.FRAME ).intValue();
-
-						// Cell size, position and style
-						final int cellPos = columns[ frame ] + cumulativeBranchWidth.get( spot ) / 2;
-						setCellGeometry( cell, frame, cellPos );
-						columns[ frame ] += cumulativeBranchWidth.get( spot );
-
-						// If it is a leaf, we fill the remaining row below and
-						// above
-						if ( neighborCache.successorsOf( spot ).size() == 0 )
-						{
-							final int target = columns[ frame ];
-							for ( int i = 0; i <= maxFrame; i++ )
-							{
-								columns[ i ] = target;
-							}
-						}
-
-					}
-
+					trackLayout = layoutTrack( trackID, track, neighborCache, maxFrame );
+					trackLayouts.put( trackID, trackLayout );
 				}
-				else
+
+				// Position cells.
+				for ( int i = 0; i < trackLayout.size; i++ )
 				{
+					final int column = trackStart + trackLayout.columns[ i ];
+					lPositions.add( trackLayout.spots[ i ], trackLayout.rows[ i ], column, trackLayout.reaches[ i ] );
 
-					/*
-					 * Layout in branches for merging tracks
-					 */
+					// Get corresponding JGraphX cell. It does not exist if
+					// the spot is out of view in a virtualized display.
+					final mxICell cell = graphAdapter.getCellFor( trackLayout.spots[ i ] );
+					if ( null == cell )
+						continue;
 
-					final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborCache, false, false );
-					final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
-					final DepthFirstIterator< List< Spot >, DefaultEdge > depthFirstIterator = new DepthFirstIterator< >( branchGraph );
+					// This is cell is in a track, remove it from the list
+					// of lonely cells
+					lonelyCells.remove( cell );
 
-					while ( depthFirstIterator.hasNext() )
-					{
-						final List< Spot > branch = depthFirstIterator.next();
-
-						final int firstFrame = branch.get( 0 ).getFeature( Spot.FRAME ).intValue();
-						final int lastFrame = branch.get( branch.size() - 1 ).getFeature( Spot.FRAME ).intValue();
-
-						// Determine target column.
-						int targetColumn = columns[ firstFrame ];
-						for ( final Spot spot : branch )
-						{
-							final int sFrame = spot.getFeature( Spot.FRAME ).intValue();
-							if ( columns[ sFrame ] > targetColumn )
-							{
-								targetColumn = columns[ sFrame ];
-							}
-						}
-
-						// Place spots.
-						for ( final Spot spot : branch )
-						{
-							// Get corresponding JGraphX cell, add it if it does
-							// not exist in the JGraphX yet
-							final mxICell cell = graphAdapter.getCellFor( spot );
-
-							// This is cell is in a track, remove it from the
-							// list of lonely cells
-							lonelyCells.remove( cell );
-
-							// Determine in what row to put the spot
-							final int frame = spot.getFeature( Spot.FRAME ).intValue();
-
-							// Cell position
-							setCellGeometry( cell, frame, targetColumn );
-						}
-
-						// Update column index.
-						for ( int frame = firstFrame; frame <= lastFrame; frame++ )
-						{
-							columns[ frame ] = targetColumn + 1;
-						}
-					}
+					setCellGeometry( cell, trackLayout.rows[ i ], column );
 				}
+				maxRowSpan = Math.max( maxRowSpan, trackLayout.maxRowSpan );
 
 				// When done with a track, move all columns to the next free
 				// column
-				int maxCol = 0;
-				for ( int j = 0; j < columns.length; j++ )
-				{
-					if ( columns[ j ] > maxCol )
-					{
-						maxCol = columns[ j ];
-					}
-				}
-				for ( int i = 0; i < columns.length; i++ )
-				{
-					columns[ i ] = maxCol + 1;
-				}
+				maxCol = trackStart + trackLayout.maxColumn;
+				trackStart = maxCol + 1;
 
 				// Store column widths for the panel background
-				int sumWidth = START_COLUMN;
-				for ( int i = 0; i < trackIndex; i++ )
-				{
-					sumWidth += component.columnWidths[ i ];
-				}
 				component.columnWidths[ trackIndex ] = maxCol - sumWidth;
+				sumWidth = maxCol;
 
 				trackIndex++;
 			} // loop over tracks
 
+			if ( ntracks > 0 )
+			{
+				for ( int i = 0; i < columns.length; i++ )
+				{
+					columns[ i ] = maxCol + 1;
+				}
+			}
+
 			// Deal with lonely cells
 			for ( final mxCell cell : lonelyCells )
 			{
@@ -291,11 +249,20 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 
 			// Before we leave, we regenerate the row length, for our brothers
 			rowLengths = new HashMap< >( columns.length );
+			int maxRowLength = 0;
 			for ( int i = 0; i < columns.length; i++ )
 			{
 				rowLengths.put( i, columns[ i ] );
+				maxRowLength = Math.max( maxRowLength, columns[ i ] );
 			}
 
+			// Pass layout extent to component
+			component.layoutColumns = maxRowLength;
+			component.layoutRows = columns.length;
+
+			lPositions.build( columns.length, maxRowSpan );
+			positions = lPositions;
+
 			// Move vertices cells to front, to make them easily selectable.
 			final Object[] verticesCells = graphAdapter.getVertexCells().toArray();
 			graphAdapter.cellsOrdered( verticesCells, false );
@@ -310,6 +277,188 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 		processingTime = end - start;
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Lays out a single track, with columns relative to the first column of
+	 * the track.
+	 */
+	private TrackLayout layoutTrack( final Integer trackID, final Set< Spot > track, final TimeDirectedNeighbors neighborCache, final int maxFrame )
+	{
+		final TrackLayout trackLayout = new TrackLayout( track.size() );
+
+		/*
+		 * Initialize the column occupancy array
+		 */
+		final int[] columns = new int[ maxFrame + 1 ];
+
+		// Get first spot
+		final TreeSet< Spot > sortedTrack = new TreeSet< >( Spot.frameComparator );
+		sortedTrack.addAll( track );
+		final Spot first = sortedTrack.first();
+
+		/*
+		 * A special case: our quick layout below fails for graph that are not
+		 * trees. That is: if a track has at least a spot that has more than one
+		 * predecessor. If we have to deal with such a case, we revert to the
+		 * old, slow scheme.
+		 */
+
+		final boolean isTree = GraphUtils.isTree( track, neighborCache );
+
+		if ( isTree )
+		{
+
+			/*
+			 * Quick layout for a tree-like track
+			 */
+
+			// Compute column width from recursive cumsum
+			final Map< Spot, Integer > cumulativeBranchWidth = cumulativeBranchWidth( track, neighborCache );
+
+			// First loop: Loop over spots in good order
+			final SortedDepthFirstIterator< Spot, DefaultWeightedEdge > iterator = model.getTrackModel().getSortedDepthFirstIterator( first, Spot.nameComparator, false );
+
+			while ( iterator.hasNext() )
+			{
+
+				final Spot spot = iterator.next();
+
+				// Determine in what row to put the spot
+				final int frame = spot.getFeature( Spot.FRAME ).intValue();
+
+				// Cell position
+				final int width = cumulativeBranchWidth.get( spot );
+				trackLayout.add( spot, frame, columns[ frame ] + width / 2 );
+				columns[ frame ] += width;
+
+				// If it is a leaf, we fill the remaining row below and
+				// above
+				if ( neighborCache.successorsOf( spot ).size() == 0 )
+				{
+					final int target = columns[ frame ];
+					for ( int i = 0; i <= maxFrame; i++ )
+					{
+						columns[ i ] = target;
+					}
+				}
+
+			}
+
+		}
+		else
+		{
+
+			/*
+			 * Layout in branches for merging tracks
+			 */
+
+			final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborCache, false, false );
+			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
+			final DepthFirstIterator< List< Spot >, DefaultEdge > depthFirstIterator = new DepthFirstIterator< >( branchGraph );
+
+			while ( depthFirstIterator.hasNext() )
+			{
+				final List< Spot > branch = depthFirstIterator.next();
+
+				final int firstFrame = branch.get( 0 ).getFeature( Spot.FRAME ).intValue();
+				final int lastFrame = branch.get( branch.size() - 1 ).getFeature( Spot.FRAME ).intValue();
+
+				// Determine target column.
+				int targetColumn = columns[ firstFrame ];
+				for ( final Spot spot : branch )
+				{
+					final int sFrame = spot.getFeature( Spot.FRAME ).intValue();
+					if ( columns[ sFrame ] > targetColumn )
+					{
+						targetColumn = columns[ sFrame ];
+					}
+				}
+
+				// Place spots.
+				for ( final Spot spot : branch )
+				{
+					// Determine in what row to put the spot
+					final int frame = spot.getFeature( Spot.FRAME ).intValue();
+
+					// Cell position
+					trackLayout.add( spot, frame, targetColumn );
+				}
+
+				// Update column index.
+				for ( int frame = firstFrame; frame <= lastFrame; frame++ )
+				{
+					columns[ frame ] = targetColumn + 1;
+				}
+			}
+		}
+
+		// The track ends at its right-most column.
+		int maxCol = 0;
+		for ( int j = 0; j < columns.length; j++ )
+		{
+			if ( columns[ j ] > maxCol )
+			{
+				maxCol = columns[ j ];
+			}
+		}
+		trackLayout.maxColumn = maxCol;
+
+		// Extent of the edges, to find the ones crossing the view.
+		final Map< Spot, Integer > indices = new HashMap< >( trackLayout.size );
+		for ( int i = 0; i < trackLayout.size; i++ )
+		{
+			indices.put( trackLayout.spots[ i ], i );
+		}
+		for ( int i = 0; i < trackLayout.size; i++ )
+		{
+			for ( final Spot successor : neighborCache.successorsOf( trackLayout.spots[ i ] ) )
+			{
+				final Integer j = indices.get( successor );
+				if ( null == j )
+				{
+					continue;
+				}
+				trackLayout.reaches[ i ] = Math.max( trackLayout.reaches[ i ], Math.abs( trackLayout.columns[ j ] - trackLayout.columns[ i ] ) );
+				trackLayout.maxRowSpan = Math.max( trackLayout.maxRowSpan, trackLayout.rows[ j ] - trackLayout.rows[ i ] );
+			}
+		}
+		return trackLayout;
+	}
+
+	/**
+	 * Returns the number of leaves below each spot of a tree-like track. This
+	 * gives the same result as
+	 * {@link GraphUtils#cumulativeBranchWidth(fiji.plugin.trackmate.TrackModel)}
+	 * for this track only.
+	 */
+	private static final Map< Spot, Integer > cumulativeBranchWidth( final Set< Spot > track, final TimeDirectedNeighbors neighborCache )
+	{
+		// Successors are always in later frames: process them first.
+		final List< Spot > sortedTrack = new ArrayList< >( track );
+		Collections.sort( sortedTrack, Collections.reverseOrder( Spot.frameComparator ) );
+
+		final Map< Spot, Integer > widths = new HashMap< >( sortedTrack.size() );
+		for ( final Spot spot : sortedTrack )
+		{
+			final Set< Spot > successors = neighborCache.successorsOf( spot );
+			if ( successors.isEmpty() )
+			{
+				widths.put( spot, 1 );
+				continue;
+			}
+			int width = 0;
+			for ( final Spot successor : successors )
+			{
+				width += widths.get( successor );
+			}
+			widths.put( spot, width );
+		}
+		return widths;
+	}
+
 	private final void setCellGeometry( final mxICell cell, final int row, final int targetColumn )
 	{
 
@@ -331,9 +480,76 @@ public class TrackSchemeGraphLayout extends mxGraphLayout implements Benchmark
 		return rowLengths;
 	}
 
+	/**
+	 * @return the grid positions of the spots of the visible tracks, or
+	 *         <code>null</code> if {@link #execute(Object)} was not called
+	 *         yet. This field is regenerated after each call to
+	 *         {@link #execute(Object)}.
+	 */
+	TrackSchemePositions getPositions()
+	{
+		return positions;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
 		return processingTime;
 	}
+
+	/**
+	 * The layout of a single track, with columns relative to the first column
+	 * of the track.
+	 */
+	private static final class TrackLayout
+	{
+
+		private final Spot[] spots;
+
+		private final int[] rows;
+
+		private final int[] columns;
+
+		/** The largest column distance of each spot to its successors. */
+		private final int[] reaches;
+
+		private int size;
+
+		private int maxColumn;
+
+		/** The largest row distance between two linked spots. */
+		private int maxRowSpan;
+
+		private TrackLayout( final int nSpots )
+		{
+			this.spots = new Spot[ nSpots ];
+			this.rows = new int[ nSpots ];
+			this.columns = new int[ nSpots ];
+			this.reaches = new int[ nSpots ];
+		}
+
+		private void add( final Spot spot, final int row, final int column )
+		{
+			spots[ size ] = spot;
+			rows[ size ] = row;
+			columns[ size ] = column;
+			size++;
+		}
+
+		/**
+		 * Checks that this layout was made for the specified spots. This
+		 * protects against track modifications we were not notified of.
+		 */
+		private boolean isValidFor( final Set< Spot > track )
+		{
+			if ( size != track.size() )
+				return false;
+			for ( int i = 0; i < size; i++ )
+			{
+				if ( !track.contains( spots[ i ] ) || spots[ i ].getFeature( Spot.FRAME ).intValue() != rows[ i ] )
+					return false;
+			}
+			return true;
+		}
+	}
 }
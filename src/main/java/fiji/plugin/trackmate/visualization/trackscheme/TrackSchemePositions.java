@@ -0,0 +1,234 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.graph.SpotIDTable;
+
+/**
+ * A compact store of the grid positions of the spots laid out by the
+ * {@link TrackSchemeGraphLayout}, in rows (frames) and columns.
+ * <p>
+ * Positions are kept in primitive arrays, sorted by row then by column, so
+ * that the spots in a rectangle of the grid are found without iterating over
+ * all spots. The {@link TrackSchemeVirtualizer} relies on it to create cells
+ * only for the spots in view.
+ * <p>
+ * For each spot, we also store its <i>reach</i>: the largest column distance
+ * to one of its successors. With the largest row distance between linked
+ * spots, it bounds the area where to look for the edges crossing a
+ * rectangle.
+ */
+class TrackSchemePositions
+{
+
+	private Spot[] spots;
+
+	private int[] rows;
+
+	private int[] columns;
+
+	private int[] reaches;
+
+	private int size = 0;
+
+	/** Entry indices, sorted by row then by column. */
+	private int[] sorted;
+
+	/** Start of each row in {@link #sorted}, plus one final end index. */
+	private int[] rowStarts;
+
+	/** The largest reach of the entries of each row. */
+	private int[] rowReaches;
+
+	private int maxRowSpan;
+
+	private int maxColumn;
+
+	private SpotIDTable table;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	TrackSchemePositions( final int initialCapacity )
+	{
+		final int capacity = Math.max( 16, initialCapacity );
+		this.spots = new Spot[ capacity ];
+		this.rows = new int[ capacity ];
+		this.columns = new int[ capacity ];
+		this.reaches = new int[ capacity ];
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Adds the position of a spot. Must be called before {@link #build(int, int)}.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @param row
+	 *            its row, that is, its frame.
+	 * @param column
+	 *            its column, positive or zero.
+	 * @param reach
+	 *            the largest column distance to one of its successors.
+	 */
+	void add( final Spot spot, final int row, final int column, final int reach )
+	{
+		if ( size == spots.length )
+		{
+			final int capacity = 2 * size;
+			spots = Arrays.copyOf( spots, capacity );
+			rows = Arrays.copyOf( rows, capacity );
+			columns = Arrays.copyOf( columns, capacity );
+			reaches = Arrays.copyOf( reaches, capacity );
+		}
+		spots[ size ] = spot;
+		rows[ size ] = row;
+		columns[ size ] = column;
+		reaches[ size ] = reach;
+		size++;
+	}
+
+	/**
+	 * Sorts the positions added so far and builds the lookup tables.
+	 *
+	 * @param nRows
+	 *            the number of rows. All rows must be smaller than this.
+	 * @param lMaxRowSpan
+	 *            the largest row distance between two linked spots.
+	 */
+	void build( final int nRows, final int lMaxRowSpan )
+	{
+		this.maxRowSpan = lMaxRowSpan;
+		this.rowStarts = new int[ nRows + 1 ];
+		this.rowReaches = new int[ nRows ];
+		this.table = new SpotIDTable( size );
+		this.maxColumn = 0;
+
+		// Counting sort on rows.
+		for ( int i = 0; i < size; i++ )
+		{
+			rowStarts[ rows[ i ] + 1 ]++;
+			rowReaches[ rows[ i ] ] = Math.max( rowReaches[ rows[ i ] ], reaches[ i ] );
+			maxColumn = Math.max( maxColumn, columns[ i ] );
+			table.put( spots[ i ].ID(), i );
+		}
+		for ( int row = 0; row < nRows; row++ )
+			rowStarts[ row + 1 ] += rowStarts[ row ];
+
+		final long[] keys = new long[ size ];
+		final int[] next = Arrays.copyOf( rowStarts, nRows );
+		for ( int i = 0; i < size; i++ )
+			keys[ next[ rows[ i ] ]++ ] = ( ( long ) columns[ i ] << 32 ) | i;
+
+		// Then sort each row on columns.
+		this.sorted = new int[ size ];
+		for ( int row = 0; row < nRows; row++ )
+		{
+			Arrays.sort( keys, rowStarts[ row ], rowStarts[ row + 1 ] );
+			for ( int k = rowStarts[ row ]; k < rowStarts[ row + 1 ]; k++ )
+				sorted[ k ] = ( int ) keys[ k ];
+		}
+	}
+
+	/**
+	 * Returns the index of the specified spot, or <code>-1</code> if it was
+	 * not laid out.
+	 */
+	int indexOf( final Spot spot )
+	{
+		final int index = table.get( spot.ID() );
+		if ( index == SpotIDTable.NONE || spots[ index ] != spot )
+			return -1;
+		return index;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	Spot getSpot( final int index )
+	{
+		return spots[ index ];
+	}
+
+	int getRow( final int index )
+	{
+		return rows[ index ];
+	}
+
+	int getColumn( final int index )
+	{
+		return columns[ index ];
+	}
+
+	int getNRows()
+	{
+		return rowReaches.length;
+	}
+
+	int getMaxColumn()
+	{
+		return maxColumn;
+	}
+
+	/**
+	 * Returns the largest row distance between two linked spots.
+	 */
+	int getMaxRowSpan()
+	{
+		return maxRowSpan;
+	}
+
+	/**
+	 * Returns the largest column distance between a spot of the specified row
+	 * and one of its successors.
+	 */
+	int getRowReach( final int row )
+	{
+		return rowReaches[ row ];
+	}
+
+	/**
+	 * Returns the entry index at the specified rank of the sorted order.
+	 */
+	int entry( final int rank )
+	{
+		return sorted[ rank ];
+	}
+
+	/**
+	 * Returns the rank, in the sorted order, of the first entry of the
+	 * specified row with a column larger than or equal to the specified
+	 * column. Entries of this row with a rank smaller than
+	 * {@link #rowEnd(int)} follow in increasing columns.
+	 */
+	int lowerBound( final int row, final int column )
+	{
+		int lo = rowStarts[ row ];
+		int hi = rowStarts[ row + 1 ];
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( columns[ sorted[ mid ] ] < column )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the rank, in the sorted order, after the last entry of the
+	 * specified row.
+	 */
+	int rowEnd( final int row )
+	{
+		return rowStarts[ row + 1 ];
+	}
+}
@@ -104,6 +104,11 @@ public class TrackSchemeStylist {
 				final Set<mxCell> edgesToUpdate = edgeMap.get(trackID);
 				for (final mxCell cell : edgesToUpdate) {
 
+					// Cells out of view may not exist in a virtualized display
+					if (null == cell) {
+						continue;
+					}
+
 					// The edge itself
 					final DefaultWeightedEdge edge = graphx.getEdgeFor(cell);
 					final Color color = colorGenerator.color(edge);
@@ -139,6 +144,10 @@ public class TrackSchemeStylist {
 
 			for (final mxCell vertex : vertices) {
 
+				if (null == vertex) {
+					continue;
+				}
+
 				final int nedges = vertex.getEdgeCount();
 				if (nedges == 0) {
 					/*
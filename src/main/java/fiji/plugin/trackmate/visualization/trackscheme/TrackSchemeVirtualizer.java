@@ -0,0 +1,512 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_HEIGHT;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_WIDTH;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.X_COLUMN_SIZE;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.Y_COLUMN_SIZE;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxICell;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.util.mxEvent;
+import com.mxgraph.util.mxEventObject;
+import com.mxgraph.util.mxEventSource.mxIEventListener;
+import com.mxgraph.util.mxPoint;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Creates TrackScheme cells only for the spots and edges in view.
+ * <p>
+ * The {@link TrackSchemeGraphLayout} stores the grid position of every spot
+ * in a compact {@link TrackSchemePositions}. When enabled, this class binds
+ * cells to the spots that lie in the viewport, enlarged by one viewport size
+ * in each direction, and to the edges crossing this area. Cells that leave
+ * the area are unbound, hidden and kept in a pool, then reused for the spots
+ * and edges that enter it. Only the rows in view are searched, so updating
+ * does not depend on the total number of spots. Updates happen after the
+ * viewport stops moving or after the zoom changes. Outside of this area,
+ * tracks are only represented by the column bands painted in the background
+ * by {@link TrackSchemeGraphComponent}.
+ * <p>
+ * Cells of spots that are not in the layout yet, for instance spots added
+ * since the last layout, are never recycled.
+ */
+public class TrackSchemeVirtualizer
+{
+
+	/** Delay, in ms, after the last viewport change before we update. */
+	private static final int UPDATE_DELAY = 50;
+
+	private final TrackScheme trackScheme;
+
+	private final JGraphXAdapter graph;
+
+	private final TrackSchemeGraphComponent component;
+
+	private final Timer timer;
+
+	private final ChangeListener viewportListener;
+
+	private final mxIEventListener scaleListener;
+
+	/** Hidden vertex cells, not bound to a spot, ready for reuse. */
+	private final ArrayDeque< mxCell > vertexPool = new ArrayDeque< >();
+
+	/** Hidden edge cells, not bound to an edge, ready for reuse. */
+	private final ArrayDeque< mxCell > edgePool = new ArrayDeque< >();
+
+	private boolean enabled = false;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public TrackSchemeVirtualizer( final TrackScheme trackScheme, final JGraphXAdapter graph, final TrackSchemeGraphComponent component )
+	{
+		this.trackScheme = trackScheme;
+		this.graph = graph;
+		this.component = component;
+		this.timer = new Timer( UPDATE_DELAY, new ActionListener()
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				update();
+			}
+		} );
+		timer.setRepeats( false );
+		this.viewportListener = new ChangeListener()
+		{
+			@Override
+			public void stateChanged( final ChangeEvent e )
+			{
+				timer.restart();
+			}
+		};
+		this.scaleListener = new mxIEventListener()
+		{
+			@Override
+			public void invoke( final Object sender, final mxEventObject evt )
+			{
+				timer.restart();
+			}
+		};
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Starts creating cells only for the spots and edges in view.
+	 */
+	public void enable()
+	{
+		if ( enabled )
+			return;
+		enabled = true;
+		component.getViewport().addChangeListener( viewportListener );
+		graph.getView().addListener( mxEvent.SCALE, scaleListener );
+		graph.getView().addListener( mxEvent.SCALE_AND_TRANSLATE, scaleListener );
+		update();
+	}
+
+	/**
+	 * Stops virtualizing, and creates the cells of all the spots and edges
+	 * laid out.
+	 */
+	public void disable()
+	{
+		if ( !enabled )
+			return;
+		enabled = false;
+		timer.stop();
+		component.getViewport().removeChangeListener( viewportListener );
+		graph.getView().removeListener( scaleListener );
+
+		final TrackSchemePositions positions = getPositions();
+		if ( null != positions )
+			show( positions, 0, positions.getNRows() - 1, 0, positions.getMaxColumn() );
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Updates the cells against the current viewport. Does nothing if this
+	 * virtualizer is not enabled.
+	 */
+	public void update()
+	{
+		if ( !enabled )
+			return;
+		final TrackSchemePositions positions = getPositions();
+		if ( null == positions )
+			return;
+
+		// Visible rectangle, in unscaled graph coordinates, plus margin.
+		final Rectangle viewRect = component.getViewport().getViewRect();
+		final double scale = graph.getView().getScale();
+		final mxPoint translate = graph.getView().getTranslate();
+		final double w = viewRect.width / scale;
+		final double h = viewRect.height / scale;
+		final double xmin = viewRect.x / scale - translate.getX() - w;
+		final double ymin = viewRect.y / scale - translate.getY() - h;
+		final double xmax = xmin + 3 * w;
+		final double ymax = ymin + 3 * h;
+
+		// Rows and columns of the cells overlapping it.
+		final int r0 = ( int ) Math.floor( ( ymin - DEFAULT_CELL_HEIGHT / 2 ) / Y_COLUMN_SIZE );
+		final int r1 = ( int ) Math.ceil( ( ymax + DEFAULT_CELL_HEIGHT / 2 ) / Y_COLUMN_SIZE );
+		final int c0 = ( int ) Math.floor( ( xmin - DEFAULT_CELL_WIDTH / 2 ) / X_COLUMN_SIZE );
+		final int c1 = ( int ) Math.ceil( ( xmax + DEFAULT_CELL_WIDTH / 2 ) / X_COLUMN_SIZE );
+		show( positions, Math.max( 0, r0 ), Math.min( positions.getNRows() - 1, r1 ), Math.max( 0, c0 ), Math.min( positions.getMaxColumn(), c1 ) );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified spot was laid out, and its
+	 * cell is therefore created and recycled by this virtualizer.
+	 */
+	public boolean isManaged( final Spot spot )
+	{
+		final TrackSchemePositions positions = getPositions();
+		return null != positions && positions.indexOf( spot ) >= 0;
+	}
+
+	/**
+	 * Returns the cell of the specified spot, and creates it if it was
+	 * recycled. Returns <code>null</code> if the spot has no cell and was not
+	 * laid out.
+	 */
+	public mxCell getOrCreateCell( final Spot spot )
+	{
+		final mxCell existing = graph.getCellFor( spot );
+		if ( null != existing )
+			return existing;
+		final TrackSchemePositions positions = getPositions();
+		if ( null == positions )
+			return null;
+		final int index = positions.indexOf( spot );
+		if ( index < 0 )
+			return null;
+
+		graph.getModel().beginUpdate();
+		try
+		{
+			final mxCell cell = bindVertex( spot, positions.getRow( index ), positions.getColumn( index ) );
+			final List< mxCell > vertices = new ArrayList< >( 1 );
+			vertices.add( cell );
+			trackScheme.stylist.updateVertexStyle( vertices );
+			trackScheme.cellsBound( vertices, new ArrayList< mxCell >( 0 ) );
+			return cell;
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
+		}
+	}
+
+	/**
+	 * Scrolls the view so that it is centered on the specified spot, even if
+	 * it has no cell. Cells are created after the viewport stops moving.
+	 */
+	public void centerViewOn( final Spot spot )
+	{
+		final TrackSchemePositions positions = getPositions();
+		if ( null == positions )
+			return;
+		final int index = positions.indexOf( spot );
+		if ( index < 0 )
+			return;
+
+		final double scale = graph.getView().getScale();
+		final mxPoint translate = graph.getView().getTranslate();
+		final double x = ( positions.getColumn( index ) * X_COLUMN_SIZE + translate.getX() ) * scale;
+		final double y = ( ( 0.5 + positions.getRow( index ) ) * Y_COLUMN_SIZE + translate.getY() ) * scale;
+		final Rectangle viewRect = component.getViewport().getViewRect();
+		final Rectangle target = new Rectangle( ( int ) ( x - viewRect.width / 2 ), ( int ) ( y - viewRect.height / 2 ), viewRect.width, viewRect.height );
+		component.getGraphControl().scrollRectToVisible( target );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private TrackSchemePositions getPositions()
+	{
+		final TrackSchemeGraphLayout layout = trackScheme.getGraphLayout();
+		if ( null == layout )
+			return null;
+		return layout.getPositions();
+	}
+
+	/**
+	 * Binds cells to the spots in the specified rectangle of the grid, and to
+	 * the edges crossing it. Recycles the cells of the other laid out spots
+	 * and edges.
+	 */
+	private void show( final TrackSchemePositions positions, final int r0, final int r1, final int c0, final int c1 )
+	{
+		final TrackModel trackModel = trackScheme.getModel().getTrackModel();
+
+		/*
+		 * Spots and edges needed. Edges are found from their earliest spot,
+		 * which is at most maxRowSpan rows above the area, and at most its
+		 * reach columns on the side.
+		 */
+
+		final Set< Spot > spots = new HashSet< >();
+		final Set< DefaultWeightedEdge > edges = new HashSet< >();
+		for ( int row = Math.max( 0, r0 - positions.getMaxRowSpan() ); row <= r1; row++ )
+		{
+			final int reach = positions.getRowReach( row );
+			final int end = positions.rowEnd( row );
+			for ( int k = positions.lowerBound( row, c0 - reach ); k < end; k++ )
+			{
+				final int i = positions.entry( k );
+				final int column = positions.getColumn( i );
+				if ( column > c1 + reach )
+					break;
+
+				final Spot spot = positions.getSpot( i );
+				if ( null == trackModel.trackIDOf( spot ) )
+					continue; // Removed since the last layout.
+
+				if ( row >= r0 && column >= c0 && column <= c1 )
+					spots.add( spot );
+
+				for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+				{
+					Spot other = trackModel.getEdgeTarget( edge );
+					if ( other == spot )
+						other = trackModel.getEdgeSource( edge );
+					final int j = positions.indexOf( other );
+					if ( j < 0 )
+						continue;
+					final int otherRow = positions.getRow( j );
+					if ( otherRow < row || ( otherRow == row && j < i ) )
+						continue; // Found from the other spot.
+
+					final int otherColumn = positions.getColumn( j );
+					if ( otherRow >= r0 && Math.max( column, otherColumn ) >= c0 && Math.min( column, otherColumn ) <= c1 )
+					{
+						edges.add( edge );
+						spots.add( spot );
+						spots.add( other );
+					}
+				}
+			}
+		}
+
+		/*
+		 * Sort the cells we have: keep the ones needed, and the ones we could
+		 * not create again. Recycle the others.
+		 */
+
+		final List< mxCell > edgesToRecycle = new ArrayList< >();
+		for ( final mxCell cell : graph.getEdgeCells().toArray( new mxCell[ 0 ] ) )
+		{
+			final DefaultWeightedEdge edge = graph.getEdgeFor( cell );
+			if ( edges.remove( edge ) )
+				continue;
+			final Spot source = graph.getSpotFor( cell.getTerminal( true ) );
+			final Spot target = graph.getSpotFor( cell.getTerminal( false ) );
+			if ( null != source && null != target && positions.indexOf( source ) >= 0 && positions.indexOf( target ) >= 0 )
+			{
+				edgesToRecycle.add( cell );
+			}
+			else
+			{
+				// Keep it and its terminals.
+				if ( null != source )
+					spots.add( source );
+				if ( null != target )
+					spots.add( target );
+			}
+		}
+
+		final List< mxCell > verticesToRecycle = new ArrayList< >();
+		for ( final mxCell cell : graph.getVertexCells().toArray( new mxCell[ 0 ] ) )
+		{
+			final Spot spot = graph.getSpotFor( cell );
+			if ( spots.remove( spot ) )
+				continue;
+			if ( positions.indexOf( spot ) >= 0 )
+				verticesToRecycle.add( cell );
+		}
+
+		if ( edgesToRecycle.isEmpty() && verticesToRecycle.isEmpty() && spots.isEmpty() && edges.isEmpty() )
+			return;
+
+		/*
+		 * Recycle and bind, in one model update.
+		 */
+
+		final mxIGraphModel model = graph.getModel();
+		model.beginUpdate();
+		try
+		{
+			final List< mxCell > recycled = new ArrayList< >( edgesToRecycle.size() + verticesToRecycle.size() );
+			recycled.addAll( edgesToRecycle );
+			recycled.addAll( verticesToRecycle );
+			trackScheme.cellsUnbound( recycled );
+
+			for ( final mxCell cell : edgesToRecycle )
+			{
+				graph.removeMapping( graph.getEdgeFor( cell ) );
+				model.setTerminal( cell, null, true );
+				model.setTerminal( cell, null, false );
+				model.setVisible( cell, false );
+				edgePool.push( cell );
+			}
+			for ( final mxCell cell : verticesToRecycle )
+			{
+				graph.removeMapping( graph.getSpotFor( cell ) );
+				model.setVisible( cell, false );
+				vertexPool.push( cell );
+			}
+
+			final List< mxCell > newVertices = new ArrayList< >( spots.size() );
+			for ( final Spot spot : spots )
+			{
+				final int index = positions.indexOf( spot );
+				if ( index < 0 )
+					continue;
+				newVertices.add( bindVertex( spot, positions.getRow( index ), positions.getColumn( index ) ) );
+			}
+
+			final List< mxCell > newEdges = new ArrayList< >( edges.size() );
+			final Map< Integer, Set< mxCell > > edgeMap = new HashMap< >();
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				final mxCell cell = bindEdge( edge, trackModel );
+				if ( null == cell )
+					continue;
+				newEdges.add( cell );
+				final Integer trackID = trackModel.trackIDOf( edge );
+				Set< mxCell > set = edgeMap.get( trackID );
+				if ( null == set )
+				{
+					set = new HashSet< >();
+					edgeMap.put( trackID, set );
+				}
+				set.add( cell );
+			}
+
+			// Style new cells.
+			final Set< mxICell > styled = trackScheme.stylist.execute( edgeMap );
+			final List< mxCell > missed = new ArrayList< >( newVertices.size() );
+			for ( final mxCell cell : newVertices )
+			{
+				if ( !styled.contains( cell ) )
+					missed.add( cell );
+			}
+			trackScheme.stylist.updateVertexStyle( missed );
+
+			trackScheme.cellsBound( newVertices, newEdges );
+
+			// Do not keep many more hidden cells than shown cells.
+			trim( vertexPool, graph.getVertexCells().size() );
+			trim( edgePool, graph.getEdgeCells().size() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	/**
+	 * Binds a vertex cell to the specified spot, reusing a hidden cell if
+	 * possible.
+	 */
+	private mxCell bindVertex( final Spot spot, final int row, final int column )
+	{
+		final mxIGraphModel model = graph.getModel();
+		mxCell cell = vertexPool.poll();
+		if ( null == cell )
+		{
+			cell = new mxCell( null, new mxGeometry(), null );
+			cell.setVertex( true );
+			final Object parent = graph.getDefaultParent();
+			model.add( parent, cell, model.getChildCount( parent ) );
+		}
+		else
+		{
+			// Forget the style and thumbnail of the previous spot.
+			model.setStyle( cell, null );
+		}
+		final double x = column * X_COLUMN_SIZE - DEFAULT_CELL_WIDTH / 2;
+		final double y = ( 0.5 + row ) * Y_COLUMN_SIZE - DEFAULT_CELL_HEIGHT / 2;
+		model.setGeometry( cell, new mxGeometry( x, y, DEFAULT_CELL_WIDTH, DEFAULT_CELL_HEIGHT ) );
+		model.setValue( cell, spot.getName() );
+		model.setVisible( cell, true );
+		graph.mapSpotToCell( spot, cell );
+		return cell;
+	}
+
+	/**
+	 * Binds an edge cell to the specified edge, reusing a hidden cell if
+	 * possible. The cells of its spots must exist.
+	 */
+	private mxCell bindEdge( final DefaultWeightedEdge edge, final TrackModel trackModel )
+	{
+		final mxCell source = graph.getCellFor( trackModel.getEdgeSource( edge ) );
+		final mxCell target = graph.getCellFor( trackModel.getEdgeTarget( edge ) );
+		if ( null == source || null == target )
+			return null;
+
+		final mxIGraphModel model = graph.getModel();
+		mxCell cell = edgePool.poll();
+		if ( null == cell )
+		{
+			cell = new mxCell( null, new mxGeometry(), null );
+			cell.setEdge( true );
+			cell.getGeometry().setRelative( true );
+			model.add( graph.getDefaultParent(), cell, 0 );
+		}
+		else
+		{
+			model.setStyle( cell, null );
+		}
+		model.setValue( cell, String.format( "%.1f", trackModel.getEdgeWeight( edge ) ) );
+		model.setTerminal( cell, source, true );
+		model.setTerminal( cell, target, false );
+		model.setVisible( cell, true );
+		graph.mapEdgeToCell( edge, cell );
+		return cell;
+	}
+
+	/**
+	 * Removes hidden cells from the graph model until the pool is not larger
+	 * than the specified size. Removing them from the model, and not from the
+	 * graph, does not fire a cell removal event, so the TrackMate model is not
+	 * affected.
+	 */
+	private void trim( final ArrayDeque< mxCell > pool, final int maxSize )
+	{
+		while ( pool.size() > maxSize )
+			graph.getModel().remove( pool.poll() );
+	}
+}
@@ -28,6 +28,17 @@ public class InterpolatePaintScale implements PaintScale, Serializable
 
 	private final Color defaultColor;
 
+	/**
+	 * Number of colors precomputed in the lookup table.
+	 */
+	private static final int LOOKUP_SIZE = 1024;
+
+	/**
+	 * Lookup table of colors evenly spaced between the lower and upper
+	 * bounds. Built lazily and discarded when a color is added.
+	 */
+	private transient volatile Color[] lookup;
+
 	/*
 	 * INNER CLASSES
 	 */
@@ -171,6 +182,7 @@ public class InterpolatePaintScale implements PaintScale, Serializable
 		if ( value < lowerBound )
 			return;
 		colors.put( value, color );
+		lookup = null;
 	}
 
 	@Override
@@ -183,9 +195,49 @@ public class InterpolatePaintScale implements PaintScale, Serializable
 	 * Return a color interpolated within the color list of this paint scale.
 	 * The interpolation is a linear one between the two colors in the list
 	 * whose associated values frame the one given.
+	 * <p>
+	 * Colors are read from a precomputed lookup table of
+	 * {@value #LOOKUP_SIZE} colors, so that this method is cheap and does not
+	 * create new objects.
 	 */
 	@Override
-	public Color getPaint( double value )
+	public Color getPaint( final double value )
+	{
+		Color[] lut = lookup;
+		if ( null == lut )
+		{
+			lut = buildLookup();
+			lookup = lut;
+		}
+
+		if ( Double.isNaN( value ) )
+			return lut[ lut.length - 1 ];
+		if ( value >= upperBound )
+			return lut[ lut.length - 1 ];
+		if ( value <= lowerBound )
+			return lut[ 0 ];
+		final int index = ( int ) ( ( value - lowerBound ) / ( upperBound - lowerBound ) * ( lut.length - 1 ) + 0.5 );
+		return lut[ index ];
+	}
+
+	/**
+	 * Returns the packed RGB value of the color returned by
+	 * {@link #getPaint(double)} for the specified value.
+	 */
+	public int getRGB( final double value )
+	{
+		return getPaint( value ).getRGB();
+	}
+
+	private synchronized Color[] buildLookup()
+	{
+		final Color[] lut = new Color[ LOOKUP_SIZE ];
+		for ( int i = 0; i < LOOKUP_SIZE; i++ )
+			lut[ i ] = interpolate( lowerBound + ( upperBound - lowerBound ) * i / ( LOOKUP_SIZE - 1 ) );
+		return lut;
+	}
+
+	private Color interpolate( double value )
 	{
 		if ( colors.isEmpty() )
 			return defaultColor;
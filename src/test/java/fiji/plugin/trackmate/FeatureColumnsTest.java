@@ -0,0 +1,63 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FeatureColumnsTest
+{
+
+	private static final String F1 = "F1";
+
+	private static final String F2 = "F2";
+
+	@Test
+	public void testMissingAndNaNValues()
+	{
+		final FeatureColumns< String > fc = new FeatureColumns<>();
+		assertNull( fc.get( "a", F1 ) );
+		assertEquals( -1, fc.index( "a" ) );
+
+		fc.put( "a", F1, Double.valueOf( Double.NaN ) );
+		fc.put( "b", F2, Double.valueOf( 2. ) );
+		assertTrue( Double.isNaN( fc.get( "a", F1 ).doubleValue() ) );
+		assertNull( fc.get( "a", F2 ) );
+		assertNull( fc.get( "b", F1 ) );
+		assertEquals( 2., fc.get( "b", F2 ).doubleValue(), 0. );
+
+		final FeatureColumns.Column column = fc.column( F2 );
+		assertFalse( column.isSet( fc.index( "a" ) ) );
+		assertTrue( Double.isNaN( column.get( fc.index( "a" ) ) ) );
+	}
+
+	@Test
+	public void testGrowthAndBulkPut()
+	{
+		final int n = 1000;
+		final FeatureColumns< Integer > fc = new FeatureColumns<>();
+		final Integer[] keys = new Integer[ n ];
+		final double[][] values = new double[ 2 ][ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			keys[ i ] = Integer.valueOf( i );
+			values[ 0 ][ i ] = i;
+			values[ 1 ][ i ] = -i;
+		}
+		final List< String > features = Arrays.asList( F1, F2 );
+		fc.put( keys, n, features, values );
+		assertEquals( n, fc.size() );
+
+		final double[] out = new double[ n ];
+		fc.get( keys, n, F2, out );
+		assertArrayEquals( values[ 1 ], out, 0. );
+		for ( int i = 0; i < n; i++ )
+			assertEquals( i, fc.column( F1 ).get( fc.index( keys[ i ] ) ), 0. );
+	}
+}
@@ -0,0 +1,188 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.localextrema.LocalExtrema;
+import net.imglib2.algorithm.localextrema.LocalExtrema.LocalNeighborhoodCheck;
+import net.imglib2.algorithm.localextrema.RefinedPeak;
+import net.imglib2.algorithm.localextrema.SubpixelLocalization;
+import net.imglib2.algorithm.neighborhood.RectangleShape;
+import net.imglib2.img.array.ArrayCursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+public class FindLocalMaximaTest
+{
+
+	private static final double SIGMA = 2.;
+
+	private static final double THRESHOLD = 1.;
+
+	/** Tolerance on positions compared to the imglib2 localization, in pixels. */
+	private static final double TOLERANCE = 1e-3;
+
+	/** The last blob of each set has its maximum on the image border. */
+	private static final double[][] CENTERS_2D = new double[][] {
+			{ 12.3, 15.7 },
+			{ 40.5, 20.2 },
+			{ 25.8, 45.4 },
+			{ 0.3, 33.6 } };
+
+	private static final double[][] CENTERS_3D = new double[][] {
+			{ 10.4, 12.7, 8.2 },
+			{ 30.6, 20.3, 12.8 },
+			{ 18.2, 30.9, 0.2 } };
+
+	@Test
+	public void testSameAsSubpixelLocalization2D()
+	{
+		testSameAsSubpixelLocalization( createBlobs( new long[] { 56, 60 }, CENTERS_2D ), CENTERS_2D, new double[] { 0.5, 0.5 } );
+	}
+
+	@Test
+	public void testSameAsSubpixelLocalization3D()
+	{
+		testSameAsSubpixelLocalization( createBlobs( new long[] { 40, 40, 20 }, CENTERS_3D ), CENTERS_3D, new double[] { 0.5, 0.5, 2. } );
+	}
+
+	private static void testSameAsSubpixelLocalization( final ArrayImg< FloatType, FloatArray > img, final double[][] centers, final double[] calibration )
+	{
+		final int n = img.numDimensions();
+		final List< Spot > spots = DetectionUtils.findLocalMaxima( img, THRESHOLD, calibration, 1., true, 2 );
+		final List< RefinedPeak< Point > > expected = subpixelLocalization( img );
+		assertEquals( centers.length, expected.size() );
+		assertEquals( expected.size(), spots.size() );
+
+		final RandomAccess< FloatType > ra = img.randomAccess();
+		for ( final RefinedPeak< Point > peak : expected )
+		{
+			// Closest spot.
+			Spot closest = null;
+			double minDist = Double.POSITIVE_INFINITY;
+			for ( final Spot spot : spots )
+			{
+				double dist = 0.;
+				for ( int d = 0; d < n; d++ )
+				{
+					final double dx = spot.getDoublePosition( d ) / calibration[ d ] - peak.getDoublePosition( d );
+					dist += dx * dx;
+				}
+				if ( dist < minDist )
+				{
+					minDist = dist;
+					closest = spot;
+				}
+			}
+
+			for ( int d = 0; d < n; d++ )
+				assertEquals( "Position of peak " + peak + " in dimension " + d + ".", peak.getDoublePosition( d ), closest.getDoublePosition( d ) / calibration[ d ], TOLERANCE );
+
+			ra.setPosition( peak.getOriginalPeak() );
+			assertEquals( ra.get().getRealDouble(), closest.getFeature( Spot.QUALITY ).doubleValue(), 0. );
+		}
+
+		// One of the maxima is on the border.
+		boolean onBorder = false;
+		for ( final RefinedPeak< Point > peak : expected )
+			for ( int d = 0; d < n; d++ )
+				onBorder |= peak.getOriginalPeak().getLongPosition( d ) == img.min( d );
+		assertTrue( "Expected a maximum on the image border.", onBorder );
+
+		// Check we are close to the blob centers, but for the border blob.
+		for ( int i = 0; i < centers.length - 1; i++ )
+		{
+			Spot closest = null;
+			double minDist = Double.POSITIVE_INFINITY;
+			for ( final Spot spot : spots )
+			{
+				double dist = 0.;
+				for ( int d = 0; d < n; d++ )
+				{
+					final double dx = spot.getDoublePosition( d ) / calibration[ d ] - centers[ i ][ d ];
+					dist += dx * dx;
+				}
+				if ( dist < minDist )
+				{
+					minDist = dist;
+					closest = spot;
+				}
+			}
+			for ( int d = 0; d < n; d++ )
+				assertEquals( centers[ i ][ d ], closest.getDoublePosition( d ) / calibration[ d ], 0.25 );
+		}
+	}
+
+	/**
+	 * The sub-pixel localization as it was done before, with the imglib2
+	 * {@link SubpixelLocalization}.
+	 */
+	private static List< RefinedPeak< Point > > subpixelLocalization( final ArrayImg< FloatType, FloatArray > source )
+	{
+		final FloatType val = new FloatType();
+		val.setReal( THRESHOLD );
+		final LocalNeighborhoodCheck< Point, FloatType > localNeighborhoodCheck = new LocalExtrema.MaximumCheck< >( val );
+		final IntervalView< FloatType > dogWithBorder = Views.interval( Views.extendMirrorSingle( source ), Intervals.expand( source, 1 ) );
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+		List< Point > peaks;
+		try
+		{
+			peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, new RectangleShape( 1, true ), service, 2 );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		final SubpixelLocalization< Point, FloatType > spl = new SubpixelLocalization<>( source.numDimensions() );
+		spl.setNumThreads( 2 );
+		spl.setReturnInvalidPeaks( true );
+		spl.setCanMoveOutside( true );
+		spl.setAllowMaximaTolerance( true );
+		spl.setMaxNumMoves( 10 );
+		return new ArrayList<>( spl.process( peaks, dogWithBorder, source ) );
+	}
+
+	private static ArrayImg< FloatType, FloatArray > createBlobs( final long[] dims, final double[][] centers )
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( dims );
+		final ArrayCursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double val = 0.;
+			for ( final double[] center : centers )
+			{
+				double r2 = 0.;
+				for ( int d = 0; d < dims.length; d++ )
+				{
+					final double dx = cursor.getDoublePosition( d ) - center[ d ];
+					r2 += dx * dx;
+				}
+				val += 100. * Math.exp( -r2 / 2. / SIGMA / SIGMA );
+			}
+			cursor.get().setReal( val );
+		}
+		return img;
+	}
+}
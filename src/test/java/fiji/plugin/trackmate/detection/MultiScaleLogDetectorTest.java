@@ -0,0 +1,63 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.img.array.ArrayCursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class MultiScaleLogDetectorTest
+{
+
+	private static final double[][] CENTERS = new double[][] { { 32., 40. }, { 100., 40. } };
+
+	private static final double[] SIGMAS = new double[] { 2., 6. };
+
+	@Test
+	public void testTwoSizes()
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( 160, 80 );
+		final ArrayCursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double val = 0.;
+			for ( int i = 0; i < CENTERS.length; i++ )
+			{
+				final double dx = cursor.getDoublePosition( 0 ) - CENTERS[ i ][ 0 ];
+				final double dy = cursor.getDoublePosition( 1 ) - CENTERS[ i ][ 1 ];
+				val += 100. * Math.exp( -( dx * dx + dy * dy ) / 2. / SIGMAS[ i ] / SIGMAS[ i ] );
+			}
+			cursor.get().setReal( val );
+		}
+
+		final MultiScaleLogDetector< FloatType > detector = new MultiScaleLogDetector<>( img, img, new double[] { 1., 1. }, 2., 12., 9, 10., true, false );
+		detector.setNumThreads( 2 );
+		assertTrue( detector.getErrorMessage(), detector.checkInput() );
+		assertTrue( detector.getErrorMessage(), detector.process() );
+
+		final List< Spot > spots = detector.getResult();
+		assertEquals( CENTERS.length, spots.size() );
+		for ( int i = 0; i < CENTERS.length; i++ )
+		{
+			Spot closest = spots.get( 0 );
+			for ( final Spot spot : spots )
+				if ( Math.abs( spot.getDoublePosition( 0 ) - CENTERS[ i ][ 0 ] ) < Math.abs( closest.getDoublePosition( 0 ) - CENTERS[ i ][ 0 ] ) )
+					closest = spot;
+
+			assertEquals( CENTERS[ i ][ 0 ], closest.getDoublePosition( 0 ), 0.5 );
+			assertEquals( CENTERS[ i ][ 1 ], closest.getDoublePosition( 1 ), 0.5 );
+			// For a Gaussian blob, the LoG response peaks at radius sigma * sqrt(2).
+			final double expectedRadius = SIGMAS[ i ] * Math.sqrt( 2. );
+			assertEquals( expectedRadius, closest.getFeature( Spot.RADIUS ), 0.25 * expectedRadius );
+		}
+	}
+}
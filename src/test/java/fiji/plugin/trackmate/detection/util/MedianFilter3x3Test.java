@@ -0,0 +1,100 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class MedianFilter3x3Test
+{
+
+	private static float[] random( final int size, final long seed )
+	{
+		final Random ran = new Random( seed );
+		final float[] data = new float[ size ];
+		for ( int i = 0; i < size; i++ )
+			// Few distinct values, to have ties.
+			data[ i ] = ran.nextInt( 8 );
+		return data;
+	}
+
+	private static void testSameAsMedianFilter2D( final long... dims )
+	{
+		int size = 1;
+		for ( final long d : dims )
+			size *= d;
+		final float[] data = random( size, 1l );
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( data.clone(), dims );
+
+		final MedianFilter2D< FloatType > reference = new MedianFilter2D<>( img, 1 );
+		assertTrue( reference.checkInput() );
+		assertTrue( reference.process() );
+		final Img< FloatType > expected = reference.getResult();
+
+		final float[] target = new float[ size ];
+		MedianFilter3x3.filter( data, target, dims, false, 3 );
+
+		final Cursor< FloatType > cursor = Views.flatIterable( expected ).cursor();
+		for ( int i = 0; cursor.hasNext(); i++ )
+			assertEquals( "At index " + i, cursor.next().get(), target[ i ], 0f );
+	}
+
+	@Test
+	public void test1D()
+	{
+		testSameAsMedianFilter2D( 37 );
+	}
+
+	@Test
+	public void test2D()
+	{
+		testSameAsMedianFilter2D( 57, 43 );
+	}
+
+	@Test
+	public void test3DPlaneByPlane()
+	{
+		testSameAsMedianFilter2D( 23, 19, 7 );
+	}
+
+	@Test
+	public void test3x3x3()
+	{
+		final int w = 13, h = 11, d = 9;
+		final float[] data = random( w * h * d, 2l );
+		final float[] target = new float[ data.length ];
+		MedianFilter3x3.filter( data, target, new long[] { w, h, d }, true, 2 );
+
+		final float[] expected = new float[ data.length ];
+		final float[] values = new float[ 27 ];
+		for ( int z = 0; z < d; z++ )
+			for ( int y = 0; y < h; y++ )
+				for ( int x = 0; x < w; x++ )
+				{
+					int n = 0;
+					for ( int dz = -1; dz <= 1; dz++ )
+						for ( int dy = -1; dy <= 1; dy++ )
+							for ( int dx = -1; dx <= 1; dx++ )
+							{
+								final int xx = x + dx, yy = y + dy, zz = z + dz;
+								final boolean inside = xx >= 0 && xx < w && yy >= 0 && yy < h && zz >= 0 && zz < d;
+								values[ n++ ] = inside ? data[ ( zz * h + yy ) * w + xx ] : 0f;
+							}
+					Arrays.sort( values );
+					expected[ ( z * h + y ) * w + x ] = values[ 13 ];
+				}
+		assertArrayEquals( expected, target, 0f );
+	}
+}
@@ -0,0 +1,121 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeChunk;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeVelocityAnalyzer;
+
+public class EdgeFeatureCalculatorTest
+{
+
+	/** Enough tracks for the edges to span several chunks. */
+	private static final int N_TRACKS = 50;
+
+	private static final int DEPTH = 40;
+
+	private Model model;
+
+	@Before
+	public void setUp()
+	{
+		final Random ran = new Random( 3l );
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j <= DEPTH; j++ )
+				{
+					// Leave a gap in every other track.
+					if ( i % 2 == 0 && j == DEPTH / 2 )
+						continue;
+
+					final Spot spot = new Spot( 100. * ran.nextDouble(), 100. * ran.nextDouble(), 10. * ran.nextDouble(), 1., ran.nextDouble() );
+					spot.putFeature( Spot.POSITION_T, Double.valueOf( 0.5 * j ) );
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+						model.addEdge( previous, spot, 100. * ran.nextDouble() );
+
+					// A short branch after a split.
+					if ( j == DEPTH / 4 )
+					{
+						final Spot branch = new Spot( 100. * ran.nextDouble(), 100. * ran.nextDouble(), 10. * ran.nextDouble(), 1., ran.nextDouble() );
+						branch.putFeature( Spot.POSITION_T, Double.valueOf( 0.5 * ( j + 1 ) ) );
+						model.addSpotTo( branch, j + 1 );
+						model.addEdge( spot, branch, 100. * ran.nextDouble() );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	@Test
+	public void testSameAsPerEdgeBaseline()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		assertTrue( "The edges should span several chunks.", trackModel.edgeSet().size() > EdgeChunk.CHUNK_SIZE );
+
+		final Settings settings = new Settings();
+		settings.addEdgeAnalyzer( new EdgeTargetAnalyzer() );
+		settings.addEdgeAnalyzer( new EdgeVelocityAnalyzer() );
+		settings.addEdgeAnalyzer( new EdgeTimeLocationAnalyzer() );
+
+		final EdgeFeatureCalculator calculator = new EdgeFeatureCalculator( model, settings );
+		calculator.setNumThreads( 4 );
+		assertTrue( calculator.getErrorMessage(), calculator.checkInput() );
+		assertTrue( calculator.getErrorMessage(), calculator.process() );
+
+		final FeatureModel fm = model.getFeatureModel();
+		for ( final DefaultWeightedEdge edge : trackModel.edgeSet() )
+		{
+			final Spot source = trackModel.getEdgeSource( edge );
+			final Spot target = trackModel.getEdgeTarget( edge );
+
+			// Edge target.
+			assertEquals( source.ID(), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID ).doubleValue(), 0. );
+			assertEquals( target.ID(), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID ).doubleValue(), 0. );
+			assertEquals( trackModel.getEdgeWeight( edge ), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST ).doubleValue(), 0. );
+
+			// Edge velocity.
+			final double dx = target.diffTo( source, Spot.POSITION_X );
+			final double dy = target.diffTo( source, Spot.POSITION_Y );
+			final double dz = target.diffTo( source, Spot.POSITION_Z );
+			final double dt = target.diffTo( source, Spot.POSITION_T );
+			final double D = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			final double V = D / Math.abs( dt );
+			assertEquals( V, fm.getEdgeFeature( edge, EdgeVelocityAnalyzer.VELOCITY ).doubleValue(), 1e-12 * V );
+			assertEquals( D, fm.getEdgeFeature( edge, EdgeVelocityAnalyzer.DISPLACEMENT ).doubleValue(), 1e-12 * D );
+
+			// Edge time and location.
+			assertEquals( 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) ),
+					fm.getEdgeFeature( edge, EdgeTimeLocationAnalyzer.TIME ).doubleValue(), 1e-12 );
+			assertEquals( 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) ),
+					fm.getEdgeFeature( edge, EdgeTimeLocationAnalyzer.X_LOCATION ).doubleValue(), 1e-12 );
+			assertEquals( 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) ),
+					fm.getEdgeFeature( edge, EdgeTimeLocationAnalyzer.Y_LOCATION ).doubleValue(), 1e-12 );
+			assertEquals( 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) ),
+					fm.getEdgeFeature( edge, EdgeTimeLocationAnalyzer.Z_LOCATION ).doubleValue(), 1e-12 );
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackBranchingAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackLocationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpotQualityFeatureAnalyzer;
+import net.imglib2.util.Util;
+
+public class TrackFeatureCalculatorTest
+{
+
+	private static final int N_TRACKS = 20;
+
+	private static final int DEPTH = 15;
+
+	private Model model;
+
+	private List< TrackAnalyzer > analyzers;
+
+	@Before
+	public void setUp()
+	{
+		analyzers = new ArrayList<>();
+		analyzers.add( new TrackIndexAnalyzer() );
+		analyzers.add( new TrackDurationAnalyzer() );
+		analyzers.add( new TrackBranchingAnalyzer() );
+		analyzers.add( new TrackSpeedStatisticsAnalyzer() );
+		analyzers.add( new TrackLocationAnalyzer() );
+		analyzers.add( new TrackSpotQualityFeatureAnalyzer() );
+
+		/*
+		 * Tracks with a split, a merge and a gap.
+		 */
+
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				Spot branchEnd = null;
+				for ( int j = 0; j <= DEPTH; j++ )
+				{
+					if ( j == 7 )
+						continue; // gap
+
+					final Spot spot = createSpot( i + j, 2 * i + j * j, i * j, j );
+					if ( null != previous )
+						model.addEdge( previous, spot, 1. );
+
+					if ( j == 3 )
+					{
+						// Branch that splits here and merges back 3 frames later.
+						final Spot b1 = createSpot( i + j + 1, 2 * i, 1., j + 1 );
+						model.addEdge( spot, b1, 1. );
+						branchEnd = createSpot( i + j + 2, 2 * i, 2., j + 2 );
+						model.addEdge( b1, branchEnd, 1. );
+					}
+					if ( j == 6 )
+						model.addEdge( branchEnd, spot, 1. );
+
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	@Test
+	public void testSameAsPreviousAnalyzers()
+	{
+		final Map< String, Map< Integer, Double > > expected = previousAnalyzers( model.getTrackModel().trackIDs( false ) );
+
+		final Settings settings = new Settings();
+		for ( final TrackAnalyzer analyzer : analyzers )
+			settings.addTrackAnalyzer( analyzer );
+		final TrackFeatureCalculator calculator = new TrackFeatureCalculator( model, settings );
+		calculator.setNumThreads( 3 );
+		calculator.computeTrackFeatures( model.getTrackModel().trackIDs( false ), false );
+
+		final Map< String, Map< Integer, Double > > actual = collect();
+		assertEquals( expected.keySet(), actual.keySet() );
+		for ( final String feature : expected.keySet() )
+		{
+			for ( final Integer trackID : expected.get( feature ).keySet() )
+			{
+				final Double value = actual.get( feature ).get( trackID );
+				assertNotNull( "Missing value for feature " + feature + " of track " + trackID, value );
+				assertEquals( "Unexpected value for feature " + feature + " of track " + trackID,
+						expected.get( feature ).get( trackID ).doubleValue(), value.doubleValue(), 1e-9 );
+			}
+		}
+	}
+
+	@Test
+	public void testBranching()
+	{
+		final Settings settings = new Settings();
+		for ( final TrackAnalyzer analyzer : analyzers )
+			settings.addTrackAnalyzer( analyzer );
+		final TrackFeatureCalculator calculator = new TrackFeatureCalculator( model, settings );
+		calculator.computeTrackFeatures( model.getTrackModel().trackIDs( false ), false );
+
+		assertEquals( N_TRACKS, model.getTrackModel().nTracks( false ) );
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			assertEquals( 1, model.getFeatureModel().getTrackFeature( trackID, TrackBranchingAnalyzer.NUMBER_SPLITS ).intValue() );
+			assertEquals( 1, model.getFeatureModel().getTrackFeature( trackID, TrackBranchingAnalyzer.NUMBER_MERGES ).intValue() );
+			assertEquals( 1, model.getFeatureModel().getTrackFeature( trackID, TrackBranchingAnalyzer.NUMBER_GAPS ).intValue() );
+			assertEquals( 1, model.getFeatureModel().getTrackFeature( trackID, TrackBranchingAnalyzer.LONGEST_GAP ).intValue() );
+			assertEquals( DEPTH + 2, model.getFeatureModel().getTrackFeature( trackID, TrackBranchingAnalyzer.NUMBER_SPOTS ).intValue() );
+		}
+	}
+
+	private Spot createSpot( final double x, final double y, final double quality, final int frame )
+	{
+		final Spot spot = new Spot( x, y, 0., 1., quality );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		model.addSpotTo( spot, frame );
+		return spot;
+	}
+
+	/**
+	 * The track features as they were computed before, each analyzer walking
+	 * the track model on its own.
+	 */
+	private Map< String, Map< Integer, Double > > previousAnalyzers( final Collection< Integer > trackIDs )
+	{
+		final TrackModel tm = model.getTrackModel();
+		final Map< String, Map< Integer, Double > > values = new HashMap<>();
+		int index = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			// TrackIndexAnalyzer.
+			put( values, TrackIndexAnalyzer.TRACK_INDEX, trackID, index++ );
+			put( values, TrackIndexAnalyzer.TRACK_ID, trackID, trackID.doubleValue() );
+
+			// TrackDurationAnalyzer.
+			final Set< Spot > spots = tm.trackSpots( trackID );
+			double minT = Double.POSITIVE_INFINITY;
+			double maxT = Double.NEGATIVE_INFINITY;
+			Spot startSpot = null;
+			Spot endSpot = null;
+			for ( final Spot spot : spots )
+			{
+				final double t = spot.getFeature( Spot.POSITION_T );
+				if ( t < minT )
+				{
+					minT = t;
+					startSpot = spot;
+				}
+				if ( t > maxT )
+				{
+					maxT = t;
+					endSpot = spot;
+				}
+			}
+			put( values, TrackDurationAnalyzer.TRACK_DURATION, trackID, maxT - minT );
+			put( values, TrackDurationAnalyzer.TRACK_START, trackID, minT );
+			put( values, TrackDurationAnalyzer.TRACK_STOP, trackID, maxT );
+			put( values, TrackDurationAnalyzer.TRACK_DISPLACEMENT, trackID, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+
+			// TrackBranchingAnalyzer.
+			int nmerges = 0;
+			int nsplits = 0;
+			int ncomplex = 0;
+			for ( final Spot spot : spots )
+			{
+				final Set< Spot > neighbors = new HashSet<>();
+				for ( final DefaultWeightedEdge edge : tm.edgesOf( spot ) )
+				{
+					neighbors.add( tm.getEdgeSource( edge ) );
+					neighbors.add( tm.getEdgeTarget( edge ) );
+				}
+				neighbors.remove( spot );
+
+				int earlier = 0;
+				int later = 0;
+				for ( final Spot neighbor : neighbors )
+				{
+					if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
+						earlier++;
+					else
+						later++;
+				}
+				if ( earlier == 1 && later == 1 )
+					continue;
+
+				if ( earlier <= 1 && later > 1 )
+					nsplits++;
+				else if ( later <= 1 && earlier > 1 )
+					nmerges++;
+				else if ( later > 1 && earlier > 1 )
+					ncomplex++;
+			}
+			int ngaps = 0;
+			int longestgap = 0;
+			final Set< DefaultWeightedEdge > edges = tm.trackEdges( trackID );
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				final int gaplength = ( int ) Math.abs( tm.getEdgeTarget( edge ).diffTo( tm.getEdgeSource( edge ), Spot.FRAME ) ) - 1;
+				if ( gaplength > 0 )
+				{
+					ngaps++;
+					longestgap = Math.max( longestgap, gaplength );
+				}
+			}
+			put( values, TrackBranchingAnalyzer.NUMBER_GAPS, trackID, ngaps );
+			put( values, TrackBranchingAnalyzer.LONGEST_GAP, trackID, longestgap );
+			put( values, TrackBranchingAnalyzer.NUMBER_SPLITS, trackID, nsplits );
+			put( values, TrackBranchingAnalyzer.NUMBER_MERGES, trackID, nmerges );
+			put( values, TrackBranchingAnalyzer.NUMBER_COMPLEX, trackID, ncomplex );
+			put( values, TrackBranchingAnalyzer.NUMBER_SPOTS, trackID, spots.size() );
+
+			// TrackSpeedStatisticsAnalyzer.
+			final double[] velocities = new double[ edges.size() ];
+			double sum = 0.;
+			double mean = 0.;
+			double M2 = 0.;
+			int n = 0;
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				final Spot source = tm.getEdgeSource( edge );
+				final Spot target = tm.getEdgeTarget( edge );
+				final double val = Math.sqrt( source.squareDistanceTo( target ) ) / Math.abs( source.diffTo( target, Spot.POSITION_T ) );
+				velocities[ n ] = val;
+				sum += val;
+				final int n1 = n;
+				n++;
+				final double delta = val - mean;
+				final double deltaN = delta / n;
+				mean = mean + deltaN;
+				M2 = M2 + delta * deltaN * n1;
+			}
+			Util.quicksort( velocities, 0, edges.size() - 1 );
+			put( values, TrackSpeedStatisticsAnalyzer.TRACK_MEDIAN_SPEED, trackID, velocities[ edges.size() / 2 ] );
+			put( values, TrackSpeedStatisticsAnalyzer.TRACK_MIN_SPEED, trackID, velocities[ 0 ] );
+			put( values, TrackSpeedStatisticsAnalyzer.TRACK_MAX_SPEED, trackID, velocities[ edges.size() - 1 ] );
+			put( values, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED, trackID, sum / edges.size() );
+			put( values, TrackSpeedStatisticsAnalyzer.TRACK_STD_SPEED, trackID, Math.sqrt( M2 / ( edges.size() - 1 ) ) );
+
+			// TrackLocationAnalyzer.
+			double x = 0.;
+			double y = 0.;
+			double z = 0.;
+			for ( final Spot spot : spots )
+			{
+				x += spot.getFeature( Spot.POSITION_X );
+				y += spot.getFeature( Spot.POSITION_Y );
+				z += spot.getFeature( Spot.POSITION_Z );
+			}
+			put( values, TrackLocationAnalyzer.X_LOCATION, trackID, x / spots.size() );
+			put( values, TrackLocationAnalyzer.Y_LOCATION, trackID, y / spots.size() );
+			put( values, TrackLocationAnalyzer.Z_LOCATION, trackID, z / spots.size() );
+
+			// TrackSpotQualityFeatureAnalyzer.
+			final double[] qualities = new double[ spots.size() ];
+			double qsum = 0.;
+			double qsum2 = 0.;
+			int k = 0;
+			for ( final Spot spot : spots )
+			{
+				final double val = spot.getFeature( Spot.QUALITY );
+				qualities[ k++ ] = val;
+				qsum += val;
+				qsum2 += val * val;
+			}
+			Util.quicksort( qualities, 0, spots.size() - 1 );
+			final double qmean = qsum / spots.size();
+			put( values, TrackSpotQualityFeatureAnalyzer.TRACK_MEDIAN_QUALITY, trackID, qualities[ spots.size() / 2 ] );
+			put( values, TrackSpotQualityFeatureAnalyzer.TRACK_MIN_QUALITY, trackID, qualities[ 0 ] );
+			put( values, TrackSpotQualityFeatureAnalyzer.TRACK_MAX_QUALITY, trackID, qualities[ spots.size() - 1 ] );
+			put( values, TrackSpotQualityFeatureAnalyzer.TRACK_MEAN_QUALITY, trackID, qmean );
+			put( values, TrackSpotQualityFeatureAnalyzer.TRACK_STD_QUALITY, trackID, Math.sqrt( qsum2 / spots.size() - qmean * qmean ) );
+		}
+		return values;
+	}
+
+	private static void put( final Map< String, Map< Integer, Double > > values, final String feature, final Integer trackID, final double value )
+	{
+		Map< Integer, Double > map = values.get( feature );
+		if ( null == map )
+		{
+			map = new HashMap<>();
+			values.put( feature, map );
+		}
+		map.put( trackID, Double.valueOf( value ) );
+	}
+
+	private Map< String, Map< Integer, Double > > collect()
+	{
+		final Map< String, Map< Integer, Double > > values = new HashMap<>();
+		for ( final TrackAnalyzer analyzer : analyzers )
+		{
+			for ( final String feature : analyzer.getFeatures() )
+			{
+				final Map< Integer, Double > map = new HashMap<>();
+				for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+					map.put( trackID, model.getFeatureModel().getTrackFeature( trackID, feature ) );
+				values.put( feature, map );
+			}
+		}
+		return values;
+	}
+}
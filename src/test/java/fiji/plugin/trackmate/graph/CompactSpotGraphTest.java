@@ -0,0 +1,164 @@
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class CompactSpotGraphTest
+{
+
+	private static Spot spot( final int frame )
+	{
+		final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+		return spot;
+	}
+
+	@Test
+	public void testTimeDirectedEdges()
+	{
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		final Spot s0 = spot( 0 );
+		final Spot s1 = spot( 1 );
+		final Spot s2 = spot( 2 );
+		graph.addVertex( s0 );
+		graph.addVertex( s1 );
+		graph.addVertex( s2 );
+
+		final DefaultWeightedEdge e01 = graph.addEdge( s0, s1 );
+		// Added backward in time.
+		final DefaultWeightedEdge e21 = graph.addEdge( s2, s1 );
+		graph.setEdgeWeight( e21, 2. );
+
+		assertNull( graph.addEdge( s1, s0 ) );
+		assertSame( e01, graph.getEdge( s1, s0 ) );
+		assertSame( s2, graph.getEdgeSource( e21 ) );
+		assertSame( s1, graph.getEdgeTarget( e21 ) );
+		assertEquals( 2., graph.getEdgeWeight( e21 ), 0. );
+
+		assertEquals( 2, graph.degreeOf( s1 ) );
+		assertTrue( graph.successorEdgesOf( s1 ).contains( e21 ) );
+		assertTrue( graph.predecessorEdgesOf( s1 ).contains( e01 ) );
+		assertEquals( 1, graph.successorEdgesOf( s1 ).size() );
+
+		assertTrue( graph.removeVertex( s1 ) );
+		assertEquals( 0, graph.edgeSet().size() );
+		assertFalse( graph.containsEdge( e01 ) );
+		assertEquals( 2, graph.vertexSet().size() );
+		assertEquals( 0, graph.degreeOf( s0 ) );
+	}
+
+	@Test
+	public void testEdgeToString()
+	{
+		final Spot s0 = spot( 0 );
+		final Spot s1 = spot( 1 );
+		final Spot s2 = spot( 2 );
+
+		// Same labels as the edges of the default JGraphT graph.
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > reference = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		for ( final Spot spot : new Spot[] { s0, s1, s2 } )
+		{
+			reference.addVertex( spot );
+			graph.addVertex( spot );
+		}
+		final DefaultWeightedEdge e01 = graph.addEdge( s0, s1 );
+		// Added backward in time.
+		final DefaultWeightedEdge e21 = graph.addEdge( s2, s1 );
+		assertEquals( reference.addEdge( s0, s1 ).toString(), e01.toString() );
+		assertEquals( reference.addEdge( s2, s1 ).toString(), e21.toString() );
+		assertEquals( "(" + s2 + " : " + s1 + ")", e21.toString() );
+
+		// Edges of a model.
+		final Model model = new Model( true );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( s0, 0 );
+			model.addSpotTo( s1, 1 );
+			final DefaultWeightedEdge edge = model.addEdge( s0, s1, 1. );
+			assertEquals( "(" + s0 + " : " + s1 + ")", edge.toString() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	@Test
+	public void testManySpots()
+	{
+		final int n = 10000;
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		final List< Spot > spots = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final Spot spot = spot( i );
+			spots.add( spot );
+			graph.addVertex( spot );
+			if ( i > 0 )
+				graph.addEdge( spots.get( i - 1 ), spot );
+		}
+		assertEquals( n, graph.vertexSet().size() );
+		assertEquals( n - 1, graph.edgeSet().size() );
+
+		// Remove every other spot, then add them back.
+		for ( int i = 0; i < n; i += 2 )
+			graph.removeVertex( spots.get( i ) );
+		assertEquals( n / 2, graph.vertexSet().size() );
+		assertEquals( 0, graph.edgeSet().size() );
+		for ( int i = 1; i < n; i += 2 )
+			assertTrue( graph.containsVertex( spots.get( i ) ) );
+		for ( int i = 0; i < n; i += 2 )
+			assertTrue( graph.addVertex( spots.get( i ) ) );
+		for ( int i = 1; i < n; i++ )
+			graph.addEdge( spots.get( i - 1 ), spots.get( i ) );
+		assertEquals( n, graph.vertexSet().size() );
+		assertEquals( n - 1, graph.edgeSet().size() );
+	}
+
+	@Test
+	public void testTrackModel()
+	{
+		final Model model = new Model( true );
+		model.beginUpdate();
+		try
+		{
+			for ( int t = 0; t < 3; t++ )
+			{
+				Spot previous = null;
+				for ( int i = 0; i < 5; i++ )
+				{
+					final Spot spot = spot( i );
+					model.addSpotTo( spot, i );
+					if ( null != previous )
+						model.addEdge( previous, spot, 1. );
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertEquals( 3, model.getTrackModel().nTracks( false ) );
+		for ( final Integer id : model.getTrackModel().trackIDs( false ) )
+		{
+			assertEquals( 5, model.getTrackModel().trackSpots( id ).size() );
+			assertEquals( 4, model.getTrackModel().trackEdges( id ).size() );
+		}
+	}
+}
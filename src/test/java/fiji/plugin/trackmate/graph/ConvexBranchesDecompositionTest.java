@@ -1,15 +1,23 @@
 package fiji.plugin.trackmate.graph;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
 import fiji.plugin.trackmate.tracking.TrackerKeys;
 import fiji.plugin.trackmate.tracking.oldlap.FastLAPTracker;
 import fiji.plugin.trackmate.tracking.oldlap.FastLAPTrackerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -17,7 +25,9 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
+import org.jgrapht.alg.connectivity.ConnectivityInspector;
 import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleGraph;
 import org.jgrapht.graph.SimpleWeightedGraph;
 import org.junit.Before;
 import org.junit.Test;
@@ -96,6 +106,290 @@ public class ConvexBranchesDecompositionTest
 		testForbidMiddleLinks();
 	}
 
+	@Test
+	public void testSameAsPreviousDecomposition()
+	{
+		final Model lModel = createBranchingModel();
+		final TrackModel tm = lModel.getTrackModel();
+		final TimeDirectedNeighbors neighborIndex = tm.getDirectedNeighborSnapshot();
+
+		for ( final boolean forbidMiddleLinks : new boolean[] { false, true } )
+		{
+			for ( final boolean forbidGaps : new boolean[] { false, true } )
+			{
+				final ConvexBranchesDecomposition decomposition = new ConvexBranchesDecomposition( lModel, forbidMiddleLinks, forbidGaps );
+				decomposition.setNumThreads( 4 );
+				// Links within a frame are rejected by checkInput(), but are
+				// still handled by the decomposition.
+				assertFalse( decomposition.checkInput() );
+				if ( !decomposition.process() )
+				{
+					fail( decomposition.getErrorMessage() );
+				}
+
+				final Set< List< Spot > > expectedBranches = new HashSet<>();
+				final Set< List< Spot > > expectedLinks = new HashSet<>();
+				for ( final Integer trackID : tm.trackIDs( true ) )
+				{
+					final TrackBranchDecomposition expected = previousProcessTrack( trackID, tm, neighborIndex, forbidMiddleLinks, forbidGaps );
+					expectedBranches.addAll( sorted( expected.branches ) );
+					// The previous decomposition stored gap links as edges
+					// were added.
+					for ( final List< Spot > link : expected.links )
+						expectedLinks.add( earlierFirst( link ) );
+
+					assertEquals( sorted( expected.branches ), sorted( decomposition.getBranchesPerTrack().get( trackID ) ) );
+				}
+
+				final String msg = "forbidMiddleLinks = " + forbidMiddleLinks + ", forbidGaps = " + forbidGaps;
+				assertEquals( msg, expectedBranches.size(), decomposition.getBranches().size() );
+				assertEquals( msg, expectedBranches, sorted( decomposition.getBranches() ) );
+				assertEquals( msg, expectedLinks.size(), decomposition.getLinks().size() );
+				assertEquals( msg, expectedLinks, new HashSet<>( decomposition.getLinks() ) );
+
+				// All links go from the earlier spot to the later one.
+				for ( final List< Spot > link : decomposition.getLinks() )
+					assertTrue( msg + ", link " + link, link.get( 1 ).diffTo( link.get( 0 ), Spot.FRAME ) > 0 );
+			}
+		}
+	}
+
+	/**
+	 * Builds random tracks with splits, merges, gaps, edges added backward in
+	 * time, and edges between two spots of the same frame.
+	 */
+	private static Model createBranchingModel()
+	{
+		final Random ran = new Random( 17l );
+		final Model lModel = new Model();
+		lModel.beginUpdate();
+		try
+		{
+			for ( int track = 0; track < 30; track++ )
+			{
+				final List< List< Spot > > heads = new ArrayList<>();
+				for ( int t = 0; t < N_TP + 2; t++ )
+					heads.add( new ArrayList< Spot >() );
+				final Spot first = new Spot( 0d, 0d, 0d, 1d, -1d );
+				lModel.addSpotTo( first, Integer.valueOf( 0 ) );
+				heads.get( 0 ).add( first );
+
+				for ( int t = 0; t < N_TP; t++ )
+				{
+					for ( final Spot spot : heads.get( t ) )
+					{
+						final double r = ran.nextDouble();
+						final int nChildren = ( r < 0.1 ) ? 0 : ( r < 0.3 ) ? 2 : 1;
+						final int dt = ( ran.nextDouble() < 0.2 ) ? 2 : 1;
+						for ( int c = 0; c < nChildren; c++ )
+						{
+							final List< Spot > later = heads.get( t + dt );
+							final Spot child;
+							if ( !later.isEmpty() && ran.nextDouble() < 0.2 )
+							{
+								// Merge.
+								child = later.get( ran.nextInt( later.size() ) );
+								if ( null != lModel.getTrackModel().getEdge( spot, child ) )
+									continue;
+							}
+							else
+							{
+								child = new Spot( ran.nextDouble(), ran.nextDouble(), 0d, 1d, -1d );
+								lModel.addSpotTo( child, Integer.valueOf( t + dt ) );
+								later.add( child );
+							}
+							if ( ran.nextBoolean() )
+								lModel.addEdge( spot, child, 1d );
+							else
+								lModel.addEdge( child, spot, 1d );
+						}
+					}
+				}
+
+				// Links within a frame.
+				for ( final List< Spot > frameSpots : heads )
+				{
+					if ( frameSpots.size() < 2 || ran.nextDouble() > 0.3 )
+						continue;
+					final Spot source = frameSpots.get( 0 );
+					final Spot target = frameSpots.get( 1 );
+					if ( null == lModel.getTrackModel().getEdge( source, target ) )
+						lModel.addEdge( source, target, 1d );
+				}
+			}
+		}
+		finally
+		{
+			lModel.endUpdate();
+		}
+		return lModel;
+	}
+
+	/**
+	 * Spots of the same frame may come in any order in a branch. Sorts them by
+	 * ID so that branches can be compared.
+	 */
+	private static Set< List< Spot > > sorted( final Collection< List< Spot > > branches )
+	{
+		final Comparator< Spot > comparator = new Comparator< Spot >()
+		{
+			@Override
+			public int compare( final Spot o1, final Spot o2 )
+			{
+				final int c = Spot.frameComparator.compare( o1, o2 );
+				return ( c != 0 ) ? c : Integer.compare( o1.ID(), o2.ID() );
+			}
+		};
+		final Set< List< Spot > > set = new HashSet<>();
+		for ( final List< Spot > branch : branches )
+		{
+			final List< Spot > copy = new ArrayList<>( branch );
+			Collections.sort( copy, comparator );
+			set.add( copy );
+		}
+		return set;
+	}
+
+	private static List< Spot > earlierFirst( final List< Spot > link )
+	{
+		if ( link.get( 0 ).diffTo( link.get( 1 ), Spot.FRAME ) < 0 )
+			return link;
+		final List< Spot > reversed = new ArrayList<>( link );
+		Collections.reverse( reversed );
+		return reversed;
+	}
+
+	/**
+	 * The decomposition of a track as it was done before tracks were
+	 * decomposed with a union-find: cut links are removed from a copy of the
+	 * track, and branches are its connected components.
+	 */
+	private static TrackBranchDecomposition previousProcessTrack( final Integer trackID, final TrackModel tm, final TimeDirectedNeighbors neighborIndex, final boolean forbidMiddleLinks, final boolean forbidGaps )
+	{
+		final Set< Spot > allSpots = tm.trackSpots( trackID );
+		final SimpleGraph< Spot, DefaultWeightedEdge > graph = new SimpleGraph<>( DefaultWeightedEdge.class );
+		for ( final Spot spot : allSpots )
+			graph.addVertex( spot );
+		for ( final DefaultWeightedEdge edge : tm.trackEdges( trackID ) )
+			graph.addEdge( tm.getEdgeSource( edge ), tm.getEdgeTarget( edge ) );
+
+		final Collection< List< Spot > > links = new HashSet<>();
+		for ( final Spot spot : allSpots )
+		{
+			final Set< Spot > successors = neighborIndex.successorsOf( spot );
+			final Set< Spot > predecessors = neighborIndex.predecessorsOf( spot );
+			if ( predecessors.size() <= 1 && successors.size() <= 1 )
+				continue;
+
+			if ( predecessors.size() == 0 )
+			{
+				cutSuccessors( graph, links, spot, successors, forbidMiddleLinks );
+			}
+			else if ( successors.size() == 0 )
+			{
+				cutPredecessors( graph, links, spot, predecessors, forbidMiddleLinks );
+			}
+			else if ( predecessors.size() == 1 )
+			{
+				final Spot previous = predecessors.iterator().next();
+				if ( previous.diffTo( spot, Spot.FRAME ) < 2 )
+				{
+					cutSuccessors( graph, links, spot, successors, true );
+				}
+				else
+				{
+					cut( graph, links, previous, spot );
+					cutSuccessors( graph, links, spot, successors, forbidMiddleLinks );
+				}
+			}
+			else if ( successors.size() == 1 )
+			{
+				final Spot next = successors.iterator().next();
+				if ( spot.diffTo( next, Spot.FRAME ) < 2 )
+				{
+					cutPredecessors( graph, links, spot, predecessors, true );
+				}
+				else
+				{
+					cut( graph, links, spot, next );
+					cutPredecessors( graph, links, spot, predecessors, forbidMiddleLinks );
+				}
+			}
+			else
+			{
+				cutPredecessors( graph, links, spot, predecessors, forbidMiddleLinks );
+				cutSuccessors( graph, links, spot, successors, forbidMiddleLinks );
+			}
+		}
+
+		if ( forbidGaps )
+		{
+			final Set< DefaultWeightedEdge > toRemove = new HashSet<>();
+			for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+			{
+				final Spot source = graph.getEdgeSource( edge );
+				final Spot target = graph.getEdgeTarget( edge );
+				if ( Math.abs( source.diffTo( target, Spot.FRAME ) ) > 1 )
+				{
+					toRemove.add( edge );
+					links.add( Arrays.asList( source, target ) );
+				}
+			}
+			graph.removeAllEdges( toRemove );
+		}
+
+		final Collection< List< Spot > > branches = new HashSet<>();
+		for ( final Set< Spot > set : new ConnectivityInspector<>( graph ).connectedSets() )
+		{
+			final List< Spot > branch = new ArrayList<>( set );
+			Collections.sort( branch, Spot.frameComparator );
+			branches.add( branch );
+		}
+
+		final TrackBranchDecomposition output = new TrackBranchDecomposition();
+		output.branches = branches;
+		output.links = links;
+		return output;
+	}
+
+	/**
+	 * Cuts the links to the successors of a spot, but the first one in the next
+	 * frame if <code>forbidMiddleLinks</code> is <code>false</code>.
+	 */
+	private static void cutSuccessors( final SimpleGraph< Spot, DefaultWeightedEdge > graph, final Collection< List< Spot > > links, final Spot spot, final Set< Spot > successors, final boolean forbidMiddleLinks )
+	{
+		boolean found = false;
+		for ( final Spot successor : successors )
+		{
+			if ( !forbidMiddleLinks && !found && successor.diffTo( spot, Spot.FRAME ) < 2 )
+				found = true;
+			else
+				cut( graph, links, spot, successor );
+		}
+	}
+
+	/**
+	 * Cuts the links to the predecessors of a spot, but the first one in the
+	 * previous frame if <code>forbidMiddleLinks</code> is <code>false</code>.
+	 */
+	private static void cutPredecessors( final SimpleGraph< Spot, DefaultWeightedEdge > graph, final Collection< List< Spot > > links, final Spot spot, final Set< Spot > predecessors, final boolean forbidMiddleLinks )
+	{
+		boolean found = false;
+		for ( final Spot predecessor : predecessors )
+		{
+			if ( !forbidMiddleLinks && !found && spot.diffTo( predecessor, Spot.FRAME ) < 2 )
+				found = true;
+			else
+				cut( graph, links, predecessor, spot );
+		}
+	}
+
+	private static void cut( final SimpleGraph< Spot, DefaultWeightedEdge > graph, final Collection< List< Spot > > links, final Spot early, final Spot late )
+	{
+		graph.removeEdge( early, late );
+		links.add( Arrays.asList( early, late ) );
+	}
+
 	private void testForbidMiddleLinks()
 	{
 		final Collection< List< Spot >> branches = splitter.getBranches();
@@ -0,0 +1,71 @@
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+public class TimeDirectedNeighborSnapshotTest
+{
+
+	private static final int N_FRAMES = 50;
+
+	@Test
+	public void testSameAsNeighborIndex()
+	{
+		// A branching lineage, plus links within frames and across gaps.
+		final Random ran = new Random( 1l );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			List< Spot > previous = new ArrayList<>();
+			for ( int t = 0; t < N_FRAMES; t++ )
+			{
+				final List< Spot > current = new ArrayList<>();
+				final int n = 1 + ran.nextInt( 2 * ( 1 + previous.size() ) );
+				for ( int i = 0; i < n; i++ )
+				{
+					final Spot spot = new Spot( i, t, 0d, 1d, -1d );
+					model.addSpotTo( spot, Integer.valueOf( t ) );
+					if ( !previous.isEmpty() )
+						model.addEdge( previous.get( ran.nextInt( previous.size() ) ), spot, 1. );
+					if ( i > 0 && ran.nextInt( 5 ) == 0 )
+						model.addEdge( current.get( i - 1 ), spot, 1. );
+					current.add( spot );
+				}
+				previous = current;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel tm = model.getTrackModel();
+		final TimeDirectedNeighborIndex index = tm.getDirectedNeighborIndex();
+		final TimeDirectedNeighborSnapshot snapshot = TimeDirectedNeighborSnapshot.create( tm, 3 );
+		assertEquals( tm.vertexSet().size(), snapshot.size() );
+		for ( final Spot spot : tm.vertexSet() )
+		{
+			assertEquals( new ArrayList<>( index.successorsOf( spot ) ), new ArrayList<>( snapshot.successorsOf( spot ) ) );
+			assertEquals( new ArrayList<>( index.predecessorsOf( spot ) ), new ArrayList<>( snapshot.predecessorsOf( spot ) ) );
+
+			final int i = snapshot.indexOf( spot );
+			assertEquals( index.successorsOf( spot ).size(), snapshot.nSuccessors( i ) );
+			for ( int k = 0; k < snapshot.nPredecessors( i ); k++ )
+			{
+				final Spot predecessor = snapshot.spot( snapshot.predecessor( i, k ) );
+				assertTrue( snapshot.successorsOf( predecessor ).contains( spot ) );
+			}
+		}
+	}
+}
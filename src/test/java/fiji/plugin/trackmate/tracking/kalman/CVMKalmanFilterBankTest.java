@@ -0,0 +1,92 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CVMKalmanFilterBankTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * The primitive filter bank must give the same predictions and errors as
+	 * the matrix-based filter, including through occlusions.
+	 */
+	@Test
+	public void testSameAsMatrixFilter()
+	{
+		final Random ran = new Random( 1l );
+		final double positionProcessStd = 3.;
+		final double velocityProcessStd = 2.;
+		final double positionMeasurementStd = 0.5;
+		final double initStateCovariance = 1e-2;
+
+		final int nFilters = 5;
+		final CVMKalmanFilter[] filters = new CVMKalmanFilter[ nFilters ];
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		final int[] slots = new int[ nFilters ];
+		for ( int i = 0; i < nFilters; i++ )
+		{
+			final double[] X0 = new double[ 6 ];
+			for ( int d = 0; d < 6; d++ )
+				X0[ d ] = 10. * ran.nextGaussian();
+			filters[ i ] = new CVMKalmanFilter( X0, initStateCovariance, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+			slots[ i ] = bank.add( X0, initStateCovariance );
+		}
+
+		for ( int t = 0; t < 20; t++ )
+		{
+			bank.predict( slots, nFilters, 1 );
+			final double[] measurements = new double[ 3 * nFilters ];
+			for ( int i = 0; i < nFilters; i++ )
+			{
+				final double[] expected = filters[ i ].predict();
+				for ( int d = 0; d < 3; d++ )
+				{
+					assertEquals( "Bad prediction for filter " + i + " at time " + t + ".", expected[ d ], bank.getPredictedPosition( slots[ i ], d ), TOLERANCE );
+					measurements[ 3 * i + d ] = expected[ d ] + ran.nextGaussian();
+				}
+			}
+
+			if ( t % 5 == 4 )
+			{
+				// Occlusion.
+				for ( int i = 0; i < nFilters; i++ )
+				{
+					filters[ i ].update( null );
+					bank.occlude( slots[ i ] );
+				}
+			}
+			else
+			{
+				for ( int i = 0; i < nFilters; i++ )
+					filters[ i ].update( new double[] { measurements[ 3 * i ], measurements[ 3 * i + 1 ], measurements[ 3 * i + 2 ] } );
+				bank.update( slots, measurements, nFilters, 1 );
+			}
+
+			for ( int i = 0; i < nFilters; i++ )
+			{
+				assertEquals( "Bad position error for filter " + i + " at time " + t + ".", filters[ i ].getPositionError(), bank.getPositionError( slots[ i ] ), TOLERANCE );
+				assertEquals( "Bad velocity error for filter " + i + " at time " + t + ".", filters[ i ].getVelocityError(), bank.getVelocityError( slots[ i ] ), TOLERANCE );
+				assertEquals( "Bad number of occlusions for filter " + i + " at time " + t + ".", filters[ i ].getNOcclusion(), bank.getNOcclusion( slots[ i ] ) );
+			}
+		}
+	}
+
+	@Test
+	public void testSlotReuse()
+	{
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( 1., 1., 1. );
+		final int a = bank.add( new double[ 6 ], 1. );
+		final int b = bank.add( new double[ 6 ], 1. );
+		bank.remove( a );
+		final int c = bank.add( new double[] { 1., 2., 3., 0., 0., 0. }, 1. );
+		assertEquals( "Slot of removed filter should be reused.", a, c );
+		assertEquals( "Reused slot should not keep occlusions.", 0, bank.getNOcclusion( c ) );
+		bank.predict( new int[] { b, c }, 2, 1 );
+		assertEquals( 2., bank.getPredictedPosition( c, 1 ), TOLERANCE );
+	}
+}
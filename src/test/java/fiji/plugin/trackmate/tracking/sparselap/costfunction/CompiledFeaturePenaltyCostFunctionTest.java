@@ -0,0 +1,119 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class CompiledFeaturePenaltyCostFunctionTest
+{
+
+	private static final String FEATURE_A = "FEATURE_A";
+
+	private static final String FEATURE_B = "FEATURE_B";
+
+	private static List< Spot > createSpots( final Random ran, final int nSpots )
+	{
+		final List< Spot > spots = new ArrayList<>( nSpots );
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final Spot spot = new Spot( 100. * ran.nextDouble(), 100. * ran.nextDouble(), 10. * ran.nextDouble(), 1., ran.nextDouble() );
+			spot.putFeature( FEATURE_A, 1. + 10. * ran.nextDouble() );
+			// Exercise the opposite-values and NaN cases.
+			if ( i % 7 == 0 )
+				spot.putFeature( FEATURE_B, Double.NaN );
+			else if ( i % 5 == 0 )
+				spot.putFeature( FEATURE_B, 0. );
+			else
+				spot.putFeature( FEATURE_B, ran.nextGaussian() );
+			spots.add( spot );
+		}
+		// Two spots at the same position.
+		spots.get( 1 ).putFeature( Spot.POSITION_X, spots.get( 0 ).getFeature( Spot.POSITION_X ) );
+		spots.get( 1 ).putFeature( Spot.POSITION_Y, spots.get( 0 ).getFeature( Spot.POSITION_Y ) );
+		spots.get( 1 ).putFeature( Spot.POSITION_Z, spots.get( 0 ).getFeature( Spot.POSITION_Z ) );
+		return spots;
+	}
+
+	private static void assertSameCosts( final CostFunction< Spot, Spot > expected, final IndexedCostFunction actual, final List< Spot > sources, final List< Spot > targets )
+	{
+		for ( int i = 0; i < sources.size(); i++ )
+		{
+			for ( int j = 0; j < targets.size(); j++ )
+			{
+				final double cost = expected.linkingCost( sources.get( i ), targets.get( j ) );
+				assertEquals( "Unexpected cost from source " + i + " to target " + j + ".", cost, actual.linkingCost( i, j ), 1e-12 * cost );
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsFeaturePenaltyCostFunction()
+	{
+		final Random ran = new Random( 5l );
+		final List< Spot > sources = createSpots( ran, 30 );
+		final List< Spot > targets = createSpots( ran, 40 );
+		final Map< String, Double > featurePenalties = new HashMap<>();
+		featurePenalties.put( FEATURE_A, 1. );
+		featurePenalties.put( FEATURE_B, 0.5 );
+
+		final FeaturePenaltyCostFunction costFunction = new FeaturePenaltyCostFunction( featurePenalties );
+		final IndexedCostFunction compiled = CompiledFeaturePenaltyCostFunction.compile( costFunction, sources, targets );
+		assertTrue( compiled instanceof CompiledFeaturePenaltyCostFunction );
+		assertSameCosts( costFunction, compiled, sources, targets );
+
+		// Sources and targets can be the same list.
+		assertSameCosts( costFunction, new CompiledFeaturePenaltyCostFunction( featurePenalties, sources, sources ), sources, sources );
+	}
+
+	@Test
+	public void testSameAsSquareDistCostFunction()
+	{
+		final Random ran = new Random( 7l );
+		final List< Spot > sources = createSpots( ran, 20 );
+		final List< Spot > targets = createSpots( ran, 25 );
+
+		final SquareDistCostFunction costFunction = new SquareDistCostFunction();
+		final IndexedCostFunction compiled = CompiledFeaturePenaltyCostFunction.compile( costFunction, sources, targets );
+		assertTrue( compiled instanceof CompiledFeaturePenaltyCostFunction );
+		assertSameCosts( costFunction, compiled, sources, targets );
+	}
+
+	@Test
+	public void testSubclassIsNotCompiled()
+	{
+		final Random ran = new Random( 11l );
+		final List< Spot > sources = createSpots( ran, 10 );
+		final List< Spot > targets = createSpots( ran, 10 );
+
+		final CostFunction< Spot, Spot > costFunction = new SquareDistCostFunction()
+		{
+			@Override
+			public double linkingCost( final Spot source, final Spot target )
+			{
+				return 2. * super.linkingCost( source, target );
+			}
+		};
+		final IndexedCostFunction compiled = CompiledFeaturePenaltyCostFunction.compile( costFunction, sources, targets );
+		assertSameCosts( costFunction, compiled, sources, targets );
+	}
+
+	@Test( expected = NullPointerException.class )
+	public void testMissingFeature()
+	{
+		final Random ran = new Random( 13l );
+		final List< Spot > sources = createSpots( ran, 5 );
+		final List< Spot > targets = createSpots( ran, 5 );
+		final Map< String, Double > featurePenalties = new HashMap<>();
+		featurePenalties.put( "NOT_A_FEATURE", 1. );
+		new CompiledFeaturePenaltyCostFunction( featurePenalties, sources, targets );
+	}
+}
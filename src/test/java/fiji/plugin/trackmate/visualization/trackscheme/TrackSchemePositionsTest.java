@@ -0,0 +1,98 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class TrackSchemePositionsTest
+{
+
+	private static final int N_ROWS = 40;
+
+	private static final int N_COLUMNS = 100;
+
+	@Test
+	public void testRectangleQueries()
+	{
+		final Random ran = new Random( 3l );
+		final List< Spot > spots = new ArrayList<>();
+		final List< int[] > cells = new ArrayList<>();
+		final TrackSchemePositions positions = new TrackSchemePositions( 4 );
+		final Set< Long > occupied = new HashSet<>();
+		while ( spots.size() < 1000 )
+		{
+			final int row = ran.nextInt( N_ROWS );
+			final int column = 1 + ran.nextInt( N_COLUMNS );
+			if ( !occupied.add( Long.valueOf( row * 1000l + column ) ) )
+				continue;
+			final Spot spot = new Spot( column, row, 0d, 1d, -1d );
+			final int reach = ran.nextInt( 10 );
+			positions.add( spot, row, column, reach );
+			spots.add( spot );
+			cells.add( new int[] { row, column, reach } );
+		}
+		positions.build( N_ROWS, 3 );
+
+		assertEquals( spots.size(), positions.size() );
+		assertEquals( 3, positions.getMaxRowSpan() );
+		int maxColumn = 0;
+		final int[] rowReaches = new int[ N_ROWS ];
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			final int index = positions.indexOf( spots.get( i ) );
+			assertEquals( i, index );
+			assertEquals( cells.get( i )[ 0 ], positions.getRow( index ) );
+			assertEquals( cells.get( i )[ 1 ], positions.getColumn( index ) );
+			maxColumn = Math.max( maxColumn, cells.get( i )[ 1 ] );
+			rowReaches[ cells.get( i )[ 0 ] ] = Math.max( rowReaches[ cells.get( i )[ 0 ] ], cells.get( i )[ 2 ] );
+		}
+		assertEquals( maxColumn, positions.getMaxColumn() );
+		for ( int row = 0; row < N_ROWS; row++ )
+			assertEquals( rowReaches[ row ], positions.getRowReach( row ) );
+		assertEquals( -1, positions.indexOf( new Spot( 0d, 0d, 0d, 1d, -1d ) ) );
+
+		// Compare rectangle queries to a brute-force search.
+		for ( int trial = 0; trial < 100; trial++ )
+		{
+			final int r0 = ran.nextInt( N_ROWS );
+			final int r1 = r0 + ran.nextInt( N_ROWS - r0 );
+			final int c0 = ran.nextInt( N_COLUMNS + 2 );
+			final int c1 = c0 + ran.nextInt( 20 );
+
+			final Set< Spot > expected = new HashSet<>();
+			for ( int i = 0; i < spots.size(); i++ )
+			{
+				final int[] cell = cells.get( i );
+				if ( cell[ 0 ] >= r0 && cell[ 0 ] <= r1 && cell[ 1 ] >= c0 && cell[ 1 ] <= c1 )
+					expected.add( spots.get( i ) );
+			}
+
+			final Set< Spot > actual = new HashSet<>();
+			for ( int row = r0; row <= r1; row++ )
+			{
+				int previousColumn = -1;
+				for ( int k = positions.lowerBound( row, c0 ); k < positions.rowEnd( row ); k++ )
+				{
+					final int i = positions.entry( k );
+					assertEquals( row, positions.getRow( i ) );
+					final int column = positions.getColumn( i );
+					assertTrue( "Columns must increase within a row.", column > previousColumn );
+					previousColumn = column;
+					if ( column > c1 )
+						break;
+					actual.add( positions.getSpot( i ) );
+				}
+			}
+			assertEquals( expected, actual );
+		}
+	}
+}